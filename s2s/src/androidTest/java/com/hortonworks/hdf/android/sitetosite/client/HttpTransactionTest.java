@@ -19,6 +19,7 @@ package com.hortonworks.hdf.android.sitetosite.client;
 
 import com.hortonworks.hdf.android.sitetosite.client.http.HttpPeerConnector;
 import com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction;
+import com.hortonworks.hdf.android.sitetosite.client.http.TransactionTtlExtender;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
 import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
@@ -34,6 +35,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.mockwebserver.RecordedRequest;
@@ -52,11 +54,19 @@ public class HttpTransactionTest {
     String portIdentifier;
     String transactionIdentifier;
     private MockScheduledExecutor scheduledThreadPoolExecutor;
+    private TransactionTtlExtender transactionTtlExtender;
     private MockNiFiS2SServer mockNiFiS2SServer;
 
     @Before
     public void setup() throws IOException {
         scheduledThreadPoolExecutor = new MockScheduledExecutor(1);
+        // Extend on the calling thread so the test can verify the request as soon as the scheduled task has run
+        transactionTtlExtender = new TransactionTtlExtender(scheduledThreadPoolExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
         mockNiFiS2SServer = new MockNiFiS2SServer();
 
         portIdentifier = "testPortIdentifier";
@@ -110,7 +120,7 @@ public class HttpTransactionTest {
 
         mockNiFiS2SServer.enqueuCreateTransaction(portIdentifier, null, 30);
         SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
-        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, scheduledThreadPoolExecutor);
+        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, transactionTtlExtender);
         mockNiFiS2SServer.verifyAssertions();
     }
 
@@ -121,7 +131,7 @@ public class HttpTransactionTest {
 
         mockNiFiS2SServer.enqueuCreateTransaction(portIdentifier, transactionIdentifier, 30, false);
         SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
-        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, scheduledThreadPoolExecutor);
+        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, transactionTtlExtender);
         mockNiFiS2SServer.verifyAssertions();
     }
 
@@ -132,7 +142,7 @@ public class HttpTransactionTest {
 
         mockNiFiS2SServer.enqueuCreateTransaction(portIdentifier, transactionIdentifier, null);
         SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
-        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, scheduledThreadPoolExecutor);
+        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, transactionTtlExtender);
         mockNiFiS2SServer.verifyAssertions();
     }
 
@@ -144,7 +154,7 @@ public class HttpTransactionTest {
 
         mockNiFiS2SServer.enqueuCreateTransaction(portIdentifier, transactionIdentifier, ttl);
         SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
-        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, scheduledThreadPoolExecutor);
+        new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, transactionTtlExtender);
         mockNiFiS2SServer.verifyAssertions();
     }
 
@@ -157,7 +167,7 @@ public class HttpTransactionTest {
         mockNiFiS2SServer.enqueuDataPackets(transactionPath, dataPackets, siteToSiteClientConfig);
 
         mockNiFiS2SServer.enqueueTransactionComplete(transactionPath, dataPackets.size(), ResponseCode.CONFIRM_TRANSACTION, ResponseCode.CONFIRM_TRANSACTION);
-        HttpTransaction httpTransaction = new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, scheduledThreadPoolExecutor);
+        HttpTransaction httpTransaction = new HttpTransaction(new HttpPeerConnector(mockNiFiS2SServer.getNifiApiUrl(), siteToSiteClientConfig, new SiteToSiteRemoteCluster()), portIdentifier, siteToSiteClientConfig, transactionTtlExtender);
         scheduledThreadPoolExecutor.getTtlExtender(15).run();
 
         for (DataPacket dataPacket : dataPackets) {
@@ -143,6 +143,49 @@ public class PeerTrackerTest {
         mockNiFiS2SServer.verifyAssertions();
     }
 
+    @Test
+    public void testGetPortIdentifierFromCachedSiteToSiteInfo() throws Exception {
+        String portIdentifier = "portId";
+        String portName = "portName";
+
+        siteToSiteClientConfig.setPortName(portName);
+        siteToSiteRemoteCluster.setPeerStatus(new PeerStatus(Arrays.asList(peer), System.currentTimeMillis()));
+        siteToSiteRemoteCluster.setSiteToSiteInfo(new SiteToSiteInfo(null, Collections.singletonList(new Port(portIdentifier, portName)), System.currentTimeMillis()));
+
+        assertEquals(portIdentifier, new HttpSiteToSiteClient(siteToSiteClientConfig, siteToSiteRemoteCluster).getPortIdentifier());
+        mockNiFiS2SServer.verifyAssertions();
+    }
+
+    @Test
+    public void testGetPortIdentifierExpiredSiteToSiteInfo() throws Exception {
+        String portIdentifier = "portId";
+        String portName = "portName";
+
+        siteToSiteClientConfig.setPortName(portName);
+        siteToSiteRemoteCluster.setPeerStatus(new PeerStatus(Arrays.asList(peer), System.currentTimeMillis()));
+        siteToSiteRemoteCluster.setSiteToSiteInfo(new SiteToSiteInfo(null, Collections.singletonList(new Port("oldPortId", portName)), 0L));
+        mockNiFiS2SServer.enqueueInputPorts(Collections.singletonMap(portName, portIdentifier));
+
+        assertEquals(portIdentifier, new HttpSiteToSiteClient(siteToSiteClientConfig, siteToSiteRemoteCluster).getPortIdentifier());
+        assertEquals(portIdentifier, siteToSiteRemoteCluster.getSiteToSiteInfo().getIdForInputPortName(portName));
+        mockNiFiS2SServer.verifyAssertions();
+    }
+
+    @Test
+    public void testGetPortIdentifierMissingFromCachedSiteToSiteInfo() throws Exception {
+        String portIdentifier = "portId";
+        String portName = "portName";
+
+        siteToSiteClientConfig.setPortName(portName);
+        siteToSiteRemoteCluster.setPeerStatus(new PeerStatus(Arrays.asList(peer), System.currentTimeMillis()));
+        siteToSiteRemoteCluster.setSiteToSiteInfo(new SiteToSiteInfo(null, Collections.singletonList(new Port("otherPortId", "otherPortName")), System.currentTimeMillis()));
+        mockNiFiS2SServer.enqueueInputPorts(Collections.singletonMap(portName, portIdentifier));
+
+        assertEquals(portIdentifier, new HttpSiteToSiteClient(siteToSiteClientConfig, siteToSiteRemoteCluster).getPortIdentifier());
+        assertEquals(portIdentifier, siteToSiteRemoteCluster.getSiteToSiteInfo().getIdForInputPortName(portName));
+        mockNiFiS2SServer.verifyAssertions();
+    }
+
     @Test
     public void testUnsuccessfulResponseCode() throws IOException {
         expectedException.expect(IOException.class);
@@ -31,6 +31,7 @@ import com.hortonworks.hdf.android.sitetosite.client.persistence.SiteToSiteDBTes
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
 import com.hortonworks.hdf.android.sitetosite.client.queued.DataPacketPrioritizer;
 import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.ChecksummedDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
 import com.hortonworks.hdf.android.sitetosite.util.Charsets;
 import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
@@ -44,6 +45,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -59,6 +61,7 @@ public class SQLiteDataPacketQueueTest {
     public static final String ID = "id";
 
     private SiteToSiteDB siteToSiteDB;
+    private SiteToSiteClientConfig siteToSiteClientConfig;
     private SQLiteDataPacketQueue sqLiteDataPacketQueue;
     private TestSiteToSiteClient siteToSiteClient;
 
@@ -66,7 +69,7 @@ public class SQLiteDataPacketQueueTest {
     public void setup() {
         siteToSiteDB = SiteToSiteDBTestUtil.getCleanSiteToSiteDB(InstrumentationRegistry.getContext());
         siteToSiteClient = new TestSiteToSiteClient();
-        SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig() {
+        siteToSiteClientConfig = new SiteToSiteClientConfig() {
             @Override
             public SiteToSiteClient createClient() throws IOException {
                 return siteToSiteClient;
@@ -88,6 +91,17 @@ public class SQLiteDataPacketQueueTest {
         assertDataPacketsMatchIterator(Collections.singletonList(byteArrayDataPacket));
     }
 
+    @Test
+    public void testEnqueuedContentIsChecksummed() throws IOException {
+        byte[] payload = "testPayload".getBytes(Charsets.UTF_8);
+        sqLiteDataPacketQueue.enqueue(new ByteArrayDataPacket(Collections.singletonMap("id", "testId"), payload));
+        DataPacket dataPacket = sqLiteDataPacketQueue.getSqLiteDataPacketIterator().next();
+        assertTrue(dataPacket instanceof ChecksummedDataPacket);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        assertEquals(crc.getValue(), ((ChecksummedDataPacket) dataPacket).getContentCrc());
+    }
+
     @Test
     public void testMultipleIteratorsInsertNullPriorityNoTtlWithFailures() throws IOException {
         List<DataPacket> dataPackets = new ArrayList<>();
@@ -275,6 +289,133 @@ public class SQLiteDataPacketQueueTest {
         }
     }
 
+    @Test
+    public void testFragmentsLargePackets() throws IOException {
+        sqLiteDataPacketQueue = new SQLiteDataPacketQueue(siteToSiteClientConfig, siteToSiteDB, new TestDataPacketPrioritizer(), MAX_ROWS, 0, TimeUnit.MINUTES.toMillis(1), 100);
+        byte[] payload = new byte[250];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(ID, "large");
+        attributes.put(SQLiteDataPacketQueue.FILENAME, "large.bin");
+        List<DataPacket> dataPackets = new ArrayList<>();
+        dataPackets.add(new ByteArrayDataPacket(attributes, payload));
+        dataPackets.add(new ByteArrayDataPacket(Collections.singletonMap(ID, "small"), new byte[100]));
+        sqLiteDataPacketQueue.enqueue(dataPackets.iterator());
+
+        SQLiteDataPacketIterator sqLiteDataPacketIterator = sqLiteDataPacketQueue.getSqLiteDataPacketIterator();
+        assertEquals(Collections.singletonMap(ID, "small"), sqLiteDataPacketIterator.next().getAttributes());
+        byte[][] fragments = new byte[3][];
+        String fragmentIdentifier = null;
+        while (sqLiteDataPacketIterator.hasNext()) {
+            DataPacket fragment = sqLiteDataPacketIterator.next();
+            Map<String, String> fragmentAttributes = fragment.getAttributes();
+            assertEquals("large", fragmentAttributes.get(ID));
+            assertEquals("large.bin", fragmentAttributes.get(SQLiteDataPacketQueue.SEGMENT_ORIGINAL_FILENAME));
+            assertEquals("3", fragmentAttributes.get(SQLiteDataPacketQueue.FRAGMENT_COUNT));
+            if (fragmentIdentifier == null) {
+                fragmentIdentifier = fragmentAttributes.get(SQLiteDataPacketQueue.FRAGMENT_IDENTIFIER);
+            }
+            assertEquals(fragmentIdentifier, fragmentAttributes.get(SQLiteDataPacketQueue.FRAGMENT_IDENTIFIER));
+            fragments[Integer.parseInt(fragmentAttributes.get(SQLiteDataPacketQueue.FRAGMENT_INDEX)) - 1] = IOUtils.readInputStream(fragment.getData());
+        }
+        sqLiteDataPacketIterator.transactionComplete();
+
+        assertEquals(100, fragments[0].length);
+        assertEquals(100, fragments[1].length);
+        assertEquals(50, fragments[2].length);
+        byte[] reassembled = new byte[payload.length];
+        for (int i = 0; i < fragments.length; i++) {
+            System.arraycopy(fragments[i], 0, reassembled, i * 100, fragments[i].length);
+        }
+        assertArrayEquals(payload, reassembled);
+    }
+
+    @Test
+    public void testFailedFragmentsResumeWithoutConfirmedOnes() throws IOException {
+        sqLiteDataPacketQueue = new SQLiteDataPacketQueue(siteToSiteClientConfig, siteToSiteDB, new TestDataPacketPrioritizer(), MAX_ROWS, 0, TimeUnit.MINUTES.toMillis(1), 10);
+        // 25 fragments, 3 transactions of at most ITERATOR_SIZE_LIMIT
+        sqLiteDataPacketQueue.enqueue(new ByteArrayDataPacket(Collections.singletonMap(ID, "large"), new byte[250]));
+
+        SQLiteDataPacketIterator sqLiteDataPacketIterator = sqLiteDataPacketQueue.getSqLiteDataPacketIterator();
+        List<String> confirmed = drainFragmentIndices(sqLiteDataPacketIterator);
+        sqLiteDataPacketIterator.transactionComplete();
+        sqLiteDataPacketIterator = sqLiteDataPacketQueue.getSqLiteDataPacketIterator();
+        List<String> failed = drainFragmentIndices(sqLiteDataPacketIterator);
+        sqLiteDataPacketIterator.transactionFailed();
+
+        List<String> remaining = new ArrayList<>();
+        sqLiteDataPacketIterator = sqLiteDataPacketQueue.getSqLiteDataPacketIterator();
+        while (sqLiteDataPacketIterator.hasNext()) {
+            remaining.addAll(drainFragmentIndices(sqLiteDataPacketIterator));
+            sqLiteDataPacketIterator.transactionComplete();
+            sqLiteDataPacketIterator = sqLiteDataPacketQueue.getSqLiteDataPacketIterator();
+        }
+        assertEquals(ITERATOR_SIZE_LIMIT, confirmed.size());
+        assertEquals(15, remaining.size());
+        assertTrue(remaining.containsAll(failed));
+        for (String index : confirmed) {
+            assertFalse(remaining.contains(index));
+        }
+    }
+
+    @Test
+    public void testAgeOffRowCountTakesWholeFragmentedPacket() throws IOException {
+        sqLiteDataPacketQueue = new SQLiteDataPacketQueue(siteToSiteClientConfig, siteToSiteDB, new TestDataPacketPrioritizer(), 3, 0, TimeUnit.MINUTES.toMillis(1), 100);
+        DataPacket newest = enqueueAroundFragmentedPacket();
+
+        SQLiteDatabase writableDatabase = siteToSiteDB.getWritableDatabase();
+        try {
+            // The oldest packet and the first fragment go over the row count, the other fragments can't be defragmented without it
+            sqLiteDataPacketQueue.ageOffRowCount(writableDatabase);
+        } finally {
+            writableDatabase.close();
+        }
+
+        assertDataPacketsMatchIterator(Collections.singletonList(newest));
+    }
+
+    @Test
+    public void testSizeAgeOffTakesWholeFragmentedPacket() throws IOException {
+        DataPacket newestSizing = new ByteArrayDataPacket(Collections.singletonMap(ID, "newest"), new byte[10]);
+        // Room for the newest packet and less than two 100 byte fragments with their attributes
+        long maxSize = sqLiteDataPacketQueue.getAttributesBytes(newestSizing).length + newestSizing.getSize() + 200;
+        sqLiteDataPacketQueue = new SQLiteDataPacketQueue(siteToSiteClientConfig, siteToSiteDB, new TestDataPacketPrioritizer(), MAX_ROWS, maxSize, TimeUnit.MINUTES.toMillis(1), 100);
+        DataPacket newest = enqueueAroundFragmentedPacket();
+
+        SQLiteDatabase writableDatabase = siteToSiteDB.getWritableDatabase();
+        writableDatabase.beginTransaction();
+        try {
+            sqLiteDataPacketQueue.ageOffSize(writableDatabase);
+            writableDatabase.setTransactionSuccessful();
+        } finally {
+            writableDatabase.endTransaction();
+            writableDatabase.close();
+        }
+
+        assertDataPacketsMatchIterator(Collections.singletonList(newest));
+    }
+
+    /**
+     * Queues an old packet, a packet fragmented into 3 rows and the returned new packet in that order
+     */
+    private DataPacket enqueueAroundFragmentedPacket() throws IOException {
+        sqLiteDataPacketQueue.enqueue(new ByteArrayDataPacket(Collections.singletonMap(ID, "oldest"), new byte[10]));
+        sqLiteDataPacketQueue.enqueue(new ByteArrayDataPacket(Collections.singletonMap(ID, "large"), new byte[250]));
+        DataPacket newest = new ByteArrayDataPacket(Collections.singletonMap(ID, "newest"), new byte[10]);
+        sqLiteDataPacketQueue.enqueue(newest);
+        return newest;
+    }
+
+    private static List<String> drainFragmentIndices(SQLiteDataPacketIterator sqLiteDataPacketIterator) throws IOException {
+        List<String> indices = new ArrayList<>();
+        while (sqLiteDataPacketIterator.hasNext()) {
+            indices.add(sqLiteDataPacketIterator.next().getAttributes().get(SQLiteDataPacketQueue.FRAGMENT_INDEX));
+        }
+        return indices;
+    }
+
     private void assertDataPacketsMatchIterator(List<? extends DataPacket> expected) throws IOException {
         for (int fromIndex = 0; fromIndex < expected.size(); fromIndex += ITERATOR_SIZE_LIMIT) {
             SQLiteDataPacketIterator sqLiteDataPacketIterator = sqLiteDataPacketQueue.getSqLiteDataPacketIterator();
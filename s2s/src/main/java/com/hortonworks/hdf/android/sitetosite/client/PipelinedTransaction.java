@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client;
+
+import java.io.IOException;
+
+/**
+ * A {@link Transaction} that can start creating the next transaction on the peer while it is being confirmed.  Callers
+ * that know they are about to send another transaction confirm with {@link #confirmBeforeNext()} so that a client's last
+ * transaction doesn't leave an unused one to be cancelled.
+ */
+public interface PipelinedTransaction extends Transaction {
+
+    /**
+     * Confirms the sent data and verifies the checksum like {@link #confirm()}, creating the next transaction in the
+     * background if the client pipelines transactions
+     *
+     * @throws IOException if there is a problem confirming or verifying the checksum
+     */
+    void confirmBeforeNext() throws IOException;
+}
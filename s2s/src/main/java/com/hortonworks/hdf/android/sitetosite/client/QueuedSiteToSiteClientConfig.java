@@ -29,12 +29,18 @@ import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 public class QueuedSiteToSiteClientConfig extends SiteToSiteClientConfig {
+    /**
+     * The largest fragment that still leaves room for its attributes in the 2MB an Android cursor window can hold
+     */
+    public static final int MAX_FRAGMENT_SIZE = 2 * 1024 * 1024 - 64 * 1024;
+
     public enum QueueType {
         DB("SQLite DB", new QueuedSiteToSiteClientFactory() {
             @Override
             public QueuedSiteToSiteClient create(Context context, QueuedSiteToSiteClientConfig queuedSiteToSiteClientConfig) throws IOException {
                 return new SQLiteDataPacketQueue(queuedSiteToSiteClientConfig, new SiteToSiteDB(context), queuedSiteToSiteClientConfig.dataPacketPrioritizer,
-                        queuedSiteToSiteClientConfig.maxRows, queuedSiteToSiteClientConfig.maxSize, queuedSiteToSiteClientConfig.maxTransactionTimeMillis);
+                        queuedSiteToSiteClientConfig.maxRows, queuedSiteToSiteClientConfig.maxSize, queuedSiteToSiteClientConfig.maxTransactionTimeMillis,
+                        queuedSiteToSiteClientConfig.fragmentSize);
             }
         });
         private final String displayName;
@@ -50,6 +56,7 @@ public class QueuedSiteToSiteClientConfig extends SiteToSiteClientConfig {
     private long maxTransactionTimeMillis = TimeUnit.MINUTES.toMillis(10);
     private DataPacketPrioritizer dataPacketPrioritizer = new NoOpDataPacketPrioritizer();
     private QueueType queueType = QueueType.DB;
+    private int fragmentSize = 0;
 
     public static final Creator<QueuedSiteToSiteClientConfig> CREATOR = new Creator<QueuedSiteToSiteClientConfig>() {
         @Override
@@ -60,6 +67,7 @@ public class QueuedSiteToSiteClientConfig extends SiteToSiteClientConfig {
             result.maxTransactionTimeMillis = source.readLong();
             result.dataPacketPrioritizer = source.readParcelable(QueuedSiteToSiteClientConfig.class.getClassLoader());
             result.queueType = QueueType.valueOf(source.readString());
+            result.fragmentSize = source.readInt();
             return result;
         }
 
@@ -117,6 +125,30 @@ public class QueuedSiteToSiteClientConfig extends SiteToSiteClientConfig {
         this.maxTransactionTimeMillis = duration.toMillis(maxTransactionTime);
     }
 
+    /**
+     * Returns the size in bytes above which queued packets are split into fragments
+     *
+     * @return the fragment size, 0 if packets are queued whole
+     */
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Sets the size in bytes above which queued packets are split into fragments carrying fragment.identifier,
+     * fragment.index and fragment.count attributes for MergeContent to defragment.  Each fragment is acknowledged on its
+     * own so a transfer that fails part way through only resends the fragments that weren't confirmed.
+     *
+     * @param fragmentSize the fragment size, 0 to queue packets whole
+     * @throws IllegalArgumentException if the size is negative or over {@link #MAX_FRAGMENT_SIZE}
+     */
+    public void setFragmentSize(int fragmentSize) {
+        if (fragmentSize < 0 || fragmentSize > MAX_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("Fragment size must be between 0 and " + MAX_FRAGMENT_SIZE + " bytes, got " + fragmentSize);
+        }
+        this.fragmentSize = fragmentSize;
+    }
+
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
@@ -125,6 +157,7 @@ public class QueuedSiteToSiteClientConfig extends SiteToSiteClientConfig {
         dest.writeLong(maxTransactionTimeMillis);
         dest.writeParcelable(dataPacketPrioritizer, 0);
         dest.writeString(queueType.name());
+        dest.writeInt(fragmentSize);
     }
 
     public QueuedSiteToSiteClient createQueuedClient(Context context) throws IOException {
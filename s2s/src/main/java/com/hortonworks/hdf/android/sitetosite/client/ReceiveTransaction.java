@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client;
+
+import com.hortonworks.hdf.android.sitetosite.packet.ReceivedDataPacket;
+
+import java.io.IOException;
+
+/**
+ * Transaction pulling data from a NiFi output port.  Packets are only read off the connection as they are received so a slow
+ * receiver holds NiFi back instead of buffering.
+ */
+public interface ReceiveTransaction {
+
+    /**
+     * Receives the next dataPacket from NiFi, its content is written to a file that the caller is responsible for
+     *
+     * @return the dataPacket or null if NiFi has no more data in this transaction
+     * @throws IOException if there is an error receiving it
+     */
+    ReceivedDataPacket receive() throws IOException;
+
+    /**
+     * Confirms the received data with NiFi by verifying the checksum, all data packets must have been received first
+     *
+     * @throws IOException if there is a problem confirming or verifying the checksum
+     */
+    void confirm() throws IOException;
+
+    /**
+     * Completes the transaction so that NiFi removes the received data from its queue, confirming first if necessary
+     *
+     * @return a transaction result
+     * @throws IOException if there is a problem completing the transaction
+     */
+    TransactionResult complete() throws IOException;
+
+    /**
+     * Cancels the transaction, NiFi keeps the data queued
+     *
+     * @return a transaction result
+     * @throws IOException if there is a problem canceling the transaction
+     */
+    TransactionResult cancel() throws IOException;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A {@link SiteToSiteClient} that can also pull data from an output port.  It is a separate interface so that existing
+ * {@link SiteToSiteClient} implementations don't have to support receiving.
+ */
+public interface ReceivingSiteToSiteClient extends SiteToSiteClient {
+    /**
+     * Creates a transaction that will receive data from the configured output port of a particular peer
+     *
+     * @param directory the directory received content is written to
+     * @return the transaction
+     * @throws IOException if there was a problem creating the transaction with all known peers
+     */
+    ReceiveTransaction createReceiveTransaction(File directory) throws IOException;
+}
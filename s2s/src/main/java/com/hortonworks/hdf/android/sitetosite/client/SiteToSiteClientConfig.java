@@ -22,6 +22,7 @@ import android.os.Parcelable;
 
 import com.hortonworks.hdf.android.sitetosite.client.http.HttpSiteToSiteClient;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -51,6 +52,20 @@ public class SiteToSiteClientConfig implements Parcelable {
             result.preferredBatchSize = source.readLong();
             result.preferredBatchCount = source.readInt();
             result.peerUpdateIntervalNanos = source.readLong();
+            result.pipelineTransactions = Boolean.valueOf(source.readString());
+            result.connectTimeoutNanos = source.readLong();
+            result.peerConnectConcurrency = source.readInt();
+            result.outputPortName = source.readString();
+            result.outputPortIdentifier = source.readString();
+            result.socketSendBufferSize = source.readInt();
+            result.socketReceiveBufferSize = source.readInt();
+            result.tcpNoDelay = Boolean.valueOf(source.readString());
+            result.socketKeepAlive = Boolean.valueOf(source.readString());
+            result.socketTrafficClass = source.readInt();
+            result.compressionThreads = source.readInt();
+            result.adaptiveCompression = Boolean.valueOf(source.readString());
+            result.compressionDictionary = source.createByteArray();
+            result.splitTransactions = Boolean.valueOf(source.readString());
             return result;
         }
 
@@ -71,6 +86,20 @@ public class SiteToSiteClientConfig implements Parcelable {
     private long preferredBatchSize;
     private int preferredBatchCount = 100;
     private long peerUpdateIntervalNanos = TimeUnit.MINUTES.toNanos(30);
+    private boolean pipelineTransactions;
+    private long connectTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private int peerConnectConcurrency = 1;
+    private String outputPortName;
+    private String outputPortIdentifier;
+    private int socketSendBufferSize;
+    private int socketReceiveBufferSize;
+    private boolean tcpNoDelay = true;
+    private boolean socketKeepAlive;
+    private int socketTrafficClass;
+    private int compressionThreads = 1;
+    private boolean adaptiveCompression;
+    private byte[] compressionDictionary;
+    private boolean splitTransactions;
 
     public SiteToSiteClientConfig() {
 
@@ -92,6 +121,20 @@ public class SiteToSiteClientConfig implements Parcelable {
         this.preferredBatchSize = siteToSiteClientConfig.getPreferredBatchSize();
         this.preferredBatchCount = siteToSiteClientConfig.getPreferredBatchCount();
         this.peerUpdateIntervalNanos = siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.NANOSECONDS);
+        this.pipelineTransactions = siteToSiteClientConfig.isPipelineTransactions();
+        this.connectTimeoutNanos = siteToSiteClientConfig.getConnectTimeout(TimeUnit.NANOSECONDS);
+        this.peerConnectConcurrency = siteToSiteClientConfig.getPeerConnectConcurrency();
+        this.outputPortName = siteToSiteClientConfig.getOutputPortName();
+        this.outputPortIdentifier = siteToSiteClientConfig.getOutputPortIdentifier();
+        this.socketSendBufferSize = siteToSiteClientConfig.getSocketSendBufferSize();
+        this.socketReceiveBufferSize = siteToSiteClientConfig.getSocketReceiveBufferSize();
+        this.tcpNoDelay = siteToSiteClientConfig.isTcpNoDelay();
+        this.socketKeepAlive = siteToSiteClientConfig.isSocketKeepAlive();
+        this.socketTrafficClass = siteToSiteClientConfig.getSocketTrafficClass();
+        this.compressionThreads = siteToSiteClientConfig.getCompressionThreads();
+        this.adaptiveCompression = siteToSiteClientConfig.isAdaptiveCompression();
+        this.compressionDictionary = siteToSiteClientConfig.getCompressionDictionary();
+        this.splitTransactions = siteToSiteClientConfig.isSplitTransactions();
     }
 
     @Override
@@ -114,6 +157,20 @@ public class SiteToSiteClientConfig implements Parcelable {
         dest.writeLong(preferredBatchSize);
         dest.writeInt(preferredBatchCount);
         dest.writeLong(peerUpdateIntervalNanos);
+        dest.writeString(Boolean.toString(pipelineTransactions));
+        dest.writeLong(connectTimeoutNanos);
+        dest.writeInt(peerConnectConcurrency);
+        dest.writeString(outputPortName);
+        dest.writeString(outputPortIdentifier);
+        dest.writeInt(socketSendBufferSize);
+        dest.writeInt(socketReceiveBufferSize);
+        dest.writeString(Boolean.toString(tcpNoDelay));
+        dest.writeString(Boolean.toString(socketKeepAlive));
+        dest.writeInt(socketTrafficClass);
+        dest.writeInt(compressionThreads);
+        dest.writeString(Boolean.toString(adaptiveCompression));
+        dest.writeByteArray(compressionDictionary);
+        dest.writeString(Boolean.toString(splitTransactions));
     }
 
     public List<SiteToSiteRemoteCluster> getRemoteClusters() {
@@ -188,6 +245,42 @@ public class SiteToSiteClientConfig implements Parcelable {
         this.portIdentifier = portIdentifier;
     }
 
+    /**
+     * Gets the port name data will be received from
+     *
+     * @return the port name data will be received from
+     */
+    public String getOutputPortName() {
+        return outputPortName;
+    }
+
+    /**
+     * Sets the port name data will be received from
+     *
+     * @param outputPortName the port name data will be received from
+     */
+    public void setOutputPortName(String outputPortName) {
+        this.outputPortName = outputPortName;
+    }
+
+    /**
+     * Gets the port identifier data will be received from
+     *
+     * @return the port identifier data will be received from
+     */
+    public String getOutputPortIdentifier() {
+        return outputPortIdentifier;
+    }
+
+    /**
+     * Sets the port identifier data will be received from
+     *
+     * @param outputPortIdentifier the port identifier data will be received from
+     */
+    public void setOutputPortIdentifier(String outputPortIdentifier) {
+        this.outputPortIdentifier = outputPortIdentifier;
+    }
+
     /**
      * Gets the preferred batch duration
      *
@@ -294,8 +387,241 @@ public class SiteToSiteClientConfig implements Parcelable {
         this.idleConnectionExpirationNanos = timeUnit.toNanos(idleConnectionExpiration);
     }
 
+    /**
+     * Returns a boolean indicating whether the next transaction will be created while the current one is being confirmed (HTTP only)
+     *
+     * @return a boolean indicating whether the next transaction will be created while the current one is being confirmed
+     */
+    public boolean isPipelineTransactions() {
+        return pipelineTransactions;
+    }
+
+    /**
+     * Sets a boolean indicating whether the next transaction will be created while the current one is being confirmed (HTTP only)
+     *
+     * @param pipelineTransactions a boolean indicating whether the next transaction will be created while the current one is being confirmed
+     */
+    public void setPipelineTransactions(boolean pipelineTransactions) {
+        this.pipelineTransactions = pipelineTransactions;
+    }
+
+    /**
+     * Gets the time allowed for establishing a connection to a peer
+     *
+     * @param timeUnit the time unit
+     * @return the connect timeout
+     */
+    public long getConnectTimeout(TimeUnit timeUnit) {
+        return timeUnit.convert(connectTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the time allowed for establishing a connection to a peer
+     *
+     * @param connectTimeout the connect timeout
+     * @param timeUnit       the time unit
+     */
+    public void setConnectTimeout(long connectTimeout, TimeUnit timeUnit) {
+        this.connectTimeoutNanos = timeUnit.toNanos(connectTimeout);
+    }
+
+    /**
+     * Gets the number of top peers that will be dialed at the same time when creating a transaction, the first to connect is used (RAW only)
+     *
+     * @return the number of peers to dial at the same time
+     */
+    public int getPeerConnectConcurrency() {
+        return peerConnectConcurrency;
+    }
+
+    /**
+     * Sets the number of top peers that will be dialed at the same time when creating a transaction, the first to connect is used (RAW only)
+     *
+     * @param peerConnectConcurrency the number of peers to dial at the same time
+     */
+    public void setPeerConnectConcurrency(int peerConnectConcurrency) {
+        this.peerConnectConcurrency = peerConnectConcurrency;
+    }
+
+    /**
+     * Gets the socket send buffer size requested for RAW connections, 0 leaves it to the OS
+     *
+     * @return the socket send buffer size in bytes
+     */
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    /**
+     * Sets the socket send buffer size requested for RAW connections, 0 leaves it to the OS
+     *
+     * @param socketSendBufferSize the socket send buffer size in bytes
+     */
+    public void setSocketSendBufferSize(int socketSendBufferSize) {
+        this.socketSendBufferSize = socketSendBufferSize;
+    }
+
+    /**
+     * Gets the socket receive buffer size requested for RAW connections, 0 leaves it to the OS.  It is set before
+     * connecting so that it can determine the TCP window scale.
+     *
+     * @return the socket receive buffer size in bytes
+     */
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    /**
+     * Sets the socket receive buffer size requested for RAW connections, 0 leaves it to the OS
+     *
+     * @param socketReceiveBufferSize the socket receive buffer size in bytes
+     */
+    public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+    }
+
+    /**
+     * Returns a boolean indicating whether Nagle's algorithm is disabled on RAW and HTTP2 connections
+     *
+     * @return a boolean indicating whether TCP_NODELAY is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets a boolean indicating whether Nagle's algorithm is disabled on RAW and HTTP2 connections
+     *
+     * @param tcpNoDelay a boolean indicating whether TCP_NODELAY is set
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Returns a boolean indicating whether TCP keepalive is enabled on RAW connections
+     *
+     * @return a boolean indicating whether SO_KEEPALIVE is set
+     */
+    public boolean isSocketKeepAlive() {
+        return socketKeepAlive;
+    }
+
+    /**
+     * Sets a boolean indicating whether TCP keepalive is enabled on RAW connections
+     *
+     * @param socketKeepAlive a boolean indicating whether SO_KEEPALIVE is set
+     */
+    public void setSocketKeepAlive(boolean socketKeepAlive) {
+        this.socketKeepAlive = socketKeepAlive;
+    }
+
+    /**
+     * Gets the IP traffic class (type of service) of RAW connections, 0 leaves it to the OS
+     *
+     * @return the traffic class
+     */
+    public int getSocketTrafficClass() {
+        return socketTrafficClass;
+    }
+
+    /**
+     * Sets the IP traffic class (type of service) of RAW connections, 0 leaves it to the OS
+     *
+     * @param socketTrafficClass the traffic class
+     */
+    public void setSocketTrafficClass(int socketTrafficClass) {
+        this.socketTrafficClass = socketTrafficClass;
+    }
+
+    /**
+     * Gets the number of chunks of a transaction that can be compressed at the same time, 1 compresses on the sending thread
+     *
+     * @return the number of chunks compressed in parallel
+     */
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Sets the number of chunks of a transaction that can be compressed at the same time, 1 compresses on the sending thread
+     *
+     * @param compressionThreads the number of chunks compressed in parallel
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Gets whether compression stores chunks that don't compress and adjusts its level to the speed of the connection
+     *
+     * @return whether compression is adaptive
+     */
+    public boolean isAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    /**
+     * Sets whether compression stores chunks that don't compress and adjusts its level to the speed of the connection
+     *
+     * @param adaptiveCompression whether compression is adaptive
+     */
+    public void setAdaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    /**
+     * Gets the preset dictionary compressed HTTP transactions are primed with when the server acknowledges it
+     *
+     * @return the compression dictionary (may be null)
+     */
+    public byte[] getCompressionDictionary() {
+        return compressionDictionary;
+    }
+
+    /**
+     * Sets the preset dictionary compressed HTTP transactions are primed with when the server acknowledges it, see
+     * {@link com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionDictionary#train(java.util.Iterator)}
+     *
+     * @param compressionDictionary the compression dictionary (null for none)
+     */
+    public void setCompressionDictionary(byte[] compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    /**
+     * Gets whether packets sent through the service are split into transactions that stay within the preferred batch
+     * count, size and duration
+     *
+     * @return whether sends are split
+     */
+    public boolean isSplitTransactions() {
+        return splitTransactions;
+    }
+
+    /**
+     * Sets whether packets sent through the service are split into transactions that stay within the preferred batch
+     * count, size and duration.  Each transaction is still all or nothing but a failure can leave earlier ones delivered.
+     *
+     * @param splitTransactions whether sends are split
+     */
+    public void setSplitTransactions(boolean splitTransactions) {
+        this.splitTransactions = splitTransactions;
+    }
+
     public SiteToSiteClient createClient() throws IOException {
-        return new SiteToSiteClient() {
+        return createReceivingClient();
+    }
+
+    /**
+     * Creates a client that can also receive from the configured output port, failing over between the remote clusters
+     * like {@link #createClient()}
+     *
+     * @return the client
+     * @throws IOException if the client can't be created
+     */
+    public ReceivingSiteToSiteClient createReceivingClient() throws IOException {
+        return new ReceivingSiteToSiteClient() {
             SiteToSiteRemoteCluster lastCluster = null;
             SiteToSiteClient lastClient = null;
 
@@ -307,12 +633,7 @@ public class SiteToSiteClientConfig implements Parcelable {
                 IOException lastException = null;
                 for (SiteToSiteRemoteCluster remoteCluster : remoteClusters) {
                     try {
-                        SiteToSiteClient client;
-                        if (remoteCluster.equals(lastCluster)) {
-                            client = lastClient;
-                        } else {
-                            client = remoteCluster.getClientType().getFactory().create(SiteToSiteClientConfig.this, remoteCluster);
-                        }
+                        SiteToSiteClient client = getClient(remoteCluster);
                         Transaction transaction = client.createTransaction();
                         lastClient = client;
                         lastCluster = remoteCluster;
@@ -323,6 +644,36 @@ public class SiteToSiteClientConfig implements Parcelable {
                 }
                 throw lastException;
             }
+
+            @Override
+            public ReceiveTransaction createReceiveTransaction(File directory) throws IOException {
+                if (remoteClusters.size() == 0) {
+                    throw new IOException(NO_REMOTE_CLUSTERS_CONFIGURED);
+                }
+                IOException lastException = null;
+                for (SiteToSiteRemoteCluster remoteCluster : remoteClusters) {
+                    try {
+                        SiteToSiteClient client = getClient(remoteCluster);
+                        if (!(client instanceof ReceivingSiteToSiteClient)) {
+                            throw new IOException(remoteCluster.getClientType().getDisplayName() + " clients can't receive data");
+                        }
+                        ReceiveTransaction receiveTransaction = ((ReceivingSiteToSiteClient) client).createReceiveTransaction(directory);
+                        lastClient = client;
+                        lastCluster = remoteCluster;
+                        return receiveTransaction;
+                    } catch (IOException e) {
+                        lastException = e;
+                    }
+                }
+                throw lastException;
+            }
+
+            private SiteToSiteClient getClient(SiteToSiteRemoteCluster remoteCluster) throws IOException {
+                if (remoteCluster.equals(lastCluster)) {
+                    return lastClient;
+                }
+                return remoteCluster.getClientType().getFactory().create(SiteToSiteClientConfig.this, remoteCluster);
+            }
         };
     }
 }
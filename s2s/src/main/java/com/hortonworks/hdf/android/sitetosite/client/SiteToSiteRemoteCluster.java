@@ -22,6 +22,7 @@ import android.os.Parcelable;
 
 import com.hortonworks.hdf.android.sitetosite.client.http.HttpSiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerStatus;
+import com.hortonworks.hdf.android.sitetosite.client.peer.SiteToSiteInfo;
 import com.hortonworks.hdf.android.sitetosite.client.socket.SocketSiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.util.SerializationUtils;
 
@@ -31,6 +32,7 @@ import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -42,6 +44,7 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
 
 public class SiteToSiteRemoteCluster implements Parcelable {
     public enum ClientType {
@@ -56,7 +59,19 @@ public class SiteToSiteRemoteCluster implements Parcelable {
             public SiteToSiteClient create(SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster) throws IOException {
                 return new SocketSiteToSiteClient(siteToSiteClientConfig, siteToSiteRemoteCluster);
             }
-        }, "RAW");
+        }, "RAW"),
+        RAW_NIO(new SiteToSiteClientFactory(){
+            @Override
+            public SiteToSiteClient create(SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster) throws IOException {
+                return new SocketSiteToSiteClient(siteToSiteClientConfig, siteToSiteRemoteCluster);
+            }
+        }, "RAW (NIO)"),
+        HTTP2(new SiteToSiteClientFactory(){
+            @Override
+            public SiteToSiteClient create(SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster) throws IOException {
+                return new HttpSiteToSiteClient(siteToSiteClientConfig, siteToSiteRemoteCluster);
+            }
+        }, "HTTP/2");
 
         private final SiteToSiteClientFactory factory;
         private final String displayName;
@@ -92,6 +107,8 @@ public class SiteToSiteRemoteCluster implements Parcelable {
     private String username;
     private String password;
     private ClientType clientType = ClientType.HTTP;
+    private SiteToSiteInfo siteToSiteInfo;
+    private volatile SSLContext sslContext;
 
     public static final Creator<SiteToSiteRemoteCluster> CREATOR = new Creator<SiteToSiteRemoteCluster>() {
         @Override
@@ -115,6 +132,7 @@ public class SiteToSiteRemoteCluster implements Parcelable {
             siteToSiteRemoteCluster.username = source.readString();
             siteToSiteRemoteCluster.password = source.readString();
             siteToSiteRemoteCluster.clientType = ClientType.valueOf(source.readString());
+            siteToSiteRemoteCluster.siteToSiteInfo = source.readParcelable(SiteToSiteRemoteCluster.class.getClassLoader());
             return siteToSiteRemoteCluster;
         }
 
@@ -136,6 +154,7 @@ public class SiteToSiteRemoteCluster implements Parcelable {
         this.truststoreFilename = siteToSiteRemoteCluster.truststoreFilename;
         this.truststorePassword = siteToSiteRemoteCluster.truststorePassword;
         this.truststoreType = siteToSiteRemoteCluster.truststoreType;
+        this.sslContext = siteToSiteRemoteCluster.sslContext;
         this.proxyHost = siteToSiteRemoteCluster.getProxyHost();
         this.proxyPort = siteToSiteRemoteCluster.getProxyPort();
         this.proxyAuthorizationType = siteToSiteRemoteCluster.getProxyAuthorizationType();
@@ -145,6 +164,7 @@ public class SiteToSiteRemoteCluster implements Parcelable {
         this.username = siteToSiteRemoteCluster.getUsername();
         this.password = siteToSiteRemoteCluster.getPassword();
         this.clientType = siteToSiteRemoteCluster.getClientType();
+        this.siteToSiteInfo = siteToSiteRemoteCluster.getSiteToSiteInfo();
     }
 
     /**
@@ -167,17 +187,27 @@ public class SiteToSiteRemoteCluster implements Parcelable {
 
 
     /**
-     * Gets the ssl context for use making the connections
+     * Gets the ssl context for use making the connections.  It is created once and reused until the keystore or truststore
+     * settings change so that stores aren't reloaded for every connection and TLS sessions can be resumed.
      *
      * @return the ssl context
      */
     public SSLContext getSslContext() {
+        SSLContext sslContext = this.sslContext;
+        if (sslContext == null) {
+            sslContext = createSslContext();
+            this.sslContext = sslContext;
+        }
+        return sslContext;
+    }
+
+    private SSLContext createSslContext() {
         KeyManager[] keyManagers = getKeyManagers();
         TrustManager[] trustManagers = getTrustManagers();
         if (keyManagers != null || trustManagers != null) {
             try {
                 SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(getKeyManagers(), trustManagers, null);
+                sslContext.init(keyManagers, trustManagers, null);
                 sslContext.getDefaultSSLParameters().setNeedClientAuth(true);
                 return sslContext;
             } catch (Exception e) {
@@ -188,6 +218,30 @@ public class SiteToSiteRemoteCluster implements Parcelable {
         }
     }
 
+    /**
+     * Gets the trust manager used to verify peers, the platform default one if no truststore is configured
+     *
+     * @return the trust manager
+     */
+    public X509TrustManager getX509TrustManager() {
+        TrustManager[] trustManagers = getTrustManagers();
+        if (trustManagers == null) {
+            try {
+                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trustManagerFactory.init((KeyStore) null);
+                trustManagers = trustManagerFactory.getTrustManagers();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to load default trust managers", e);
+            }
+        }
+        for (TrustManager trustManager : trustManagers) {
+            if (trustManager instanceof X509TrustManager) {
+                return (X509TrustManager) trustManager;
+            }
+        }
+        throw new IllegalStateException("No X509TrustManager found in " + Arrays.toString(trustManagers));
+    }
+
     private KeyManager[] getKeyManagers() {
         if (keystoreFilename != null && keystorePassword != null && keystoreType != null) {
             try {
@@ -235,28 +289,38 @@ public class SiteToSiteRemoteCluster implements Parcelable {
         }
     }
 
+    public String getKeystoreFilename() {
+        return keystoreFilename;
+    }
+
     public void setKeystoreFilename(String keystoreFilename) {
         this.keystoreFilename = keystoreFilename;
+        this.sslContext = null;
     }
 
     public void setKeystorePassword(String keystorePassword) {
         this.keystorePassword = keystorePassword;
+        this.sslContext = null;
     }
 
     public void setKeystoreType(String keystoreType) {
         this.keystoreType = keystoreType;
+        this.sslContext = null;
     }
 
     public void setTruststoreFilename(String truststoreFilename) {
         this.truststoreFilename = truststoreFilename;
+        this.sslContext = null;
     }
 
     public void setTruststorePassword(String truststorePassword) {
         this.truststorePassword = truststorePassword;
+        this.sslContext = null;
     }
 
     public void setTruststoreType(String truststoreType) {
         this.truststoreType = truststoreType;
+        this.sslContext = null;
     }
 
     /**
@@ -367,6 +431,24 @@ public class SiteToSiteRemoteCluster implements Parcelable {
         this.peerStatus = peerStatus;
     }
 
+    /**
+     * Gets the cached site-to-site info
+     *
+     * @return the cached site-to-site info
+     */
+    public SiteToSiteInfo getSiteToSiteInfo() {
+        return siteToSiteInfo;
+    }
+
+    /**
+     * Sets the cached site-to-site info
+     *
+     * @param siteToSiteInfo the site-to-site info
+     */
+    public void setSiteToSiteInfo(SiteToSiteInfo siteToSiteInfo) {
+        this.siteToSiteInfo = siteToSiteInfo;
+    }
+
     /**
      * Gets the username
      *
@@ -444,6 +526,7 @@ public class SiteToSiteRemoteCluster implements Parcelable {
         dest.writeString(username);
         dest.writeString(password);
         dest.writeString(clientType.name());
+        dest.writeParcelable(siteToSiteInfo, 0);
     }
 
     @Override
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.Authenticator;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.PROXY_AUTHORIZATION;
+
+/**
+ * Opens connections through OkHttp so that all requests to a peer (create, flow-files, ttl extension and delete) are
+ * multiplexed as streams over a single HTTP/2 connection.  HTTPS peers negotiate h2 via ALPN, falling back to HTTP/1.1
+ * when either side doesn't support it.  HTTP peers are spoken to with prior-knowledge h2c, which requires a server that
+ * accepts it.  Disabling Nagle's algorithm matters more than it does for HTTP/1.1: small frames like window updates and
+ * headers would otherwise wait on delayed acknowledgements and stall every stream on the connection.
+ */
+public class Http2ConnectionFactory {
+    private static final SocketFactory TCP_NO_DELAY_SOCKET_FACTORY = new TcpNoDelaySocketFactory(SocketFactory.getDefault());
+
+    private static OkHttpClient baseClient;
+
+    private final OkHttpClient client;
+
+    public Http2ConnectionFactory(boolean secure, Proxy proxy, final String proxyAuth, SSLSocketFactory sslSocketFactory, X509TrustManager trustManager) {
+        this(secure, proxy, proxyAuth, sslSocketFactory, trustManager, true);
+    }
+
+    public Http2ConnectionFactory(boolean secure, Proxy proxy, final String proxyAuth, SSLSocketFactory sslSocketFactory, X509TrustManager trustManager, boolean tcpNoDelay) {
+        // Deriving from one base client shares its connection pool so connections outlive individual site-to-site clients
+        OkHttpClient.Builder builder = getBaseClient().newBuilder();
+        if (tcpNoDelay) {
+            builder.socketFactory(TCP_NO_DELAY_SOCKET_FACTORY);
+        }
+        if (secure) {
+            builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        } else {
+            builder.protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+        if (proxy != null) {
+            builder.proxy(proxy);
+            if (proxyAuth != null) {
+                builder.proxyAuthenticator(new Authenticator() {
+                    @Override
+                    public Request authenticate(Route route, Response response) throws IOException {
+                        if (response.request().header(PROXY_AUTHORIZATION) != null) {
+                            return null;
+                        }
+                        return response.request().newBuilder().header(PROXY_AUTHORIZATION, proxyAuth).build();
+                    }
+                });
+            }
+        }
+        if (sslSocketFactory != null) {
+            builder.sslSocketFactory(sslSocketFactory, trustManager);
+        }
+        client = builder.build();
+    }
+
+    private static synchronized OkHttpClient getBaseClient() {
+        if (baseClient == null) {
+            baseClient = new OkHttpClient();
+        }
+        return baseClient;
+    }
+
+    /**
+     * Opens a connection to the url
+     *
+     * @param url the url
+     * @return the connection
+     */
+    public HttpURLConnection open(URL url) {
+        return new Http2URLConnection(client, url);
+    }
+
+    private static class TcpNoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory delegate;
+
+        private TcpNoDelaySocketFactory(SocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket configure(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+}
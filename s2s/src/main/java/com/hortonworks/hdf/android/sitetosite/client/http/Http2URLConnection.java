@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Pipe;
+
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.CONTENT_TYPE;
+
+/**
+ * Exposes an OkHttp {@link Call} through the {@link HttpURLConnection} api the rest of the http client is written
+ * against.  A request body is streamed to OkHttp through a pipe while the call executes on a background thread so that
+ * flow files aren't buffered in memory before they're sent.  Disconnecting closes the response body, which releases
+ * the HTTP/2 stream while leaving the connection pooled.
+ */
+class Http2URLConnection extends HttpURLConnection {
+    private static final long PIPE_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static ExecutorService executorService;
+
+    private final OkHttpClient client;
+    private final Headers.Builder requestHeaders = new Headers.Builder();
+    private Call call;
+    private Future<Response> pendingResponse;
+    private OutputStream requestBodyStream;
+    private Response response;
+
+    Http2URLConnection(OkHttpClient client, URL url) {
+        super(url);
+        this.client = client;
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        requestHeaders.set(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        requestHeaders.add(key, value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return requestHeaders.get(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return requestHeaders.build().toMultimap();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        getResponse();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (requestBodyStream != null) {
+            return requestBodyStream;
+        }
+        if (call != null) {
+            throw new ProtocolException("Cannot write a request body after the response has been requested");
+        }
+        final Pipe pipe = new Pipe(PIPE_BUFFER_SIZE);
+        String contentType = requestHeaders.get(CONTENT_TYPE);
+        final MediaType mediaType = contentType == null ? null : MediaType.parse(contentType);
+        final Call streamingCall = newCall(new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.writeAll(pipe.source());
+            }
+        });
+        pendingResponse = getExecutorService().submit(new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                try {
+                    return streamingCall.execute();
+                } finally {
+                    // Fails any write still blocked on a call that stopped reading the body
+                    pipe.source().close();
+                }
+            }
+        });
+        requestBodyStream = Okio.buffer(pipe.sink()).outputStream();
+        connected = true;
+        return requestBodyStream;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return getResponse().code();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return getResponse().message();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        Response response = getResponseOrNull();
+        return response == null ? null : response.header(name);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        Response response = getResponseOrNull();
+        if (response == null || n < 0 || n >= response.headers().size()) {
+            return null;
+        }
+        return response.headers().name(n);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        Response response = getResponseOrNull();
+        if (response == null || n < 0 || n >= response.headers().size()) {
+            return null;
+        }
+        return response.headers().value(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        Response response = getResponseOrNull();
+        if (response == null) {
+            return super.getHeaderFields();
+        }
+        return response.headers().toMultimap();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        Response response = getResponse();
+        int code = response.code();
+        if (code >= HTTP_BAD_REQUEST) {
+            if (code == HTTP_NOT_FOUND || code == HTTP_GONE) {
+                throw new FileNotFoundException(url.toString());
+            }
+            throw new IOException("Server returned HTTP response code: " + code + " for URL: " + url);
+        }
+        return response.body().byteStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (response == null || response.code() < HTTP_BAD_REQUEST) {
+            return null;
+        }
+        return response.body().byteStream();
+    }
+
+    @Override
+    public void disconnect() {
+        if (response != null) {
+            response.close();
+        }
+        if (call != null) {
+            // No-op once the response body is closed, otherwise abandons the request
+            call.cancel();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return client.proxy() != null;
+    }
+
+    private Response getResponseOrNull() {
+        try {
+            return getResponse();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Response getResponse() throws IOException {
+        if (response != null) {
+            return response;
+        }
+        if (pendingResponse != null) {
+            // Like HttpURLConnection, asking for the response ends the request body
+            requestBodyStream.close();
+            try {
+                response = pendingResponse.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                call.cancel();
+                throw new InterruptedIOException("Interrupted waiting for response from " + url);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Error executing request to " + url, cause);
+            }
+        } else {
+            boolean requiresBody = "POST".equals(method) || "PUT".equals(method);
+            response = newCall(requiresBody ? RequestBody.create(null, new byte[0]) : null).execute();
+        }
+        connected = true;
+        return response;
+    }
+
+    private Call newCall(RequestBody requestBody) {
+        OkHttpClient callClient = client.newBuilder()
+                .connectTimeout(getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(getReadTimeout(), TimeUnit.MILLISECONDS)
+                .writeTimeout(getReadTimeout(), TimeUnit.MILLISECONDS)
+                .build();
+        Request request = new Request.Builder()
+                .url(url)
+                .headers(requestHeaders.build())
+                .method(method, requestBody)
+                .build();
+        call = callClient.newCall(request);
+        return call;
+    }
+
+    private static synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            // Streaming calls block until their body is written so each needs its own thread
+            executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = defaultFactory.newThread(r);
+                    thread.setName(Http2URLConnection.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
+    }
+}
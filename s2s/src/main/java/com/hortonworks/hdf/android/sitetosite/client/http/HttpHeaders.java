@@ -28,6 +28,7 @@ public class HttpHeaders {
     public static final String HANDSHAKE_PROPERTY_BATCH_DURATION = "x-nifi-site-to-site-batch-duration";
     public static final String HANDSHAKE_PROPERTY_REQUEST_EXPIRATION = "x-nifi-site-to-site-request-expiration";
     public static final String HANDSHAKE_PROPERTY_USE_COMPRESSION = "x-nifi-site-to-site-use-compression";
+    public static final String HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY = "x-nifi-site-to-site-compression-dictionary";
 
     public static final String LOCATION_HEADER_NAME = "Location";
     public static final String LOCATION_URI_INTENT_NAME = "x-location-uri-intent";
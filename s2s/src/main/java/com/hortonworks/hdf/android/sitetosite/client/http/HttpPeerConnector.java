@@ -22,9 +22,10 @@ import android.util.Base64;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
 import com.hortonworks.hdf.android.sitetosite.util.Charsets;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
+import com.hortonworks.hdf.android.sitetosite.util.JsonPullParser;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -43,6 +44,7 @@ import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
 
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.ACCEPT;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.AUTHORIZATION;
@@ -55,6 +57,7 @@ import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.PRO
  */
 public class HttpPeerConnector {
     public static final long THIRTY_SECONDS = TimeUnit.SECONDS.toMillis(30);
+    private static final String[] TOKEN_NAMES = {"exp", "iat"};
 
     private final String peerUrl;
     private final SiteToSiteClientConfig siteToSiteClientConfig;
@@ -62,6 +65,7 @@ public class HttpPeerConnector {
     private final SSLSocketFactory socketFactory;
     private final Proxy proxy;
     private final String proxyAuth;
+    private final Http2ConnectionFactory http2ConnectionFactory;
     private String authorization;
     private long authorizationExpiration;
 
@@ -78,10 +82,17 @@ public class HttpPeerConnector {
         proxy = getProxy(siteToSiteRemoteCluster);
         String proxyUsername = siteToSiteRemoteCluster.getProxyUsername();
         if (proxy != null && proxyUsername != null && !proxyUsername.isEmpty()) {
-            proxyAuth = siteToSiteRemoteCluster.getProxyAuthorizationType() + " " + Base64.encodeToString((proxyUsername + ":" + siteToSiteRemoteCluster.getProxyPassword()).getBytes(Charsets.ISO_8859_1), Base64.DEFAULT);
+            proxyAuth = siteToSiteRemoteCluster.getProxyAuthorizationType() + " " + Base64.encodeToString((proxyUsername + ":" + siteToSiteRemoteCluster.getProxyPassword()).getBytes(Charsets.ISO_8859_1), Base64.NO_WRAP);
         } else {
             proxyAuth = null;
         }
+        if (siteToSiteRemoteCluster.getClientType() == SiteToSiteRemoteCluster.ClientType.HTTP2) {
+            X509TrustManager trustManager = socketFactory == null ? null : siteToSiteRemoteCluster.getX509TrustManager();
+            http2ConnectionFactory = new Http2ConnectionFactory(peerUrl.startsWith("https://"), proxy, proxyAuth, socketFactory, trustManager,
+                    siteToSiteClientConfig.isTcpNoDelay());
+        } else {
+            http2ConnectionFactory = null;
+        }
     }
 
     /**
@@ -182,17 +193,20 @@ public class HttpPeerConnector {
         URL url = new URL(actualUrl);
         HttpURLConnection httpURLConnection;
 
-        if (proxy == null) {
+        if (http2ConnectionFactory != null) {
+            // Proxy and ssl settings are part of the OkHttp client
+            httpURLConnection = http2ConnectionFactory.open(url);
+        } else if (proxy == null) {
             httpURLConnection = (HttpURLConnection) url.openConnection();
         } else {
             httpURLConnection = (HttpURLConnection) url.openConnection(proxy);
         }
 
-        if (socketFactory != null) {
+        if (socketFactory != null && http2ConnectionFactory == null) {
             ((HttpsURLConnection)httpURLConnection).setSSLSocketFactory(socketFactory);
         }
 
-        if (proxyAuth != null) {
+        if (proxyAuth != null && http2ConnectionFactory == null) {
             httpURLConnection.setRequestProperty(PROXY_AUTHORIZATION, proxyAuth);
         }
 
@@ -200,9 +214,8 @@ public class HttpPeerConnector {
             httpURLConnection.setRequestProperty(AUTHORIZATION, authorization);
         }
 
-        int timeout = (int) siteToSiteClientConfig.getTimeout(TimeUnit.MILLISECONDS);
-        httpURLConnection.setConnectTimeout(timeout);
-        httpURLConnection.setReadTimeout(timeout);
+        httpURLConnection.setConnectTimeout((int) siteToSiteClientConfig.getConnectTimeout(TimeUnit.MILLISECONDS));
+        httpURLConnection.setReadTimeout((int) siteToSiteClientConfig.getTimeout(TimeUnit.MILLISECONDS));
 
         Map<String, String> finalHeaders = new HashMap<>(headers);
 
@@ -237,7 +250,7 @@ public class HttpPeerConnector {
         return new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, port));
     }
 
-    private void loginIfNecessary() throws IOException {
+    private synchronized void loginIfNecessary() throws IOException {
         long startTime = System.currentTimeMillis();
         if (startTime < authorizationExpiration) {
             return;
@@ -254,7 +267,7 @@ public class HttpPeerConnector {
         map.put(ACCEPT, "text/plain");
         map.put(CONTENT_TYPE, "application/x-www-form-urlencoded");
         HttpURLConnection httpURLConnection = openConnection("/access/token", map, Collections.<String, String>emptyMap(), HttpMethod.POST, true);
-        String payload = null;
+        httpURLConnection.setDoOutput(true);
         try {
             OutputStream outputStream = httpURLConnection.getOutputStream();
             try {
@@ -274,26 +287,79 @@ public class HttpPeerConnector {
             if (responseCode < 200 || responseCode > 299) {
                 throw new IOException("Got response code " + responseCode);
             }
+            byte[] token;
             InputStream inputStream = httpURLConnection.getInputStream();
-            byte[] buf = new byte[1024];
-            StringBuilder stringBuilder = new StringBuilder();
-            int read;
-            while ((read = inputStream.read(buf, 0, buf.length)) != -1) {
-                stringBuilder.append(new String(buf, 0, read, Charsets.UTF_8));
+            try {
+                token = IOUtils.readInputStream(inputStream);
+            } finally {
+                inputStream.close();
             }
-            String token = stringBuilder.toString();
-            authorization = "Bearer " + token;
-            payload = new String(Base64.decode(token.split("\\.")[1], 0), Charsets.UTF_8);
-            JSONObject jsonObject = new JSONObject(payload);
-            long validDuration = (jsonObject.getLong("exp") - jsonObject.getLong("iat")) * 1000;
+            long validDuration = parseTokenValidDuration(token);
             if (validDuration < THIRTY_SECONDS) {
                 throw new IOException("Authentication token valid duration is < " + THIRTY_SECONDS);
             }
+            authorization = "Bearer " + new String(token, Charsets.UTF_8);
             authorizationExpiration = startTime + validDuration - THIRTY_SECONDS;
-        } catch (JSONException e) {
-            throw new IOException("Received unparseable token payload: " + payload, e);
         } finally {
             httpURLConnection.disconnect();
         }
     }
+
+    /**
+     * Decodes the payload of a jwt straight from the response bytes and returns how long it is valid for
+     *
+     * @param token the token bytes
+     * @return the valid duration in milliseconds
+     * @throws IOException if the payload can't be parsed
+     */
+    static long parseTokenValidDuration(byte[] token) throws IOException {
+        int payloadStart = indexOf(token, (byte) '.', 0) + 1;
+        int payloadEnd = indexOf(token, (byte) '.', payloadStart);
+        if (payloadStart == 0 || payloadEnd == -1) {
+            throw new IOException("Received malformed token");
+        }
+        byte[] payload;
+        try {
+            payload = Base64.decode(token, payloadStart, payloadEnd - payloadStart, Base64.URL_SAFE);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Received unparseable token payload", e);
+        }
+        Long exp = null;
+        Long iat = null;
+        JsonPullParser jsonReader = new JsonPullParser(new ByteArrayInputStream(payload));
+        try {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.selectName(TOKEN_NAMES)) {
+                    case 0:
+                        exp = jsonReader.nextLong();
+                        break;
+                    case 1:
+                        iat = jsonReader.nextLong();
+                        break;
+                    default:
+                        jsonReader.skipValue();
+                        break;
+                }
+            }
+            jsonReader.endObject();
+        } catch (IOException e) {
+            throw new IOException("Received unparseable token payload: " + new String(payload, Charsets.UTF_8), e);
+        } finally {
+            jsonReader.close();
+        }
+        if (exp == null || iat == null) {
+            throw new IOException("Token payload missing exp or iat: " + new String(payload, Charsets.UTF_8));
+        }
+        return (exp - iat) * 1000;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int start) {
+        for (int i = start; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import com.hortonworks.hdf.android.sitetosite.client.ReceiveTransaction;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionInputStream;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.transaction.DataPacketReader;
+import com.hortonworks.hdf.android.sitetosite.packet.ReceivedDataPacket;
+import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.ACCEPT;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction.APPLICATION_OCTET_STREAM;
+
+/**
+ * HttpReceiveTransaction for receiving data from a NiFi output port.  The data packets are read from the response body as
+ * they are received, each compressed on its own if compression is on.
+ */
+public class HttpReceiveTransaction implements ReceiveTransaction {
+    private static final Map<String, String> RECEIVE_FLOW_FILES_HEADERS = Collections.singletonMap(ACCEPT, APPLICATION_OCTET_STREAM);
+
+    private final HttpServerTransaction serverTransaction;
+    private final HttpURLConnection receiveFlowFilesConnection;
+    private final TransactionTtlExtender.Extension ttlExtension;
+    private final boolean useCompression;
+    private final byte[] compressionDictionary;
+    private final DataPacketReader dataPacketReader;
+    private final InputStream inputStream;
+    private boolean dataAvailable;
+    private TransactionResult confirmResult;
+    private boolean ended;
+    private int flowFilesReceived = 0;
+
+    HttpReceiveTransaction(final HttpServerTransaction serverTransaction, SiteToSiteClientConfig siteToSiteClientConfig, TransactionTtlExtender transactionTtlExtender, File directory) throws IOException {
+        this.serverTransaction = serverTransaction;
+        this.useCompression = siteToSiteClientConfig.isUseCompression();
+        this.compressionDictionary = serverTransaction.getAcknowledgedDictionary(siteToSiteClientConfig.getCompressionDictionary());
+        this.dataPacketReader = new DataPacketReader(directory);
+
+        Map<String, String> receiveFlowFilesHeaders = new HashMap<>(RECEIVE_FLOW_FILES_HEADERS);
+        receiveFlowFilesHeaders.putAll(serverTransaction.getHandshakeProperties());
+        receiveFlowFilesConnection = serverTransaction.getHttpPeerConnector().openConnection(serverTransaction.getTransactionUrl() + "/flow-files", receiveFlowFilesHeaders, HttpMethod.GET);
+        int responseCode = receiveFlowFilesConnection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            dataAvailable = true;
+            inputStream = receiveFlowFilesConnection.getInputStream();
+            ttlExtension = transactionTtlExtender.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    serverTransaction.extendTtl();
+                }
+            }, serverTransaction.getTtl() / 2, TimeUnit.SECONDS);
+        } else if (responseCode == HttpURLConnection.HTTP_ACCEPTED) {
+            // NiFi had nothing to send and didn't keep the transaction
+            dataAvailable = false;
+            inputStream = null;
+            ttlExtension = null;
+            // Drain the (empty) body so the stream is released before disconnecting
+            InputStream acceptedInputStream = receiveFlowFilesConnection.getInputStream();
+            try {
+                IOUtils.discard(acceptedInputStream);
+            } finally {
+                acceptedInputStream.close();
+                receiveFlowFilesConnection.disconnect();
+            }
+        } else {
+            InputStream errorStream = receiveFlowFilesConnection.getErrorStream();
+            try {
+                if (errorStream != null) {
+                    errorStream.close();
+                }
+            } finally {
+                receiveFlowFilesConnection.disconnect();
+            }
+            throw new IOException("Got response code " + responseCode);
+        }
+    }
+
+    @Override
+    public ReceivedDataPacket receive() throws IOException {
+        if (!dataAvailable) {
+            return null;
+        }
+        ReceivedDataPacket receivedDataPacket;
+        if (useCompression) {
+            CompressionInputStream compressionInputStream = new CompressionInputStream(inputStream, compressionDictionary);
+            try {
+                receivedDataPacket = dataPacketReader.read(compressionInputStream);
+                IOUtils.discard(compressionInputStream);
+            } finally {
+                compressionInputStream.close();
+            }
+        } else {
+            receivedDataPacket = dataPacketReader.read(inputStream);
+        }
+        if (receivedDataPacket == null) {
+            // End of the response body
+            dataAvailable = false;
+            inputStream.close();
+            return null;
+        }
+        flowFilesReceived++;
+        return receivedDataPacket;
+    }
+
+    @Override
+    public void confirm() throws IOException {
+        if (confirmResult != null || isEmpty()) {
+            return;
+        }
+        if (dataAvailable) {
+            throw new IOException("Not all data packets in the transaction were received");
+        }
+        ended = true;
+        ttlExtension.cancel();
+        closeResponse();
+        // NiFi verifies the checksum and commits in a single round trip
+        TransactionResult transactionResult = serverTransaction.end(ResponseCode.CONFIRM_TRANSACTION, Long.toString(dataPacketReader.getCrc()));
+        ResponseCode responseCode = transactionResult.getResponseCode();
+        if (responseCode == ResponseCode.BAD_CHECKSUM) {
+            throw new IOException("Peer reported bad checksum");
+        } else if (responseCode != ResponseCode.CONFIRM_TRANSACTION && responseCode != ResponseCode.TRANSACTION_FINISHED) {
+            throw new IOException("Unexpected response code from peer: " + responseCode + " and message " + transactionResult.getMessage());
+        }
+        confirmResult = new TransactionResult(flowFilesReceived, ResponseCode.TRANSACTION_FINISHED, transactionResult.getMessage());
+    }
+
+    @Override
+    public TransactionResult complete() throws IOException {
+        if (isEmpty()) {
+            return new TransactionResult(0, ResponseCode.NO_MORE_DATA, null);
+        }
+        confirm();
+        return confirmResult;
+    }
+
+    @Override
+    public TransactionResult cancel() throws IOException {
+        if (isEmpty()) {
+            return new TransactionResult(0, ResponseCode.NO_MORE_DATA, null);
+        }
+        if (ended) {
+            throw new IOException("Transaction already ended");
+        }
+        ended = true;
+        ttlExtension.cancel();
+        closeResponse();
+        return serverTransaction.end(ResponseCode.CANCEL_TRANSACTION);
+    }
+
+    private void closeResponse() throws IOException {
+        try {
+            // Abandons any unread packets, disconnecting alone doesn't release the stream over HTTP/2
+            inputStream.close();
+        } finally {
+            receiveFlowFilesConnection.disconnect();
+        }
+    }
+
+    private boolean isEmpty() {
+        return inputStream == null;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import android.util.Log;
+
+import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
+import com.hortonworks.hdf.android.sitetosite.client.http.parser.TransactionResultParser;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionDictionary;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.UnknownPortException;
+import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.CONTENT_TYPE;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.LOCATION_HEADER_NAME;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.LOCATION_URI_INTENT_NAME;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.LOCATION_URI_INTENT_VALUE;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.SERVER_SIDE_TRANSACTION_TTL;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction.APPLICATION_OCTET_STREAM;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction.EXPECTED_TRANSACTION_URL;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction.EXPECTED_TRANSACTION_URL_AS_INTENT;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction.EXPECTED_TTL;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpTransaction.UNABLE_TO_PARSE_TTL;
+
+/**
+ * Transaction that has been created on the NiFi instance, independent of any data sent in it
+ */
+class HttpServerTransaction {
+    static final String INPUT_PORTS_PATH = "/data-transfer/input-ports/";
+    static final String OUTPUT_PORTS_PATH = "/data-transfer/output-ports/";
+    private static final String CANONICAL_NAME = HttpServerTransaction.class.getCanonicalName();
+    private static final Map<String, String> END_TRANSACTION_HEADERS = initEndTransactionHeaders();
+    private static final Pattern NIFI_API_PATTERN = Pattern.compile(Pattern.quote("/nifi-api"));
+
+    private final HttpPeerConnector httpPeerConnector;
+    private final Map<String, String> handshakeProperties;
+    private final String transactionUrl;
+    private final int ttl;
+    private final String compressionDictionaryId;
+    private final long createdNanos;
+
+    private HttpServerTransaction(HttpPeerConnector httpPeerConnector, Map<String, String> handshakeProperties, String transactionUrl, int ttl, String compressionDictionaryId) {
+        this.httpPeerConnector = httpPeerConnector;
+        this.handshakeProperties = handshakeProperties;
+        this.transactionUrl = transactionUrl;
+        this.ttl = ttl;
+        this.compressionDictionaryId = compressionDictionaryId;
+        this.createdNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a transaction on the NiFi instance
+     *
+     * @param httpPeerConnector   the connector for the peer
+     * @param portIdentifier      the input port to send to
+     * @param handshakeProperties the handshake properties
+     * @return the server transaction
+     * @throws IOException if there is a problem creating the transaction
+     */
+    static HttpServerTransaction create(HttpPeerConnector httpPeerConnector, String portIdentifier, Map<String, String> handshakeProperties) throws IOException {
+        return create(httpPeerConnector, INPUT_PORTS_PATH, portIdentifier, handshakeProperties);
+    }
+
+    /**
+     * Creates a transaction on the NiFi instance
+     *
+     * @param httpPeerConnector   the connector for the peer
+     * @param portsPath           {@link #INPUT_PORTS_PATH} to send or {@link #OUTPUT_PORTS_PATH} to receive
+     * @param portIdentifier      the port
+     * @param handshakeProperties the handshake properties
+     * @return the server transaction
+     * @throws IOException if there is a problem creating the transaction
+     */
+    static HttpServerTransaction create(HttpPeerConnector httpPeerConnector, String portsPath, String portIdentifier, Map<String, String> handshakeProperties) throws IOException {
+        HttpURLConnection createTransactionConnection = httpPeerConnector.openConnection(portsPath + portIdentifier + "/transactions", handshakeProperties, HttpMethod.POST);
+        int responseCode = createTransactionConnection.getResponseCode();
+        if (responseCode < 200 || responseCode > 299) {
+            createTransactionConnection.disconnect();
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new UnknownPortException("Got response code " + responseCode + " for port " + portIdentifier);
+            }
+            throw new IOException("Got response code " + responseCode);
+        }
+
+        // Consume the response so the socket can be reused for sending the flow files
+        InputStream inputStream = createTransactionConnection.getInputStream();
+        try {
+            IOUtils.discard(inputStream);
+        } finally {
+            inputStream.close();
+        }
+
+        if (!LOCATION_URI_INTENT_VALUE.equals(createTransactionConnection.getHeaderField(LOCATION_URI_INTENT_NAME))) {
+            throw new IOException(EXPECTED_TRANSACTION_URL_AS_INTENT);
+        }
+
+        int ttl;
+        String ttlString = createTransactionConnection.getHeaderField(SERVER_SIDE_TRANSACTION_TTL);
+        if (ttlString == null || ttlString.isEmpty()) {
+            throw new IOException(EXPECTED_TTL);
+        } else {
+            try {
+                ttl = Integer.parseInt(ttlString);
+            } catch (Exception e) {
+                throw new IOException(UNABLE_TO_PARSE_TTL + ttlString, e);
+            }
+        }
+
+        String transactionFullUrl = createTransactionConnection.getHeaderField(LOCATION_HEADER_NAME);
+        if (transactionFullUrl == null) {
+            throw new IOException(EXPECTED_TRANSACTION_URL);
+        }
+        String path = new URL(transactionFullUrl).getPath();
+        // Only echoed by servers that have the dictionary the client offered
+        String compressionDictionaryId = createTransactionConnection.getHeaderField(HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY);
+        return new HttpServerTransaction(httpPeerConnector, handshakeProperties, NIFI_API_PATTERN.matcher(path).replaceFirst(""), ttl, compressionDictionaryId);
+    }
+
+    private static Map<String, String> initEndTransactionHeaders() {
+        Map<String, String> result = new HashMap<>();
+        result.put(CONTENT_TYPE, APPLICATION_OCTET_STREAM);
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Extends the ttl of the transaction on the NiFi instance, logging any failure
+     */
+    void extendTtl() {
+        try {
+            HttpURLConnection ttlExtendConnection = httpPeerConnector.openConnection(transactionUrl, handshakeProperties, HttpMethod.PUT);
+            int responseCode = ttlExtendConnection.getResponseCode();
+            if (responseCode < 200 || responseCode > 299) {
+                Log.e(CANONICAL_NAME, "Extending ttl failed for transaction (responseCode " + responseCode + ")" + transactionUrl);
+                ttlExtendConnection.disconnect();
+            } else {
+                // Read the response instead of disconnecting so the socket can be reused for subsequent requests to the peer
+                InputStream inputStream = ttlExtendConnection.getInputStream();
+                try {
+                    IOUtils.discard(inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(CANONICAL_NAME, "Error extending transaction ttl.", e);
+        }
+    }
+
+    /**
+     * Ends the transaction on the NiFi instance
+     *
+     * @param responseCode the response code to end the transaction with
+     * @return the transaction result
+     * @throws IOException if there is a problem ending the transaction
+     */
+    TransactionResult end(ResponseCode responseCode) throws IOException {
+        return end(responseCode, null);
+    }
+
+    /**
+     * Ends the transaction on the NiFi instance
+     *
+     * @param responseCode the response code to end the transaction with
+     * @param checksum     the checksum of the received data for NiFi to verify (may be null)
+     * @return the transaction result
+     * @throws IOException if there is a problem ending the transaction
+     */
+    TransactionResult end(ResponseCode responseCode, String checksum) throws IOException {
+        Map<String, String> queryParameters = new HashMap<>();
+        queryParameters.put("responseCode", Integer.toString(responseCode.getCode()));
+        if (checksum != null) {
+            queryParameters.put("checksum", checksum);
+        }
+        Map<String, String> endTransactionHeaders = new HashMap<>(END_TRANSACTION_HEADERS);
+        endTransactionHeaders.putAll(handshakeProperties);
+        HttpURLConnection delete = httpPeerConnector.openConnection(transactionUrl, endTransactionHeaders, queryParameters, HttpMethod.DELETE);
+        try {
+            int deleteResponseCode = delete.getResponseCode();
+            if (deleteResponseCode < 200 || deleteResponseCode > 299) {
+                throw new IOException("Got response code " + deleteResponseCode);
+            }
+            InputStream inputStream = delete.getInputStream();
+            try {
+                return TransactionResultParser.parseTransactionResult(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            delete.disconnect();
+        }
+    }
+
+    HttpPeerConnector getHttpPeerConnector() {
+        return httpPeerConnector;
+    }
+
+    Map<String, String> getHandshakeProperties() {
+        return handshakeProperties;
+    }
+
+    /**
+     * Gets the dictionary if the server acknowledged it when the transaction was created
+     *
+     * @param compressionDictionary the configured dictionary (may be null)
+     * @return the dictionary or null if the server doesn't have it
+     */
+    byte[] getAcknowledgedDictionary(byte[] compressionDictionary) {
+        if (compressionDictionary == null || !Long.toString(CompressionDictionary.getId(compressionDictionary)).equals(compressionDictionaryId)) {
+            return null;
+        }
+        return compressionDictionary;
+    }
+
+    String getTransactionUrl() {
+        return transactionUrl;
+    }
+
+    /**
+     * Gets the server side ttl in seconds
+     *
+     * @return the server side ttl in seconds
+     */
+    int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Gets the time since the transaction was created
+     *
+     * @param timeUnit the time unit
+     * @return the time since the transaction was created
+     */
+    long getAge(TimeUnit timeUnit) {
+        return timeUnit.convert(System.nanoTime() - createdNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -17,7 +17,7 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.http;
 
-import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClient;
+import com.hortonworks.hdf.android.sitetosite.client.ReceivingSiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
 import com.hortonworks.hdf.android.sitetosite.client.http.parser.PeerListParser;
@@ -25,69 +25,132 @@ import com.hortonworks.hdf.android.sitetosite.client.peer.Peer;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerOperation;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerTracker;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerUpdater;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.UnknownPortException;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.hortonworks.hdf.android.sitetosite.client.peer.PeerTracker.SITE_TO_SITE_PATH;
 
 /**
  * Client class for sending data to NiFi over s2s
  */
-public class HttpSiteToSiteClient implements PeerUpdater, SiteToSiteClient {
+public class HttpSiteToSiteClient implements PeerUpdater, ReceivingSiteToSiteClient {
     public static final String SITE_TO_SITE_PEERS_PATH = SITE_TO_SITE_PATH + "/peers";
     public static final String RECEIVED_RESPONSE_CODE = "Received response code ";
     public static final String WHEN_OPENING = " when opening ";
 
     private final PeerTracker peerTracker;
-    private final String portIdentifier;
     private final SiteToSiteClientConfig siteToSiteClientConfig;
-    private final ScheduledExecutorService ttlExtendTaskExecutor;
+    private final Map<String, String> handshakeProperties;
+    private final HttpTransactionPipeline transactionPipeline;
+    private volatile String portIdentifier;
+    private volatile String outputPortIdentifier;
 
     public HttpSiteToSiteClient(SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster) throws IOException {
         this.siteToSiteClientConfig = siteToSiteClientConfig;
         peerTracker = new PeerTracker(siteToSiteClientConfig, siteToSiteRemoteCluster, this);
 
         String portIdentifier = siteToSiteClientConfig.getPortIdentifier();
-        if (portIdentifier == null) {
+        if (portIdentifier == null && siteToSiteClientConfig.getPortName() != null) {
             this.portIdentifier = peerTracker.getPortIdentifier(siteToSiteClientConfig.getPortName());
             siteToSiteClientConfig.setPortIdentifier(this.portIdentifier);
         } else {
             this.portIdentifier = portIdentifier;
         }
 
-        ttlExtendTaskExecutor = Executors.newScheduledThreadPool(1, new ThreadFactory() {
-            private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        handshakeProperties = HttpTransaction.createHandshakeProperties(siteToSiteClientConfig);
+        if (siteToSiteClientConfig.isPipelineTransactions()) {
+            transactionPipeline = new HttpTransactionPipeline(handshakeProperties, siteToSiteClientConfig.getTimeout(TimeUnit.MILLISECONDS));
+        } else {
+            transactionPipeline = null;
+        }
+    }
 
+    @Override
+    public HttpTransaction createTransaction() throws IOException {
+        return peerTracker.performHttpOperation(new PeerOperation<HttpTransaction, HttpPeerConnector>() {
             @Override
-            public Thread newThread(final Runnable r) {
-                final Thread thread = defaultFactory.newThread(r);
-                thread.setName(Thread.currentThread().getName() + " TTLExtend");
-                thread.setDaemon(true);
-                return thread;
+            public HttpTransaction perform(Peer peer, final HttpPeerConnector httpPeerConnector) throws IOException {
+                HttpServerTransaction serverTransaction = createServerTransaction(httpPeerConnector);
+                Runnable preOpenNext = null;
+                if (transactionPipeline != null) {
+                    final String portIdentifier = HttpSiteToSiteClient.this.portIdentifier;
+                    preOpenNext = new Runnable() {
+                        @Override
+                        public void run() {
+                            transactionPipeline.preOpen(httpPeerConnector, portIdentifier);
+                        }
+                    };
+                }
+                return new HttpTransaction(serverTransaction, siteToSiteClientConfig, TransactionTtlExtender.getSharedInstance(), preOpenNext);
+            }
+
+            @Override
+            public String toString() {
+                return "create transaction for port " + portIdentifier;
             }
         });
     }
 
     @Override
-    public HttpTransaction createTransaction() throws IOException {
-        return peerTracker.performHttpOperation(new PeerOperation<HttpTransaction, HttpPeerConnector>() {
+    public HttpReceiveTransaction createReceiveTransaction(final File directory) throws IOException {
+        if (outputPortIdentifier == null) {
+            outputPortIdentifier = siteToSiteClientConfig.getOutputPortIdentifier();
+            if (outputPortIdentifier == null) {
+                String outputPortName = siteToSiteClientConfig.getOutputPortName();
+                if (outputPortName == null) {
+                    throw new IOException("Output port name or identifier needs to be configured to receive data");
+                }
+                outputPortIdentifier = peerTracker.getOutputPortIdentifier(outputPortName);
+                siteToSiteClientConfig.setOutputPortIdentifier(outputPortIdentifier);
+            }
+        }
+        return peerTracker.performHttpOperation(new PeerOperation<HttpReceiveTransaction, HttpPeerConnector>() {
             @Override
-            public HttpTransaction perform(Peer peer, HttpPeerConnector httpPeerConnector) throws IOException {
-                return new HttpTransaction(httpPeerConnector, portIdentifier, siteToSiteClientConfig, ttlExtendTaskExecutor);
+            public HttpReceiveTransaction perform(Peer peer, HttpPeerConnector httpPeerConnector) throws IOException {
+                HttpServerTransaction serverTransaction = HttpServerTransaction.create(httpPeerConnector, HttpServerTransaction.OUTPUT_PORTS_PATH, outputPortIdentifier, handshakeProperties);
+                return new HttpReceiveTransaction(serverTransaction, siteToSiteClientConfig, TransactionTtlExtender.getSharedInstance(), directory);
             }
 
             @Override
             public String toString() {
-                return "create transaction for port " + portIdentifier;
+                return "create receive transaction for port " + outputPortIdentifier;
             }
         });
     }
 
+    private HttpServerTransaction createServerTransaction(HttpPeerConnector httpPeerConnector) throws IOException {
+        if (transactionPipeline != null) {
+            HttpServerTransaction serverTransaction = transactionPipeline.take(httpPeerConnector, portIdentifier);
+            if (serverTransaction != null) {
+                return serverTransaction;
+            }
+        }
+        try {
+            return HttpServerTransaction.create(httpPeerConnector, portIdentifier, handshakeProperties);
+        } catch (UnknownPortException e) {
+            String portName = siteToSiteClientConfig.getPortName();
+            if (portName == null) {
+                throw e;
+            }
+            // The identifier may have come from a stale cache (e.g. the port was recreated), look it up again
+            peerTracker.invalidateSiteToSiteInfo();
+            String refreshedPortIdentifier = peerTracker.getSiteToSiteInfo(httpPeerConnector).getIdForInputPortName(portName);
+            if (refreshedPortIdentifier == null || refreshedPortIdentifier.equals(portIdentifier)) {
+                throw e;
+            }
+            portIdentifier = refreshedPortIdentifier;
+            siteToSiteClientConfig.setPortIdentifier(refreshedPortIdentifier);
+            return HttpServerTransaction.create(httpPeerConnector, refreshedPortIdentifier, handshakeProperties);
+        }
+    }
+
     @Override
     public List<Peer> getPeers() throws IOException {
         return peerTracker.performHttpOperation(new PeerOperation<List<Peer>, HttpPeerConnector>() {
@@ -99,7 +162,12 @@ public class HttpSiteToSiteClient implements PeerUpdater, SiteToSiteClient {
                     if (responseCode < 200 || responseCode > 299) {
                         throw new IOException(RECEIVED_RESPONSE_CODE + responseCode + WHEN_OPENING + httpURLConnection.getURL());
                     }
-                    return PeerListParser.parsePeers(httpURLConnection.getInputStream());
+                    InputStream inputStream = httpURLConnection.getInputStream();
+                    try {
+                        return PeerListParser.parsePeers(inputStream);
+                    } finally {
+                        inputStream.close();
+                    }
                 } finally {
                     httpURLConnection.disconnect();
                 }
@@ -17,11 +17,10 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.http;
 
-import android.util.Log;
-
+import com.hortonworks.hdf.android.sitetosite.client.PipelinedTransaction;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
-import com.hortonworks.hdf.android.sitetosite.client.http.parser.TransactionResultParser;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionDictionary;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionOutputStream;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
 import com.hortonworks.hdf.android.sitetosite.client.transaction.AbstractTransaction;
@@ -32,21 +31,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.ACCEPT;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.CONTENT_TYPE;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_BATCH_COUNT;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_BATCH_DURATION;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_BATCH_SIZE;
+import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_REQUEST_EXPIRATION;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.HANDSHAKE_PROPERTY_USE_COMPRESSION;
 import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.LOCATION_HEADER_NAME;
@@ -57,7 +53,7 @@ import static com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders.SER
 /**
  * HttpTransaction for sending data to a NiFi instance
  */
-public class HttpTransaction extends AbstractTransaction {
+public class HttpTransaction extends AbstractTransaction implements PipelinedTransaction {
     public static final String CANONICAL_NAME = HttpTransaction.class.getCanonicalName();
 
     public static final String EXPECTED_TRANSACTION_URL = "Expected header " + LOCATION_HEADER_NAME + " to contain transaction url.";
@@ -67,82 +63,56 @@ public class HttpTransaction extends AbstractTransaction {
     public static final String EXPECTED_TTL = "Expected " + SERVER_SIDE_TRANSACTION_TTL + " header";
 
     private static final Map<String, String> BEGIN_TRANSACTION_HEADERS = initBeginTransactionHeaders();
-    private static final Map<String, String> END_TRANSACTION_HEADERS = initEndTransactionHeaders();
-    private static final Pattern NIFI_API_PATTERN = Pattern.compile(Pattern.quote("/nifi-api"));
     public static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
     public static final String TEXT_PLAIN = "text/plain";
 
-    private final Map<String, String> handshakeProperties;
-    private final String transactionUrl;
-    private final HttpPeerConnector httpPeerConnector;
+    private final HttpServerTransaction serverTransaction;
     private final HttpURLConnection sendFlowFilesConnection;
-    private final ScheduledFuture<?> ttlExtendFuture;
+    private final TransactionTtlExtender.Extension ttlExtension;
+    private final Runnable preOpenNext;
+    private CompressionOutputStream compressionOutputStream;
 
-    public HttpTransaction(HttpPeerConnector httpPeerConnector, String portIdentifier, SiteToSiteClientConfig siteToSiteClientConfig, ScheduledExecutorService ttlExtendTaskExecutor) throws IOException {
-        this.httpPeerConnector = httpPeerConnector;
-        this.handshakeProperties = createHandshakeProperties(siteToSiteClientConfig);
+    public HttpTransaction(HttpPeerConnector httpPeerConnector, String portIdentifier, SiteToSiteClientConfig siteToSiteClientConfig) throws IOException {
+        this(httpPeerConnector, portIdentifier, siteToSiteClientConfig, TransactionTtlExtender.getSharedInstance());
+    }
 
-        HttpURLConnection createTransactionConnection = httpPeerConnector.openConnection("/data-transfer/input-ports/" + portIdentifier + "/transactions", handshakeProperties, HttpMethod.POST);
-        int responseCode = createTransactionConnection.getResponseCode();
-        if (responseCode < 200 || responseCode > 299) {
-            throw new IOException("Got response code " + responseCode);
-        }
+    public HttpTransaction(HttpPeerConnector httpPeerConnector, String portIdentifier, SiteToSiteClientConfig siteToSiteClientConfig, TransactionTtlExtender transactionTtlExtender) throws IOException {
+        this(HttpServerTransaction.create(httpPeerConnector, portIdentifier, createHandshakeProperties(siteToSiteClientConfig)), siteToSiteClientConfig, transactionTtlExtender, null);
+    }
 
-        int ttl;
-        if (LOCATION_URI_INTENT_VALUE.equals(createTransactionConnection.getHeaderField(LOCATION_URI_INTENT_NAME))) {
-            String ttlString = createTransactionConnection.getHeaderField(SERVER_SIDE_TRANSACTION_TTL);
-            if (ttlString == null || ttlString.isEmpty()) {
-                throw new IOException(EXPECTED_TTL);
-            } else {
-                try {
-                    ttl = Integer.parseInt(ttlString);
-                } catch (Exception e) {
-                    throw new IOException(UNABLE_TO_PARSE_TTL + ttlString, e);
-                }
-            }
-            String transactionFullUrl = createTransactionConnection.getHeaderField(LOCATION_HEADER_NAME);
-            if (transactionFullUrl == null) {
-                throw new IOException(EXPECTED_TRANSACTION_URL);
-            }
-            String path = new URL(transactionFullUrl).getPath();
-            this.transactionUrl = NIFI_API_PATTERN.matcher(path).replaceFirst("");
-        } else {
-            throw new IOException(EXPECTED_TRANSACTION_URL_AS_INTENT);
-        }
+    HttpTransaction(final HttpServerTransaction serverTransaction, SiteToSiteClientConfig siteToSiteClientConfig, TransactionTtlExtender transactionTtlExtender, Runnable preOpenNext) throws IOException {
+        this.serverTransaction = serverTransaction;
+        this.preOpenNext = preOpenNext;
 
         Map<String, String> beginTransactionHeaders = new HashMap<>(BEGIN_TRANSACTION_HEADERS);
-        beginTransactionHeaders.putAll(handshakeProperties);
-        sendFlowFilesConnection = httpPeerConnector.openConnection(transactionUrl + "/flow-files", beginTransactionHeaders, HttpMethod.POST);
+        beginTransactionHeaders.putAll(serverTransaction.getHandshakeProperties());
+        sendFlowFilesConnection = serverTransaction.getHttpPeerConnector().openConnection(serverTransaction.getTransactionUrl() + "/flow-files", beginTransactionHeaders, HttpMethod.POST);
+        sendFlowFilesConnection.setDoOutput(true);
         OutputStream outputStream = sendFlowFilesConnection.getOutputStream();
         if (siteToSiteClientConfig.isUseCompression()) {
-            outputStream = new CompressionOutputStream(outputStream);
+            compressionOutputStream = new CompressionOutputStream(outputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE, CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL,
+                    Deflater.DEFAULT_STRATEGY, siteToSiteClientConfig.getCompressionThreads(), siteToSiteClientConfig.isAdaptiveCompression(),
+                    serverTransaction.getAcknowledgedDictionary(siteToSiteClientConfig.getCompressionDictionary()));
+            outputStream = compressionOutputStream;
         }
         dataPacketWriter = new DataPacketWriter(outputStream);
-        ttlExtendFuture = ttlExtendTaskExecutor.scheduleWithFixedDelay(new Runnable() {
+        ttlExtension = transactionTtlExtender.schedule(new Runnable() {
             @Override
             public void run() {
-                try {
-                    HttpURLConnection ttlExtendConnection = HttpTransaction.this.httpPeerConnector.openConnection(transactionUrl, handshakeProperties, HttpMethod.PUT);
-                    try {
-                        int responseCode = ttlExtendConnection.getResponseCode();
-                        if (responseCode < 200 || responseCode > 299) {
-                            Log.e(CANONICAL_NAME, "Extending ttl failed for transaction (responseCode " + responseCode + ")" + transactionUrl);
-                        }
-                    } finally {
-                        ttlExtendConnection.disconnect();
-                    }
-                } catch (IOException e) {
-                    Log.e(CANONICAL_NAME, "Error extending transaction ttl.", e);
-                }
+                serverTransaction.extendTtl();
             }
-        }, ttl / 2, ttl / 2, TimeUnit.SECONDS);
+        }, serverTransaction.getTtl() / 2, TimeUnit.SECONDS);
     }
 
-    private Map<String, String> createHandshakeProperties(SiteToSiteClientConfig siteToSiteClientConfig) {
+    static Map<String, String> createHandshakeProperties(SiteToSiteClientConfig siteToSiteClientConfig) {
         Map<String, String> handshakeProperties = new HashMap<>();
 
         if (siteToSiteClientConfig.isUseCompression()) {
             handshakeProperties.put(HANDSHAKE_PROPERTY_USE_COMPRESSION, Boolean.TRUE.toString());
+            byte[] compressionDictionary = siteToSiteClientConfig.getCompressionDictionary();
+            if (compressionDictionary != null) {
+                handshakeProperties.put(HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY, Long.toString(CompressionDictionary.getId(compressionDictionary)));
+            }
         }
 
         long requestExpirationMillis = siteToSiteClientConfig.getIdleConnectionExpiration(TimeUnit.MILLISECONDS);
@@ -168,12 +138,6 @@ public class HttpTransaction extends AbstractTransaction {
         return Collections.unmodifiableMap(handshakeProperties);
     }
 
-    private static Map<String, String> initEndTransactionHeaders() {
-        Map<String, String> result = new HashMap<>();
-        result.put(CONTENT_TYPE, APPLICATION_OCTET_STREAM);
-        return Collections.unmodifiableMap(result);
-    }
-
     private static Map<String, String> initBeginTransactionHeaders() {
         Map<String, String> result = new HashMap<>();
         result.put(CONTENT_TYPE, APPLICATION_OCTET_STREAM);
@@ -183,12 +147,31 @@ public class HttpTransaction extends AbstractTransaction {
 
     @Override
     public void confirm() throws IOException {
+        verifyChecksum();
+    }
+
+    @Override
+    public void confirmBeforeNext() throws IOException {
+        if (preOpenNext != null) {
+            preOpenNext.run();
+        }
+        verifyChecksum();
+    }
+
+    private void verifyChecksum() throws IOException {
         long calculatedCrc = dataPacketWriter.close();
         int responseCode = sendFlowFilesConnection.getResponseCode();
         if (responseCode != 200 && responseCode != 202) {
             throw new IOException("Got response code " + responseCode);
         }
-        long serverCrc = IOUtils.readInputStreamAndParseAsLong(sendFlowFilesConnection.getInputStream());
+        long serverCrc;
+        // Closing the body releases the stream, disconnecting alone doesn't over HTTP/2
+        InputStream inputStream = sendFlowFilesConnection.getInputStream();
+        try {
+            serverCrc = IOUtils.readInputStreamAndParseAsLong(inputStream);
+        } finally {
+            inputStream.close();
+        }
         if (calculatedCrc != serverCrc) {
             endTransaction(ResponseCode.BAD_CHECKSUM);
             throw new IOException("Should have " + calculatedCrc + " for crc, got " + serverCrc);
@@ -197,33 +180,12 @@ public class HttpTransaction extends AbstractTransaction {
 
     @Override
     protected TransactionResult endTransaction(ResponseCode responseCodeToSend) throws IOException {
-        ttlExtendFuture.cancel(false);
-        try {
-            ttlExtendFuture.get();
-        } catch (Exception e) {
-            if (!(e instanceof CancellationException)) {
-                throw new IOException("Error waiting on ttl extension thread to end.", e);
-            }
+        ttlExtension.cancel();
+        if (compressionOutputStream != null) {
+            // Already done if the transaction was confirmed
+            compressionOutputStream.release();
         }
         sendFlowFilesConnection.disconnect();
-        Map<String, String> queryParameters = new HashMap<>();
-        queryParameters.put("responseCode", Integer.toString(responseCodeToSend.getCode()));
-        Map<String, String> endTransactionHeaders = new HashMap<>(END_TRANSACTION_HEADERS);
-        endTransactionHeaders.putAll(handshakeProperties);
-        HttpURLConnection delete = httpPeerConnector.openConnection(transactionUrl, endTransactionHeaders, queryParameters, HttpMethod.DELETE);
-        try {
-            int responseCode = delete.getResponseCode();
-            if (responseCode < 200 || responseCode > 299) {
-                throw new IOException("Got response code " + responseCode);
-            }
-            InputStream inputStream = delete.getInputStream();
-            try {
-                return TransactionResultParser.parseTransactionResult(inputStream);
-            } finally {
-                inputStream.close();
-            }
-        } finally {
-            delete.disconnect();
-        }
+        return serverTransaction.end(responseCodeToSend);
     }
 }
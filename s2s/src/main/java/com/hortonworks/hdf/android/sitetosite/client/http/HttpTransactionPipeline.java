@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import android.util.Log;
+
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Speculatively creates the next server-side transaction while the current one is being confirmed so that back-to-back
+ * transactions don't each pay for the round trip to create one.  Only confirms that expect another transaction to follow
+ * (see {@link com.hortonworks.hdf.android.sitetosite.client.PipelinedTransaction}) pre-open one.  A transaction that isn't claimed within a quarter of
+ * its ttl is cancelled so that it can't expire while in use or linger on the NiFi instance.  One thread times those
+ * cancellations while the creates and cancels themselves run on a pool so that a peer that hangs only holds up its own
+ * client, and a client waits at most its timeout for a pending create before creating a transaction itself.
+ */
+class HttpTransactionPipeline {
+    private static final String CANONICAL_NAME = HttpTransactionPipeline.class.getCanonicalName();
+    private static ScheduledExecutorService sharedScheduledExecutorService;
+    private static ExecutorService sharedRequestExecutorService;
+
+    private final Map<String, String> handshakeProperties;
+    private final long takeTimeoutMillis;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final ExecutorService requestExecutorService;
+    private Pending pending;
+
+    HttpTransactionPipeline(Map<String, String> handshakeProperties, long takeTimeoutMillis) {
+        this(handshakeProperties, takeTimeoutMillis, getSharedScheduledExecutorService(), getSharedRequestExecutorService());
+    }
+
+    /**
+     * Creates a pipeline
+     *
+     * @param handshakeProperties      the handshake properties to create transactions with
+     * @param takeTimeoutMillis        how long {@link #take(HttpPeerConnector, String)} waits for a pending create
+     * @param scheduledExecutorService times the cancellation of unclaimed transactions
+     * @param requestExecutorService   runs the creates and cancels
+     */
+    HttpTransactionPipeline(Map<String, String> handshakeProperties, long takeTimeoutMillis, ScheduledExecutorService scheduledExecutorService, ExecutorService requestExecutorService) {
+        this.handshakeProperties = handshakeProperties;
+        this.takeTimeoutMillis = takeTimeoutMillis;
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.requestExecutorService = requestExecutorService;
+    }
+
+    private static synchronized ScheduledExecutorService getSharedScheduledExecutorService() {
+        if (sharedScheduledExecutorService == null) {
+            ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = defaultFactory.newThread(r);
+                    thread.setName(HttpTransactionPipeline.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduledThreadPoolExecutor.setKeepAliveTime(TransactionTtlExtender.IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            scheduledThreadPoolExecutor.allowCoreThreadTimeOut(true);
+            sharedScheduledExecutorService = scheduledThreadPoolExecutor;
+        }
+        return sharedScheduledExecutorService;
+    }
+
+    private static synchronized ExecutorService getSharedRequestExecutorService() {
+        if (sharedRequestExecutorService == null) {
+            // Each pipeline has at most one pending transaction so this is bounded by the clients pipelining
+            sharedRequestExecutorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, TransactionTtlExtender.IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = defaultFactory.newThread(r);
+                    thread.setName(HttpTransactionPipeline.class.getSimpleName() + "-request");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedRequestExecutorService;
+    }
+
+    /**
+     * Starts creating a transaction on the given peer in the background if one isn't already pending
+     *
+     * @param httpPeerConnector the connector for the peer
+     * @param portIdentifier    the input port to send to
+     */
+    synchronized void preOpen(final HttpPeerConnector httpPeerConnector, final String portIdentifier) {
+        if (pending != null) {
+            return;
+        }
+        final Pending newPending = new Pending(httpPeerConnector, portIdentifier);
+        newPending.future = requestExecutorService.submit(new Callable<HttpServerTransaction>() {
+            @Override
+            public HttpServerTransaction call() throws IOException {
+                HttpServerTransaction serverTransaction = HttpServerTransaction.create(httpPeerConnector, portIdentifier, handshakeProperties);
+                if (!newPending.created(serverTransaction)) {
+                    // Released while it was being created
+                    cancel(serverTransaction);
+                    return null;
+                }
+                scheduledExecutorService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (HttpTransactionPipeline.this) {
+                            if (pending != newPending) {
+                                return;
+                            }
+                            pending = null;
+                        }
+                        release(newPending);
+                    }
+                }, getMaxAgeMillis(serverTransaction), TimeUnit.MILLISECONDS);
+                return serverTransaction;
+            }
+        });
+        pending = newPending;
+    }
+
+    /**
+     * Claims the pending transaction if it was created on the given peer and port and is still young enough to use,
+     * otherwise releases it
+     *
+     * @param httpPeerConnector the connector for the peer the caller is about to create a transaction on
+     * @param portIdentifier    the input port the caller is about to send to
+     * @return the pending transaction or null if there is none usable
+     */
+    HttpServerTransaction take(HttpPeerConnector httpPeerConnector, String portIdentifier) {
+        Pending claimed;
+        synchronized (this) {
+            claimed = pending;
+            pending = null;
+        }
+        if (claimed == null) {
+            return null;
+        }
+        if (claimed.httpPeerConnector != httpPeerConnector || !claimed.portIdentifier.equals(portIdentifier)) {
+            release(claimed);
+            return null;
+        }
+        HttpServerTransaction serverTransaction = get(claimed);
+        if (serverTransaction == null) {
+            return null;
+        }
+        if (serverTransaction.getAge(TimeUnit.MILLISECONDS) > getMaxAgeMillis(serverTransaction)) {
+            release(claimed);
+            return null;
+        }
+        return serverTransaction;
+    }
+
+    private static long getMaxAgeMillis(HttpServerTransaction serverTransaction) {
+        return TimeUnit.SECONDS.toMillis(serverTransaction.getTtl()) / 4;
+    }
+
+    private HttpServerTransaction get(Pending pending) {
+        try {
+            return pending.future.get(takeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(pending);
+        } catch (TimeoutException e) {
+            // Not interrupted, the request may have reached NiFi so the create cancels the transaction once it finishes
+            pending.future.cancel(false);
+            release(pending);
+        } catch (ExecutionException e) {
+            Log.d(CANONICAL_NAME, "Unable to pre-open transaction", e.getCause());
+        }
+        return null;
+    }
+
+    private void release(Pending pending) {
+        final HttpServerTransaction serverTransaction = pending.release();
+        if (serverTransaction == null) {
+            // Still being created (it will cancel itself) or creation failed
+            return;
+        }
+        // Cancel in the background so the caller isn't blocked
+        requestExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                cancel(serverTransaction);
+            }
+        });
+    }
+
+    private static void cancel(HttpServerTransaction serverTransaction) {
+        try {
+            serverTransaction.end(ResponseCode.CANCEL_TRANSACTION);
+        } catch (IOException e) {
+            Log.d(CANONICAL_NAME, "Unable to cancel unused transaction " + serverTransaction.getTransactionUrl(), e);
+        }
+    }
+
+    private static class Pending {
+        private final HttpPeerConnector httpPeerConnector;
+        private final String portIdentifier;
+        private Future<HttpServerTransaction> future;
+        private HttpServerTransaction serverTransaction;
+        private boolean released;
+
+        private Pending(HttpPeerConnector httpPeerConnector, String portIdentifier) {
+            this.httpPeerConnector = httpPeerConnector;
+            this.portIdentifier = portIdentifier;
+        }
+
+        /**
+         * Records the created transaction
+         *
+         * @return false if the pending transaction was released while it was being created
+         */
+        private synchronized boolean created(HttpServerTransaction serverTransaction) {
+            if (released) {
+                return false;
+            }
+            this.serverTransaction = serverTransaction;
+            return true;
+        }
+
+        /**
+         * Marks the pending transaction released
+         *
+         * @return the transaction to cancel or null if it hasn't been created
+         */
+        private synchronized HttpServerTransaction release() {
+            released = true;
+            HttpServerTransaction result = serverTransaction;
+            serverTransaction = null;
+            return result;
+        }
+    }
+}
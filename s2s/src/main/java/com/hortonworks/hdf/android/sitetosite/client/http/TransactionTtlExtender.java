@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps server-side transactions alive by periodically extending their ttl.  A single, lazily started instance is shared by all
+ * http clients in the process so that creating a client per request does not create (and leak) a thread pool per request.
+ * One thread times the extensions while the requests run on a pool so that a peer that hangs only delays its own
+ * transaction's extensions.
+ */
+public class TransactionTtlExtender {
+    public static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static TransactionTtlExtender sharedInstance;
+
+    private final AtomicInteger activeTransactionCount = new AtomicInteger(0);
+    private ScheduledExecutorService scheduledExecutorService;
+    private Executor extendExecutor;
+
+    public TransactionTtlExtender() {
+        this(null);
+    }
+
+    public TransactionTtlExtender(ScheduledExecutorService scheduledExecutorService) {
+        this(scheduledExecutorService, null);
+    }
+
+    /**
+     * Creates an extender
+     *
+     * @param scheduledExecutorService times the extensions, null to start one lazily
+     * @param extendExecutor           runs the extend tasks, null to start a pool lazily
+     */
+    public TransactionTtlExtender(ScheduledExecutorService scheduledExecutorService, Executor extendExecutor) {
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.extendExecutor = extendExecutor;
+    }
+
+    /**
+     * Gets the process-wide extender
+     *
+     * @return the process-wide extender
+     */
+    public static synchronized TransactionTtlExtender getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new TransactionTtlExtender();
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Schedules the extend task to be run every interval until the returned extension is cancelled
+     *
+     * @param extendTask the task that extends the transaction's ttl
+     * @param interval   the interval
+     * @param timeUnit   the time unit of the interval
+     * @return an extension that must be cancelled when the transaction ends
+     */
+    public Extension schedule(Runnable extendTask, long interval, TimeUnit timeUnit) {
+        Extension extension = new Extension(extendTask);
+        extension.future = getScheduledExecutorService().scheduleWithFixedDelay(extension, interval, interval, timeUnit);
+        activeTransactionCount.incrementAndGet();
+        return extension;
+    }
+
+    /**
+     * Gets the number of transactions currently being kept alive
+     *
+     * @return the number of transactions currently being kept alive
+     */
+    public int getActiveTransactionCount() {
+        return activeTransactionCount.get();
+    }
+
+    private synchronized ScheduledExecutorService getScheduledExecutorService() {
+        if (scheduledExecutorService == null) {
+            ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = defaultFactory.newThread(r);
+                    thread.setName(TransactionTtlExtender.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Let the thread die when there is nothing to extend, it will be restarted on the next schedule() call
+            scheduledThreadPoolExecutor.setKeepAliveTime(IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            scheduledThreadPoolExecutor.allowCoreThreadTimeOut(true);
+            scheduledExecutorService = scheduledThreadPoolExecutor;
+        }
+        return scheduledExecutorService;
+    }
+
+    private synchronized Executor getExtendExecutor() {
+        if (extendExecutor == null) {
+            // Each transaction has at most one extension in progress so this is bounded by the active transactions
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = defaultFactory.newThread(r);
+                    thread.setName(TransactionTtlExtender.class.getSimpleName() + "-extend");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            extendExecutor = threadPoolExecutor;
+        }
+        return extendExecutor;
+    }
+
+    private void purge() {
+        ScheduledExecutorService scheduledExecutorService = getScheduledExecutorService();
+        if (scheduledExecutorService instanceof ScheduledThreadPoolExecutor) {
+            ((ScheduledThreadPoolExecutor) scheduledExecutorService).purge();
+        }
+    }
+
+    /**
+     * Handle for a scheduled ttl extension
+     */
+    public class Extension implements Runnable {
+        private final Runnable extendTask;
+        private final AtomicBoolean extending = new AtomicBoolean(false);
+        private final Runnable extend = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    extend();
+                } finally {
+                    extending.set(false);
+                }
+            }
+        };
+        private ScheduledFuture<?> future;
+        private boolean cancelled = false;
+
+        private Extension(Runnable extendTask) {
+            this.extendTask = extendTask;
+        }
+
+        /**
+         * Hands the extend task to the extend executor unless the last one is still in progress
+         */
+        @Override
+        public void run() {
+            if (extending.compareAndSet(false, true)) {
+                try {
+                    getExtendExecutor().execute(extend);
+                } catch (RuntimeException e) {
+                    extending.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        private synchronized void extend() {
+            if (!cancelled) {
+                extendTask.run();
+            }
+        }
+
+        /**
+         * Stops extending the transaction, waiting for an in-progress extension to finish
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+            future.cancel(false);
+            if (activeTransactionCount.decrementAndGet() == 0) {
+                purge();
+            }
+        }
+    }
+}
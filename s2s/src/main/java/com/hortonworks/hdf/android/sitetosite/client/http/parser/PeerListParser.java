@@ -17,15 +17,13 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.http.parser;
 
-import android.util.JsonReader;
 import android.util.Log;
 
 import com.hortonworks.hdf.android.sitetosite.client.peer.Peer;
-import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+import com.hortonworks.hdf.android.sitetosite.util.JsonPullParser;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -41,14 +39,17 @@ public class PeerListParser {
     public static final String SECURE = "secure";
     public static final String FLOW_FILE_COUNT = "flowFileCount";
 
+    private static final String[] PEERS_NAMES = {PEERS};
+    private static final String[] PEER_NAMES = {HOSTNAME, PORT, SECURE, FLOW_FILE_COUNT};
+
     public static List<Peer> parsePeers(InputStream inputStream) throws IOException {
         List<Peer> result = null;
-        JsonReader jsonReader = new JsonReader(new InputStreamReader(inputStream, Charsets.UTF_8));
+        JsonPullParser jsonReader = new JsonPullParser(inputStream);
         try {
             jsonReader.beginObject();
             try {
                 while (jsonReader.hasNext()) {
-                    if (PEERS.equals(jsonReader.nextName())) {
+                    if (jsonReader.selectName(PEERS_NAMES) == 0) {
                         result = parsePeersArray(jsonReader);
                     } else {
                         jsonReader.skipValue();
@@ -63,7 +64,7 @@ public class PeerListParser {
         return result == null ? Collections.<Peer>emptyList() : result;
     }
 
-    private static List<Peer> parsePeersArray(JsonReader jsonReader) throws IOException {
+    private static List<Peer> parsePeersArray(JsonPullParser jsonReader) throws IOException {
         List<Peer> result = new ArrayList<>();
         jsonReader.beginArray();
         try {
@@ -79,7 +80,7 @@ public class PeerListParser {
         return result;
     }
 
-    private static Peer parsePeer(JsonReader jsonReader) throws IOException {
+    private static Peer parsePeer(JsonPullParser jsonReader) throws IOException {
         jsonReader.beginObject();
         try {
             String hostname = null;
@@ -87,17 +88,22 @@ public class PeerListParser {
             Boolean secure = null;
             Integer flowFileCount = null;
             while (jsonReader.hasNext()) {
-                String name = jsonReader.nextName();
-                if (HOSTNAME.equals(name)) {
-                    hostname = jsonReader.nextString();
-                } else if (PORT.equals(name)) {
-                    port = jsonReader.nextInt();
-                } else if (SECURE.equals(name)) {
-                    secure = jsonReader.nextBoolean();
-                } else if (FLOW_FILE_COUNT.equals(name)) {
-                    flowFileCount = jsonReader.nextInt();
-                } else {
-                    jsonReader.skipValue();
+                switch (jsonReader.selectName(PEER_NAMES)) {
+                    case 0:
+                        hostname = jsonReader.nextString();
+                        break;
+                    case 1:
+                        port = jsonReader.nextInt();
+                        break;
+                    case 2:
+                        secure = jsonReader.nextBoolean();
+                        break;
+                    case 3:
+                        flowFileCount = jsonReader.nextInt();
+                        break;
+                    default:
+                        jsonReader.skipValue();
+                        break;
                 }
             }
             if (hostname == null) {
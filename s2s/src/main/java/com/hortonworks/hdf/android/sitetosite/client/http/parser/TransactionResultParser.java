@@ -17,15 +17,12 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.http.parser;
 
-import android.util.JsonReader;
-
 import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
-import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+import com.hortonworks.hdf.android.sitetosite.util.JsonPullParser;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 /**
  * Json streaming parser for getting transaction result
@@ -35,24 +32,30 @@ public class TransactionResultParser {
     public static final String RESPONSE_CODE = "responseCode";
     public static final String MESSAGE = "message";
 
+    private static final String[] NAMES = {FLOW_FILE_SENT, RESPONSE_CODE, MESSAGE};
+
     public static TransactionResult parseTransactionResult(InputStream inputStream) throws IOException {
         int flowFilesSent = 0;
         int responseCode = -1;
         String message = null;
-        JsonReader jsonReader = new JsonReader(new InputStreamReader(inputStream, Charsets.UTF_8));
+        JsonPullParser jsonReader = new JsonPullParser(inputStream);
         try {
             jsonReader.beginObject();
             try {
                 while (jsonReader.hasNext()) {
-                    String nextName = jsonReader.nextName();
-                    if (FLOW_FILE_SENT.equals(nextName)) {
-                        flowFilesSent = jsonReader.nextInt();
-                    } else if (RESPONSE_CODE.equals(nextName)) {
-                        responseCode = jsonReader.nextInt();
-                    } else if (MESSAGE.equals(nextName)) {
-                        message = jsonReader.nextString();
-                    } else {
-                        jsonReader.skipValue();
+                    switch (jsonReader.selectName(NAMES)) {
+                        case 0:
+                            flowFilesSent = jsonReader.nextInt();
+                            break;
+                        case 1:
+                            responseCode = jsonReader.nextInt();
+                            break;
+                        case 2:
+                            message = jsonReader.nextString();
+                            break;
+                        default:
+                            jsonReader.skipValue();
+                            break;
                     }
                 }
             } finally {
@@ -33,11 +33,16 @@ public class Peer implements Comparable<Peer>, Parcelable {
     private final boolean secure;
     private int flowFileCount;
     private long lastFailure = 0L;
+    private int flowFileProtocolVersion = 0;
+    private int flowFileCodecVersion = 0;
 
     public static final Creator<Peer> CREATOR = new Creator<Peer>() {
         @Override
         public Peer createFromParcel(Parcel source) {
-            return new Peer(source.readString(), source.readInt(), source.readInt(), Boolean.valueOf(source.readString()), source.readInt(), source.readLong());
+            Peer peer = new Peer(source.readString(), source.readInt(), source.readInt(), Boolean.valueOf(source.readString()), source.readInt(), source.readLong());
+            peer.flowFileProtocolVersion = source.readInt();
+            peer.flowFileCodecVersion = source.readInt();
+            return peer;
         }
 
         @Override
@@ -87,6 +92,45 @@ public class Peer implements Comparable<Peer>, Parcelable {
      */
     public void markFailure() {
         lastFailure = System.currentTimeMillis();
+        // The peer may have been restarted with a different version, negotiate from scratch next time
+        flowFileProtocolVersion = 0;
+        flowFileCodecVersion = 0;
+    }
+
+    /**
+     * Gets the SocketFlowFileProtocol version last negotiated with the peer
+     *
+     * @return the protocol version or 0 if it hasn't been negotiated
+     */
+    public int getFlowFileProtocolVersion() {
+        return flowFileProtocolVersion;
+    }
+
+    /**
+     * Sets the SocketFlowFileProtocol version negotiated with the peer so it can be proposed first next time
+     *
+     * @param flowFileProtocolVersion the protocol version
+     */
+    public void setFlowFileProtocolVersion(int flowFileProtocolVersion) {
+        this.flowFileProtocolVersion = flowFileProtocolVersion;
+    }
+
+    /**
+     * Gets the flow file codec version last negotiated with the peer
+     *
+     * @return the codec version or 0 if it hasn't been negotiated
+     */
+    public int getFlowFileCodecVersion() {
+        return flowFileCodecVersion;
+    }
+
+    /**
+     * Sets the flow file codec version negotiated with the peer so it can be proposed first next time
+     *
+     * @param flowFileCodecVersion the codec version
+     */
+    public void setFlowFileCodecVersion(int flowFileCodecVersion) {
+        this.flowFileCodecVersion = flowFileCodecVersion;
     }
 
     @Override
@@ -102,6 +146,8 @@ public class Peer implements Comparable<Peer>, Parcelable {
         dest.writeString(Boolean.toString(secure));
         dest.writeInt(flowFileCount);
         dest.writeLong(lastFailure);
+        dest.writeInt(flowFileProtocolVersion);
+        dest.writeInt(flowFileCodecVersion);
     }
 
     /**
@@ -191,6 +237,8 @@ public class Peer implements Comparable<Peer>, Parcelable {
                 ", rawPort=" + rawPort +
                 ", flowFileCount=" + flowFileCount +
                 ", lastFailure=" + lastFailure +
+                ", flowFileProtocolVersion=" + flowFileProtocolVersion +
+                ", flowFileCodecVersion=" + flowFileCodecVersion +
                 '}';
     }
 
@@ -53,7 +53,10 @@ public class PeerStatus implements Parcelable {
         this.peers = new ArrayList<>(peers.size());
         for (Peer peer : peers) {
             if (peer.getLastFailure() > System.currentTimeMillis()) {
-                this.peers.add(new Peer(peer.getHostname(), peer.getHttpPort(), peer.getRawPort(), peer.isSecure(), peer.getFlowFileCount()));
+                Peer resetPeer = new Peer(peer.getHostname(), peer.getHttpPort(), peer.getRawPort(), peer.isSecure(), peer.getFlowFileCount());
+                resetPeer.setFlowFileProtocolVersion(peer.getFlowFileProtocolVersion());
+                resetPeer.setFlowFileCodecVersion(peer.getFlowFileCodecVersion());
+                this.peers.add(resetPeer);
             } else {
                 this.peers.add(peer);
             }
@@ -24,6 +24,7 @@ import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
 import com.hortonworks.hdf.android.sitetosite.client.http.HttpPeerConnector;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -77,7 +78,28 @@ public class PeerTracker {
      */
     public synchronized void updatePeers() throws IOException {
         long lastPeerUpdate = System.currentTimeMillis();
-        List<Peer> newPeerList = peerUpdater.getPeers();
+        updatePeers(peerUpdater.getPeers(), lastPeerUpdate);
+    }
+
+    /**
+     * Updates the peer list with one that was retrieved along with another request
+     *
+     * @param newPeerList the peers reported by the remote instance
+     */
+    public synchronized void updatePeers(List<Peer> newPeerList) {
+        updatePeers(newPeerList, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a boolean indicating whether the peer list is older than the peer update interval
+     *
+     * @return a boolean indicating whether the peer list is older than the peer update interval
+     */
+    public synchronized boolean isPeerUpdateDue() {
+        return System.currentTimeMillis() - peerStatus.getLastPeerUpdate() > siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.MILLISECONDS);
+    }
+
+    private void updatePeers(List<Peer> newPeerList, long lastPeerUpdate) {
         Map<PeerKey, Peer> newPeerMap = new HashMap<>(newPeerList.size());
         for (Peer peer : newPeerList) {
             newPeerMap.put(peer.getPeerKey(), peer);
@@ -126,6 +148,15 @@ public class PeerTracker {
         return performOperation(peerStatus.getPeers(), operation, connectorFactory);
     }
 
+    /**
+     * Gets the peers in the order operations would try them without updating them
+     *
+     * @return the prioritized peers
+     */
+    public synchronized List<Peer> getPeers() {
+        return new ArrayList<>(peerStatus.getPeers());
+    }
+
     public synchronized <O, P> O performOperation(Collection<Peer> peers, PeerOperation<O, P> operation, PeerConnectorFactory<P> connectorFactory) throws IOException {
         IOException lastException = null;
         for (Peer peer : peers) {
@@ -159,10 +190,30 @@ public class PeerTracker {
      * @throws IOException if no peer was able to respond with s2s info
      */
     public String getPortIdentifier(final String portName) throws IOException {
+        return getPortIdentifier(portName, false);
+    }
+
+    /**
+     * Gets the port identifier for a given output port name
+     *
+     * @param portName the output port name
+     * @return the port identifier
+     * @throws IOException if no peer was able to respond with s2s info
+     */
+    public String getOutputPortIdentifier(final String portName) throws IOException {
+        return getPortIdentifier(portName, true);
+    }
+
+    private String getPortIdentifier(final String portName, final boolean outputPort) throws IOException {
         return performHttpOperation(new PeerOperation<String, HttpPeerConnector>() {
             @Override
             public String perform(Peer peer, HttpPeerConnector httpPeerConnector) throws IOException {
-                String identifier = getSiteToSiteInfo(httpPeerConnector).getIdForInputPortName(portName);
+                String identifier = getPortIdentifier(getSiteToSiteInfo(httpPeerConnector), portName, outputPort);
+                if (identifier == null) {
+                    // The cached info may predate the port (or have been persisted before output ports were)
+                    invalidateSiteToSiteInfo();
+                    identifier = getPortIdentifier(getSiteToSiteInfo(httpPeerConnector), portName, outputPort);
+                }
                 if (identifier == null) {
                     throw new IOException("Didn't find port named " + portName);
                 }
@@ -176,18 +227,46 @@ public class PeerTracker {
         });
     }
 
+    private static String getPortIdentifier(SiteToSiteInfo siteToSiteInfo, String portName, boolean outputPort) {
+        return outputPort ? siteToSiteInfo.getIdForOutputPortName(portName) : siteToSiteInfo.getIdForInputPortName(portName);
+    }
+
+    /**
+     * Gets the site-to-site info for the cluster, only querying the peer if the cached info is older than the peer update interval
+     *
+     * @param httpPeerConnector the connector to use if the info needs to be retrieved
+     * @return the site-to-site info
+     * @throws IOException if there is a problem retrieving the info
+     */
     public SiteToSiteInfo getSiteToSiteInfo(HttpPeerConnector httpPeerConnector) throws IOException {
+        SiteToSiteInfo siteToSiteInfo = siteToSiteRemoteCluster.getSiteToSiteInfo();
+        if (siteToSiteInfo != null && System.currentTimeMillis() - siteToSiteInfo.getLastUpdate() < siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.MILLISECONDS)) {
+            return siteToSiteInfo;
+        }
         HttpURLConnection httpURLConnection = httpPeerConnector.openConnection(SITE_TO_SITE_PATH);
         try {
-            return new SiteToSiteInfo(httpURLConnection.getInputStream());
+            InputStream inputStream = httpURLConnection.getInputStream();
+            try {
+                siteToSiteInfo = new SiteToSiteInfo(inputStream);
+            } finally {
+                inputStream.close();
+            }
         } finally {
             httpURLConnection.disconnect();
         }
+        siteToSiteRemoteCluster.setSiteToSiteInfo(siteToSiteInfo);
+        return siteToSiteInfo;
+    }
+
+    /**
+     * Discards the cached site-to-site info, e.g. when the peer reports the port identifier it was resolved to is unknown
+     */
+    public void invalidateSiteToSiteInfo() {
+        siteToSiteRemoteCluster.setSiteToSiteInfo(null);
     }
 
     private void updatePeersIfNecessary() throws IOException {
-        long currentTimeMillis = System.currentTimeMillis();
-        if (currentTimeMillis - peerStatus.getLastPeerUpdate() > siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.MILLISECONDS)) {
+        if (isPeerUpdateDue()) {
             updatePeers();
         }
     }
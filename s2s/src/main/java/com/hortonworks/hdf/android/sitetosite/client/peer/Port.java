@@ -17,7 +17,7 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.peer;
 
-import android.util.JsonReader;
+import com.hortonworks.hdf.android.sitetosite.util.JsonPullParser;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -30,7 +30,12 @@ public class Port {
     private final String id;
     private final String name;
 
-    public Port(JsonReader jsonReader) throws IOException {
+    public Port(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Port(JsonPullParser jsonReader) throws IOException {
         jsonReader.beginObject();
         String id = null;
         String name = null;
@@ -49,7 +54,7 @@ public class Port {
         this.name = name;
     }
 
-    public static List<Port> parsePortArray(JsonReader jsonReader) throws IOException {
+    public static List<Port> parsePortArray(JsonPullParser jsonReader) throws IOException {
         List<Port> inputPorts = new ArrayList<>();
         jsonReader.beginArray();
         while (jsonReader.hasNext()) {
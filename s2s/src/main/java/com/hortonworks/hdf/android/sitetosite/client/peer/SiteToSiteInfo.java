@@ -17,29 +17,66 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.peer;
 
-import android.util.JsonReader;
+import android.os.Parcel;
+import android.os.Parcelable;
 
-import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+import com.hortonworks.hdf.android.sitetosite.util.JsonPullParser;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
-public class SiteToSiteInfo {
+/**
+ * Site-to-site details of a NiFi instance, cached on the remote cluster to avoid looking them up for every client
+ */
+public class SiteToSiteInfo implements Parcelable {
     public static final String REMOTE_SITE_LISTENING_PORT = "remoteSiteListeningPort";
     public static final String CONTROLLER = "controller";
     public static final String INPUT_PORTS = "inputPorts";
+    public static final String OUTPUT_PORTS = "outputPorts";
     public static final String ID = "id";
     public static final String NAME = "name";
     private final Integer rawSiteToSitePort;
     private final List<Port> inputPorts;
+    private final List<Port> outputPorts;
+    private final long lastUpdate;
+
+    public static final Creator<SiteToSiteInfo> CREATOR = new Creator<SiteToSiteInfo>() {
+        @Override
+        public SiteToSiteInfo createFromParcel(Parcel source) {
+            Integer rawSiteToSitePort = null;
+            if (Boolean.valueOf(source.readString())) {
+                rawSiteToSitePort = source.readInt();
+            }
+            List<Port> inputPorts = readPorts(source);
+            long lastUpdate = source.readLong();
+            // Infos persisted before output ports were added end here, reading past the end gives 0 so no output ports
+            return new SiteToSiteInfo(rawSiteToSitePort, inputPorts, readPorts(source), lastUpdate);
+        }
+
+        @Override
+        public SiteToSiteInfo[] newArray(int size) {
+            return new SiteToSiteInfo[size];
+        }
+    };
+
+    public SiteToSiteInfo(Integer rawSiteToSitePort, List<Port> inputPorts, long lastUpdate) {
+        this(rawSiteToSitePort, inputPorts, new ArrayList<Port>(), lastUpdate);
+    }
+
+    public SiteToSiteInfo(Integer rawSiteToSitePort, List<Port> inputPorts, List<Port> outputPorts, long lastUpdate) {
+        this.rawSiteToSitePort = rawSiteToSitePort;
+        this.inputPorts = inputPorts;
+        this.outputPorts = outputPorts;
+        this.lastUpdate = lastUpdate;
+    }
 
     public SiteToSiteInfo(InputStream inputStream) throws IOException {
         List<Port> inputPorts = new ArrayList<>();
+        List<Port> outputPorts = new ArrayList<>();
         Integer rawSiteToSitePort = null;
-        JsonReader jsonReader = new JsonReader(new InputStreamReader(inputStream, Charsets.UTF_8));
+        JsonPullParser jsonReader = new JsonPullParser(inputStream);
         try {
             jsonReader.beginObject();
             while (jsonReader.hasNext()) {
@@ -49,11 +86,13 @@ public class SiteToSiteInfo {
                         String controllerKey = jsonReader.nextName();
                         if (INPUT_PORTS.equals(controllerKey)) {
                             inputPorts = Port.parsePortArray(jsonReader);
+                        } else if (OUTPUT_PORTS.equals(controllerKey)) {
+                            outputPorts = Port.parsePortArray(jsonReader);
                         } else if (REMOTE_SITE_LISTENING_PORT.equals(controllerKey)) {
-                            try {
+                            if (jsonReader.peek() == JsonPullParser.Token.NUMBER) {
                                 rawSiteToSitePort = jsonReader.nextInt();
-                            } catch (Exception e) {
-                                rawSiteToSitePort = null;
+                            } else {
+                                jsonReader.skipValue();
                             }
                         } else {
                             jsonReader.skipValue();
@@ -70,18 +109,72 @@ public class SiteToSiteInfo {
         }
         this.rawSiteToSitePort = rawSiteToSitePort;
         this.inputPorts = inputPorts;
+        this.outputPorts = outputPorts;
+        this.lastUpdate = System.currentTimeMillis();
     }
 
     public String getIdForInputPortName(String name) {
-        for (Port inputPort : inputPorts) {
-            if (name.equals(inputPort.getName())) {
-                return inputPort.getId();
+        return getIdForPortName(inputPorts, name);
+    }
+
+    public String getIdForOutputPortName(String name) {
+        return getIdForPortName(outputPorts, name);
+    }
+
+    private static String getIdForPortName(List<Port> ports, String name) {
+        for (Port port : ports) {
+            if (name.equals(port.getName())) {
+                return port.getId();
             }
         }
         return null;
     }
 
+    private static List<Port> readPorts(Parcel source) {
+        int numPorts = source.readInt();
+        List<Port> ports = new ArrayList<>(numPorts);
+        for (int i = 0; i < numPorts; i++) {
+            ports.add(new Port(source.readString(), source.readString()));
+        }
+        return ports;
+    }
+
+    private static void writePorts(Parcel dest, List<Port> ports) {
+        dest.writeInt(ports.size());
+        for (Port port : ports) {
+            dest.writeString(port.getId());
+            dest.writeString(port.getName());
+        }
+    }
+
     public Integer getRawSiteToSitePort() {
         return rawSiteToSitePort;
     }
+
+    /**
+     * Gets the time the info was retrieved from the NiFi instance
+     *
+     * @return the time the info was retrieved from the NiFi instance
+     */
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(Boolean.toString(rawSiteToSitePort != null));
+        if (rawSiteToSitePort != null) {
+            dest.writeInt(rawSiteToSitePort);
+        }
+        writePorts(dest, inputPorts);
+        dest.writeLong(lastUpdate);
+        // Infos are persisted in this layout (see SiteToSiteDB) so new fields have to be appended after the existing
+        // ones and read back with a default when an older parcel ends before them
+        writePorts(dest, outputPorts);
+    }
 }
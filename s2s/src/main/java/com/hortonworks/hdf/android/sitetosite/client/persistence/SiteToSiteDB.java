@@ -24,10 +24,12 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Parcel;
+import android.os.Parcelable;
 
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerStatus;
+import com.hortonworks.hdf.android.sitetosite.client.peer.SiteToSiteInfo;
 import static com.hortonworks.hdf.android.sitetosite.client.persistence.SiteToSiteDBConstants.*;
 
 import java.util.ArrayList;
@@ -41,7 +43,7 @@ import java.util.concurrent.TimeUnit;
  * Easily save and load state useful for site-to-site communication
  */
 public class SiteToSiteDB {
-    private static final int VERSION = 1;
+    private static final int VERSION = 4;
 
     private static SQLiteOpenHelper sqLiteOpenHelper;
 
@@ -57,7 +59,7 @@ public class SiteToSiteDB {
     }
 
     /**
-     * Saves the peer status for a given url set and proxy
+     * Saves the peer status and site-to-site info for a given url set and proxy
      *
      * @param siteToSiteClientConfig the configuration to save the peer status for
      */
@@ -65,35 +67,23 @@ public class SiteToSiteDB {
         SQLiteDatabase writableDatabase = sqLiteOpenHelper.getWritableDatabase();
         writableDatabase.beginTransaction();
         try {
-            writableDatabase.execSQL("DELETE FROM " + PEER_STATUSES_TABLE_NAME + " WHERE " + EXPIRATION_MILLIS_COLUMN + " <= ?", new Object[]{new Date().getTime()});
+            long now = new Date().getTime();
+            long expirationMillis = now + siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.MILLISECONDS);
+            writableDatabase.execSQL("DELETE FROM " + PEER_STATUSES_TABLE_NAME + " WHERE " + EXPIRATION_MILLIS_COLUMN + " <= ?", new Object[]{now});
+            writableDatabase.execSQL("DELETE FROM " + SITE_TO_SITE_INFOS_TABLE_NAME + " WHERE " + EXPIRATION_MILLIS_COLUMN + " <= ?", new Object[]{now});
             for (SiteToSiteRemoteCluster siteToSiteRemoteCluster : siteToSiteClientConfig.getRemoteClusters()) {
                 PeerStatus peerStatus = siteToSiteRemoteCluster.getPeerStatus();
-                if (peerStatus == null) {
-                    continue;
+                if (peerStatus != null) {
+                    saveForCluster(writableDatabase, PEER_STATUSES_TABLE_NAME, siteToSiteRemoteCluster, peerStatus, expirationMillis);
                 }
 
-                Parcel parcel = Parcel.obtain();
-                peerStatus.writeToParcel(parcel, 0);
-                parcel.setDataPosition(0);
-                byte[] bytes = parcel.marshall();
-
-                String urlsString = getPeerUrlsString(siteToSiteRemoteCluster.getUrls());
-                String proxyHost = siteToSiteRemoteCluster.getProxyHost();
-                int proxyPort = siteToSiteRemoteCluster.getProxyPort();
-
-                writableDatabase.delete(PEER_STATUSES_TABLE_NAME, PEER_STATUS_WHERE_CLAUSE, new String[]{urlsString, proxyHost, Integer.toString(proxyPort)});
-                ContentValues values = new ContentValues();
-                values.put(PEER_STATUS_URLS_COLUMN, urlsString);
-                if (proxyHost == null || proxyHost.isEmpty()) {
-                    values.putNull(PEER_STATUS_PROXY_HOST_COLUMN);
-                    values.putNull(PEER_STATUS_PROXY_PORT_COLUMN);
+                SiteToSiteInfo siteToSiteInfo = siteToSiteRemoteCluster.getSiteToSiteInfo();
+                if (siteToSiteInfo == null) {
+                    // Invalidated, don't let a stale copy be loaded next time
+                    deleteForCluster(writableDatabase, SITE_TO_SITE_INFOS_TABLE_NAME, siteToSiteRemoteCluster);
                 } else {
-                    values.put(PEER_STATUS_PROXY_HOST_COLUMN, proxyHost);
-                    values.put(PEER_STATUS_PROXY_PORT_COLUMN, proxyPort);
+                    saveForCluster(writableDatabase, SITE_TO_SITE_INFOS_TABLE_NAME, siteToSiteRemoteCluster, siteToSiteInfo, siteToSiteInfo.getLastUpdate() + siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.MILLISECONDS));
                 }
-                values.put(CONTENT_COLUMN, bytes);
-                values.put(EXPIRATION_MILLIS_COLUMN, new Date().getTime() + siteToSiteClientConfig.getPeerUpdateInterval(TimeUnit.MILLISECONDS));
-                writableDatabase.insertOrThrow(PEER_STATUSES_TABLE_NAME, null, values);
             }
             writableDatabase.setTransactionSuccessful();
         } catch (SQLiteException e) {
@@ -105,7 +95,7 @@ public class SiteToSiteDB {
     }
 
     /**
-     * Gets the peer status for a given url set and proxy
+     * Gets the peer status and site-to-site info for a given url set and proxy
      *
      * @param siteToSiteClientConfig the config to get peer status for
      */
@@ -114,39 +104,19 @@ public class SiteToSiteDB {
         try {
             for (SiteToSiteRemoteCluster siteToSiteRemoteCluster : siteToSiteClientConfig.getRemoteClusters()) {
                 PeerStatus origPeerStatus = siteToSiteRemoteCluster.getPeerStatus();
-
-                List<String> parameters = new ArrayList<>();
-
-                String peerUrlsString = getPeerUrlsString(siteToSiteRemoteCluster.getUrls());
-                StringBuilder queryString = new StringBuilder(PEER_STATUS_URLS_COLUMN).append(" = ? AND ").append(PEER_STATUS_PROXY_HOST_COLUMN);
-                parameters.add(peerUrlsString);
-
-                String proxyHost = siteToSiteRemoteCluster.getProxyHost();
-                if (proxyHost == null || proxyHost.isEmpty()) {
-                    queryString.append(" IS NULL AND ").append(PEER_STATUS_PROXY_PORT_COLUMN).append(" IS NULL");
-                } else {
-                    queryString.append(" = ? AND ").append(PEER_STATUS_PROXY_PORT_COLUMN).append(" = ?");
-                    parameters.add(proxyHost);
-                    parameters.add(Integer.toString(siteToSiteRemoteCluster.getProxyPort()));
+                for (PeerStatus dbPeerStatus : loadForCluster(readableDatabase, PEER_STATUSES_TABLE_NAME, siteToSiteRemoteCluster, PeerStatus.CREATOR)) {
+                    if (dbPeerStatus != null && (origPeerStatus == null || origPeerStatus.getLastPeerUpdate() < dbPeerStatus.getLastPeerUpdate())) {
+                        siteToSiteRemoteCluster.setPeerStatus(dbPeerStatus);
+                        origPeerStatus = dbPeerStatus;
+                    }
                 }
-                Cursor cursor;
-                cursor = readableDatabase.query(false, PEER_STATUSES_TABLE_NAME, new String[]{CONTENT_COLUMN}, queryString.toString(),
-                        parameters.toArray(new String[parameters.size()]), null, null, null, null);
-                try {
-                    int contentIndex = cursor.getColumnIndexOrThrow(CONTENT_COLUMN);
-                    while (cursor.moveToNext()) {
-                        byte[] bytes = cursor.getBlob(contentIndex);
-                        Parcel parcel = Parcel.obtain();
-                        parcel.unmarshall(bytes, 0, bytes.length);
-                        parcel.setDataPosition(0);
-                        PeerStatus dbPeerStatus = PeerStatus.CREATOR.createFromParcel(parcel);
-                        if (dbPeerStatus != null && (origPeerStatus == null || origPeerStatus.getLastPeerUpdate() < dbPeerStatus.getLastPeerUpdate())) {
-                            siteToSiteRemoteCluster.setPeerStatus(dbPeerStatus);
-                            origPeerStatus = dbPeerStatus;
-                        }
+
+                SiteToSiteInfo origSiteToSiteInfo = siteToSiteRemoteCluster.getSiteToSiteInfo();
+                for (SiteToSiteInfo dbSiteToSiteInfo : loadForCluster(readableDatabase, SITE_TO_SITE_INFOS_TABLE_NAME, siteToSiteRemoteCluster, SiteToSiteInfo.CREATOR)) {
+                    if (dbSiteToSiteInfo != null && (origSiteToSiteInfo == null || origSiteToSiteInfo.getLastUpdate() < dbSiteToSiteInfo.getLastUpdate())) {
+                        siteToSiteRemoteCluster.setSiteToSiteInfo(dbSiteToSiteInfo);
+                        origSiteToSiteInfo = dbSiteToSiteInfo;
                     }
-                } finally {
-                    cursor.close();
                 }
             }
         } catch (SQLiteException e) {
@@ -156,6 +126,79 @@ public class SiteToSiteDB {
         }
     }
 
+    private void saveForCluster(SQLiteDatabase writableDatabase, String tableName, SiteToSiteRemoteCluster siteToSiteRemoteCluster, Parcelable parcelable, long expirationMillis) {
+        Parcel parcel = Parcel.obtain();
+        byte[] bytes;
+        try {
+            parcelable.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            bytes = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        deleteForCluster(writableDatabase, tableName, siteToSiteRemoteCluster);
+        ContentValues values = new ContentValues();
+        values.put(PEER_STATUS_URLS_COLUMN, getPeerUrlsString(siteToSiteRemoteCluster.getUrls()));
+        String proxyHost = siteToSiteRemoteCluster.getProxyHost();
+        if (proxyHost == null || proxyHost.isEmpty()) {
+            values.putNull(PEER_STATUS_PROXY_HOST_COLUMN);
+            values.putNull(PEER_STATUS_PROXY_PORT_COLUMN);
+        } else {
+            values.put(PEER_STATUS_PROXY_HOST_COLUMN, proxyHost);
+            values.put(PEER_STATUS_PROXY_PORT_COLUMN, siteToSiteRemoteCluster.getProxyPort());
+        }
+        values.put(CONTENT_COLUMN, bytes);
+        values.put(EXPIRATION_MILLIS_COLUMN, expirationMillis);
+        writableDatabase.insertOrThrow(tableName, null, values);
+    }
+
+    private void deleteForCluster(SQLiteDatabase writableDatabase, String tableName, SiteToSiteRemoteCluster siteToSiteRemoteCluster) {
+        List<String> parameters = new ArrayList<>();
+        String whereClause = getClusterWhereClause(siteToSiteRemoteCluster, parameters);
+        writableDatabase.delete(tableName, whereClause, parameters.toArray(new String[parameters.size()]));
+    }
+
+    private <T> List<T> loadForCluster(SQLiteDatabase readableDatabase, String tableName, SiteToSiteRemoteCluster siteToSiteRemoteCluster, Parcelable.Creator<T> creator) {
+        List<String> parameters = new ArrayList<>();
+        String whereClause = getClusterWhereClause(siteToSiteRemoteCluster, parameters);
+        Cursor cursor = readableDatabase.query(false, tableName, new String[]{CONTENT_COLUMN}, whereClause,
+                parameters.toArray(new String[parameters.size()]), null, null, null, null);
+        try {
+            List<T> result = new ArrayList<>(cursor.getCount());
+            int contentIndex = cursor.getColumnIndexOrThrow(CONTENT_COLUMN);
+            while (cursor.moveToNext()) {
+                byte[] bytes = cursor.getBlob(contentIndex);
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(bytes, 0, bytes.length);
+                    parcel.setDataPosition(0);
+                    result.add(creator.createFromParcel(parcel));
+                } finally {
+                    parcel.recycle();
+                }
+            }
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String getClusterWhereClause(SiteToSiteRemoteCluster siteToSiteRemoteCluster, List<String> parameters) {
+        StringBuilder queryString = new StringBuilder(PEER_STATUS_URLS_COLUMN).append(" = ? AND ").append(PEER_STATUS_PROXY_HOST_COLUMN);
+        parameters.add(getPeerUrlsString(siteToSiteRemoteCluster.getUrls()));
+
+        String proxyHost = siteToSiteRemoteCluster.getProxyHost();
+        if (proxyHost == null || proxyHost.isEmpty()) {
+            queryString.append(" IS NULL AND ").append(PEER_STATUS_PROXY_PORT_COLUMN).append(" IS NULL");
+        } else {
+            queryString.append(" = ? AND ").append(PEER_STATUS_PROXY_PORT_COLUMN).append(" = ?");
+            parameters.add(proxyHost);
+            parameters.add(Integer.toString(siteToSiteRemoteCluster.getProxyPort()));
+        }
+        return queryString.toString();
+    }
+
     private String getPeerUrlsString(Set<String> peerUrlsPreference) {
         List<String> orderedUrls = new ArrayList<>(peerUrlsPreference);
         Collections.sort(orderedUrls);
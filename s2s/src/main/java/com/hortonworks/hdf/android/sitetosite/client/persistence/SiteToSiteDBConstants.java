@@ -29,10 +29,13 @@ public class SiteToSiteDBConstants {
     public static final String PEER_STATUS_PROXY_PORT_COLUMN = "PROXY_PORT";
     public static final String PEER_STATUS_WHERE_CLAUSE = PEER_STATUS_URLS_COLUMN + " = ? AND " + PEER_STATUS_PROXY_HOST_COLUMN + " = ? AND " + PEER_STATUS_PROXY_PORT_COLUMN + " = ?";
 
+    public static final String SITE_TO_SITE_INFOS_TABLE_NAME = "APACHE_NIFI_SITE_TO_SITE_INFOS";
+
     public static final String DATA_PACKET_QUEUE_TABLE_NAME = "APACHE_NIFI_SITE_TO_SITE_QUEUE";
     public static final String DATA_PACKET_QEUE_PRIORITY_COLUMN = "PRIORITY";
     public static final String DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN = "ATTRIBUTES";
     public static final String DATA_PACKET_QUEUE_TRANSACTION_COLUMN = "TRANSACTION_ID";
+    public static final String DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN = "CONTENT_CRC";
 
     public static final String DATA_PACKET_QUEUE_TRANSACTIONS_TABLE_NAME = "APACHE_NIFI_SITE_TO_SITE_QUEUE_TRANSACTIONS";
 }
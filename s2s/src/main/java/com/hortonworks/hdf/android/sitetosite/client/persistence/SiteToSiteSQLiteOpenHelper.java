@@ -47,7 +47,8 @@ class SiteToSiteSQLiteOpenHelper extends SQLiteOpenHelper {
                 DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN + " BLOB, " +
                 CONTENT_COLUMN + " BLOB, " +
                 DATA_PACKET_QUEUE_TRANSACTION_COLUMN + " INTEGER, " +
-                EXPIRATION_MILLIS_COLUMN + " INTEGER)");
+                EXPIRATION_MILLIS_COLUMN + " INTEGER, " +
+                DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN + " INTEGER)");
         db.execSQL("CREATE INDEX " + DATA_PACKET_QUEUE_TABLE_NAME + "_" + DATA_PACKET_QUEUE_TRANSACTION_COLUMN + "_index ON " + DATA_PACKET_QUEUE_TABLE_NAME + "(" + DATA_PACKET_QUEUE_TRANSACTION_COLUMN + ")");
         db.execSQL("CREATE INDEX " + DATA_PACKET_QUEUE_TABLE_NAME + "_" + EXPIRATION_MILLIS_COLUMN + "_index ON " + DATA_PACKET_QUEUE_TABLE_NAME + "(" + EXPIRATION_MILLIS_COLUMN + ")");
         db.execSQL("CREATE INDEX " + DATA_PACKET_QUEUE_TABLE_NAME + "_sort_index ON " + DATA_PACKET_QUEUE_TABLE_NAME + "(" + DATA_PACKET_QEUE_PRIORITY_COLUMN + ", " + CREATED_COLUMN + ", " + ID_COLUMN + ")");
@@ -56,10 +57,33 @@ class SiteToSiteSQLiteOpenHelper extends SQLiteOpenHelper {
                 DATA_PACKET_QUEUE_TRANSACTION_COLUMN + " INTEGER PRIMARY KEY, " +
                 EXPIRATION_MILLIS_COLUMN + " INTEGER)");
         db.execSQL("CREATE INDEX " + DATA_PACKET_QUEUE_TRANSACTIONS_TABLE_NAME + "_" + EXPIRATION_MILLIS_COLUMN + "_index ON " + DATA_PACKET_QUEUE_TRANSACTIONS_TABLE_NAME + "(" + EXPIRATION_MILLIS_COLUMN + ")");
+
+        createSiteToSiteInfosTable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createSiteToSiteInfosTable(db);
+        }
+        if (oldVersion < 3) {
+            // Peers gained negotiated versions so stored peer statuses can't be unparceled anymore, they'll be refetched
+            db.delete(PEER_STATUSES_TABLE_NAME, null, null);
+        }
+        if (oldVersion < 4) {
+            // Rows queued before this have no checksum and are checksummed as they're sent
+            db.execSQL("ALTER TABLE " + DATA_PACKET_QUEUE_TABLE_NAME + " ADD COLUMN " + DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN + " INTEGER");
+        }
+    }
 
+    private void createSiteToSiteInfosTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SITE_TO_SITE_INFOS_TABLE_NAME + " (" +
+                PEER_STATUS_URLS_COLUMN + " TEXT, " +
+                PEER_STATUS_PROXY_HOST_COLUMN + " TEXT, " +
+                PEER_STATUS_PROXY_PORT_COLUMN + " INTEGER, " +
+                CONTENT_COLUMN + " BLOB, " +
+                EXPIRATION_MILLIS_COLUMN + " INTEGER, " +
+                "PRIMARY KEY(" + PEER_STATUS_URLS_COLUMN + ", " + PEER_STATUS_PROXY_HOST_COLUMN + ", " + PEER_STATUS_PROXY_PORT_COLUMN + "))");
+        db.execSQL("CREATE INDEX " + SITE_TO_SITE_INFOS_TABLE_NAME + "_" + EXPIRATION_MILLIS_COLUMN + "_index ON " + SITE_TO_SITE_INFOS_TABLE_NAME + "(" + EXPIRATION_MILLIS_COLUMN + ")");
     }
 }
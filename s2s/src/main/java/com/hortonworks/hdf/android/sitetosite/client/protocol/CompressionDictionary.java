@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.protocol;
+
+import com.hortonworks.hdf.android.sitetosite.client.transaction.DataPacketWriter;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.Adler32;
+
+/**
+ * Preset dictionaries for compression.  Small packets that repeat the same attribute and field names compress poorly on
+ * their own but well when the deflater starts with a sample of similar data in its window.  Both ends need the same
+ * dictionary so it is only used when the server acknowledges its id.
+ */
+public class CompressionDictionary {
+    // Deflate can only refer back as far as its 32 KB window
+    public static final int MAX_SIZE = 32 << 10;
+    public static final int MAX_SAMPLE_SIZE = 4 << 10;
+
+    private CompressionDictionary() {
+
+    }
+
+    /**
+     * Builds a dictionary from the wire encoding of recent packets, oldest first.  Packets too large to benefit are
+     * skipped, as are duplicates, and the newest samples end up last where matches are cheapest to encode.
+     *
+     * @param dataPackets the packets, oldest first
+     * @return the dictionary, at most {@link #MAX_SIZE} bytes
+     * @throws IOException if a packet can't be read
+     */
+    public static byte[] train(Iterator<DataPacket> dataPackets) throws IOException {
+        Deque<ByteBuffer> samples = new ArrayDeque<>();
+        Set<ByteBuffer> distinct = new HashSet<>();
+        int size = 0;
+        while (dataPackets.hasNext()) {
+            DataPacket dataPacket = dataPackets.next();
+            if (dataPacket.getSize() > MAX_SAMPLE_SIZE) {
+                continue;
+            }
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            DataPacketWriter dataPacketWriter = new DataPacketWriter(byteArrayOutputStream);
+            dataPacketWriter.write(dataPacket);
+            dataPacketWriter.close();
+            ByteBuffer sample = ByteBuffer.wrap(byteArrayOutputStream.toByteArray());
+            if (sample.remaining() > MAX_SAMPLE_SIZE || !distinct.add(sample)) {
+                continue;
+            }
+            samples.add(sample);
+            size += sample.remaining();
+            while (size > MAX_SIZE) {
+                ByteBuffer oldest = samples.poll();
+                distinct.remove(oldest);
+                size -= oldest.remaining();
+            }
+        }
+        byte[] dictionary = new byte[size];
+        int offset = 0;
+        for (ByteBuffer sample : samples) {
+            int length = sample.remaining();
+            sample.get(dictionary, offset, length);
+            offset += length;
+        }
+        return dictionary;
+    }
+
+    /**
+     * Gets the id a deflate stream primed with the dictionary refers to it by, its Adler-32 checksum
+     *
+     * @param dictionary the dictionary
+     * @return the id
+     */
+    public static long getId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        return adler32.getValue();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a stream written by a {@link CompressionOutputStream}, stopping right after its end marker so that whatever follows
+ * it can be read from the underlying stream.  Closing doesn't close the underlying stream.
+ */
+public class CompressionInputStream extends InputStream {
+    private final DataInputStream in;
+    private final Inflater inflater;
+    private final byte[] dictionary;
+    private final byte[] syncBytes = new byte[CompressionOutputStream.SYNC_BYTES.length];
+
+    private byte[] compressed = new byte[0];
+    private byte[] buffer = new byte[0];
+    private int bufferIndex = 0;
+    private int bufferLength = 0;
+    private boolean firstChunk = true;
+    private boolean eos = false;
+
+    public CompressionInputStream(final InputStream in) {
+        this(in, null);
+    }
+
+    /**
+     * Creates a stream that can read chunks primed with a preset dictionary
+     *
+     * @param in         the underlying stream
+     * @param dictionary the dictionary chunks may have been compressed with (may be null)
+     */
+    public CompressionInputStream(final InputStream in, final byte[] dictionary) {
+        this.in = new DataInputStream(in);
+        this.inflater = new Inflater();
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Reads and inflates the next chunk, returns false once the end marker is reached
+     */
+    private boolean readChunk() throws IOException {
+        while (!eos) {
+            final int indicator = in.read();
+            if (indicator < 0) {
+                if (firstChunk) {
+                    // Nothing was written at all
+                    eos = true;
+                    return false;
+                }
+                throw new EOFException("Compressed stream ended without end marker");
+            } else if (indicator == 0) {
+                eos = true;
+                return false;
+            } else if (firstChunk && indicator == CompressionOutputStream.SYNC_BYTES[0]) {
+                syncBytes[0] = (byte) indicator;
+                in.readFully(syncBytes, 1, syncBytes.length - 1);
+            } else if (!firstChunk && indicator == 1) {
+                in.readFully(syncBytes);
+            } else {
+                throw new IOException("Expected a compressed chunk but got " + indicator);
+            }
+            if (!Arrays.equals(CompressionOutputStream.SYNC_BYTES, syncBytes)) {
+                throw new IOException("Compressed chunk didn't start with sync bytes");
+            }
+            firstChunk = false;
+
+            final int originalLength = in.readInt();
+            final int compressedLength = in.readInt();
+            if (originalLength < 0 || compressedLength < 0) {
+                throw new IOException("Invalid compressed chunk lengths " + originalLength + ", " + compressedLength);
+            }
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            in.readFully(compressed, 0, compressedLength);
+            if (buffer.length < originalLength) {
+                buffer = new byte[originalLength];
+            }
+
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            int inflated = 0;
+            try {
+                while (inflated < originalLength) {
+                    final int read = inflater.inflate(buffer, inflated, originalLength - inflated);
+                    if (read == 0 && inflater.needsDictionary()) {
+                        setDictionary();
+                        continue;
+                    }
+                    if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Compressed chunk inflated to " + inflated + " bytes instead of " + originalLength);
+                    }
+                    inflated += read;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Unable to inflate compressed chunk", e);
+            }
+            bufferIndex = 0;
+            bufferLength = originalLength;
+            if (bufferLength > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void setDictionary() throws IOException {
+        if (dictionary == null) {
+            throw new IOException("Compressed chunk needs a preset dictionary");
+        }
+        try {
+            inflater.setDictionary(dictionary);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Compressed chunk was primed with a different dictionary (" + inflater.getAdler() + ")", e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (bufferIndex >= bufferLength && !readChunk()) {
+            return -1;
+        }
+        return buffer[bufferIndex++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (bufferIndex >= bufferLength && !readChunk()) {
+            return -1;
+        }
+        final int read = Math.min(len, bufferLength - bufferIndex);
+        System.arraycopy(buffer, bufferIndex, b, off, read);
+        bufferIndex += read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return bufferLength - bufferIndex;
+    }
+
+    /**
+     * Releases the inflater, the underlying stream is left open
+     */
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+    }
+}
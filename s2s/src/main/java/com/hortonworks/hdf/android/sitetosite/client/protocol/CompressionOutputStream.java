@@ -18,11 +18,37 @@
 package com.hortonworks.hdf.android.sitetosite.client.protocol;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 
 /**
- * Stream for sending compressed data to NiFi
+ * Stream for sending compressed data to NiFi.  Every chunk is framed and compressed independently so with a parallelism
+ * above 1 chunks are compressed on a shared worker pool, with at most that many in flight, and written in order.
+ * <p>
+ * In adaptive mode chunks that look incompressible (high byte entropy in a sample) are stored instead of compressed and
+ * the level of the rest moves between {@link #DEFAULT_COMPRESSION_LEVEL} and {@link #MAX_ADAPTIVE_LEVEL} depending on
+ * whether compressing or writing to the stream is the bottleneck.
+ * <p>
+ * Chunks, along with their Deflater's native zlib state, are returned to a shared pool on close and reused by later
+ * streams with the same buffer size.
  */
 public class CompressionOutputStream extends OutputStream {
     public static final byte[] SYNC_BYTES = new byte[]{'S', 'Y', 'N', 'C'};
@@ -30,14 +56,39 @@ public class CompressionOutputStream extends OutputStream {
     public static final int DEFAULT_COMPRESSION_LEVEL = 1;
     public static final int DEFAULT_BUFFER_SIZE = 64 << 10;
     public static final int MIN_BUFFER_SIZE = 8 << 10;
+    public static final int MAX_ADAPTIVE_LEVEL = 6;
+
+    // Bits per byte above which a chunk is stored, compressed media samples at nearly 8
+    private static final double STORE_ENTROPY_THRESHOLD = 7.5;
+    private static final int ENTROPY_SAMPLES = 4096;
+
+    private static final int IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    // zlib's deflate state for the default window and memory level, the Deflater's share of native memory
+    public static final long DEFLATER_NATIVE_BYTES = (1 << 17) + (1 << 17) + (6 << 10);
+    private static final int MAX_POOLED_CHUNKS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static ExecutorService executorService;
+
+    private static final Map<Integer, Deque<Chunk>> pool = new HashMap<>();
+    private static int pooledChunks;
+    private static final AtomicInteger liveDeflaters = new AtomicInteger();
 
     private final OutputStream out;
-    private final Deflater deflater;
+    private final int parallelism;
 
-    private final byte[] buffer;
-    private final byte[] compressed;
+    // Chunks being compressed in the order they have to be written and chunks ready to be filled
+    private final Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+    private final Deque<Chunk> free = new ArrayDeque<>();
+    private final List<Chunk> owned = new ArrayList<>();
+    private final int strategy;
+    private final int bufferSize;
+    private final boolean adaptive;
+    private final byte[] dictionary;
+    private int level;
+    private int chunks;
 
-    private int bufferIndex = 0;
+    private Chunk current;
     private boolean dataWritten = false;
 
     public CompressionOutputStream(final OutputStream outStream) {
@@ -49,39 +100,217 @@ public class CompressionOutputStream extends OutputStream {
     }
 
     public CompressionOutputStream(final OutputStream outStream, final int bufferSize, final int level, final int strategy) {
+        this(outStream, bufferSize, level, strategy, 1);
+    }
+
+    /**
+     * Creates a compression stream
+     *
+     * @param outStream   the stream to write compressed chunks to
+     * @param bufferSize  the size of the chunks
+     * @param level       the compression level
+     * @param strategy    the compression strategy
+     * @param parallelism the number of chunks that can be compressed at the same time, 1 compresses on the writing thread
+     */
+    public CompressionOutputStream(final OutputStream outStream, final int bufferSize, final int level, final int strategy, final int parallelism) {
+        this(outStream, bufferSize, level, strategy, parallelism, false);
+    }
+
+    /**
+     * Creates a compression stream
+     *
+     * @param outStream   the stream to write compressed chunks to
+     * @param bufferSize  the size of the chunks
+     * @param level       the compression level (the starting level in adaptive mode)
+     * @param strategy    the compression strategy
+     * @param parallelism the number of chunks that can be compressed at the same time, 1 compresses on the writing thread
+     * @param adaptive    whether to store incompressible chunks and adjust the level to the speed of the stream
+     */
+    public CompressionOutputStream(final OutputStream outStream, final int bufferSize, final int level, final int strategy, final int parallelism, final boolean adaptive) {
+        this(outStream, bufferSize, level, strategy, parallelism, adaptive, null);
+    }
+
+    /**
+     * Creates a compression stream
+     *
+     * @param outStream   the stream to write compressed chunks to
+     * @param bufferSize  the size of the chunks
+     * @param level       the compression level (the starting level in adaptive mode)
+     * @param strategy    the compression strategy
+     * @param parallelism the number of chunks that can be compressed at the same time, 1 compresses on the writing thread
+     * @param adaptive    whether to store incompressible chunks and adjust the level to the speed of the stream
+     * @param dictionary  the preset dictionary every chunk is primed with, the reader has to have the same one (may be null)
+     */
+    public CompressionOutputStream(final OutputStream outStream, final int bufferSize, final int level, final int strategy, final int parallelism, final boolean adaptive,
+                                   final byte[] dictionary) {
         if (bufferSize < MIN_BUFFER_SIZE) {
             throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE);
         }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
 
         this.out = outStream;
-        this.deflater = new Deflater(level);
-        this.deflater.setStrategy(strategy);
-        buffer = new byte[bufferSize];
-        compressed = new byte[bufferSize + 64];
+        this.bufferSize = bufferSize;
+        this.level = level;
+        this.strategy = strategy;
+        this.parallelism = parallelism;
+        this.adaptive = adaptive;
+        this.dictionary = dictionary;
+        current = newChunk();
+    }
+
+    private Chunk newChunk() {
+        chunks++;
+        Chunk chunk = acquire(bufferSize);
+        chunk.strategy = strategy;
+        chunk.adaptive = adaptive;
+        chunk.dictionary = dictionary;
+        owned.add(chunk);
+        return chunk;
+    }
+
+    private static Chunk acquire(int bufferSize) {
+        synchronized (pool) {
+            Deque<Chunk> pooled = pool.get(bufferSize);
+            if (pooled != null && !pooled.isEmpty()) {
+                pooledChunks--;
+                return pooled.poll();
+            }
+        }
+        return new Chunk(bufferSize);
+    }
+
+    private static void recycle(Chunk chunk) {
+        chunk.length = 0;
+        chunk.deflater.reset();
+        synchronized (pool) {
+            if (pooledChunks < MAX_POOLED_CHUNKS) {
+                Deque<Chunk> pooled = pool.get(chunk.buffer.length);
+                if (pooled == null) {
+                    pooled = new ArrayDeque<>();
+                    pool.put(chunk.buffer.length, pooled);
+                }
+                pooled.add(chunk);
+                pooledChunks++;
+                return;
+            }
+        }
+        chunk.end();
+    }
+
+    /**
+     * Gets the number of Deflaters that haven't been ended, whether in use or pooled
+     *
+     * @return the number of live Deflaters
+     */
+    public static int getLiveDeflaterCount() {
+        return liveDeflaters.get();
     }
 
     /**
-     * Compresses the currently buffered chunk of data and sends it to the output stream
+     * Gets the number of chunks waiting in the pool for a stream to use them
+     *
+     * @return the number of pooled chunks
+     */
+    public static int getPooledChunkCount() {
+        synchronized (pool) {
+            return pooledChunks;
+        }
+    }
+
+    /**
+     * Estimates the native memory held by live Deflaters
+     *
+     * @return the estimated native bytes
+     */
+    public static long getDeflaterNativeBytes() {
+        return liveDeflaters.get() * DEFLATER_NATIVE_BYTES;
+    }
+
+    /**
+     * Compresses the currently buffered chunk of data and sends it to the output stream, or hands it to a worker and sends
+     * whatever chunks are done compressing
      *
      * @throws IOException if issues occur writing to stream
      */
     protected void compressAndWrite() throws IOException {
-        if (bufferIndex <= 0) {
+        if (current.length <= 0) {
             return;
         }
 
-        deflater.setInput(buffer, 0, bufferIndex);
-        deflater.finish();
-        final int compressedBytes = deflater.deflate(compressed);
+        current.level = level;
+        if (parallelism == 1) {
+            writeChunk(current.call());
+            return;
+        }
+
+        inFlight.add(getExecutorService().submit(current));
+        // Write what's done without waiting, then make room for the next chunk
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+            free.add(writeChunk(next()));
+        }
+        if (free.isEmpty()) {
+            if (chunks < parallelism) {
+                free.add(newChunk());
+            } else {
+                free.add(writeChunk(next()));
+            }
+        }
+        current = free.poll();
+    }
 
-        writeChunkHeader(compressedBytes);
-        out.write(compressed, 0, compressedBytes);
+    private void drain() throws IOException {
+        compressAndWrite();
+        while (!inFlight.isEmpty()) {
+            free.add(writeChunk(next()));
+        }
+    }
 
-        bufferIndex = 0;
-        deflater.reset();
+    private Chunk next() throws IOException {
+        try {
+            // Only taken off once done, release() has to wait for a chunk a worker may still be compressing
+            Chunk chunk = inFlight.peek().get();
+            inFlight.poll();
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for compression");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress chunk", e.getCause());
+        }
     }
 
-    private void writeChunkHeader(final int compressedBytes) throws IOException {
+    private Chunk writeChunk(Chunk chunk) throws IOException {
+        long start = adaptive ? System.nanoTime() : 0;
+        writeChunkHeader(chunk.length, chunk.compressedLength);
+        out.write(chunk.compressed, 0, chunk.compressedLength);
+        if (adaptive && !chunk.stored) {
+            adjustLevel(chunk.compressNanos / parallelism, System.nanoTime() - start);
+        }
+        chunk.length = 0;
+        return chunk;
+    }
+
+    /**
+     * Spends more CPU on ratio while the stream is slower than compression and less when compression holds the stream up
+     *
+     * @param compressNanos the time it took to compress a chunk, divided between the workers
+     * @param writeNanos    the time it took to write it
+     */
+    private void adjustLevel(long compressNanos, long writeNanos) {
+        if (writeNanos > 2 * compressNanos) {
+            level = Math.min(level + 1, MAX_ADAPTIVE_LEVEL);
+        } else if (compressNanos > writeNanos) {
+            level = Math.max(level - 1, DEFAULT_COMPRESSION_LEVEL);
+        }
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    private void writeChunkHeader(final int length, final int compressedBytes) throws IOException {
         // If we have already written data, write out a '1' to indicate that we have more data; when we close
         // the stream, we instead write a '0' to indicate that we are finished sending data.
         if (dataWritten) {
@@ -90,7 +319,7 @@ public class CompressionOutputStream extends OutputStream {
         out.write(SYNC_BYTES);
         dataWritten = true;
 
-        writeInt(out, bufferIndex);
+        writeInt(out, length);
         writeInt(out, compressedBytes);
     }
 
@@ -102,12 +331,12 @@ public class CompressionOutputStream extends OutputStream {
     }
 
     protected boolean bufferFull() {
-        return bufferIndex >= buffer.length;
+        return current.length >= current.buffer.length;
     }
 
     @Override
     public void write(final int b) throws IOException {
-        buffer[bufferIndex++] = (byte) (b & 0xFF);
+        current.buffer[current.length++] = (byte) (b & 0xFF);
         if (bufferFull()) {
             compressAndWrite();
         }
@@ -122,10 +351,10 @@ public class CompressionOutputStream extends OutputStream {
     public void write(final byte[] b, final int off, final int len) throws IOException {
         int bytesLeft = len;
         while (bytesLeft > 0) {
-            final int free = buffer.length - bufferIndex;
-            final int bytesThisIteration = Math.min(bytesLeft, free);
-            System.arraycopy(b, off + len - bytesLeft, buffer, bufferIndex, bytesThisIteration);
-            bufferIndex += bytesThisIteration;
+            final int available = current.buffer.length - current.length;
+            final int bytesThisIteration = Math.min(bytesLeft, available);
+            System.arraycopy(b, off + len - bytesLeft, current.buffer, current.length, bytesThisIteration);
+            current.length += bytesThisIteration;
 
             bytesLeft -= bytesThisIteration;
             if (bufferFull()) {
@@ -136,14 +365,176 @@ public class CompressionOutputStream extends OutputStream {
 
     @Override
     public void flush() throws IOException {
-        compressAndWrite();
+        drain();
         super.flush();
     }
 
     @Override
     public void close() throws IOException {
-        compressAndWrite();
-        out.write(0);   // indicate that the stream is finished.
-        out.flush();
+        if (current == null) {
+            return;
+        }
+        try {
+            drain();
+            out.write(0);   // indicate that the stream is finished.
+            out.flush();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Returns the stream's chunks to the pool without writing the end of the stream, for when the stream is only flushed
+     * or is abandoned after a failure.  Nothing more can be written afterwards.
+     */
+    public void release() {
+        if (current == null) {
+            return;
+        }
+        // Chunks still in flight after a failure can only be reused once their worker is done with them, canceling
+        // wouldn't tell whether a worker already has one
+        boolean interrupted = false;
+        for (Future<Chunk> future : inFlight) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        inFlight.clear();
+        free.clear();
+        current = null;
+        for (Chunk chunk : owned) {
+            recycle(chunk);
+        }
+        owned.clear();
+    }
+
+    private static synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = defaultFactory.newThread(r);
+                    thread.setName(CompressionOutputStream.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            executorService = threadPoolExecutor;
+        }
+        return executorService;
+    }
+
+    /**
+     * Estimates the Shannon entropy of the data from a sample of its bytes
+     *
+     * @param buffer    the data
+     * @param length    the length of the data
+     * @param histogram scratch space for byte counts
+     * @return the estimated bits per byte
+     */
+    static double estimateEntropy(byte[] buffer, int length, int[] histogram) {
+        Arrays.fill(histogram, 0);
+        int stride = Math.max(1, length / ENTROPY_SAMPLES);
+        int samples = 0;
+        for (int i = 0; i < length; i += stride) {
+            histogram[buffer[i] & 0xFF]++;
+            samples++;
+        }
+        double entropy = 0;
+        for (int count : histogram) {
+            if (count > 0) {
+                double p = (double) count / samples;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * The most deflate can produce from the input (zlib's deflateBound)
+     */
+    static int deflateBound(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 6;
+    }
+
+    /**
+     * A chunk of data along with what it compresses to
+     */
+    private static class Chunk implements Callable<Chunk> {
+        private final byte[] buffer;
+        private final Deflater deflater;
+        private int[] histogram;
+        private byte[] compressed;
+        private int length;
+        private int compressedLength;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private int deflaterLevel = Deflater.DEFAULT_COMPRESSION;
+        private int strategy = Deflater.DEFAULT_STRATEGY;
+        private int deflaterStrategy = Deflater.DEFAULT_STRATEGY;
+        private boolean adaptive;
+        private byte[] dictionary;
+        private boolean stored;
+        private long compressNanos;
+
+        private Chunk(int bufferSize) {
+            buffer = new byte[bufferSize];
+            compressed = new byte[deflateBound(bufferSize)];
+            deflater = new Deflater();
+            liveDeflaters.incrementAndGet();
+        }
+
+        @Override
+        public Chunk call() {
+            long start = System.nanoTime();
+            if (adaptive && histogram == null) {
+                histogram = new int[256];
+            }
+            stored = adaptive && estimateEntropy(buffer, length, histogram) > STORE_ENTROPY_THRESHOLD;
+            int chunkLevel = stored ? Deflater.NO_COMPRESSION : level;
+            // Settings take effect from the next input since the deflater was reset
+            if (chunkLevel != deflaterLevel) {
+                deflater.setLevel(chunkLevel);
+                deflaterLevel = chunkLevel;
+            }
+            if (strategy != deflaterStrategy) {
+                deflater.setStrategy(strategy);
+                deflaterStrategy = strategy;
+            }
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(buffer, 0, length);
+            deflater.finish();
+            compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            deflater.reset();
+            compressNanos = System.nanoTime() - start;
+            return this;
+        }
+
+        private void end() {
+            deflater.end();
+            liveDeflaters.decrementAndGet();
+        }
     }
-}
\ No newline at end of file
+}
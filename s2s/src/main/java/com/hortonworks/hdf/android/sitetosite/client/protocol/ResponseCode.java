@@ -92,15 +92,27 @@ public enum ResponseCode {
         return containsMessage;
     }
 
+    /**
+     * Writes the response code to the stream without flushing it, callers flush at the end of the protocol message
+     *
+     * @param out the stream
+     * @throws IOException if there is an error writing
+     */
     public void writeResponse(final DataOutputStream out) throws IOException {
         if (containsMessage()) {
             throw new IllegalArgumentException("ResponseCode " + code + " expects an explanation");
         }
 
         out.write(getCodeSequence());
-        out.flush();
     }
 
+    /**
+     * Writes the response code and explanation to the stream without flushing it
+     *
+     * @param out the stream
+     * @param explanation the explanation
+     * @throws IOException if there is an error writing
+     */
     public void writeResponse(final DataOutputStream out, final String explanation) throws IOException {
         if (!containsMessage()) {
             throw new IllegalArgumentException("ResponseCode " + code + " does not expect an explanation");
@@ -108,7 +120,6 @@ public enum ResponseCode {
 
         out.write(getCodeSequence());
         out.writeUTF(explanation);
-        out.flush();
     }
 
     public static ResponseCode readCode(final InputStream in) throws IOException, ProtocolException {
@@ -131,9 +142,27 @@ public enum ResponseCode {
             throw new EOFException();
         }
 
-        final ResponseCode responseCode = codeArray[byte3];
+        return fromCodeByte(byte3);
+    }
+
+    /**
+     * Parses the 3 byte sequence written by @{@link #writeResponse(DataOutputStream)}
+     *
+     * @param codeSequence the sequence
+     * @return the response code
+     * @throws ProtocolException if the sequence isn't a known response code
+     */
+    public static ResponseCode fromCodeSequence(final byte[] codeSequence) throws ProtocolException {
+        if (codeSequence[0] != CODE_SEQUENCE_VALUE_1 || codeSequence[1] != CODE_SEQUENCE_VALUE_2) {
+            throw new ProtocolException("Expected to receive ResponseCode, but the stream did not have a ResponseCode");
+        }
+        return fromCodeByte(codeSequence[2] & 0xFF);
+    }
+
+    private static ResponseCode fromCodeByte(final int code) throws ProtocolException {
+        final ResponseCode responseCode = codeArray[code];
         if (responseCode == null) {
-            throw new ProtocolException("Received Response Code of " + byte3 + " but do not recognize this code");
+            throw new ProtocolException("Received Response Code of " + code + " but do not recognize this code");
         }
         return responseCode;
     }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.protocol;
+
+/**
+ * An UnknownPortException occurs when the remote NiFi instance doesn't have the port identifier the client is using,
+ * for example because the port was deleted and recreated with the same name.
+ */
+public class UnknownPortException extends ProtocolException {
+    private static final long serialVersionUID = -2797302620543437186L;
+
+    public UnknownPortException(final String message) {
+        super(message);
+    }
+}
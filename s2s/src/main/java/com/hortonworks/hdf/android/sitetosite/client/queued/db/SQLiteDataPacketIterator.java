@@ -26,6 +26,7 @@ import android.util.Log;
 import com.hortonworks.hdf.android.sitetosite.client.persistence.SQLiteIOException;
 import com.hortonworks.hdf.android.sitetosite.client.persistence.SiteToSiteDB;
 import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.ChecksummedByteArrayDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
 import com.hortonworks.hdf.android.sitetosite.util.Charsets;
 import org.json.JSONException;
@@ -55,6 +56,7 @@ public class SQLiteDataPacketIterator {
     private final Cursor cursor;
     private final int attributesIndex;
     private final int contentIndex;
+    private final int contentCrcIndex;
     private boolean hasNext;
 
     public SQLiteDataPacketIterator(SiteToSiteDB siteToSiteDB, int limit, long expirationMillis) throws SQLiteIOException {
@@ -76,12 +78,13 @@ public class SQLiteDataPacketIterator {
         this.readableDatabase = siteToSiteDB.getReadableDatabase();
         Cursor cursor = null;
         try {
-            cursor = readableDatabase.query(false, DATA_PACKET_QUEUE_TABLE_NAME, new String[]{DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN, CONTENT_COLUMN},
+            cursor = readableDatabase.query(false, DATA_PACKET_QUEUE_TABLE_NAME, new String[]{DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN, CONTENT_COLUMN, DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN},
                     DATA_PACKET_QUEUE_TRANSACTION_COLUMN + " = ?", new String[]{Long.toString(transactionId)}, null, null,
                     DATA_PACKET_QEUE_PRIORITY_COLUMN + " DESC, " + CREATED_COLUMN + " DESC, " + ID_COLUMN + " DESC", null);
             this.cursor = cursor;
             this.attributesIndex = cursor.getColumnIndex(DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN);
             this.contentIndex = cursor.getColumnIndex(CONTENT_COLUMN);
+            this.contentCrcIndex = cursor.getColumnIndex(DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN);
         } catch (SQLiteException e){
             if (cursor != null) {
                 cursor.close();
@@ -114,8 +117,14 @@ public class SQLiteDataPacketIterator {
                 Log.w(CANONICAL_NAME, "JSON errors shouldn't happen here as same library was responsible for inserting well-formed JSON: " + json, e);
             }
             byte[] data = cursor.getBlob(contentIndex);
+            DataPacket dataPacket;
+            if (cursor.isNull(contentCrcIndex)) {
+                dataPacket = new ByteArrayDataPacket(attributes, data);
+            } else {
+                dataPacket = new ChecksummedByteArrayDataPacket(attributes, data, cursor.getLong(contentCrcIndex));
+            }
             hasNext = cursor.moveToNext();
-            return new ByteArrayDataPacket(attributes, data);
+            return dataPacket;
         } catch (SQLiteException e) {
             throw new SQLiteIOException("Unable to read data packet from cursor.", e);
         }
@@ -24,6 +24,7 @@ import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import com.hortonworks.hdf.android.sitetosite.client.PipelinedTransaction;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.Transaction;
@@ -32,6 +33,7 @@ import com.hortonworks.hdf.android.sitetosite.client.persistence.SQLiteIOExcepti
 import com.hortonworks.hdf.android.sitetosite.client.persistence.SiteToSiteDB;
 import com.hortonworks.hdf.android.sitetosite.client.queued.AbstractQueuedSiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.queued.DataPacketPrioritizer;
+import com.hortonworks.hdf.android.sitetosite.packet.ChecksummedDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
 import com.hortonworks.hdf.android.sitetosite.util.Charsets;
 import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
@@ -43,20 +45,33 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
 
 import static com.hortonworks.hdf.android.sitetosite.client.persistence.SiteToSiteDBConstants.*;
 
 public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
     private static final String CANONICAL_NAME = SQLiteDataPacketQueue.class.getCanonicalName();
+    public static final String FRAGMENT_IDENTIFIER = "fragment.identifier";
+    public static final String FRAGMENT_INDEX = "fragment.index";
+    public static final String FRAGMENT_COUNT = "fragment.count";
+    public static final String SEGMENT_ORIGINAL_FILENAME = "segment.original.filename";
+    public static final String FILENAME = "filename";
+    private static final String AGE_OFF_ORDER = DATA_PACKET_QEUE_PRIORITY_COLUMN + " ASC, " + CREATED_COLUMN + " ASC, " + ID_COLUMN + " ASC";
     private static final String AGE_OFF_ROW_COUNT_QUERY = new StringBuilder("DELETE FROM ").append(DATA_PACKET_QUEUE_TABLE_NAME)
             .append(" WHERE ").append(ID_COLUMN)
             .append(" IN (SELECT ").append(ID_COLUMN)
             .append(" FROM ").append(DATA_PACKET_QUEUE_TABLE_NAME)
-            .append(" ORDER BY ").append(DATA_PACKET_QEUE_PRIORITY_COLUMN).append(" ASC, ").append(CREATED_COLUMN).append(" ASC, ").append(ID_COLUMN).append(" ASC")
+            .append(" ORDER BY ").append(AGE_OFF_ORDER)
             .append(" LIMIT ?)").toString();
+    private static final String LAST_AGED_OFF_ROW_QUERY = new StringBuilder("SELECT ").append(ID_COLUMN)
+            .append(" FROM ").append(DATA_PACKET_QUEUE_TABLE_NAME)
+            .append(" ORDER BY ").append(AGE_OFF_ORDER)
+            .append(" LIMIT 1 OFFSET ?").toString();
 
     private final SiteToSiteClientConfig siteToSiteClientConfig;
     private final SiteToSiteDB siteToSiteDB;
@@ -65,8 +80,14 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
     private final long maxSize;
     private final int iteratorSizeLimit;
     private final long maxTransactionTimeMillis;
+    private final int fragmentSize;
 
     public SQLiteDataPacketQueue(SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteDB siteToSiteDB, DataPacketPrioritizer dataPacketPrioritizer, long maxRows, long maxSize, long maxTransactionTimeMillis) {
+        this(siteToSiteClientConfig, siteToSiteDB, dataPacketPrioritizer, maxRows, maxSize, maxTransactionTimeMillis, 0);
+    }
+
+    public SQLiteDataPacketQueue(SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteDB siteToSiteDB, DataPacketPrioritizer dataPacketPrioritizer, long maxRows, long maxSize, long maxTransactionTimeMillis,
+                                 int fragmentSize) {
         this.siteToSiteClientConfig = siteToSiteClientConfig;
         this.siteToSiteDB = siteToSiteDB;
         this.dataPacketPrioritizer = dataPacketPrioritizer;
@@ -74,6 +95,7 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
         this.maxSize = maxSize;
         this.iteratorSizeLimit = siteToSiteClientConfig.getPreferredBatchCount();
         this.maxTransactionTimeMillis = maxTransactionTimeMillis;
+        this.fragmentSize = fragmentSize;
     }
 
     private static SQLiteStatement buildDeleteQuery(SQLiteDatabase database, int numIds) {
@@ -108,19 +130,25 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
                     long createdTime = new Date().getTime();
                     contentValues.put(CREATED_COLUMN, createdTime);
                     contentValues.put(DATA_PACKET_QEUE_PRIORITY_COLUMN, dataPacketPrioritizer.getPriority(dataPacket));
-                    contentValues.put(DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN, getAttributesBytes(dataPacket));
-                    InputStream inputStream = dataPacket.getData();
-                    try {
-                        contentValues.put(CONTENT_COLUMN, IOUtils.readInputStream(inputStream));
-                    } finally {
-                        inputStream.close();
-                    }
                     long ttl = dataPacketPrioritizer.getTtl(dataPacket);
                     if (ttl < 0) {
                         contentValues.put(EXPIRATION_MILLIS_COLUMN, Long.MAX_VALUE);
                     } else {
                         contentValues.put(EXPIRATION_MILLIS_COLUMN, createdTime + ttl);
                     }
+                    InputStream inputStream = dataPacket.getData();
+                    try {
+                        if (fragmentSize > 0 && dataPacket.getSize() > fragmentSize) {
+                            insertFragments(writableDatabase, contentValues, dataPacket, inputStream);
+                            continue;
+                        }
+                        byte[] content = IOUtils.readInputStream(inputStream);
+                        contentValues.put(DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN, getAttributesBytes(dataPacket.getAttributes()));
+                        contentValues.put(CONTENT_COLUMN, content);
+                        contentValues.put(DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN, getContentCrc(dataPacket, content));
+                    } finally {
+                        inputStream.close();
+                    }
                     writableDatabase.insertOrThrow(DATA_PACKET_QUEUE_TABLE_NAME, null, contentValues);
                 }
                 writableDatabase.setTransactionSuccessful();
@@ -134,9 +162,72 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
         }
     }
 
+    /**
+     * Queues content over the fragment size as rows of at most that size with the attributes NiFi's SegmentContent would
+     * give them so that MergeContent can defragment them.  Each row is acknowledged when the transaction it's sent in
+     * completes so a failure only requeues the fragments that weren't confirmed.
+     *
+     * @param writableDatabase the database
+     * @param contentValues    created time, priority and expiration shared by the fragments
+     * @param dataPacket       the data packet
+     * @param inputStream      its content
+     * @throws IOException if the content can't be read or is shorter than the packet's size
+     */
+    protected void insertFragments(SQLiteDatabase writableDatabase, ContentValues contentValues, DataPacket dataPacket, InputStream inputStream) throws IOException {
+        long size = dataPacket.getSize();
+        long fragmentCount = (size + fragmentSize - 1) / fragmentSize;
+        Map<String, String> attributes = new HashMap<>(dataPacket.getAttributes());
+        attributes.put(FRAGMENT_IDENTIFIER, UUID.randomUUID().toString());
+        attributes.put(FRAGMENT_COUNT, Long.toString(fragmentCount));
+        String filename = attributes.get(FILENAME);
+        if (filename != null) {
+            attributes.put(SEGMENT_ORIGINAL_FILENAME, filename);
+        }
+        CRC32 crc = new CRC32();
+        for (long i = 0; i < fragmentCount; i++) {
+            byte[] content = new byte[(int) Math.min(fragmentSize, size - i * fragmentSize)];
+            int read = 0;
+            while (read < content.length) {
+                int len = inputStream.read(content, read, content.length - read);
+                if (len == -1) {
+                    throw new IOException("Content ended after " + (i * fragmentSize + read) + " of " + size + " bytes");
+                }
+                read += len;
+            }
+            // Indices start at 1 like SegmentContent's
+            attributes.put(FRAGMENT_INDEX, Long.toString(i + 1));
+            crc.reset();
+            crc.update(content, 0, content.length);
+            contentValues.put(DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN, getAttributesBytes(attributes));
+            contentValues.put(CONTENT_COLUMN, content);
+            contentValues.put(DATA_PACKET_QUEUE_CONTENT_CRC_COLUMN, crc.getValue());
+            writableDatabase.insertOrThrow(DATA_PACKET_QUEUE_TABLE_NAME, null, contentValues);
+        }
+    }
+
+    /**
+     * Checksums the content while it is at hand so that sending it doesn't have to
+     *
+     * @param dataPacket the data packet
+     * @param content    its content
+     * @return the CRC32 of the content
+     */
+    protected long getContentCrc(DataPacket dataPacket, byte[] content) {
+        if (dataPacket instanceof ChecksummedDataPacket) {
+            return ((ChecksummedDataPacket) dataPacket).getContentCrc();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
     protected byte[] getAttributesBytes(DataPacket dataPacket) throws IOException {
+        return getAttributesBytes(dataPacket.getAttributes());
+    }
+
+    protected byte[] getAttributesBytes(Map<String, String> attributes) throws IOException {
         JSONObject attributesObject = new JSONObject();
-        for (Map.Entry<String, String> entry : dataPacket.getAttributes().entrySet()) {
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
             try {
                 attributesObject.put(entry.getKey(), entry.getValue());
             } catch (JSONException e) {
@@ -174,7 +265,18 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
         if (maxRows > 0) {
             long rows = getNumRows(writableDatabase);
             if (rows > maxRows) {
+                // The last row aged off may be a fragment whose siblings have to go with it
+                String[] fragmentedPacket = null;
+                Cursor cursor = writableDatabase.rawQuery(LAST_AGED_OFF_ROW_QUERY, new String[]{Long.toString(rows - maxRows - 1)});
+                try {
+                    if (cursor.moveToNext()) {
+                        fragmentedPacket = getFragmentedPacket(writableDatabase, cursor.getLong(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
                 writableDatabase.execSQL(AGE_OFF_ROW_COUNT_QUERY, new Object[]{rows - maxRows});
+                ageOffRemainingFragments(writableDatabase, fragmentedPacket);
             }
         }
     }
@@ -203,10 +305,11 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
 
                 while (currentSize > maxSize) {
                     cursor = writableDatabase.query(DATA_PACKET_QUEUE_TABLE_NAME, new String[]{ID_COLUMN, "length(" + DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN + ") + length(" + CONTENT_COLUMN + ") as rowSize"},
-                            null, null, null, null, DATA_PACKET_QEUE_PRIORITY_COLUMN + " ASC, " + CREATED_COLUMN + " ASC");
+                            null, null, null, null, AGE_OFF_ORDER);
 
                     int idIndex = cursor.getColumnIndex(ID_COLUMN);
                     int rowSizeIndex = cursor.getColumnIndex("rowSize");
+                    long lastId = -1;
 
                     List<long[]> ids = new ArrayList<>();
                     boolean done = false;
@@ -217,6 +320,7 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
                             done = !(currentSize > maxSize && cursor.moveToNext());
                             if (!done) {
                                 idArray[i1] = cursor.getLong(idIndex);
+                                lastId = idArray[i1];
                                 currentSize -= cursor.getLong(rowSizeIndex);
                             }
                         }
@@ -227,6 +331,8 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
                         }
                     }
                     cursor.close();
+                    // The last row aged off may be a fragment whose siblings have to go with it
+                    String[] fragmentedPacket = lastId == -1 ? null : getFragmentedPacket(writableDatabase, lastId);
                     SQLiteStatement deleteQuery = null;
                     int lastLength = 0;
                     for (long[] idArray : ids) {
@@ -236,6 +342,7 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
                         }
                         executeDeleteQuery(deleteQuery, idArray, idArray.length);
                     }
+                    currentSize -= ageOffRemainingFragments(writableDatabase, fragmentedPacket);
                 }
             } finally {
                 if (cursor != null && !cursor.isClosed()) {
@@ -245,6 +352,78 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
         }
     }
 
+    /**
+     * Gets what identifies the packet a queued fragment belongs to.  Fragments are inserted with their packet's priority
+     * and created time so only rows sharing those need their attributes checked.
+     *
+     * @param writableDatabase the database
+     * @param id               the row id
+     * @return the priority, created time and fragment identifier of the packet or null if the row isn't a fragment
+     */
+    protected String[] getFragmentedPacket(SQLiteDatabase writableDatabase, long id) {
+        Cursor cursor = writableDatabase.query(DATA_PACKET_QUEUE_TABLE_NAME, new String[]{DATA_PACKET_QEUE_PRIORITY_COLUMN, CREATED_COLUMN, DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN},
+                ID_COLUMN + " = ?", new String[]{Long.toString(id)}, null, null, null);
+        try {
+            if (!cursor.moveToNext()) {
+                return null;
+            }
+            String fragmentIdentifier = getFragmentIdentifier(cursor.getBlob(2));
+            if (fragmentIdentifier == null) {
+                return null;
+            }
+            return new String[]{cursor.getString(0), cursor.getString(1), fragmentIdentifier};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Ages off the fragments left of a packet once one of them has been aged off.  MergeContent can't defragment a packet
+     * with missing fragments so sending the rest would only waste bandwidth.
+     *
+     * @param writableDatabase the database
+     * @param fragmentedPacket the packet from {@link #getFragmentedPacket(SQLiteDatabase, long)} (may be null)
+     * @return the size of the rows aged off
+     */
+    protected long ageOffRemainingFragments(SQLiteDatabase writableDatabase, String[] fragmentedPacket) {
+        if (fragmentedPacket == null) {
+            return 0;
+        }
+        List<Long> ids = new ArrayList<>();
+        long size = 0;
+        Cursor cursor = writableDatabase.query(DATA_PACKET_QUEUE_TABLE_NAME,
+                new String[]{ID_COLUMN, DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN, "length(" + DATA_PACKET_QUEUE_ATTRIBUTES_COLUMN + ") + length(" + CONTENT_COLUMN + ") as rowSize"},
+                DATA_PACKET_QEUE_PRIORITY_COLUMN + " = ? AND " + CREATED_COLUMN + " = ?", new String[]{fragmentedPacket[0], fragmentedPacket[1]}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (fragmentedPacket[2].equals(getFragmentIdentifier(cursor.getBlob(1)))) {
+                    ids.add(cursor.getLong(0));
+                    size += cursor.getLong(2);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Long id : ids) {
+            writableDatabase.delete(DATA_PACKET_QUEUE_TABLE_NAME, ID_COLUMN + " = ?", new String[]{Long.toString(id)});
+        }
+        return size;
+    }
+
+    private static String getFragmentIdentifier(byte[] attributes) {
+        String json = new String(attributes, Charsets.UTF_8);
+        if (!json.contains(FRAGMENT_IDENTIFIER)) {
+            return null;
+        }
+        try {
+            JSONObject attributesObject = new JSONObject(json);
+            return attributesObject.has(FRAGMENT_IDENTIFIER) ? attributesObject.getString(FRAGMENT_IDENTIFIER) : null;
+        } catch (JSONException e) {
+            Log.w(CANONICAL_NAME, "Unable to parse queued attributes: " + json, e);
+            return null;
+        }
+    }
+
     @Override
     public void process() throws IOException {
         SQLiteDatabase writableDatabase = siteToSiteDB.getWritableDatabase();
@@ -288,10 +467,17 @@ public class SQLiteDataPacketQueue extends AbstractQueuedSiteToSiteClient {
         TransactionResult transactionResult = null;
         Transaction transaction = siteToSiteClient.createTransaction();
         try {
+            int sent = 0;
             while (sqLiteDataPacketIterator.hasNext()) {
                 transaction.send(sqLiteDataPacketIterator.next());
+                sent++;
+            }
+            // A full batch means there are probably more rows for the next transaction
+            if (iteratorSizeLimit > 0 && sent >= iteratorSizeLimit && transaction instanceof PipelinedTransaction) {
+                ((PipelinedTransaction) transaction).confirmBeforeNext();
+            } else {
+                transaction.confirm();
             }
-            transaction.confirm();
             transactionResult = transaction.complete();
         } catch (IOException e) {
             sqLiteDataPacketIterator.transactionFailed();
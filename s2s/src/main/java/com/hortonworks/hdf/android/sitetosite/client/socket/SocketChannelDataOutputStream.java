@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Data output stream over a socket channel that can also send file content without copying it through the heap
+ */
+class SocketChannelDataOutputStream extends DataOutputStream {
+    private final SocketChannelOutputStream socketChannelOutputStream;
+
+    SocketChannelDataOutputStream(SocketChannelOutputStream socketChannelOutputStream) {
+        super(socketChannelOutputStream);
+        this.socketChannelOutputStream = socketChannelOutputStream;
+    }
+
+    /**
+     * Sends the region of the file after anything already written to the stream
+     *
+     * @param fileChannel the file channel
+     * @param position    the position in the file to start at
+     * @param count       the number of bytes to send
+     * @throws IOException if the bytes couldn't all be sent
+     */
+    void transferFrom(FileChannel fileChannel, long position, long count) throws IOException {
+        socketChannelOutputStream.transferFrom(fileChannel, position, count);
+    }
+}
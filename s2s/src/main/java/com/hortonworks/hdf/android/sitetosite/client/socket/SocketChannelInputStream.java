@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered input stream reading from a non-blocking socket channel into a direct buffer
+ */
+class SocketChannelInputStream extends InputStream {
+    private final SocketChannel socketChannel;
+    private final SocketChannelWaiter socketChannelWaiter;
+    private final ByteBuffer buffer;
+
+    SocketChannelInputStream(SocketChannel socketChannel, int bufferSize) {
+        this.socketChannel = socketChannel;
+        this.socketChannelWaiter = new SocketChannelWaiter(socketChannel);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        // Start out empty
+        this.buffer.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int read = Math.min(len, buffer.remaining());
+        buffer.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            socketChannelWaiter.close();
+        } finally {
+            socketChannel.close();
+        }
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        try {
+            int read;
+            while ((read = socketChannel.read(buffer)) == 0) {
+                socketChannelWaiter.await(SelectionKey.OP_READ, socketChannel.socket().getSoTimeout());
+            }
+            return read > 0;
+        } finally {
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered output stream writing to a non-blocking socket channel from a direct buffer.  Writes too large for the
+ * remaining buffer space are sent together with whatever is already buffered (e.g. a packet's attribute header) in a
+ * single gathering write instead of being copied through the buffer.
+ */
+class SocketChannelOutputStream extends OutputStream {
+    private final SocketChannel socketChannel;
+    private final SocketChannelWaiter socketChannelWaiter;
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+
+    SocketChannelOutputStream(SocketChannel socketChannel, int bufferSize) {
+        this.socketChannel = socketChannel;
+        this.socketChannelWaiter = new SocketChannelWaiter(socketChannel);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= buffer.remaining()) {
+            buffer.put(b, off, len);
+            return;
+        }
+        buffer.flip();
+        gather[0] = buffer;
+        gather[1] = ByteBuffer.wrap(b, off, len);
+        try {
+            while (gather[1].hasRemaining()) {
+                if (socketChannel.write(gather) == 0) {
+                    awaitWritable();
+                }
+            }
+        } finally {
+            gather[1] = null;
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Flushes the buffer and sends the region of the file with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     *
+     * @param fileChannel the file channel
+     * @param position    the position in the file to start at
+     * @param count       the number of bytes to send
+     * @throws IOException if the bytes couldn't all be sent
+     */
+    void transferFrom(FileChannel fileChannel, long position, long count) throws IOException {
+        flushBuffer();
+        long end = position + count;
+        while (position < end) {
+            long transferred = fileChannel.transferTo(position, end - position, socketChannel);
+            if (transferred > 0) {
+                position += transferred;
+            } else if (position >= fileChannel.size()) {
+                throw new IOException("File ended " + (end - position) + " bytes early");
+            } else {
+                awaitWritable();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            try {
+                socketChannelWaiter.close();
+            } finally {
+                socketChannel.close();
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                if (socketChannel.write(buffer) == 0) {
+                    awaitWritable();
+                }
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        socketChannelWaiter.await(SelectionKey.OP_WRITE, socketChannel.socket().getSoTimeout());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Waits for a non-blocking channel to become connectable, readable or writable, honoring the socket's timeout
+ */
+class SocketChannelWaiter implements Closeable {
+    private final SocketChannel socketChannel;
+    private Selector selector;
+    private SelectionKey selectionKey;
+
+    SocketChannelWaiter(SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+    }
+
+    /**
+     * Blocks until the channel is ready for the operation
+     *
+     * @param ops           the SelectionKey operation(s) to wait for
+     * @param timeoutMillis how long to wait, 0 to wait indefinitely
+     * @throws IOException if the channel doesn't become ready in time
+     */
+    synchronized void await(int ops, int timeoutMillis) throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+            selectionKey = socketChannel.register(selector, ops);
+        } else {
+            selectionKey.interestOps(ops);
+        }
+        int selected = selector.select(timeoutMillis);
+        selector.selectedKeys().clear();
+        if (selected == 0) {
+            if (!socketChannel.isOpen()) {
+                throw new IOException("Channel closed");
+            }
+            throw new SocketTimeoutException("Timed out after " + timeoutMillis + " ms waiting for " + socketChannel);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (selector != null) {
+            selector.close();
+            selector = null;
+        }
+    }
+}
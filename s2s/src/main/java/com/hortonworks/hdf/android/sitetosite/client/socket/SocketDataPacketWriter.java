@@ -19,19 +19,41 @@ package com.hortonworks.hdf.android.sitetosite.client.socket;
 
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
 import com.hortonworks.hdf.android.sitetosite.client.transaction.DataPacketWriter;
+import com.hortonworks.hdf.android.sitetosite.packet.ChecksummedDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.FileDataPacket;
 
 import java.io.DataOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class SocketDataPacketWriter extends DataPacketWriter {
+    // Mapped a region at a time so the crc read and the transfer of that region share the page cache
+    private static final long MAP_REGION_SIZE = 1 << 20;
+
     private final DataOutputStream dataOutputStream;
+    private final SocketChannelDataOutputStream socketChannelDataOutputStream;
+    private byte[] crcBuffer;
     boolean first = true;
 
     public SocketDataPacketWriter(OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    /**
+     * Creates a writer that sends file content with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * when the output stream is the uncompressed socket channel stream
+     *
+     * @param outputStream                  the output stream
+     * @param socketChannelDataOutputStream the socket channel stream to transfer file content to (null to always copy)
+     */
+    SocketDataPacketWriter(OutputStream outputStream, SocketChannelDataOutputStream socketChannelDataOutputStream) {
         super(outputStream, false);
         this.dataOutputStream = new DataOutputStream(outputStream);
+        this.socketChannelDataOutputStream = socketChannelDataOutputStream;
     }
 
     @Override
@@ -43,4 +65,49 @@ public class SocketDataPacketWriter extends DataPacketWriter {
         }
         super.write(dataPacket);
     }
+
+    @Override
+    protected void writeContent(DataPacket dataPacket, long size) throws IOException {
+        if (socketChannelDataOutputStream == null || !(dataPacket instanceof FileDataPacket)) {
+            super.writeContent(dataPacket, size);
+            return;
+        }
+
+        // Header has to be on the wire before the content
+        outputStream.flush();
+        FileInputStream fileInputStream = new FileInputStream(((FileDataPacket) dataPacket).getFile());
+        try {
+            FileChannel fileChannel = fileInputStream.getChannel();
+            if (fileChannel.size() < size) {
+                throw new IOException("File is " + fileChannel.size() + " bytes but header says " + size);
+            }
+            if (dataPacket instanceof ChecksummedDataPacket) {
+                // Nothing to read in user space at all
+                socketChannelDataOutputStream.transferFrom(fileChannel, 0, size);
+                combineCrc(((ChecksummedDataPacket) dataPacket).getContentCrc(), size);
+                return;
+            }
+            long position = 0;
+            while (position < size) {
+                long regionSize = Math.min(MAP_REGION_SIZE, size - position);
+                updateCrc(fileChannel.map(FileChannel.MapMode.READ_ONLY, position, regionSize));
+                socketChannelDataOutputStream.transferFrom(fileChannel, position, regionSize);
+                position += regionSize;
+            }
+        } finally {
+            fileInputStream.close();
+        }
+    }
+
+    private void updateCrc(MappedByteBuffer mappedByteBuffer) {
+        // CRC32.update(ByteBuffer) is only available from API 26
+        if (crcBuffer == null) {
+            crcBuffer = new byte[8192];
+        }
+        while (mappedByteBuffer.hasRemaining()) {
+            int length = Math.min(crcBuffer.length, mappedByteBuffer.remaining());
+            mappedByteBuffer.get(crcBuffer, 0, length);
+            updateCrc(crcBuffer, 0, length);
+        }
+    }
 }
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connects to the first reachable address of one or more hosts with a bounded connect timeout.  The addresses of each host
+ * are tried alternating between IPv6 and IPv4, starting the next attempt when the previous one fails or after a short delay
+ * without waiting for it to time out (RFC 8305).  Multiple hosts are dialed at the same time and the first connection wins.
+ */
+class SocketDialer {
+    public static final long ATTEMPT_DELAY_MILLIS = 250;
+    private static final int IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static ExecutorService executorService;
+
+    private final int connectTimeoutMillis;
+    private final boolean socketChannel;
+    private final long attemptDelayNanos;
+    private final SiteToSiteClientConfig socketOptions;
+
+    /**
+     * Creates a dialer that leaves socket options at their defaults
+     *
+     * @param connectTimeoutMillis the time allowed for each connection attempt
+     * @param socketChannel        whether sockets should be backed by a socket channel
+     */
+    SocketDialer(int connectTimeoutMillis, boolean socketChannel) {
+        this(connectTimeoutMillis, socketChannel, ATTEMPT_DELAY_MILLIS, null);
+    }
+
+    /**
+     * Creates a dialer that applies the configured connect timeout and socket options
+     *
+     * @param siteToSiteClientConfig the config
+     * @param socketChannel          whether sockets should be backed by a socket channel
+     */
+    SocketDialer(SiteToSiteClientConfig siteToSiteClientConfig, boolean socketChannel) {
+        this((int) siteToSiteClientConfig.getConnectTimeout(TimeUnit.MILLISECONDS), socketChannel, ATTEMPT_DELAY_MILLIS, siteToSiteClientConfig);
+    }
+
+    SocketDialer(int connectTimeoutMillis, boolean socketChannel, long attemptDelayMillis, SiteToSiteClientConfig socketOptions) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketChannel = socketChannel;
+        this.attemptDelayNanos = TimeUnit.MILLISECONDS.toNanos(attemptDelayMillis);
+        this.socketOptions = socketOptions;
+    }
+
+    /**
+     * Connects to the host
+     *
+     * @param hostname the hostname
+     * @param port     the port
+     * @return the connected socket
+     * @throws IOException if none of the host's addresses could be connected to
+     */
+    Socket dial(String hostname, int port) throws IOException {
+        return dial(Collections.singletonList(InetSocketAddress.createUnresolved(hostname, port))).getSocket();
+    }
+
+    /**
+     * Connects to whichever host accepts a connection first
+     *
+     * @param targets the unresolved host and port of each host
+     * @return the connected socket and the index of the host it is connected to
+     * @throws IOException if none of the hosts could be connected to
+     */
+    DialedSocket dial(List<InetSocketAddress> targets) throws IOException {
+        List<Lane> lanes = new ArrayList<>(targets.size());
+        IOException lastException = null;
+        for (int i = 0; i < targets.size(); i++) {
+            InetSocketAddress target = targets.get(i);
+            try {
+                lanes.add(new Lane(i, target.getPort(), interleave(InetAddress.getAllByName(target.getHostName()))));
+            } catch (IOException e) {
+                lastException = e;
+            }
+        }
+        if (lanes.isEmpty()) {
+            throw lastException == null ? new IOException("No hosts to connect to") : lastException;
+        }
+        if (lanes.size() == 1 && lanes.get(0).addresses.size() == 1) {
+            // Nothing to race
+            Lane lane = lanes.get(0);
+            Socket socket = createSocket();
+            try {
+                socket.connect(new InetSocketAddress(lane.addresses.get(0), lane.port), connectTimeoutMillis);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return new DialedSocket(socket, lane.index);
+        }
+        return race(lanes, lastException);
+    }
+
+    private DialedSocket race(List<Lane> lanes, IOException lastException) throws IOException {
+        AtomicBoolean decided = new AtomicBoolean();
+        CompletionService<Attempt> completionService = new ExecutorCompletionService<>(getExecutorService());
+        List<Attempt> attempts = new ArrayList<>();
+        Attempt won = null;
+        int running = 0;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long waitNanos = Long.MAX_VALUE;
+                for (Lane lane : lanes) {
+                    if (lane.next < lane.addresses.size()) {
+                        long startNanos = lane.running == 0 ? now : lane.lastStartNanos + attemptDelayNanos;
+                        if (startNanos - now <= 0) {
+                            Attempt attempt = new Attempt(lane, new InetSocketAddress(lane.addresses.get(lane.next++), lane.port), decided);
+                            attempts.add(attempt);
+                            completionService.submit(attempt);
+                            lane.running++;
+                            lane.lastStartNanos = now;
+                            running++;
+                            startNanos = now + attemptDelayNanos;
+                        }
+                        if (lane.next < lane.addresses.size()) {
+                            waitNanos = Math.min(waitNanos, startNanos - now);
+                        }
+                    }
+                }
+                if (running == 0) {
+                    throw lastException;
+                }
+                Future<Attempt> future;
+                if (waitNanos == Long.MAX_VALUE) {
+                    future = completionService.take();
+                } else {
+                    future = completionService.poll(waitNanos, TimeUnit.NANOSECONDS);
+                    if (future == null) {
+                        continue;
+                    }
+                }
+                Attempt attempt = future.get();
+                running--;
+                attempt.lane.running--;
+                if (attempt.exception == null) {
+                    won = attempt;
+                    return new DialedSocket(attempt.socket, attempt.lane.index);
+                }
+                lastException = attempt.exception;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        } catch (ExecutionException e) {
+            throw new IOException("Unexpected error while connecting", e.getCause());
+        } finally {
+            // Stop attempts that are still connecting, any that connect anyway will see they lost and close themselves
+            decided.set(true);
+            for (Attempt attempt : attempts) {
+                if (attempt != won) {
+                    attempt.abort();
+                }
+            }
+        }
+    }
+
+    private Socket createSocket() throws IOException {
+        Socket socket = socketChannel ? SocketChannel.open().socket() : new Socket();
+        if (socketOptions != null) {
+            try {
+                configure(socket, socketOptions);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+        return socket;
+    }
+
+    /**
+     * Applies the configured options to an unconnected socket.  SSL sockets are layered over it so they share the options.
+     * Buffer sizes are set before connecting because the receive buffer determines the TCP window scale.
+     *
+     * @param socket                 the socket
+     * @param siteToSiteClientConfig the config
+     * @throws IOException if an option can't be set
+     */
+    static void configure(Socket socket, SiteToSiteClientConfig siteToSiteClientConfig) throws IOException {
+        int sendBufferSize = siteToSiteClientConfig.getSocketSendBufferSize();
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        int receiveBufferSize = siteToSiteClientConfig.getSocketReceiveBufferSize();
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.setTcpNoDelay(siteToSiteClientConfig.isTcpNoDelay());
+        socket.setKeepAlive(siteToSiteClientConfig.isSocketKeepAlive());
+        int trafficClass = siteToSiteClientConfig.getSocketTrafficClass();
+        if (trafficClass != 0) {
+            socket.setTrafficClass(trafficClass);
+        }
+    }
+
+    /**
+     * Orders addresses alternating between address families, starting with the family of the first address
+     *
+     * @param addresses the resolved addresses
+     * @return the addresses in the order they should be tried
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> preferred = new ArrayList<>(addresses.length);
+        List<InetAddress> other = new ArrayList<>(addresses.length);
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == (addresses[0] instanceof Inet6Address)) {
+                preferred.add(address);
+            } else {
+                other.add(address);
+            }
+        }
+        List<InetAddress> result = new ArrayList<>(addresses.length);
+        for (int i = 0; i < preferred.size() || i < other.size(); i++) {
+            if (i < preferred.size()) {
+                result.add(preferred.get(i));
+            }
+            if (i < other.size()) {
+                result.add(other.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = defaultFactory.newThread(r);
+                    thread.setName(SocketDialer.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
+    }
+
+    /**
+     * A connected socket along with the index of the host it is connected to
+     */
+    static class DialedSocket {
+        private final Socket socket;
+        private final int index;
+
+        DialedSocket(Socket socket, int index) {
+            this.socket = socket;
+            this.index = index;
+        }
+
+        Socket getSocket() {
+            return socket;
+        }
+
+        int getIndex() {
+            return index;
+        }
+    }
+
+    private static class Lane {
+        private final int index;
+        private final int port;
+        private final List<InetAddress> addresses;
+        private int next;
+        private int running;
+        private long lastStartNanos;
+
+        private Lane(int index, int port, List<InetAddress> addresses) {
+            this.index = index;
+            this.port = port;
+            this.addresses = addresses;
+        }
+    }
+
+    private class Attempt implements Callable<Attempt> {
+        private final Lane lane;
+        private final InetSocketAddress address;
+        private final AtomicBoolean decided;
+        private volatile Socket socket;
+        private volatile boolean aborted;
+        private IOException exception;
+
+        private Attempt(Lane lane, InetSocketAddress address, AtomicBoolean decided) {
+            this.lane = lane;
+            this.address = address;
+            this.decided = decided;
+        }
+
+        @Override
+        public Attempt call() {
+            try {
+                socket = createSocket();
+                if (aborted) {
+                    throw new IOException("Connection attempt to " + address + " aborted");
+                }
+                socket.connect(address, connectTimeoutMillis);
+                if (!decided.compareAndSet(false, true)) {
+                    throw new IOException("Another connection attempt succeeded first");
+                }
+            } catch (IOException e) {
+                exception = e;
+                closeQuietly();
+            }
+            return this;
+        }
+
+        private void abort() {
+            aborted = true;
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            Socket socket = this.socket;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
@@ -22,62 +22,50 @@ import com.hortonworks.hdf.android.sitetosite.client.peer.PeerOperation;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Logger;
 
 public class SocketGetPeersPeerOperation implements PeerOperation<List<Peer>, SocketPeerConnector> {
 
-    private static final Logger logger = Logger.getLogger(SocketGetPeersPeerOperation.class.getName());
-
     @Override
     public List<Peer> perform(Peer peer, SocketPeerConnector connectionManager) throws IOException {
-        Socket socket = connectionManager.openConnection(false).getSocket();
-        OutputStream outputStream = socket.getOutputStream();
-        InputStream inputStream = socket.getInputStream();
-        DataOutputStream dos = new DataOutputStream(outputStream);
+        SocketPeerConnection socketPeerConnection = connectionManager.openConnection(false);
+        boolean reusable = false;
         try {
-            RequestType.REQUEST_PEER_LIST.writeRequestType(dos);
-            dos.flush();
-            DataInputStream dis = new DataInputStream(inputStream);
-            int numPeers = dis.readInt();
-            List<Peer> result = new ArrayList<>();
-            for (int i = 0; i < numPeers; i++) {
-                final String hostname = dis.readUTF();
-                final int port = dis.readInt();
-                final boolean secure = dis.readBoolean();
-                final int flowFileCount = dis.readInt();
-                result.add(new Peer(hostname, 0, port, secure, flowFileCount));
-            }
+            List<Peer> result = requestPeers(socketPeerConnection);
+            reusable = true;
             return result;
         } finally {
-            try {
-                RequestType.SHUTDOWN.writeRequestType(dos);
-                dos.flush();
-            } catch (IOException e) {
-                logger.warning("Data output stream could not be flushed cleanly when done using socket.");
+            if (reusable) {
+                connectionManager.release(socketPeerConnection);
+            } else {
+                socketPeerConnection.close();
             }
+        }
+    }
 
-            try {
-                outputStream.close();
-            } catch (IOException e) {
-                logger.warning("Output stream could not be closed cleanly when done using socket.");
-            }
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                logger.warning("Input stream could not be closed cleanly when done using socket.");
-            }
-            try {
-                socket.close();
-            } catch (IOException e) {
-                logger.warning("Socket could not be closed cleanly when done using socket.");
-            }
+    /**
+     * Requests the peer list over an open connection, leaving it ready for the next request (e.g. a transaction)
+     *
+     * @param socketPeerConnection the connection
+     * @return the peers
+     * @throws IOException if there is an error requesting the list
+     */
+    public static List<Peer> requestPeers(SocketPeerConnection socketPeerConnection) throws IOException {
+        SocketProtocolCodec socketProtocolCodec = socketPeerConnection.getSocketProtocolCodec();
+        DataInputStream dis = socketProtocolCodec.getDataInputStream();
+        socketProtocolCodec.writeRequestType(RequestType.REQUEST_PEER_LIST);
+        socketProtocolCodec.flush();
+        int numPeers = dis.readInt();
+        List<Peer> result = new ArrayList<>();
+        for (int i = 0; i < numPeers; i++) {
+            final String hostname = socketProtocolCodec.readUTF();
+            final int port = dis.readInt();
+            final boolean secure = dis.readBoolean();
+            final int flowFileCount = dis.readInt();
+            result.add(new Peer(hostname, 0, port, secure, flowFileCount));
         }
+        return result;
     }
 }
@@ -17,23 +17,86 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.socket;
 
+import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
 
+/**
+ * A handshaken raw site-to-site connection.  All protocol reads and writes go through the single buffered stream pair
+ * and its codec so writes are coalesced until the next explicit flush at a protocol boundary.
+ */
 public class SocketPeerConnection {
+    public static final int BUFFER_SIZE = 16 << 10;
+    public static final int HEALTH_CHECK_TIMEOUT_MILLIS = 1;
+
+    private static final Logger logger = Logger.getLogger(SocketPeerConnection.class.getName());
+
     private final Socket socket;
+    private final SocketProtocolCodec socketProtocolCodec;
     private final int flowFileProtocolVersion;
     private final Integer flowFileCodecVersion;
+    private final String poolKey;
+
+    public SocketPeerConnection(Socket socket, int flowFileProtocolVersion, Integer flowFileCodecVersion) throws IOException {
+        this(socket, createSocketProtocolCodec(socket), flowFileProtocolVersion, flowFileCodecVersion);
+    }
+
+    public SocketPeerConnection(Socket socket, SocketProtocolCodec socketProtocolCodec, int flowFileProtocolVersion, Integer flowFileCodecVersion) {
+        this(socket, socketProtocolCodec, flowFileProtocolVersion, flowFileCodecVersion, null);
+    }
 
-    public SocketPeerConnection(Socket socket, int flowFileProtocolVersion, Integer flowFileCodecVersion) {
+    public SocketPeerConnection(Socket socket, SocketProtocolCodec socketProtocolCodec, int flowFileProtocolVersion, Integer flowFileCodecVersion, String poolKey) {
         this.socket = socket;
+        this.socketProtocolCodec = socketProtocolCodec;
         this.flowFileProtocolVersion = flowFileProtocolVersion;
         this.flowFileCodecVersion = flowFileCodecVersion;
+        this.poolKey = poolKey;
+    }
+
+    public static SocketProtocolCodec createSocketProtocolCodec(Socket socket) throws IOException {
+        return new SocketProtocolCodec(createDataInputStream(socket), createDataOutputStream(socket));
+    }
+
+    public static DataInputStream createDataInputStream(Socket socket) throws IOException {
+        SocketChannel socketChannel = socket.getChannel();
+        if (socketChannel != null) {
+            return new DataInputStream(new SocketChannelInputStream(socketChannel, BUFFER_SIZE));
+        }
+        return new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+    }
+
+    public static DataOutputStream createDataOutputStream(Socket socket) throws IOException {
+        SocketChannel socketChannel = socket.getChannel();
+        if (socketChannel != null) {
+            return new SocketChannelDataOutputStream(new SocketChannelOutputStream(socketChannel, BUFFER_SIZE));
+        }
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
     }
 
     public Socket getSocket() {
         return socket;
     }
 
+    public SocketProtocolCodec getSocketProtocolCodec() {
+        return socketProtocolCodec;
+    }
+
+    public DataInputStream getDataInputStream() {
+        return socketProtocolCodec.getDataInputStream();
+    }
+
+    public DataOutputStream getDataOutputStream() {
+        return socketProtocolCodec.getDataOutputStream();
+    }
+
     public int getFlowFileProtocolVersion() {
         return flowFileProtocolVersion;
     }
@@ -41,4 +104,75 @@ public class SocketPeerConnection {
     public Integer getFlowFileCodecVersion() {
         return flowFileCodecVersion;
     }
+
+    /**
+     * Gets the key the connection can be pooled under, null if it shouldn't be reused
+     *
+     * @return the pool key
+     */
+    public String getPoolKey() {
+        return poolKey;
+    }
+
+    /**
+     * Checks that an idle connection is still usable: the socket is open, the peer hasn't closed its end and there is
+     * no unexpected data waiting to be read
+     *
+     * @return true if the connection can be used for another request
+     */
+    public boolean isHealthy() {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        try {
+            int soTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(HEALTH_CHECK_TIMEOUT_MILLIS);
+            try {
+                // Idle connections shouldn't have anything to read, -1 means the peer closed the connection
+                getDataInputStream().read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(soTimeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells the peer we are done with the connection and closes it
+     */
+    public void close() {
+        try {
+            socketProtocolCodec.writeRequestType(RequestType.SHUTDOWN);
+            socketProtocolCodec.flush();
+        } catch (IOException e) {
+            logger.warning("Unable to send shutdown request to peer before closing connection.");
+        }
+        closeWithoutShutdown();
+    }
+
+    /**
+     * Closes the connection without notifying the peer, used when the connection is known to be broken
+     */
+    public void closeWithoutShutdown() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.warning("Socket could not be closed cleanly when done using socket.");
+        }
+        // Releases any selectors held by channel streams, the socket is already closed so failures are expected
+        try {
+            getDataInputStream().close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        try {
+            getDataOutputStream().close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps idle, already handshaken raw connections so that subsequent transactions to the same peer with the same handshake
+ * properties can skip connecting, protocol and codec negotiation and the handshake.  Connections idle for longer than
+ * the idle connection expiration are shut down the next time the pool is used.
+ */
+public class SocketPeerConnectionPool {
+    public static final int MAX_IDLE_CONNECTIONS_PER_KEY = 4;
+
+    private static SocketPeerConnectionPool sharedInstance;
+
+    private final Map<String, Deque<IdleConnection>> idleConnections = new HashMap<>();
+
+    /**
+     * Gets the process-wide pool
+     *
+     * @return the process-wide pool
+     */
+    public static synchronized SocketPeerConnectionPool getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new SocketPeerConnectionPool();
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Takes the most recently used healthy connection for the key, closing any expired or broken ones encountered
+     *
+     * @param key                 the peer and handshake properties the connection must match
+     * @param idleExpirationNanos how long a connection may have been idle
+     * @return a connection or null if there isn't a usable one
+     */
+    public SocketPeerConnection take(String key, long idleExpirationNanos) {
+        while (true) {
+            IdleConnection idleConnection;
+            List<SocketPeerConnection> expired;
+            synchronized (this) {
+                expired = removeExpired(System.nanoTime(), idleExpirationNanos);
+                Deque<IdleConnection> deque = idleConnections.get(key);
+                idleConnection = deque == null ? null : deque.pollFirst();
+                if (deque != null && deque.isEmpty()) {
+                    idleConnections.remove(key);
+                }
+            }
+            for (SocketPeerConnection socketPeerConnection : expired) {
+                socketPeerConnection.close();
+            }
+            if (idleConnection == null) {
+                return null;
+            }
+            SocketPeerConnection socketPeerConnection = idleConnection.socketPeerConnection;
+            if (socketPeerConnection.isHealthy()) {
+                return socketPeerConnection;
+            }
+            socketPeerConnection.closeWithoutShutdown();
+        }
+    }
+
+    /**
+     * Returns a connection that finished its last request cleanly to the pool
+     *
+     * @param key                  the peer and handshake properties the connection was established with
+     * @param socketPeerConnection the connection
+     * @param idleExpirationNanos  how long connections may be idle before being closed
+     */
+    public void release(String key, SocketPeerConnection socketPeerConnection, long idleExpirationNanos) {
+        if (idleExpirationNanos <= 0) {
+            socketPeerConnection.close();
+            return;
+        }
+        long now = System.nanoTime();
+        List<SocketPeerConnection> toClose;
+        synchronized (this) {
+            toClose = removeExpired(now, idleExpirationNanos);
+            Deque<IdleConnection> deque = idleConnections.get(key);
+            if (deque == null) {
+                deque = new ArrayDeque<>();
+                idleConnections.put(key, deque);
+            }
+            deque.addFirst(new IdleConnection(socketPeerConnection, now));
+            if (deque.size() > MAX_IDLE_CONNECTIONS_PER_KEY) {
+                toClose.add(deque.pollLast().socketPeerConnection);
+            }
+        }
+        for (SocketPeerConnection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Shuts down all idle connections
+     */
+    public void clear() {
+        List<SocketPeerConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (Deque<IdleConnection> deque : idleConnections.values()) {
+                for (IdleConnection idleConnection : deque) {
+                    toClose.add(idleConnection.socketPeerConnection);
+                }
+            }
+            idleConnections.clear();
+        }
+        for (SocketPeerConnection socketPeerConnection : toClose) {
+            socketPeerConnection.close();
+        }
+    }
+
+    /**
+     * Gets the number of idle connections in the pool
+     *
+     * @return the number of idle connections in the pool
+     */
+    public synchronized int getIdleConnectionCount() {
+        int result = 0;
+        for (Deque<IdleConnection> deque : idleConnections.values()) {
+            result += deque.size();
+        }
+        return result;
+    }
+
+    private List<SocketPeerConnection> removeExpired(long now, long idleExpirationNanos) {
+        List<SocketPeerConnection> result = new ArrayList<>();
+        Iterator<Deque<IdleConnection>> dequeIterator = idleConnections.values().iterator();
+        while (dequeIterator.hasNext()) {
+            Deque<IdleConnection> deque = dequeIterator.next();
+            // Oldest connections are at the end
+            while (!deque.isEmpty() && now - deque.peekLast().releasedNanos > idleExpirationNanos) {
+                result.add(deque.pollLast().socketPeerConnection);
+            }
+            if (deque.isEmpty()) {
+                dequeIterator.remove();
+            }
+        }
+        return result;
+    }
+
+    private static class IdleConnection {
+        private final SocketPeerConnection socketPeerConnection;
+        private final long releasedNanos;
+
+        private IdleConnection(SocketPeerConnection socketPeerConnection, long releasedNanos) {
+            this.socketPeerConnection = socketPeerConnection;
+            this.releasedNanos = releasedNanos;
+        }
+    }
+}
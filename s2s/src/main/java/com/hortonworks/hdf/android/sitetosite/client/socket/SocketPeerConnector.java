@@ -22,14 +22,19 @@ import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
 import com.hortonworks.hdf.android.sitetosite.client.peer.Peer;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.UnknownPortException;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -50,66 +55,220 @@ public class SocketPeerConnector {
     public static final String BATCH_DURATION = "BATCH_DURATION";
     public static final String STANDARD_FLOW_FILE_CODEC = "StandardFlowFileCodec";
 
+    public static final int MAX_PROTOCOL_VERSION = 6;
+    private static final int[] PROTOCOL_VERSIONS = {MAX_PROTOCOL_VERSION, 5, 4, 3, 2, 1};
+    private static final int[] CODEC_VERSIONS = {1};
+
     private final Peer peer;
     private final SiteToSiteClientConfig siteToSiteClientConfig;
     private final SiteToSiteRemoteCluster siteToSiteRemoteCluster;
+    private final SocketPeerConnectionPool socketPeerConnectionPool;
+    private final boolean receive;
 
     public SocketPeerConnector(Peer peer, SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster) {
+        this(peer, siteToSiteClientConfig, siteToSiteRemoteCluster, SocketPeerConnectionPool.getSharedInstance());
+    }
+
+    public SocketPeerConnector(Peer peer, SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster, SocketPeerConnectionPool socketPeerConnectionPool) {
+        this(peer, siteToSiteClientConfig, siteToSiteRemoteCluster, socketPeerConnectionPool, false);
+    }
+
+    /**
+     * Creates a connector
+     *
+     * @param peer                     the peer
+     * @param siteToSiteClientConfig   the config
+     * @param siteToSiteRemoteCluster  the cluster of the peer
+     * @param socketPeerConnectionPool the pool for idle connections
+     * @param receive                  whether connections will receive from the output port instead of sending to the input port
+     */
+    public SocketPeerConnector(Peer peer, SiteToSiteClientConfig siteToSiteClientConfig, SiteToSiteRemoteCluster siteToSiteRemoteCluster, SocketPeerConnectionPool socketPeerConnectionPool, boolean receive) {
         this.peer = peer;
         this.siteToSiteClientConfig = siteToSiteClientConfig;
         this.siteToSiteRemoteCluster = siteToSiteRemoteCluster;
+        this.socketPeerConnectionPool = socketPeerConnectionPool;
+        this.receive = receive;
     }
 
+    /**
+     * Gets an idle pooled connection matching this peer and configuration or opens and handshakes a new one
+     *
+     * @param negotiateCodec whether the connection will be used for a transaction and needs a flow file codec
+     * @return the connection
+     * @throws IOException if there is an error connecting
+     */
     public SocketPeerConnection openConnection(boolean negotiateCodec) throws IOException {
-        Socket socket;
-        if (peer.isSecure()) {
-            SSLContext sslContext = siteToSiteRemoteCluster.getSslContext();
-            if (sslContext == null) {
-                throw new IOException("SSL not configured but peer is set to secure");
+        SocketPeerConnection pooled = takePooledConnection(negotiateCodec);
+        if (pooled != null) {
+            return pooled;
+        }
+        return handshake(createSocketDialer(isSocketChannel()).dial(peer.getHostname(), peer.getRawPort()), negotiateCodec);
+    }
+
+    /**
+     * Gets an idle pooled connection to any of the connectors' peers in order or dials all of them at once and handshakes
+     * with the first one to connect
+     *
+     * @param socketPeerConnectors the connectors in order of preference
+     * @param negotiateCodec       whether the connection will be used for a transaction and needs a flow file codec
+     * @return the connection
+     * @throws IOException if none of the peers could be connected to
+     */
+    public static SocketPeerConnection openFirstConnection(List<SocketPeerConnector> socketPeerConnectors, boolean negotiateCodec) throws IOException {
+        if (socketPeerConnectors.isEmpty()) {
+            throw new IOException("No peers to connect to");
+        }
+        boolean socketChannel = true;
+        List<InetSocketAddress> targets = new ArrayList<>(socketPeerConnectors.size());
+        for (SocketPeerConnector socketPeerConnector : socketPeerConnectors) {
+            SocketPeerConnection pooled = socketPeerConnector.takePooledConnection(negotiateCodec);
+            if (pooled != null) {
+                return pooled;
             }
-            socket = sslContext.getSocketFactory().createSocket(peer.getHostname(), peer.getRawPort());
-        } else {
-            socket = new Socket(peer.getHostname(), peer.getRawPort());
+            socketChannel &= socketPeerConnector.isSocketChannel();
+            Peer peer = socketPeerConnector.peer;
+            targets.add(InetSocketAddress.createUnresolved(peer.getHostname(), peer.getRawPort()));
+        }
+        SocketDialer.DialedSocket dialedSocket = socketPeerConnectors.get(0).createSocketDialer(socketChannel).dial(targets);
+        return socketPeerConnectors.get(dialedSocket.getIndex()).handshake(dialedSocket.getSocket(), negotiateCodec);
+    }
+
+    private SocketPeerConnection takePooledConnection(boolean negotiateCodec) {
+        SocketPeerConnection pooled = socketPeerConnectionPool.take(getPoolKey(), siteToSiteClientConfig.getIdleConnectionExpiration(TimeUnit.NANOSECONDS));
+        if (pooled == null || !negotiateCodec || pooled.getFlowFileCodecVersion() != null) {
+            return pooled;
         }
         try {
+            return negotiateCodec(pooled);
+        } catch (IOException e) {
+            // Fall back to a new connection
+            pooled.closeWithoutShutdown();
+            return null;
+        }
+    }
+
+    private boolean isSocketChannel() {
+        return !peer.isSecure() && siteToSiteRemoteCluster.getClientType() == SiteToSiteRemoteCluster.ClientType.RAW_NIO;
+    }
+
+    private SocketDialer createSocketDialer(boolean socketChannel) {
+        return new SocketDialer(siteToSiteClientConfig, socketChannel);
+    }
+
+    private SocketPeerConnection handshake(Socket socket, boolean negotiateCodec) throws IOException {
+        try {
+            if (peer.isSecure()) {
+                SSLContext sslContext = siteToSiteRemoteCluster.getSslContext();
+                if (sslContext == null) {
+                    throw new IOException("SSL not configured but peer is set to secure");
+                }
+                socket = sslContext.getSocketFactory().createSocket(socket, peer.getHostname(), peer.getRawPort(), true);
+            } else if (socket.getChannel() != null) {
+                socket.getChannel().configureBlocking(false);
+            }
             socket.setSoTimeout((int) siteToSiteClientConfig.getTimeout(TimeUnit.MILLISECONDS));
-            socket.getOutputStream().write(MAGIC_BYTES);
-            int protocolVersion = negotiateVersion(socket, SOCKET_FLOW_FILE_PROTOCOL, new int[] {6, 5, 4, 3, 2, 1});
+            SocketProtocolCodec socketProtocolCodec = SocketPeerConnection.createSocketProtocolCodec(socket);
+            // Magic bytes go out with the first negotiation request
+            socketProtocolCodec.getDataOutputStream().write(MAGIC_BYTES);
+            int protocolVersion = negotiateVersion(socketProtocolCodec, SOCKET_FLOW_FILE_PROTOCOL,
+                    preferVersion(PROTOCOL_VERSIONS, peer.getFlowFileProtocolVersion()));
+            peer.setFlowFileProtocolVersion(protocolVersion);
 
-            if (protocolVersion < 5 && siteToSiteClientConfig.getPortIdentifier() == null) {
+            if (protocolVersion < 5 && getPortIdentifier() == null) {
                 throw new IOException("Unable to find port identifier and it is required for this protocol version (" + protocolVersion + ")");
             }
 
-            protocolHandshake(socket, protocolVersion);
-            Integer codecVersion = null;
+            protocolHandshake(socketProtocolCodec, protocolVersion);
+            SocketPeerConnection socketPeerConnection = new SocketPeerConnection(socket, socketProtocolCodec, protocolVersion, null, getPoolKey());
             if (negotiateCodec) {
-                RequestType.NEGOTIATE_FLOWFILE_CODEC.writeRequestType(new DataOutputStream(socket.getOutputStream()));
-                codecVersion = negotiateVersion(socket, STANDARD_FLOW_FILE_CODEC, new int[] {1});
+                return negotiateCodec(socketPeerConnection);
             }
-            return new SocketPeerConnection(socket, protocolVersion, codecVersion);
+            return socketPeerConnection;
         } catch (IOException e) {
             socket.close();
             throw e;
         }
     }
 
-    private int negotiateVersion(Socket socket, String resourceName, int[] versions) throws IOException {
-        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+    /**
+     * Returns a connection that completed its last request cleanly so that it can be reused, or closes it if it can't be
+     *
+     * @param socketPeerConnection the connection
+     */
+    public void release(SocketPeerConnection socketPeerConnection) {
+        String poolKey = socketPeerConnection.getPoolKey();
+        if (poolKey == null) {
+            socketPeerConnection.close();
+        } else {
+            socketPeerConnectionPool.release(poolKey, socketPeerConnection, siteToSiteClientConfig.getIdleConnectionExpiration(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private SocketPeerConnection negotiateCodec(SocketPeerConnection socketPeerConnection) throws IOException {
+        SocketProtocolCodec socketProtocolCodec = socketPeerConnection.getSocketProtocolCodec();
+        socketProtocolCodec.writeRequestType(RequestType.NEGOTIATE_FLOWFILE_CODEC);
+        int codecVersion = negotiateVersion(socketProtocolCodec, STANDARD_FLOW_FILE_CODEC, preferVersion(CODEC_VERSIONS, peer.getFlowFileCodecVersion()));
+        peer.setFlowFileCodecVersion(codecVersion);
+        return new SocketPeerConnection(socketPeerConnection.getSocket(), socketProtocolCodec, socketPeerConnection.getFlowFileProtocolVersion(), codecVersion,
+                socketPeerConnection.getPoolKey());
+    }
+
+    /**
+     * Connections can only be shared by clients that would have sent the same handshake to the same peer with the same identity
+     *
+     * @return the key for pooling connections
+     */
+    private String getPoolKey() {
+        StringBuilder stringBuilder = new StringBuilder(getPeerUri(peer));
+        if (peer.isSecure()) {
+            stringBuilder.append(" secure ").append(siteToSiteRemoteCluster.getKeystoreFilename());
+        }
+        return stringBuilder.append(" ").append(new TreeMap<>(createHandshakeProperties(MAX_PROTOCOL_VERSION))).toString();
+    }
+
+    /**
+     * Moves the version previously negotiated with the peer to the front so that it is agreed on in a single round trip
+     *
+     * @param versions  the supported versions in order of preference
+     * @param preferred the previously negotiated version (0 if none)
+     * @return the versions to propose
+     */
+    protected static int[] preferVersion(int[] versions, int preferred) {
+        if (preferred <= 0 || versions[0] == preferred) {
+            return versions;
+        }
+        int[] result = new int[versions.length];
+        result[0] = preferred;
+        int index = 1;
+        for (int version : versions) {
+            if (version != preferred) {
+                if (index == result.length) {
+                    // Preferred version is no longer supported
+                    return versions;
+                }
+                result[index++] = version;
+            }
+        }
+        return result;
+    }
+
+    private int negotiateVersion(SocketProtocolCodec socketProtocolCodec, String resourceName, int[] versions) throws IOException {
+        DataInputStream dataInputStream = socketProtocolCodec.getDataInputStream();
+        DataOutputStream dataOutputStream = socketProtocolCodec.getDataOutputStream();
         int maxVersion = Integer.MAX_VALUE;
         for (int version : versions) {
             if (version <= maxVersion) {
-                dataOutputStream.writeUTF(resourceName);
+                socketProtocolCodec.writeUTF(resourceName);
                 dataOutputStream.writeInt(version);
                 dataOutputStream.flush();
 
-                DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
                 int read = dataInputStream.read();
                 if (read == RESOURCE_OK) {
                     return version;
                 } else if (read == DIFFERENT_RESOURCE_VERSION) {
                     maxVersion = Math.min(maxVersion, dataInputStream.readInt());
                 } else if (read == ABORT) {
-                    throw new IOException("Abort received during negotiation: " + dataInputStream.readUTF());
+                    throw new IOException("Abort received during negotiation: " + socketProtocolCodec.readUTF());
                 } else {
                     throw new IOException("Unknown response during protocol negotiation");
                 }
@@ -118,19 +277,37 @@ public class SocketPeerConnector {
         throw new IOException("Unable to agree on versions (server sent max version " + maxVersion + " we support " + Arrays.toString(versions) + ")");
     }
 
-    private void protocolHandshake(Socket socket, int protocolVersion) throws IOException {
-        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-        dataOutputStream.writeUTF(UUID.randomUUID().toString());
+    private void protocolHandshake(SocketProtocolCodec socketProtocolCodec, int protocolVersion) throws IOException {
+        socketProtocolCodec.writeUTF(UUID.randomUUID().toString());
 
         if (protocolVersion >= 3) {
-            dataOutputStream.writeUTF(getPeerUri(peer));
+            socketProtocolCodec.writeUTF(getPeerUri(peer));
         }
 
+        Map<String, String> properties = createHandshakeProperties(protocolVersion);
+        socketProtocolCodec.getDataOutputStream().writeInt(properties.size());
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            socketProtocolCodec.writeUTF(entry.getKey());
+            socketProtocolCodec.writeUTF(entry.getValue());
+        }
+        socketProtocolCodec.flush();
+
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        String message = socketProtocolCodec.readMessage(responseCode);
+
+        if (responseCode == ResponseCode.UNKNOWN_PORT) {
+            throw new UnknownPortException("Error during handshake: " + responseCode + " with message " + message);
+        } else if (responseCode != ResponseCode.PROPERTIES_OK) {
+            throw new IOException("Error during handshake: " + responseCode + " with message " + message);
+        }
+    }
+
+    private Map<String, String> createHandshakeProperties(int protocolVersion) {
         final Map<String, String> properties = new HashMap<>();
 
         properties.put(GZIP, String.valueOf(siteToSiteClientConfig.isUseCompression()));
 
-        String portIdentifier = siteToSiteClientConfig.getPortIdentifier();
+        String portIdentifier = getPortIdentifier();
         if (portIdentifier != null) {
             properties.put(PORT_IDENTIFIER, portIdentifier);
         }
@@ -154,24 +331,11 @@ public class SocketPeerConnector {
             }
         }
 
-        dataOutputStream.writeInt(properties.size());
-        for (Map.Entry<String, String> entry : properties.entrySet()) {
-            dataOutputStream.writeUTF(entry.getKey());
-            dataOutputStream.writeUTF(entry.getValue());
-        }
-        dataOutputStream.flush();
-
-        DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
-        ResponseCode responseCode = ResponseCode.readCode(dataInputStream);
-
-        String message = null;
-        if (responseCode.containsMessage()) {
-            message = dataInputStream.readUTF();
-        }
+        return properties;
+    }
 
-        if (responseCode != ResponseCode.PROPERTIES_OK) {
-            throw new IOException("Error during handshake: " + responseCode + " with message " + message);
-        }
+    private String getPortIdentifier() {
+        return receive ? siteToSiteClientConfig.getOutputPortIdentifier() : siteToSiteClientConfig.getPortIdentifier();
     }
 
     protected static String getPeerUri(Peer peer) {
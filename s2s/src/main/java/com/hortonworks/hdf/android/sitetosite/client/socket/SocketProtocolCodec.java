@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+
+/**
+ * Reads and writes the framing of the raw site-to-site protocol (response codes and modified UTF-8 strings) over a
+ * connection's buffered stream pair.  One codec lives as long as its connection so its scratch buffers are reused by
+ * every request instead of being allocated per call the way Android's DataInputStream.readUTF and
+ * DataOutputStream.writeUTF do.
+ */
+public class SocketProtocolCodec {
+    private static final int INITIAL_UTF_BUFFER_SIZE = 128;
+    private static final int MAX_UTF_LENGTH = 65535;
+
+    private final DataInputStream dataInputStream;
+    private final DataOutputStream dataOutputStream;
+    private final byte[] codeSequence = new byte[3];
+    private byte[] utfBytes = new byte[INITIAL_UTF_BUFFER_SIZE];
+    private char[] utfChars = new char[INITIAL_UTF_BUFFER_SIZE];
+
+    public SocketProtocolCodec(DataInputStream dataInputStream, DataOutputStream dataOutputStream) {
+        this.dataInputStream = dataInputStream;
+        this.dataOutputStream = dataOutputStream;
+    }
+
+    public DataInputStream getDataInputStream() {
+        return dataInputStream;
+    }
+
+    public DataOutputStream getDataOutputStream() {
+        return dataOutputStream;
+    }
+
+    /**
+     * Reads a response code in one read from the buffer
+     *
+     * @return the response code
+     * @throws IOException if the stream ends or doesn't have a known response code next
+     */
+    public ResponseCode readCode() throws IOException {
+        dataInputStream.readFully(codeSequence, 0, codeSequence.length);
+        return ResponseCode.fromCodeSequence(codeSequence);
+    }
+
+    /**
+     * Reads the message that follows a response code if the code has one
+     *
+     * @param responseCode the response code just read
+     * @return the message, null if the code doesn't have one
+     * @throws IOException if there is an error reading
+     */
+    public String readMessage(ResponseCode responseCode) throws IOException {
+        if (responseCode.containsMessage()) {
+            return readUTF();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a string in the format written by DataOutputStream.writeUTF
+     *
+     * @return the string
+     * @throws IOException if the stream ends or the string is malformed
+     */
+    public String readUTF() throws IOException {
+        int length = dataInputStream.readUnsignedShort();
+        if (length == 0) {
+            return "";
+        }
+        if (utfBytes.length < length) {
+            utfBytes = new byte[Math.max(length, utfBytes.length * 2)];
+            utfChars = new char[utfBytes.length];
+        }
+        byte[] bytes = utfBytes;
+        char[] chars = utfChars;
+        dataInputStream.readFully(bytes, 0, length);
+
+        int index = 0;
+        int charCount = 0;
+        while (index < length) {
+            int b = bytes[index] & 0xFF;
+            if (b < 0x80) {
+                chars[charCount++] = (char) b;
+                index++;
+            } else if ((b & 0xE0) == 0xC0) {
+                if (index + 2 > length) {
+                    throw new UTFDataFormatException("malformed input: partial character at end");
+                }
+                int b2 = bytes[index + 1];
+                if ((b2 & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("malformed input around byte " + (index + 1));
+                }
+                chars[charCount++] = (char) (((b & 0x1F) << 6) | (b2 & 0x3F));
+                index += 2;
+            } else if ((b & 0xF0) == 0xE0) {
+                if (index + 3 > length) {
+                    throw new UTFDataFormatException("malformed input: partial character at end");
+                }
+                int b2 = bytes[index + 1];
+                int b3 = bytes[index + 2];
+                if ((b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("malformed input around byte " + (index + 2));
+                }
+                chars[charCount++] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                index += 3;
+            } else {
+                throw new UTFDataFormatException("malformed input around byte " + index);
+            }
+        }
+        return new String(chars, 0, charCount);
+    }
+
+    /**
+     * Writes a string in the format read by DataInputStream.readUTF without flushing
+     *
+     * @param value the string
+     * @throws IOException if the string is too long to encode or there is an error writing
+     */
+    public void writeUTF(String value) throws IOException {
+        int charCount = value.length();
+        int length = 0;
+        for (int i = 0; i < charCount; i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        if (length > MAX_UTF_LENGTH) {
+            throw new UTFDataFormatException("encoded string too long: " + length + " bytes");
+        }
+        if (utfBytes.length < length + 2) {
+            utfBytes = new byte[Math.max(length + 2, utfBytes.length * 2)];
+            utfChars = new char[utfBytes.length];
+        }
+        byte[] bytes = utfBytes;
+        bytes[0] = (byte) (length >>> 8);
+        bytes[1] = (byte) length;
+        int index = 2;
+        for (int i = 0; i < charCount; i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                bytes[index++] = (byte) c;
+            } else if (c < 0x800) {
+                // Modified UTF-8 writes NUL as 2 bytes so the encoding never contains a 0 byte
+                bytes[index++] = (byte) (0xC0 | (c >> 6));
+                bytes[index++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[index++] = (byte) (0xE0 | (c >> 12));
+                bytes[index++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[index++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        dataOutputStream.write(bytes, 0, index);
+    }
+
+    /**
+     * Writes a request type without flushing
+     *
+     * @param requestType the request type
+     * @throws IOException if there is an error writing
+     */
+    public void writeRequestType(RequestType requestType) throws IOException {
+        writeUTF(requestType.name());
+    }
+
+    /**
+     * Writes a response code without flushing
+     *
+     * @param responseCode the response code
+     * @throws IOException if there is an error writing
+     */
+    public void writeResponse(ResponseCode responseCode) throws IOException {
+        responseCode.writeResponse(dataOutputStream);
+    }
+
+    /**
+     * Writes a response code and its explanation without flushing
+     *
+     * @param responseCode the response code
+     * @param explanation  the explanation
+     * @throws IOException if there is an error writing
+     */
+    public void writeResponse(ResponseCode responseCode, String explanation) throws IOException {
+        if (!responseCode.containsMessage()) {
+            throw new IllegalArgumentException("ResponseCode " + responseCode.getCode() + " does not expect an explanation");
+        }
+        dataOutputStream.write(responseCode.getCodeSequence());
+        writeUTF(explanation);
+    }
+
+    public void flush() throws IOException {
+        dataOutputStream.flush();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import com.hortonworks.hdf.android.sitetosite.client.ReceiveTransaction;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionInputStream;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ProtocolException;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.transaction.DataPacketReader;
+import com.hortonworks.hdf.android.sitetosite.packet.ReceivedDataPacket;
+import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Transaction receiving data from a NiFi output port over a socket.  NiFi sends each data packet (compressed on its own if
+ * compression is on) followed by an uncompressed continue or finish code.
+ */
+public class SocketReceiveTransaction implements ReceiveTransaction {
+    private final SocketPeerConnection socketPeerConnection;
+    private final SocketPeerConnector socketPeerConnector;
+    private final SocketProtocolCodec socketProtocolCodec;
+    private final DataInputStream dataInputStream;
+    private final boolean useCompression;
+    private final DataPacketReader dataPacketReader;
+    private boolean dataAvailable;
+    private boolean confirmed;
+    private boolean ended;
+    private int flowFilesReceived = 0;
+
+    /**
+     * Requests data over the connection, if a connector is given the connection is released to it for reuse when the
+     * transaction completes successfully instead of being shut down
+     *
+     * @param socketPeerConnection   the connection
+     * @param siteToSiteClientConfig the config
+     * @param socketPeerConnector    the connector to release the connection to (may be null)
+     * @param directory              the directory to write received content to
+     * @throws IOException if the transaction can't be started
+     */
+    public SocketReceiveTransaction(SocketPeerConnection socketPeerConnection, SiteToSiteClientConfig siteToSiteClientConfig, SocketPeerConnector socketPeerConnector, File directory) throws IOException {
+        this.socketPeerConnection = socketPeerConnection;
+        this.socketPeerConnector = socketPeerConnector;
+        this.socketProtocolCodec = socketPeerConnection.getSocketProtocolCodec();
+        this.dataInputStream = socketProtocolCodec.getDataInputStream();
+        this.useCompression = siteToSiteClientConfig.isUseCompression();
+        this.dataPacketReader = new DataPacketReader(directory);
+        Integer flowFileCodecVersion = socketPeerConnection.getFlowFileCodecVersion();
+        if (flowFileCodecVersion == null) {
+            throw new IOException("Need to negotiate flow file codec version before starting transaction");
+        } else if (flowFileCodecVersion != 1) {
+            throw new IOException("Unsupported codec version " + flowFileCodecVersion);
+        }
+
+        socketProtocolCodec.writeRequestType(RequestType.RECEIVE_FLOWFILES);
+        socketProtocolCodec.flush();
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        if (responseCode == ResponseCode.MORE_DATA) {
+            dataAvailable = true;
+        } else if (responseCode == ResponseCode.NO_MORE_DATA) {
+            // Nothing to confirm, the connection is ready for the next request
+            dataAvailable = false;
+            confirmed = true;
+        } else {
+            socketPeerConnection.close();
+            throw new ProtocolException("Expected " + ResponseCode.MORE_DATA + " or " + ResponseCode.NO_MORE_DATA + " but got " + responseCode);
+        }
+    }
+
+    @Override
+    public ReceivedDataPacket receive() throws IOException {
+        if (!dataAvailable) {
+            return null;
+        }
+        if (flowFilesReceived > 0) {
+            // NiFi says whether there is another packet only after the previous one
+            ResponseCode responseCode = socketProtocolCodec.readCode();
+            if (responseCode == ResponseCode.FINISH_TRANSACTION) {
+                dataAvailable = false;
+                return null;
+            } else if (responseCode != ResponseCode.CONTINUE_TRANSACTION) {
+                throw new ProtocolException("Expected " + ResponseCode.CONTINUE_TRANSACTION + " or " + ResponseCode.FINISH_TRANSACTION + " but got " + responseCode);
+            }
+        }
+        ReceivedDataPacket receivedDataPacket;
+        if (useCompression) {
+            CompressionInputStream compressionInputStream = new CompressionInputStream(dataInputStream);
+            try {
+                receivedDataPacket = dataPacketReader.read(compressionInputStream);
+                // Consume the end marker so the next code can be read
+                IOUtils.discard(compressionInputStream);
+            } finally {
+                compressionInputStream.close();
+            }
+        } else {
+            receivedDataPacket = dataPacketReader.read(dataInputStream);
+        }
+        if (receivedDataPacket == null) {
+            throw new EOFException("Stream ended before data packet");
+        }
+        flowFilesReceived++;
+        return receivedDataPacket;
+    }
+
+    @Override
+    public void confirm() throws IOException {
+        if (confirmed) {
+            return;
+        }
+        if (dataAvailable) {
+            throw new IOException("Not all data packets in the transaction were received");
+        }
+        socketProtocolCodec.writeResponse(ResponseCode.CONFIRM_TRANSACTION, Long.toString(dataPacketReader.getCrc()));
+        socketProtocolCodec.flush();
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        String message = socketProtocolCodec.readMessage(responseCode);
+        if (responseCode == ResponseCode.BAD_CHECKSUM) {
+            throw new IOException("Peer reported bad checksum");
+        } else if (responseCode != ResponseCode.CONFIRM_TRANSACTION) {
+            throw new IOException("Unexpected response code from peer: " + responseCode.name() + " and message " + message);
+        }
+        confirmed = true;
+    }
+
+    @Override
+    public TransactionResult complete() throws IOException {
+        confirm();
+        return endTransaction(ResponseCode.TRANSACTION_FINISHED);
+    }
+
+    @Override
+    public TransactionResult cancel() throws IOException {
+        return endTransaction(ResponseCode.CANCEL_TRANSACTION);
+    }
+
+    private TransactionResult endTransaction(ResponseCode responseCodeToSend) throws IOException {
+        if (ended) {
+            throw new IOException("Transaction already ended");
+        }
+        ended = true;
+        boolean reusable = false;
+        try {
+            if (flowFilesReceived == 0 && !dataAvailable) {
+                // NiFi had nothing to send and isn't waiting for an answer
+                reusable = true;
+                return new TransactionResult(0, ResponseCode.NO_MORE_DATA, null);
+            }
+            if (responseCodeToSend.containsMessage()) {
+                socketProtocolCodec.writeResponse(responseCodeToSend, "");
+            } else {
+                socketProtocolCodec.writeResponse(responseCodeToSend);
+            }
+            socketProtocolCodec.flush();
+            // Cancelling may leave unread data on the connection
+            reusable = responseCodeToSend == ResponseCode.TRANSACTION_FINISHED;
+            return new TransactionResult(flowFilesReceived, responseCodeToSend, null);
+        } finally {
+            if (reusable && socketPeerConnector != null) {
+                socketPeerConnector.release(socketPeerConnection);
+            } else {
+                socketPeerConnection.close();
+            }
+        }
+    }
+}
@@ -17,7 +17,7 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.socket;
 
-import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClient;
+import com.hortonworks.hdf.android.sitetosite.client.ReceivingSiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
 import com.hortonworks.hdf.android.sitetosite.client.http.HttpPeerConnector;
@@ -27,13 +27,17 @@ import com.hortonworks.hdf.android.sitetosite.client.peer.PeerOperation;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerTracker;
 import com.hortonworks.hdf.android.sitetosite.client.peer.PeerUpdater;
 import com.hortonworks.hdf.android.sitetosite.client.peer.SiteToSiteInfo;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.UnknownPortException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class SocketSiteToSiteClient implements PeerUpdater, SiteToSiteClient {
+public class SocketSiteToSiteClient implements PeerUpdater, ReceivingSiteToSiteClient {
     public final PeerConnectorFactory<SocketPeerConnector> CONNECTOR_FACTORY = new PeerConnectorFactory<SocketPeerConnector>() {
         @Override
         public SocketPeerConnector create(Peer peer) throws IOException {
@@ -45,6 +49,19 @@ public class SocketSiteToSiteClient implements PeerUpdater, SiteToSiteClient {
         }
     };
 
+    public final PeerConnectorFactory<SocketPeerConnector> RECEIVE_CONNECTOR_FACTORY = new PeerConnectorFactory<SocketPeerConnector>() {
+        @Override
+        public SocketPeerConnector create(Peer peer) throws IOException {
+            int rawPort = peer.getRawPort();
+            if (rawPort <= 0 || rawPort > 65535) {
+                return null;
+            }
+            return new SocketPeerConnector(peer, siteToSiteClientConfig, siteToSiteRemoteCluster, SocketPeerConnectionPool.getSharedInstance(), true);
+        }
+    };
+
+    private static final Logger logger = Logger.getLogger(SocketSiteToSiteClient.class.getName());
+
     private final SiteToSiteClientConfig siteToSiteClientConfig;
     private final SiteToSiteRemoteCluster siteToSiteRemoteCluster;
     private final PeerTracker peerTracker;
@@ -65,6 +82,15 @@ public class SocketSiteToSiteClient implements PeerUpdater, SiteToSiteClient {
 
     @Override
     public List<Peer> getPeers() throws IOException {
+        List<Peer> rawPeers = getRawPeers(peerTracker.getPeers());
+        if (!rawPeers.isEmpty()) {
+            // Raw port is already known, no need to go through HTTP to find it
+            try {
+                return peerTracker.performOperation(rawPeers, new SocketGetPeersPeerOperation(), CONNECTOR_FACTORY);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Unable to get peers from any known raw peer, looking up raw port", e);
+            }
+        }
         try {
             return peerTracker.performHttpOperation(new PeerOperation<List<Peer>, HttpPeerConnector>() {
                 @Override
@@ -95,20 +121,162 @@ public class SocketSiteToSiteClient implements PeerUpdater, SiteToSiteClient {
 
     @Override
     public SocketTransaction createTransaction() throws IOException {
-        return peerTracker.performOperation(new PeerOperation<SocketTransaction, SocketPeerConnector>() {
+        List<Peer> peers = peerTracker.getPeers();
+        // A due peer list is requested over the transaction's connection instead of connections of its own
+        boolean requestPeers = peerTracker.isPeerUpdateDue();
+        if (requestPeers && getRawPeers(peers).isEmpty()) {
+            // Nothing to ask yet, the raw port has to be looked up first
+            peerTracker.updatePeers();
+            peers = peerTracker.getPeers();
+            requestPeers = false;
+        }
+        int peerConnectConcurrency = siteToSiteClientConfig.getPeerConnectConcurrency();
+        if (peerConnectConcurrency > 1) {
+            SocketTransaction socketTransaction = createTransactionConcurrently(peers, peerConnectConcurrency, requestPeers);
+            if (socketTransaction != null) {
+                return socketTransaction;
+            }
+        }
+        final boolean finalRequestPeers = requestPeers;
+        return peerTracker.performOperation(peers, new PeerOperation<SocketTransaction, SocketPeerConnector>() {
             @Override
             public SocketTransaction perform(Peer peer, SocketPeerConnector connectionManager) throws IOException {
-                return new SocketTransaction(connectionManager.openConnection(true), siteToSiteClientConfig);
+                SocketPeerConnection socketPeerConnection;
+                try {
+                    socketPeerConnection = connectionManager.openConnection(true);
+                } catch (UnknownPortException e) {
+                    if (siteToSiteClientConfig.getPortName() == null) {
+                        throw e;
+                    }
+                    // The identifier may have come from a stale cache (e.g. the port was recreated), look it up again
+                    refreshPortIdentifier();
+                    socketPeerConnection = connectionManager.openConnection(true);
+                }
+                return startTransaction(socketPeerConnection, connectionManager, finalRequestPeers);
             }
         }, CONNECTOR_FACTORY);
     }
 
+    @Override
+    public SocketReceiveTransaction createReceiveTransaction(final File directory) throws IOException {
+        if (siteToSiteClientConfig.getOutputPortIdentifier() == null) {
+            initOutputPortIdentifier();
+        }
+        List<Peer> peers = peerTracker.getPeers();
+        if (peerTracker.isPeerUpdateDue() || getRawPeers(peers).isEmpty()) {
+            peerTracker.updatePeers();
+            peers = peerTracker.getPeers();
+        }
+        return peerTracker.performOperation(peers, new PeerOperation<SocketReceiveTransaction, SocketPeerConnector>() {
+            @Override
+            public SocketReceiveTransaction perform(Peer peer, SocketPeerConnector connectionManager) throws IOException {
+                SocketPeerConnection socketPeerConnection;
+                try {
+                    socketPeerConnection = connectionManager.openConnection(true);
+                } catch (UnknownPortException e) {
+                    if (siteToSiteClientConfig.getOutputPortName() == null) {
+                        throw e;
+                    }
+                    // The identifier may have come from a stale cache (e.g. the port was recreated), look it up again
+                    peerTracker.invalidateSiteToSiteInfo();
+                    initOutputPortIdentifier();
+                    socketPeerConnection = connectionManager.openConnection(true);
+                }
+                try {
+                    return new SocketReceiveTransaction(socketPeerConnection, siteToSiteClientConfig, connectionManager, directory);
+                } catch (IOException e) {
+                    socketPeerConnection.close();
+                    throw e;
+                }
+            }
+        }, RECEIVE_CONNECTOR_FACTORY);
+    }
+
+    /**
+     * Dials the top peers at once and starts a transaction with the first one to connect
+     *
+     * @param peers                  the prioritized peers
+     * @param peerConnectConcurrency the maximum number of peers to dial
+     * @param requestPeers           whether to update the peer list over the connection first
+     * @return the transaction or null if the peers should be tried one at a time instead
+     */
+    private SocketTransaction createTransactionConcurrently(List<Peer> peers, int peerConnectConcurrency, boolean requestPeers) throws IOException {
+        List<SocketPeerConnector> socketPeerConnectors = new ArrayList<>(peerConnectConcurrency);
+        for (Peer peer : peers) {
+            SocketPeerConnector socketPeerConnector = CONNECTOR_FACTORY.create(peer);
+            if (socketPeerConnector != null) {
+                socketPeerConnectors.add(socketPeerConnector);
+                if (socketPeerConnectors.size() == peerConnectConcurrency) {
+                    break;
+                }
+            }
+        }
+        if (socketPeerConnectors.size() < 2) {
+            return null;
+        }
+        try {
+            SocketPeerConnection socketPeerConnection = SocketPeerConnector.openFirstConnection(socketPeerConnectors, true);
+            // Releasing only depends on the pool key the connection carries so any of the connectors will do
+            return startTransaction(socketPeerConnection, socketPeerConnectors.get(0), requestPeers);
+        } catch (IOException e) {
+            // Trying the peers one at a time marks failures and handles unknown ports
+            logger.log(Level.FINE, "Unable to connect to any of " + socketPeerConnectors.size() + " peers at once", e);
+            return null;
+        }
+    }
+
+    private SocketTransaction startTransaction(SocketPeerConnection socketPeerConnection, SocketPeerConnector socketPeerConnector, boolean requestPeers) throws IOException {
+        if (requestPeers) {
+            try {
+                peerTracker.updatePeers(SocketGetPeersPeerOperation.requestPeers(socketPeerConnection));
+            } catch (IOException e) {
+                socketPeerConnection.close();
+                throw e;
+            }
+        }
+        return new SocketTransaction(socketPeerConnection, siteToSiteClientConfig, socketPeerConnector);
+    }
+
+    private static List<Peer> getRawPeers(List<Peer> peers) {
+        List<Peer> result = new ArrayList<>(peers.size());
+        for (Peer peer : peers) {
+            int rawPort = peer.getRawPort();
+            if (rawPort > 0 && rawPort <= 65535) {
+                result.add(peer);
+            }
+        }
+        return result;
+    }
+
+    private void refreshPortIdentifier() throws IOException {
+        peerTracker.invalidateSiteToSiteInfo();
+        siteToSiteClientConfig.setPortIdentifier(null);
+        peerTracker.performHttpOperation(new PeerOperation<Void, HttpPeerConnector>() {
+            @Override
+            public Void perform(Peer peer, HttpPeerConnector connectionManager) throws IOException {
+                initPortIdentifier(connectionManager);
+                return null;
+            }
+        });
+    }
+
     private SiteToSiteInfo initPortIdentifier(HttpPeerConnector httpPeerConnector) throws IOException {
         if (siteToSiteClientConfig.getPortIdentifier() != null) {
             return null;
         }
         SiteToSiteInfo siteToSiteInfo = peerTracker.getSiteToSiteInfo(httpPeerConnector);
-        siteToSiteClientConfig.setPortIdentifier(siteToSiteInfo.getIdForInputPortName(siteToSiteClientConfig.getPortName()));
+        String portName = siteToSiteClientConfig.getPortName();
+        if (portName != null) {
+            siteToSiteClientConfig.setPortIdentifier(siteToSiteInfo.getIdForInputPortName(portName));
+        }
         return siteToSiteInfo;
     }
+
+    private void initOutputPortIdentifier() throws IOException {
+        String outputPortName = siteToSiteClientConfig.getOutputPortName();
+        if (outputPortName == null) {
+            throw new IOException("Output port name or identifier needs to be configured to receive data");
+        }
+        siteToSiteClientConfig.setOutputPortIdentifier(peerTracker.getOutputPortIdentifier(outputPortName));
+    }
 }
@@ -25,19 +25,37 @@ import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
 import com.hortonworks.hdf.android.sitetosite.client.transaction.AbstractTransaction;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.util.zip.Deflater;
 
 public class SocketTransaction extends AbstractTransaction {
-    private final Socket socket;
+    private final SocketPeerConnection socketPeerConnection;
+    private final SocketPeerConnector socketPeerConnector;
+    private final SocketProtocolCodec socketProtocolCodec;
+    private final DataOutputStream dataOutputStream;
     private final int protocolVersion;
+    private CompressionOutputStream compressionOutputStream;
     private int flowFilesSent = 0;
 
     public SocketTransaction(SocketPeerConnection socketPeerConnection, SiteToSiteClientConfig siteToSiteClientConfig) throws IOException {
-        this.socket = socketPeerConnection.getSocket();
+        this(socketPeerConnection, siteToSiteClientConfig, null);
+    }
+
+    /**
+     * Creates a transaction over the connection, if a connector is given the connection is released to it for reuse
+     * when the transaction completes successfully instead of being shut down
+     *
+     * @param socketPeerConnection   the connection
+     * @param siteToSiteClientConfig the config
+     * @param socketPeerConnector    the connector to release the connection to (may be null)
+     * @throws IOException if the transaction can't be started
+     */
+    public SocketTransaction(SocketPeerConnection socketPeerConnection, SiteToSiteClientConfig siteToSiteClientConfig, SocketPeerConnector socketPeerConnector) throws IOException {
+        this.socketPeerConnection = socketPeerConnection;
+        this.socketPeerConnector = socketPeerConnector;
+        this.socketProtocolCodec = socketPeerConnection.getSocketProtocolCodec();
+        this.dataOutputStream = socketProtocolCodec.getDataOutputStream();
         this.protocolVersion = socketPeerConnection.getFlowFileProtocolVersion();
 
         Integer flowFileCodecVersion = socketPeerConnection.getFlowFileCodecVersion();
@@ -47,14 +65,19 @@ public class SocketTransaction extends AbstractTransaction {
             throw new IOException("Unsupported codec version " + flowFileCodecVersion);
         }
 
-        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-        RequestType.SEND_FLOWFILES.writeRequestType(dataOutputStream);
-        dataOutputStream.flush();
-        OutputStream outputStream = socket.getOutputStream();
+        // Not flushed here, the request goes out along with the first data packet
+        socketProtocolCodec.writeRequestType(RequestType.SEND_FLOWFILES);
         if (siteToSiteClientConfig.isUseCompression()) {
-            outputStream = new CompressionOutputStream(outputStream);
+            compressionOutputStream = new CompressionOutputStream(dataOutputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                    CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, siteToSiteClientConfig.getCompressionThreads(),
+                    siteToSiteClientConfig.isAdaptiveCompression());
+            dataPacketWriter = new SocketDataPacketWriter(compressionOutputStream);
+        } else if (dataOutputStream instanceof SocketChannelDataOutputStream) {
+            // Uncompressed content can go straight from file to socket channel
+            dataPacketWriter = new SocketDataPacketWriter(dataOutputStream, (SocketChannelDataOutputStream) dataOutputStream);
+        } else {
+            dataPacketWriter = new SocketDataPacketWriter(dataOutputStream);
         }
-        dataPacketWriter = new SocketDataPacketWriter(outputStream);
     }
 
     @Override
@@ -66,15 +89,10 @@ public class SocketTransaction extends AbstractTransaction {
     @Override
     public void confirm() throws IOException {
         String crc = Long.toString(dataPacketWriter.close());
-        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-        ResponseCode.FINISH_TRANSACTION.writeResponse(dataOutputStream);
-        dataOutputStream.flush();
-        DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
-        ResponseCode responseCode = ResponseCode.readCode(dataInputStream);
-        String message = null;
-        if (responseCode.containsMessage()) {
-            message = dataInputStream.readUTF();
-        }
+        socketProtocolCodec.writeResponse(ResponseCode.FINISH_TRANSACTION);
+        socketProtocolCodec.flush();
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        String message = socketProtocolCodec.readMessage(responseCode);
         if (responseCode == ResponseCode.CONFIRM_TRANSACTION) {
             if (protocolVersion > 3 && !crc.equals(message)) {
                 throw new IOException("CRC received from peer didn't match");
@@ -86,17 +104,25 @@ public class SocketTransaction extends AbstractTransaction {
 
     @Override
     protected TransactionResult endTransaction(ResponseCode responseCodeToSend) throws IOException {
-        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-        responseCodeToSend.writeResponse(dataOutputStream, "");
-        dataOutputStream.flush();
-        DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
-        ResponseCode responseCode = ResponseCode.readCode(dataInputStream);
-        String message = null;
-        if (responseCode.containsMessage()) {
-            message = dataInputStream.readUTF();
+        boolean reusable = false;
+        try {
+            socketProtocolCodec.writeResponse(responseCodeToSend, "");
+            socketProtocolCodec.flush();
+            ResponseCode responseCode = socketProtocolCodec.readCode();
+            String message = socketProtocolCodec.readMessage(responseCode);
+            // Only a cleanly finished transaction leaves the connection ready for the next request
+            reusable = responseCodeToSend == ResponseCode.CONFIRM_TRANSACTION && responseCode == ResponseCode.TRANSACTION_FINISHED;
+            return new TransactionResult(flowFilesSent, responseCode, message);
+        } finally {
+            // The compressed stream is only ever flushed, its compressors go back to the pool here
+            if (compressionOutputStream != null) {
+                compressionOutputStream.release();
+            }
+            if (reusable && socketPeerConnector != null) {
+                socketPeerConnector.release(socketPeerConnection);
+            } else {
+                socketPeerConnection.close();
+            }
         }
-        RequestType.SHUTDOWN.writeRequestType(dataOutputStream);
-        dataOutputStream.flush();
-        return new TransactionResult(flowFilesSent, responseCode, message);
     }
 }
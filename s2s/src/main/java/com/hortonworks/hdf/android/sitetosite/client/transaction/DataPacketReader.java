@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.transaction;
+
+import com.hortonworks.hdf.android.sitetosite.packet.ReceivedDataPacket;
+import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Reads data packets written by NiFi one at a time, streaming their content into files so that packets of any size can be
+ * received with a fixed amount of memory
+ */
+public class DataPacketReader {
+    public static final String CONTENT_FILE_PREFIX = "s2s-";
+    public static final String CONTENT_FILE_SUFFIX = ".content";
+
+    private final File directory;
+    private final CRC32 crc;
+    private final byte[] buffer;
+
+    /**
+     * Creates a reader that writes content to new files in the given directory
+     *
+     * @param directory the directory
+     */
+    public DataPacketReader(File directory) {
+        this.directory = directory;
+        this.crc = new CRC32();
+        this.buffer = new byte[8192];
+    }
+
+    /**
+     * Reads the next data packet from the stream, the stream isn't read past the end of the packet
+     *
+     * @param inputStream the stream
+     * @return the data packet or null if the stream ended before it
+     * @throws IOException if there is an error reading the packet or writing its content
+     */
+    public ReceivedDataPacket read(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(new CheckedInputStream(inputStream, crc));
+        int first = dataInputStream.read();
+        if (first < 0) {
+            return null;
+        }
+        int numAttributes = (first << 24) | (dataInputStream.readUnsignedByte() << 16) | (dataInputStream.readUnsignedByte() << 8) | dataInputStream.readUnsignedByte();
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < numAttributes; i++) {
+            attributes.put(readString(dataInputStream), readString(dataInputStream));
+        }
+
+        long size = dataInputStream.readLong();
+        File file = File.createTempFile(CONTENT_FILE_PREFIX, CONTENT_FILE_SUFFIX, directory);
+        boolean success = false;
+        try {
+            OutputStream outputStream = new FileOutputStream(file);
+            try {
+                long remaining = size;
+                while (remaining > 0) {
+                    int read = dataInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("Stream ended with " + remaining + " bytes of content left");
+                    }
+                    outputStream.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                outputStream.close();
+            }
+            success = true;
+        } finally {
+            if (!success && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        return new ReceivedDataPacket(attributes, file);
+    }
+
+    private String readString(DataInputStream dataInputStream) throws IOException {
+        int length = dataInputStream.readInt();
+        byte[] bytes = length <= buffer.length ? buffer : new byte[length];
+        dataInputStream.readFully(bytes, 0, length);
+        return new String(bytes, 0, length, Charsets.UTF_8);
+    }
+
+    /**
+     * Gets the checksum of everything read so far
+     *
+     * @return a crc32 of the read data
+     */
+    public long getCrc() {
+        return crc.getValue();
+    }
+}
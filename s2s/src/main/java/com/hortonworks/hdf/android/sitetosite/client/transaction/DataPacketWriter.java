@@ -17,21 +17,42 @@
 
 package com.hortonworks.hdf.android.sitetosite.client.transaction;
 
+import com.hortonworks.hdf.android.sitetosite.packet.ChecksummedDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.EncodedAttributesDataPacket;
 import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+import com.hortonworks.hdf.android.sitetosite.util.CrcUtils;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.CRC32;
-import java.util.zip.CheckedOutputStream;
 
+/**
+ * Writes data packets in the flow file codec format, a count of attributes followed by length prefixed UTF-8 keys and
+ * values, then the length prefixed content.  Headers are encoded into a reusable buffer (or copied into it as is when an
+ * {@link EncodedAttributesDataPacket} has one cached, otherwise offered to it once encoded) and written with a single call and content is copied through the same buffer so that
+ * writing a packet doesn't allocate.  The checksum is updated a buffer at a time and the known checksum of a
+ * {@link ChecksummedDataPacket}'s content is combined into it instead of being recomputed.
+ */
 public class DataPacketWriter {
-    protected final DataOutputStream dataOutputStream;
+    public static final int BUFFER_SIZE = 8192;
+
+    // Attribute names repeat from packet to packet, values usually don't
+    private static final int MAX_CACHED_KEYS = 256;
+    private static final int MAX_CACHED_KEY_LENGTH = 256;
+
+    protected final OutputStream outputStream;
     private final CRC32 crc;
     private final boolean closeStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final Map<String, byte[]> encodedKeys = new HashMap<>();
+    private int position;
+    private boolean flushed;
+    private long combinedCrc;
+    private long crcLength;
     private boolean closed;
 
     public DataPacketWriter(OutputStream outputStream) {
@@ -39,8 +60,8 @@ public class DataPacketWriter {
     }
 
     public DataPacketWriter(OutputStream outputStream, boolean closeStream) {
-        crc = new CRC32();
-        dataOutputStream = new DataOutputStream(new CheckedOutputStream(outputStream, crc));
+        this.outputStream = outputStream;
+        this.crc = new CRC32();
         this.closeStream = closeStream;
         closed = false;
     }
@@ -55,27 +76,220 @@ public class DataPacketWriter {
         if (closed) {
             throw new IOException("Tried to write after closing");
         }
-        final Map<String, String> attributes = dataPacket.getAttributes();
-        dataOutputStream.writeInt(attributes.size());
-        for (final Map.Entry<String, String> entry : attributes.entrySet()) {
-            writeString(entry.getKey());
-            writeString(entry.getValue());
+        byte[] encodedAttributes = null;
+        if (dataPacket instanceof EncodedAttributesDataPacket) {
+            encodedAttributes = ((EncodedAttributesDataPacket) dataPacket).getEncodedAttributes();
         }
+        if (encodedAttributes != null) {
+            putRaw(encodedAttributes);
+        } else {
+            flushed = false;
+            int start = position;
+            final Map<String, String> attributes = dataPacket.getAttributes();
+            putInt(attributes.size());
+            for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+                putKey(entry.getKey());
+                putString(entry.getValue());
+            }
+            if (!flushed && dataPacket instanceof EncodedAttributesDataPacket) {
+                // The whole header is still in the buffer
+                ((EncodedAttributesDataPacket) dataPacket).encodedAttributes(buffer, start, position - start);
+            }
+        }
+
+        long size = dataPacket.getSize();
+        putLong(size);
+        flushBuffer();
 
-        dataOutputStream.writeLong(dataPacket.getSize());
+        writeContent(dataPacket, size);
+    }
 
+    /**
+     * Writes the content of the data packet after its header, subclasses can override this to send content more efficiently
+     * as long as the crc is updated with what was sent
+     *
+     * @param dataPacket the data packet
+     * @param size       the size written in the header
+     * @throws IOException if there is an error sending it
+     */
+    protected void writeContent(DataPacket dataPacket, long size) throws IOException {
+        boolean checksummed = dataPacket instanceof ChecksummedDataPacket;
+        long written = 0;
         final InputStream in = dataPacket.getData();
-        byte[] buf = new byte[1024];
-        int read = 0;
-        while ((read = in.read(buf)) != -1) {
-            dataOutputStream.write(buf, 0, read);
+        try {
+            // Exactly what the header says even if the content changed since its size was taken, anything else would
+            // leave NiFi reading the next packet from the wrong place
+            while (written < size) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, size - written));
+                if (read == -1) {
+                    throw new IOException("Content ended after " + written + " of " + size + " bytes");
+                }
+                if (checksummed) {
+                    outputStream.write(buffer, 0, read);
+                } else {
+                    write(buffer, 0, read);
+                }
+                written += read;
+            }
+        } finally {
+            in.close();
+        }
+        if (checksummed) {
+            combineCrc(((ChecksummedDataPacket) dataPacket).getContentCrc(), written);
+        }
+    }
+
+    /**
+     * Writes bytes that are part of the checksum
+     *
+     * @param bytes  the bytes
+     * @param offset the offset
+     * @param length the number of bytes
+     * @throws IOException if there is an error writing
+     */
+    protected void write(byte[] bytes, int offset, int length) throws IOException {
+        updateCrc(bytes, offset, length);
+        outputStream.write(bytes, offset, length);
+    }
+
+    /**
+     * Adds bytes sent some other way to the checksum
+     *
+     * @param bytes  the bytes
+     * @param offset the offset
+     * @param length the number of bytes
+     */
+    protected void updateCrc(byte[] bytes, int offset, int length) {
+        crc.update(bytes, offset, length);
+        crcLength += length;
+    }
+
+    /**
+     * Adds the checksum of bytes sent some other way to the checksum without needing the bytes
+     *
+     * @param contentCrc the CRC32 of the bytes
+     * @param length     the number of bytes
+     */
+    protected void combineCrc(long contentCrc, long length) {
+        combinedCrc = CrcUtils.combine(CrcUtils.combine(combinedCrc, crc.getValue(), crcLength), contentCrc, length);
+        crc.reset();
+        crcLength = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            write(buffer, 0, position);
+            position = 0;
+            flushed = true;
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (position + length > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void putInt(int value) throws IOException {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void putLong(long value) throws IOException {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        putInt(bytes.length);
+        putRaw(bytes);
+    }
+
+    private void putRaw(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flushBuffer();
+            write(bytes, 0, bytes.length);
+        } else {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+    }
+
+    private void putKey(String key) throws IOException {
+        byte[] encoded = encodedKeys.get(key);
+        if (encoded == null) {
+            if (key.length() > MAX_CACHED_KEY_LENGTH) {
+                putString(key);
+                return;
+            }
+            if (encodedKeys.size() >= MAX_CACHED_KEYS) {
+                encodedKeys.clear();
+            }
+            encoded = key.getBytes(Charsets.UTF_8);
+            encodedKeys.put(key, encoded);
+        }
+        putBytes(encoded);
+    }
+
+    /**
+     * Encodes the string as UTF-8 straight into the buffer, producing the same bytes as {@link String#getBytes(java.nio.charset.Charset)}
+     * (unpaired surrogates become '?')
+     */
+    private void putString(String value) throws IOException {
+        int length = value.length();
+        putInt(encodedLength(value));
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            ensureCapacity(4);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[position++] = '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int encodedLength(String value) {
+        int length = value.length();
+        int result = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (!isSurrogate(c)) {
+                    result += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // 4 bytes for the pair
+                    result += 2;
+                    i++;
+                }
+            } else if (c >= 0x80) {
+                result++;
+            }
         }
+        return result;
     }
 
-    private void writeString(final String val) throws IOException {
-        final byte[] bytes = val.getBytes(Charsets.UTF_8);
-        dataOutputStream.writeInt(bytes.length);
-        dataOutputStream.write(bytes);
+    private static boolean isSurrogate(char c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
     }
 
     /**
@@ -86,11 +300,12 @@ public class DataPacketWriter {
      */
     public long close() throws IOException {
         closed = true;
+        flushBuffer();
         if (closeStream) {
-            dataOutputStream.close();
+            outputStream.close();
         } else {
-            dataOutputStream.flush();
+            outputStream.flush();
         }
-        return crc.getValue();
+        return CrcUtils.combine(combinedCrc, crc.getValue(), crcLength);
     }
 }
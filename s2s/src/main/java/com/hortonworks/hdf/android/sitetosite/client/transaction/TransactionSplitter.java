@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.transaction;
+
+import com.hortonworks.hdf.android.sitetosite.client.PipelinedTransaction;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClient;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.Transaction;
+import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends packets in as many transactions as it takes to keep each one within a packet count, content size and duration,
+ * starting the next transaction before a packet would push the current one over.  A packet that is over the size limit
+ * on its own gets a transaction to itself.  Limits of 0 are unlimited.
+ */
+public class TransactionSplitter {
+    private final SiteToSiteClient siteToSiteClient;
+    private final int maxCount;
+    private final long maxBytes;
+    private final long maxDurationNanos;
+
+    public TransactionSplitter(SiteToSiteClient siteToSiteClient, int maxCount, long maxBytes, long maxDuration, TimeUnit timeUnit) {
+        this.siteToSiteClient = siteToSiteClient;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.maxDurationNanos = timeUnit.toNanos(maxDuration);
+    }
+
+    /**
+     * Creates a splitter that uses the preferred batch limits of the config if it splits transactions and sends
+     * everything in one transaction if it doesn't
+     *
+     * @param siteToSiteClient       the client to create transactions with
+     * @param siteToSiteClientConfig the config
+     * @return the splitter
+     */
+    public static TransactionSplitter create(SiteToSiteClient siteToSiteClient, SiteToSiteClientConfig siteToSiteClientConfig) {
+        if (!siteToSiteClientConfig.isSplitTransactions()) {
+            return new TransactionSplitter(siteToSiteClient, 0, 0, 0, TimeUnit.NANOSECONDS);
+        }
+        return new TransactionSplitter(siteToSiteClient, siteToSiteClientConfig.getPreferredBatchCount(), siteToSiteClientConfig.getPreferredBatchSize(),
+                siteToSiteClientConfig.getPreferredBatchDuration(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends the packets, confirming and completing each transaction before starting the next
+     *
+     * @param dataPackets the packets
+     * @return the number of packets sent along with the response of the last transaction
+     * @throws IOException if a transaction fails, the ones before it have been delivered
+     */
+    public TransactionResult send(Iterator<DataPacket> dataPackets) throws IOException {
+        Transaction transaction = null;
+        TransactionResult lastResult = null;
+        int flowFilesSent = 0;
+        int count = 0;
+        long bytes = 0;
+        long startNanos = 0;
+        while (dataPackets.hasNext()) {
+            DataPacket dataPacket = dataPackets.next();
+            long size = dataPacket.getSize();
+            if (transaction != null && isFull(count, bytes, size, System.nanoTime() - startNanos)) {
+                lastResult = complete(transaction, true);
+                flowFilesSent += lastResult.getFlowFilesSent();
+                transaction = null;
+            }
+            if (transaction == null) {
+                transaction = siteToSiteClient.createTransaction();
+                startNanos = System.nanoTime();
+                count = 0;
+                bytes = 0;
+            }
+            transaction.send(dataPacket);
+            count++;
+            bytes += size;
+        }
+        if (transaction != null) {
+            lastResult = complete(transaction, false);
+            flowFilesSent += lastResult.getFlowFilesSent();
+        }
+        if (lastResult == null) {
+            return new TransactionResult(0, ResponseCode.CONFIRM_TRANSACTION, "No-op due to empty packet list.");
+        }
+        return new TransactionResult(flowFilesSent, lastResult.getResponseCode(), lastResult.getMessage());
+    }
+
+    private boolean isFull(int count, long bytes, long nextSize, long elapsedNanos) {
+        return (maxCount > 0 && count >= maxCount)
+                || (maxBytes > 0 && bytes + nextSize > maxBytes)
+                || (maxDurationNanos > 0 && elapsedNanos >= maxDurationNanos);
+    }
+
+    private static TransactionResult complete(Transaction transaction, boolean hasNext) throws IOException {
+        if (hasNext && transaction instanceof PipelinedTransaction) {
+            ((PipelinedTransaction) transaction).confirmBeforeNext();
+        } else {
+            transaction.confirm();
+        }
+        return transaction.complete();
+    }
+}
@@ -43,6 +43,11 @@ public class PropertiesQueuedSiteToSiteClientConfigFactory extends PropertiesSit
             queuedSiteToSiteClientConfig.setMaxTransactionTime(maxTransactionTime, TimeUnit.NANOSECONDS);
         }
 
+        String fragmentSize = getPropEmptyToNull(input, S2S_CONFIG + "fragmentSize");
+        if (fragmentSize != null) {
+            queuedSiteToSiteClientConfig.setFragmentSize(Integer.parseInt(fragmentSize));
+        }
+
         String dataPacketPrioritizerClass = getPropEmptyToNull(input, S2S_CONFIG + "dataPacketPrioritizerClass");
         if (dataPacketPrioritizerClass != null) {
             Object instance;
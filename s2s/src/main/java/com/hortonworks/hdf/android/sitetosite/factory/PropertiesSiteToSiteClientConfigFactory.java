@@ -19,8 +19,11 @@ package com.hortonworks.hdf.android.sitetosite.factory;
 
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
+import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
 import com.hortonworks.hdf.android.sitetosite.util.StringUtils;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -54,8 +57,32 @@ public class PropertiesSiteToSiteClientConfigFactory implements SiteToSiteClient
         }
 
         result.setUseCompression(Boolean.valueOf(input.getProperty(S2S_CONFIG + "useCompression", "false")));
+
+        String compressionThreads = getPropEmptyToNull(input, S2S_CONFIG + "compressionThreads");
+        if (compressionThreads != null) {
+            result.setCompressionThreads(Integer.parseInt(compressionThreads));
+        }
+
+        result.setAdaptiveCompression(Boolean.valueOf(input.getProperty(S2S_CONFIG + "adaptiveCompression", "false")));
+
+        String compressionDictionaryFile = getPropEmptyToNull(input, S2S_CONFIG + "compressionDictionaryFile");
+        if (compressionDictionaryFile != null) {
+            try {
+                FileInputStream fileInputStream = new FileInputStream(compressionDictionaryFile);
+                try {
+                    result.setCompressionDictionary(IOUtils.readInputStream(fileInputStream));
+                } finally {
+                    fileInputStream.close();
+                }
+            } catch (IOException e) {
+                throw new SiteToSiteClientConfigCreationException("Unable to read compression dictionary " + compressionDictionaryFile, e);
+            }
+        }
+
         result.setPortName(getPropEmptyToNull(input, S2S_CONFIG + "portName"));
         result.setPortIdentifier(getPropEmptyToNull(input, S2S_CONFIG + "portIdentifier"));
+        result.setOutputPortName(getPropEmptyToNull(input, S2S_CONFIG + "outputPortName"));
+        result.setOutputPortIdentifier(getPropEmptyToNull(input, S2S_CONFIG + "outputPortIdentifier"));
 
         Long preferredBatchDuration = getDurationNanos(input, S2S_CONFIG + "preferredBatchDuration");
         if (preferredBatchDuration != null) {
@@ -77,6 +104,37 @@ public class PropertiesSiteToSiteClientConfigFactory implements SiteToSiteClient
             result.setPeerUpdateInterval(peerUpdateInterval, TimeUnit.NANOSECONDS);
         }
 
+        result.setPipelineTransactions(Boolean.valueOf(input.getProperty(S2S_CONFIG + "pipelineTransactions", "false")));
+        result.setSplitTransactions(Boolean.valueOf(input.getProperty(S2S_CONFIG + "splitTransactions", "false")));
+
+        Long connectTimeoutNanos = getDurationNanos(input, S2S_CONFIG + "connectTimeout");
+        if (connectTimeoutNanos != null) {
+            result.setConnectTimeout(connectTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        String peerConnectConcurrency = getPropEmptyToNull(input, S2S_CONFIG + "peerConnectConcurrency");
+        if (peerConnectConcurrency != null) {
+            result.setPeerConnectConcurrency(Integer.parseInt(peerConnectConcurrency));
+        }
+
+        String socketSendBufferSize = getPropEmptyToNull(input, S2S_CONFIG + "socketSendBufferSize");
+        if (socketSendBufferSize != null) {
+            result.setSocketSendBufferSize(Integer.parseInt(socketSendBufferSize));
+        }
+
+        String socketReceiveBufferSize = getPropEmptyToNull(input, S2S_CONFIG + "socketReceiveBufferSize");
+        if (socketReceiveBufferSize != null) {
+            result.setSocketReceiveBufferSize(Integer.parseInt(socketReceiveBufferSize));
+        }
+
+        result.setTcpNoDelay(Boolean.valueOf(input.getProperty(S2S_CONFIG + "tcpNoDelay", "true")));
+        result.setSocketKeepAlive(Boolean.valueOf(input.getProperty(S2S_CONFIG + "socketKeepAlive", "false")));
+
+        String socketTrafficClass = getPropEmptyToNull(input, S2S_CONFIG + "socketTrafficClass");
+        if (socketTrafficClass != null) {
+            result.setSocketTrafficClass(Integer.decode(socketTrafficClass));
+        }
+
         return result;
     }
 
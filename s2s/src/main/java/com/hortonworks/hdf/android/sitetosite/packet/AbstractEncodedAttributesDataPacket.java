@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.packet;
+
+/**
+ * Base for packets whose attributes don't change once created.  The header a writer encodes is kept from the second send
+ * on so packets that are only sent once, like the ones read back out of the queue, don't pay for a copy of it.
+ */
+public abstract class AbstractEncodedAttributesDataPacket implements EncodedAttributesDataPacket {
+    private volatile boolean encoded;
+    private volatile byte[] encodedAttributes;
+
+    @Override
+    public final byte[] getEncodedAttributes() {
+        return encodedAttributes;
+    }
+
+    @Override
+    public final void encodedAttributes(byte[] buffer, int offset, int length) {
+        if (!encoded) {
+            encoded = true;
+        } else if (encodedAttributes == null) {
+            // Racing writers copy the same bytes so whichever write wins is fine
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, offset, result, 0, length);
+            encodedAttributes = result;
+        }
+    }
+}
@@ -21,13 +21,15 @@ import android.os.Parcel;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * A @{@link DataPacket} for a byte array.
+ * A @{@link DataPacket} for a byte array.  The attributes are copied when the packet is created so that the header cached
+ * once it has been sent can't go stale, {@link #getAttributes()} is read-only.
  */
-public class ByteArrayDataPacket implements DataPacket {
+public class ByteArrayDataPacket extends AbstractEncodedAttributesDataPacket {
     private final Map<String, String> attributes;
     private final byte[] data;
 
@@ -35,7 +37,7 @@ public class ByteArrayDataPacket implements DataPacket {
      * Create a @{@link DataPacket} from a in-memory byte array
      */
     public ByteArrayDataPacket(Map<String, String> attributes, byte[] data) {
-        this.attributes = attributes;
+        this.attributes = Collections.unmodifiableMap(new HashMap<>(attributes));
         this.data = data;
     }
 
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.packet;
+
+import java.util.Map;
+
+/**
+ * A {@link ByteArrayDataPacket} that carries the CRC32 of its content.  The checksum isn't parceled.
+ */
+public class ChecksummedByteArrayDataPacket extends ByteArrayDataPacket implements ChecksummedDataPacket {
+    private final long contentCrc;
+
+    /**
+     * Create a @{@link DataPacket} from a in-memory byte array and its CRC32
+     */
+    public ChecksummedByteArrayDataPacket(Map<String, String> attributes, byte[] data, long contentCrc) {
+        super(attributes, data);
+        this.contentCrc = contentCrc;
+    }
+
+    @Override
+    public long getContentCrc() {
+        return contentCrc;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.packet;
+
+/**
+ * A {@link DataPacket} whose content checksum is already known, for example because it was computed when the packet was
+ * queued.  Writers combine it into the transaction checksum instead of checksumming the content again as it is sent.
+ */
+public interface ChecksummedDataPacket extends DataPacket {
+
+    /**
+     * The CRC32 of exactly the bytes {@link #getData()} returns
+     *
+     * @return the CRC32 of the content
+     */
+    long getContentCrc();
+}
@@ -21,13 +21,15 @@ import android.os.Parcel;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Data packet with empty payload
+ * Data packet with empty payload.  The attributes are copied when the packet is created so that the header cached once it
+ * has been sent can't go stale, {@link #getAttributes()} is read-only.
  */
-public class EmptyDataPacket implements DataPacket {
+public class EmptyDataPacket extends AbstractEncodedAttributesDataPacket {
     private final Map<String, String> attributes;
 
     public static final Creator<EmptyDataPacket> CREATOR = new Creator<EmptyDataPacket>() {
@@ -53,7 +55,7 @@ public class EmptyDataPacket implements DataPacket {
      * @param attributes The key-value map for the Data Packet attributes.
      */
     public EmptyDataPacket(Map<String, String> attributes) {
-        this.attributes = attributes;
+        this.attributes = Collections.unmodifiableMap(new HashMap<>(attributes));
     }
 
     @Override
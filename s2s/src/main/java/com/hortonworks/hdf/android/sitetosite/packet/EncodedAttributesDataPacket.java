@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.packet;
+
+/**
+ * A {@link DataPacket} that can keep its attribute header once a writer has encoded it so that sending it again copies the
+ * header instead of encoding the attribute map.  Writers only use a header that is already cached, a packet that hasn't
+ * got one is encoded into the writer's own buffer and offered the result.
+ */
+public interface EncodedAttributesDataPacket extends DataPacket {
+
+    /**
+     * The cached attributes in the flow file codec format: a count of attributes followed by length prefixed UTF-8 keys
+     * and values.  Callers must not modify it.
+     *
+     * @return the encoded attributes or null if none are cached
+     */
+    byte[] getEncodedAttributes();
+
+    /**
+     * Offers the packet the header a writer just encoded for {@link #getAttributes()}.  The bytes are only valid for the
+     * duration of the call, a packet that wants to keep them has to copy them.
+     *
+     * @param buffer the writer's buffer
+     * @param offset the offset of the header
+     * @param length the length of the header
+     */
+    void encodedAttributes(byte[] buffer, int offset, int length);
+}
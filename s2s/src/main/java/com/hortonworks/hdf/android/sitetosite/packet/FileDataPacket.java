@@ -23,14 +23,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Data packet for a file object
  */
-public class FileDataPacket implements DataPacket {
+public class FileDataPacket extends AbstractEncodedAttributesDataPacket {
     private final File file;
+    private volatile Map<String, String> attributes;
 
     /**
      * Create a @{@link DataPacket} wrapper for a file input stream
@@ -55,11 +57,17 @@ public class FileDataPacket implements DataPacket {
 
     @Override
     public Map<String, String> getAttributes() {
-        final Map<String, String> attributes = new HashMap<>();
-        attributes.put("path", file.getParentFile().getPath());
-        attributes.put("absolute.path", file.getParentFile().getAbsolutePath());
-        attributes.put("filename", file.getName());
-        return attributes;
+        Map<String, String> result = attributes;
+        if (result == null) {
+            final File parentFile = file.getParentFile();
+            result = new HashMap<>();
+            result.put("path", parentFile.getPath());
+            result.put("absolute.path", parentFile.getAbsolutePath());
+            result.put("filename", file.getName());
+            result = Collections.unmodifiableMap(result);
+            attributes = result;
+        }
+        return result;
     }
 
     @Override
@@ -71,6 +79,15 @@ public class FileDataPacket implements DataPacket {
         }
     }
 
+    /**
+     * Gets the file backing the packet
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
     @Override
     public long getSize() {
         return file.length();
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.packet;
+
+import android.os.Parcel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Data packet received from NiFi, its content is stored in a file that belongs to whoever received it
+ */
+public class ReceivedDataPacket implements DataPacket {
+    private final Map<String, String> attributes;
+    private final File file;
+
+    /**
+     * Create a @{@link DataPacket} for received attributes and the file their content was written to
+     *
+     * @param attributes the attributes
+     * @param file       the file containing the content
+     */
+    public ReceivedDataPacket(Map<String, String> attributes, File file) {
+        this.attributes = attributes;
+        this.file = file;
+    }
+
+    public static final Creator<ReceivedDataPacket> CREATOR = new Creator<ReceivedDataPacket>() {
+        @Override
+        public ReceivedDataPacket createFromParcel(Parcel in) {
+            Map<String, String> attributes = new HashMap<>();
+            int numAttributes = in.readInt();
+            for (int i = 0; i < numAttributes; i++) {
+                attributes.put(in.readString(), in.readString());
+            }
+            return new ReceivedDataPacket(attributes, new File(in.readString()));
+        }
+
+        @Override
+        public ReceivedDataPacket[] newArray(int size) {
+            return new ReceivedDataPacket[size];
+        }
+    };
+
+    @Override
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public InputStream getData() {
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new DataPacketGetDataException(e);
+        }
+    }
+
+    /**
+     * Gets the file containing the content, the caller is responsible for moving or deleting it
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public long getSize() {
+        return file.length();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(attributes.size());
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            dest.writeString(entry.getKey());
+            dest.writeString(entry.getValue());
+        }
+        dest.writeString(file.getAbsolutePath());
+    }
+}
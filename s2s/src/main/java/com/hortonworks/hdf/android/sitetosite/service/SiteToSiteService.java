@@ -29,10 +29,10 @@ import com.hortonworks.hdf.android.sitetosite.client.QueuedSiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.QueuedSiteToSiteClientConfig;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClient;
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
-import com.hortonworks.hdf.android.sitetosite.client.Transaction;
 import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
 import com.hortonworks.hdf.android.sitetosite.client.persistence.SiteToSiteDB;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.transaction.TransactionSplitter;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
 import com.hortonworks.hdf.android.sitetosite.util.SerializationUtils;
 
@@ -66,6 +66,9 @@ public class SiteToSiteService extends IntentService {
      * Send many @{@link DataPacket}s to a remote NiFi instance or cluster asynchronously. The packets will be sent in a SiteToSite transaction, which guarantees that either all data packets will
      * arrive at the remote NiFi peer or none will arrive (the transaction will be cancelled without the flow files being committed and made available for processing on the remote end).
      *
+     * If the config splits transactions (@{@link SiteToSiteClientConfig#setSplitTransactions(boolean)}) the packets are sent in as many transactions as it takes to stay within its preferred
+     * batch count, size and duration. Each of those is all or nothing, but a failure can leave earlier ones delivered.
+     *
      * @param context The current application environment @{@link Context} from which this service is being called.
      * @param packets The data packets to be sent.
      * @param siteToSiteClientConfig The configuration for the SiteToSiteClient that will be created and used in order to send these @{@link DataPacket}s.
@@ -316,12 +319,7 @@ public class SiteToSiteService extends IntentService {
                     try {
                         siteToSiteDB.updatePeerStatusOnConfig(siteToSiteClientConfig);
                         SiteToSiteClient client = siteToSiteClientConfig.createClient();
-                        Transaction transaction = client.createTransaction();
-                        for (DataPacket packet : packets) {
-                            transaction.send(packet);
-                        }
-                        transaction.confirm();
-                        TransactionResult transactionResult = transaction.complete();
+                        TransactionResult transactionResult = TransactionSplitter.create(client, siteToSiteClientConfig).send(packets.iterator());
                         siteToSiteDB.savePeerStatus(siteToSiteClientConfig);
                         if (transactionResultCallback != null) {
                             TransactionResultCallback.Receiver.onSuccess(transactionResultCallback, transactionResult);
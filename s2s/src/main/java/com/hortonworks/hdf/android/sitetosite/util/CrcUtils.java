@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.util;
+
+/**
+ * CRC32 helpers
+ */
+public class CrcUtils {
+    // Reflected CRC-32 polynomial, the same one java.util.zip.CRC32 uses
+    private static final int POLY = 0xedb88320;
+
+    // x^(2^n) mod POLY
+    private static final int[] X2N_TABLE = new int[32];
+
+    static {
+        int p = 1 << 30;
+        X2N_TABLE[0] = p;
+        for (int n = 1; n < X2N_TABLE.length; n++) {
+            p = multModP(p, p);
+            X2N_TABLE[n] = p;
+        }
+    }
+
+    private CrcUtils() {
+
+    }
+
+    /**
+     * Combines the CRC32 of two consecutive runs of bytes into the CRC32 of both without looking at the bytes (zlib's crc32_combine)
+     *
+     * @param crc1    the CRC32 of the first run
+     * @param crc2    the CRC32 of the second run
+     * @param length2 the length of the second run
+     * @return the CRC32 of the first run followed by the second
+     */
+    public static long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        return (multModP(x2nModP(length2, 3), (int) crc1) ^ (int) crc2) & 0xffffffffL;
+    }
+
+    private static int multModP(int a, int b) {
+        int m = 1 << 31;
+        int p = 0;
+        while (true) {
+            if ((a & m) != 0) {
+                p ^= b;
+                if ((a & (m - 1)) == 0) {
+                    return p;
+                }
+            }
+            m >>>= 1;
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLY : b >>> 1;
+        }
+    }
+
+    // x^(n * 2^k) mod POLY
+    private static int x2nModP(long n, int k) {
+        int p = 1 << 31;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                p = multModP(X2N_TABLE[k & 31], p);
+            }
+            n >>>= 1;
+            k++;
+        }
+        return p;
+    }
+}
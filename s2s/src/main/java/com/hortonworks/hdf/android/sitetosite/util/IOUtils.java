@@ -55,4 +55,17 @@ public class IOUtils {
             outputStream.write(buf, 0, read);
         }
     }
+
+    /**
+     * Reads and discards the remaining contents of an input stream
+     *
+     * @param inputStream the input stream
+     * @throws IOException if there are problems reading the stream
+     */
+    public static void discard(InputStream inputStream) throws IOException {
+        byte[] buf = new byte[1024];
+        while (inputStream.read(buf) >= 0) {
+            // Discard
+        }
+    }
 }
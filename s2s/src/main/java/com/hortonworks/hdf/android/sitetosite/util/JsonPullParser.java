@@ -0,0 +1,540 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+/**
+ * Minimal pull parser for the json documents returned by NiFi.  It decodes utf-8 directly from the underlying stream
+ * using per-thread buffers so parsing a response doesn't need a Reader, and names can be matched against known keys
+ * with {@link #selectName(String[])} without creating a String for each of them.
+ */
+public class JsonPullParser implements Closeable {
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INITIAL_CHARS_SIZE = 256;
+
+    private static final ThreadLocal<byte[]> BYTE_BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<char[]> CHAR_BUFFERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[INITIAL_CHARS_SIZE];
+        }
+    };
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final InputStream inputStream;
+    private byte[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+
+    private char[] chars;
+    private int charsLength = 0;
+
+    private int[] stack = new int[16];
+    private int stackSize = 1;
+
+    private Token peeked = null;
+    private boolean peekedBoolean;
+
+    public JsonPullParser(InputStream inputStream) {
+        this.inputStream = inputStream;
+        this.buffer = BYTE_BUFFERS.get();
+        if (buffer == null) {
+            // Nested use on the same thread, fall back to a private buffer
+            buffer = new byte[BUFFER_SIZE];
+        } else {
+            BYTE_BUFFERS.set(null);
+        }
+        this.chars = CHAR_BUFFERS.get();
+        if (chars == null) {
+            chars = new char[INITIAL_CHARS_SIZE];
+        } else {
+            CHAR_BUFFERS.set(null);
+        }
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it
+     *
+     * @return the next token
+     * @throws IOException if the stream can't be read or isn't valid json
+     */
+    public Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        readString();
+        return new String(chars, 0, charsLength);
+    }
+
+    /**
+     * Consumes the next name and returns its index in the given array
+     *
+     * @param names the names to match against
+     * @return the index of the matching name or -1 if there isn't one
+     * @throws IOException if the next token isn't a name
+     */
+    public int selectName(String[] names) throws IOException {
+        expect(Token.NAME);
+        readString();
+        for (int i = 0; i < names.length; i++) {
+            if (charsEqual(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            readString();
+        } else if (token == Token.NUMBER) {
+            peeked = null;
+            readNumber();
+        } else {
+            throw syntaxError("Expected STRING but was " + token);
+        }
+        return new String(chars, 0, charsLength);
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    public int nextInt() throws IOException {
+        long result = nextLong();
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Expected an int but was " + result);
+        }
+        return (int) result;
+    }
+
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            readString();
+        } else if (token == Token.NUMBER) {
+            peeked = null;
+            readNumber();
+        } else {
+            throw syntaxError("Expected NUMBER but was " + token);
+        }
+        return parseLong();
+    }
+
+    /**
+     * Skips the next value, including any nested arrays or objects
+     *
+     * @throws IOException if the stream can't be read or isn't valid json
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    stackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case NUMBER:
+                    readNumber();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            BYTE_BUFFERS.set(buffer);
+            CHAR_BUFFERS.set(chars);
+            buffer = null;
+            chars = null;
+        }
+        inputStream.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    pos++;
+                    return Token.END_ARRAY;
+                }
+                return peekValue();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                pos++;
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                return peekValue();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                pos++;
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                    c = nextNonWhitespace();
+                    pos++;
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                return Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                pos++;
+                return peekValue();
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peekValue();
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return Token.END_DOCUMENT;
+        }
+    }
+
+    private Token peekValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                pos++;
+                return Token.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                return Token.BEGIN_ARRAY;
+            case '"':
+                pos++;
+                return Token.STRING;
+            case 't':
+                consumeLiteral("true");
+                peekedBoolean = true;
+                return Token.BOOLEAN;
+            case 'f':
+                consumeLiteral("false");
+                peekedBoolean = false;
+                return Token.BOOLEAN;
+            case 'n':
+                consumeLiteral("null");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError(c == -1 ? "Unexpected end of document" : "Unexpected character " + (char) c);
+        }
+    }
+
+    private void consumeLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (pos < limit || fill()) {
+            int c = buffer[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        while ((read = inputStream.read(buffer, 0, buffer.length)) == 0) {
+            // Keep trying until we get data or eof
+        }
+        pos = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private int read() throws IOException {
+        if (pos < limit || fill()) {
+            return buffer[pos++] & 0xFF;
+        }
+        throw syntaxError("Unexpected end of document");
+    }
+
+    private void readNumber() throws IOException {
+        charsLength = 0;
+        while (pos < limit || fill()) {
+            int c = buffer[pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                appendChar((char) c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private long parseLong() {
+        if (charsLength == 0) {
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = chars[0] == '-';
+        // Accumulate negatively so Long.MIN_VALUE doesn't overflow, checking bounds before each step like Long.parseLong
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long result = 0;
+        for (int i = negative ? 1 : 0; i < charsLength; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                // Fractions and exponents take the slow path
+                return parseLongExact();
+            }
+            int digit = c - '0';
+            if (result < multmin) {
+                return parseLongExact();
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return parseLongExact();
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private long parseLongExact() {
+        String number = new String(chars, 0, charsLength);
+        try {
+            return new BigDecimal(number).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Expected a long but was " + number);
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                read();
+            }
+        }
+    }
+
+    private void readString() throws IOException {
+        charsLength = 0;
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                readEscape();
+            } else if (c < 0x80) {
+                appendChar((char) c);
+            } else if ((c & 0xE0) == 0xC0) {
+                appendChar((char) (((c & 0x1F) << 6) | continuation()));
+            } else if ((c & 0xF0) == 0xE0) {
+                appendChar((char) (((c & 0x0F) << 12) | (continuation() << 6) | continuation()));
+            } else if ((c & 0xF8) == 0xF0) {
+                int codePoint = ((c & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+                appendChar((char) (0xD800 + ((codePoint - 0x10000) >>> 10)));
+                appendChar((char) (0xDC00 + (codePoint & 0x3FF)));
+            } else {
+                throw syntaxError("Invalid utf-8 byte " + c);
+            }
+        }
+    }
+
+    private int continuation() throws IOException {
+        int c = read();
+        if ((c & 0xC0) != 0x80) {
+            throw syntaxError("Invalid utf-8 continuation byte " + c);
+        }
+        return c & 0x3F;
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                appendChar('\b');
+                break;
+            case 'f':
+                appendChar('\f');
+                break;
+            case 'n':
+                appendChar('\n');
+                break;
+            case 'r':
+                appendChar('\r');
+                break;
+            case 't':
+                appendChar('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                appendChar((char) value);
+                break;
+            default:
+                // Covers \", \\ and \/
+                appendChar((char) c);
+                break;
+        }
+    }
+
+    private void appendChar(char c) {
+        if (charsLength == chars.length) {
+            char[] newChars = new char[charsLength * 2];
+            System.arraycopy(chars, 0, newChars, 0, charsLength);
+            chars = newChars;
+        }
+        chars[charsLength++] = c;
+    }
+
+    private boolean charsEqual(String name) {
+        if (name.length() != charsLength) {
+            return false;
+        }
+        for (int i = 0; i < charsLength; i++) {
+            if (name.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at depth " + (stackSize - 1));
+    }
+}
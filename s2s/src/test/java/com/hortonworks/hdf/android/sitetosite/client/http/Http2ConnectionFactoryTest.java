@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+
+public class Http2ConnectionFactoryTest {
+    private MockWebServer mockWebServer;
+    private HttpPeerConnector httpPeerConnector;
+
+    @Before
+    public void setup() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        mockWebServer.start();
+
+        SiteToSiteRemoteCluster siteToSiteRemoteCluster = new SiteToSiteRemoteCluster();
+        siteToSiteRemoteCluster.setClientType(SiteToSiteRemoteCluster.ClientType.HTTP2);
+        String url = mockWebServer.url("/nifi-api").toString();
+        httpPeerConnector = new HttpPeerConnector(url, new SiteToSiteClientConfig(), siteToSiteRemoteCluster);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void testRequestsShareOneConnection() throws IOException, InterruptedException {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201).setBody("created"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("extended"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("deleted"));
+
+        assertEquals("created", request("/data-transfer/input-ports/id/transactions", HttpMethod.POST));
+        assertEquals("extended", request("/data-transfer/input-ports/id/transactions/tx", HttpMethod.PUT));
+        assertEquals("deleted", request("/data-transfer/input-ports/id/transactions/tx", HttpMethod.DELETE));
+
+        for (int i = 0; i < 3; i++) {
+            RecordedRequest recordedRequest = mockWebServer.takeRequest();
+            // Sequence number is the index of the request on its connection
+            assertEquals(i, recordedRequest.getSequenceNumber());
+            assertEquals("5", recordedRequest.getHeader(HttpHeaders.PROTOCOL_VERSION));
+        }
+    }
+
+    @Test
+    public void testClientsShareOneConnection() throws IOException, InterruptedException {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201).setBody("first"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201).setBody("second"));
+
+        SiteToSiteRemoteCluster siteToSiteRemoteCluster = new SiteToSiteRemoteCluster();
+        siteToSiteRemoteCluster.setClientType(SiteToSiteRemoteCluster.ClientType.HTTP2);
+        HttpPeerConnector otherHttpPeerConnector = new HttpPeerConnector(mockWebServer.url("/nifi-api").toString(), new SiteToSiteClientConfig(), siteToSiteRemoteCluster);
+
+        // Each client's builder sets the socket factory, the connection is still shared
+        assertEquals("first", request(httpPeerConnector, "/data-transfer/input-ports/id/transactions", HttpMethod.POST));
+        assertEquals("second", request(otherHttpPeerConnector, "/data-transfer/input-ports/id/transactions", HttpMethod.POST));
+
+        assertEquals(0, mockWebServer.takeRequest().getSequenceNumber());
+        assertEquals(1, mockWebServer.takeRequest().getSequenceNumber());
+    }
+
+    private String request(String path, HttpMethod method) throws IOException {
+        return request(httpPeerConnector, path, method);
+    }
+
+    private static String request(HttpPeerConnector httpPeerConnector, String path, HttpMethod method) throws IOException {
+        HttpURLConnection httpURLConnection = httpPeerConnector.openConnection(path, method);
+        if (method == HttpMethod.POST) {
+            httpURLConnection.setDoOutput(true);
+            httpURLConnection.getOutputStream().close();
+        }
+        InputStream inputStream = httpURLConnection.getInputStream();
+        try {
+            StringBuilder stringBuilder = new StringBuilder();
+            int read;
+            while ((read = inputStream.read()) != -1) {
+                stringBuilder.append((char) read);
+            }
+            return stringBuilder.toString();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClient;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
+import com.hortonworks.hdf.android.sitetosite.client.Transaction;
+import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+import com.hortonworks.hdf.android.sitetosite.util.NiFiS2SStandInServer;
+import okhttp3.mockwebserver.MockWebServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the same packet load through {@link SiteToSiteRemoteCluster.ClientType#HTTP} and
+ * {@link SiteToSiteRemoteCluster.ClientType#HTTP2} against a {@link NiFiS2SStandInServer} with latency injected and prints
+ * the bytes per second and number of HTTP requests of each.  It isn't part of the test suite, run it with
+ * <pre>
+ * java -cp ... com.hortonworks.hdf.android.sitetosite.client.http.HttpClientTypeBenchmark [senders] [transactions] [packets per transaction] [packet size] [latency millis]
+ * </pre>
+ */
+public class HttpClientTypeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int senders = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int packetsPerTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int packetSize = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+        long latencyMillis = args.length > 4 ? Long.parseLong(args[4]) : 20;
+        // The mock server logs every request
+        Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+
+        List<DataPacket> dataPackets = new ArrayList<>(packetsPerTransaction);
+        for (int i = 0; i < packetsPerTransaction; i++) {
+            dataPackets.add(new ByteArrayDataPacket(Collections.singletonMap("index", Integer.toString(i)), new byte[packetSize]));
+        }
+
+        System.out.println(senders + " senders each sending " + transactions + " transactions of " + packetsPerTransaction + " "
+                + packetSize + " byte packets with " + latencyMillis + " ms latency per request");
+        for (SiteToSiteRemoteCluster.ClientType clientType : new SiteToSiteRemoteCluster.ClientType[]{SiteToSiteRemoteCluster.ClientType.HTTP, SiteToSiteRemoteCluster.ClientType.HTTP2}) {
+            NiFiS2SStandInServer server = new NiFiS2SStandInServer(clientType == SiteToSiteRemoteCluster.ClientType.HTTP2);
+            try {
+                server.setRecordPackets(false);
+                SiteToSiteClientConfig siteToSiteClientConfig = createConfig(server, clientType);
+
+                // Warm up without latency so class loading and peer lookups aren't measured
+                run(siteToSiteClientConfig, senders, 1, dataPackets);
+                server.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+
+                long bytesBefore = server.getReceivedByteCount();
+                int requestsBefore = server.getHttpRequestCount();
+                long start = System.nanoTime();
+                run(siteToSiteClientConfig, senders, transactions, dataPackets);
+                long elapsedNanos = System.nanoTime() - start;
+                long bytes = server.getReceivedByteCount() - bytesBefore;
+                int requests = server.getHttpRequestCount() - requestsBefore;
+
+                System.out.println(String.format("%-5s %,14.0f bytes/sec %,8d requests %,8d ms", clientType,
+                        bytes * 1e9 / elapsedNanos, requests, TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+            } finally {
+                server.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(SiteToSiteClientConfig siteToSiteClientConfig, int senders, final int transactions, final List<DataPacket> dataPackets) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(senders);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(senders);
+            for (int i = 0; i < senders; i++) {
+                final SiteToSiteClient siteToSiteClient = siteToSiteClientConfig.createClient();
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int j = 0; j < transactions; j++) {
+                            send(siteToSiteClient, dataPackets);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Sender failed", e.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void send(SiteToSiteClient siteToSiteClient, List<DataPacket> dataPackets) throws IOException {
+        Transaction transaction = siteToSiteClient.createTransaction();
+        for (DataPacket dataPacket : dataPackets) {
+            transaction.send(dataPacket);
+        }
+        transaction.confirm();
+        TransactionResult transactionResult = transaction.complete();
+        if (transactionResult.getResponseCode() != ResponseCode.TRANSACTION_FINISHED) {
+            throw new IOException("Transaction ended with " + transactionResult.getResponseCode());
+        }
+    }
+
+    private static SiteToSiteClientConfig createConfig(NiFiS2SStandInServer server, SiteToSiteRemoteCluster.ClientType clientType) {
+        SiteToSiteRemoteCluster siteToSiteRemoteCluster = new SiteToSiteRemoteCluster();
+        siteToSiteRemoteCluster.setUrls(Collections.singletonList(server.getNifiApiUrl()));
+        siteToSiteRemoteCluster.setClientType(clientType);
+        SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setRemoteClusters(Collections.singletonList(siteToSiteRemoteCluster));
+        siteToSiteClientConfig.setPortName(NiFiS2SStandInServer.DEFAULT_PORT_NAME);
+        return siteToSiteClientConfig;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.util.NiFiS2SStandInServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpTransactionPipelineTest {
+    private static final String PORT_IDENTIFIER = NiFiS2SStandInServer.DEFAULT_PORT_IDENTIFIER;
+
+    private NiFiS2SStandInServer hungServer;
+    private NiFiS2SStandInServer server;
+    private SiteToSiteClientConfig siteToSiteClientConfig;
+
+    @Before
+    public void setup() throws IOException {
+        hungServer = new NiFiS2SStandInServer(true);
+        hungServer.setLatency(1, TimeUnit.SECONDS);
+        server = new NiFiS2SStandInServer(true);
+        siteToSiteClientConfig = new SiteToSiteClientConfig();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        hungServer.close();
+        server.close();
+    }
+
+    @Test
+    public void testTakeTimesOutAndCancelsLateTransaction() throws IOException, InterruptedException {
+        HttpPeerConnector httpPeerConnector = createHttpPeerConnector(hungServer);
+        HttpTransactionPipeline httpTransactionPipeline = createPipeline(100);
+        httpTransactionPipeline.preOpen(httpPeerConnector, PORT_IDENTIFIER);
+
+        long start = System.nanoTime();
+        assertNull(httpTransactionPipeline.take(httpPeerConnector, PORT_IDENTIFIER));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+
+        // The create still reaches the server, its transaction is cancelled once the client learns of it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((hungServer.getCreatedTransactionCount() < 1 || hungServer.getOpenTransactionCount() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, hungServer.getCreatedTransactionCount());
+        assertEquals(0, hungServer.getOpenTransactionCount());
+    }
+
+    @Test
+    public void testHungPeerDoesNotBlockOtherClients() throws IOException {
+        createPipeline(5000).preOpen(createHttpPeerConnector(hungServer), PORT_IDENTIFIER);
+
+        HttpPeerConnector httpPeerConnector = createHttpPeerConnector(server);
+        HttpTransactionPipeline httpTransactionPipeline = createPipeline(5000);
+        httpTransactionPipeline.preOpen(httpPeerConnector, PORT_IDENTIFIER);
+        long start = System.nanoTime();
+        HttpServerTransaction serverTransaction = httpTransactionPipeline.take(httpPeerConnector, PORT_IDENTIFIER);
+        assertNotNull(serverTransaction);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+        serverTransaction.end(ResponseCode.CANCEL_TRANSACTION);
+    }
+
+    private HttpTransactionPipeline createPipeline(long takeTimeoutMillis) {
+        return new HttpTransactionPipeline(HttpTransaction.createHandshakeProperties(siteToSiteClientConfig), takeTimeoutMillis);
+    }
+
+    private HttpPeerConnector createHttpPeerConnector(NiFiS2SStandInServer server) {
+        SiteToSiteRemoteCluster siteToSiteRemoteCluster = new SiteToSiteRemoteCluster();
+        siteToSiteRemoteCluster.setClientType(SiteToSiteRemoteCluster.ClientType.HTTP2);
+        return new HttpPeerConnector(server.getNifiApiUrl(), siteToSiteClientConfig, siteToSiteRemoteCluster);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.http;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionTtlExtenderTest {
+    @Test
+    public void testHungExtensionDoesNotDelayOthers() throws InterruptedException {
+        TransactionTtlExtender transactionTtlExtender = new TransactionTtlExtender();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger hungRuns = new AtomicInteger(0);
+        TransactionTtlExtender.Extension hung = transactionTtlExtender.schedule(new Runnable() {
+            @Override
+            public void run() {
+                hungRuns.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 5, TimeUnit.MILLISECONDS);
+        final CountDownLatch extended = new CountDownLatch(5);
+        TransactionTtlExtender.Extension healthy = transactionTtlExtender.schedule(new Runnable() {
+            @Override
+            public void run() {
+                extended.countDown();
+            }
+        }, 5, TimeUnit.MILLISECONDS);
+
+        try {
+            assertTrue(extended.await(5, TimeUnit.SECONDS));
+            // Ticks while the extension is in progress are skipped rather than queued up behind it
+            assertEquals(1, hungRuns.get());
+        } finally {
+            release.countDown();
+            hung.cancel();
+            healthy.cancel();
+        }
+        assertEquals(0, transactionTtlExtender.getActiveTransactionCount());
+    }
+}
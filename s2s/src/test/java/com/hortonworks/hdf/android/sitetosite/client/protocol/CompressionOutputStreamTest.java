@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.protocol;
+
+import com.hortonworks.hdf.android.sitetosite.client.transaction.DataPacketWriter;
+import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+import com.hortonworks.hdf.android.sitetosite.util.IOUtils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionOutputStreamTest {
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        byte[] data = createData(20 * CompressionOutputStream.DEFAULT_BUFFER_SIZE + 123);
+        byte[] sequential = compress(data, 1);
+        for (int parallelism : new int[]{2, 4, 8}) {
+            assertArrayEquals(sequential, compress(data, parallelism));
+        }
+        assertArrayEquals(data, decompress(sequential));
+    }
+
+    @Test
+    public void testFlushWritesPendingChunks() throws IOException {
+        byte[] data = createData(5 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        CompressionOutputStream compressionOutputStream = new CompressionOutputStream(byteArrayOutputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, 4);
+        compressionOutputStream.write(data);
+        compressionOutputStream.flush();
+        int flushedSize = byteArrayOutputStream.size();
+        compressionOutputStream.close();
+        // Only the end marker comes after the flush
+        assertEquals(flushedSize + 1, byteArrayOutputStream.size());
+        assertArrayEquals(data, decompress(byteArrayOutputStream.toByteArray()));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertArrayEquals(new byte[]{0}, compress(new byte[0], 4));
+    }
+
+    @Test
+    public void testIncompressibleLargeChunks() throws IOException {
+        // Random data deflates to more than it started with, which has to fit in the chunk's output
+        byte[] data = createRandomData(3 << 20);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        CompressionOutputStream compressionOutputStream = new CompressionOutputStream(byteArrayOutputStream, 1 << 20,
+                Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        compressionOutputStream.write(data);
+        compressionOutputStream.close();
+        assertArrayEquals(data, decompress(byteArrayOutputStream.toByteArray()));
+    }
+
+    @Test
+    public void testAdaptiveStoresIncompressibleChunks() throws IOException {
+        byte[] random = createRandomData(4 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        byte[] compressible = createData(4 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        for (int parallelism : new int[]{1, 4}) {
+            byte[] compressed = compress(random, parallelism, true);
+            assertArrayEquals(random, decompress(compressed));
+            // Stored blocks only add a few bytes per chunk, less than deflating would
+            assertTrue(compressed.length < random.length + 4 * 32);
+            assertTrue(compressed.length < compress(random, parallelism).length);
+            compressed = compress(compressible, parallelism, true);
+            assertArrayEquals(compressible, decompress(compressed));
+            assertTrue(compressed.length < compressible.length / 2);
+        }
+    }
+
+    @Test
+    public void testEntropyEstimate() {
+        int[] histogram = new int[256];
+        byte[] random = createRandomData(CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        assertTrue(CompressionOutputStream.estimateEntropy(random, random.length, histogram) > 7.9);
+        byte[] data = createData(CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        assertEquals(3.0, CompressionOutputStream.estimateEntropy(data, data.length, histogram), 0.05);
+        assertEquals(0.0, CompressionOutputStream.estimateEntropy(new byte[1024], 1024, histogram), 0.0);
+    }
+
+    @Test
+    public void testAdaptiveRaisesLevelForSlowStream() throws IOException {
+        byte[] data = createData(8 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        CompressionOutputStream compressionOutputStream = new CompressionOutputStream(new SlowOutputStream(), CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, 1, true);
+        compressionOutputStream.write(data);
+        compressionOutputStream.close();
+        assertEquals(CompressionOutputStream.MAX_ADAPTIVE_LEVEL, compressionOutputStream.getLevel());
+    }
+
+    @Test
+    public void testDeflatersArePooled() throws IOException {
+        byte[] data = createData(3 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        compress(data, 2);
+        int liveDeflaters = CompressionOutputStream.getLiveDeflaterCount();
+        for (int i = 0; i < 20; i++) {
+            compress(data, 2);
+        }
+        assertEquals(liveDeflaters, CompressionOutputStream.getLiveDeflaterCount());
+        assertEquals(liveDeflaters * CompressionOutputStream.DEFLATER_NATIVE_BYTES, CompressionOutputStream.getDeflaterNativeBytes());
+        assertTrue(CompressionOutputStream.getPooledChunkCount() > 0);
+    }
+
+    @Test
+    public void testPooledDeflatersTakeNewSettings() throws IOException {
+        byte[] data = createData(3 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        byte[] expected = compress(data, 1);
+        for (int strategy : new int[]{Deflater.FILTERED, Deflater.HUFFMAN_ONLY}) {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            CompressionOutputStream compressionOutputStream = new CompressionOutputStream(byteArrayOutputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                    Deflater.BEST_COMPRESSION, strategy, 1, true);
+            compressionOutputStream.write(data);
+            compressionOutputStream.close();
+            assertArrayEquals(data, decompress(byteArrayOutputStream.toByteArray()));
+        }
+        assertArrayEquals(expected, compress(data, 1));
+    }
+
+    @Test
+    public void testReleaseWithoutClosing() throws IOException {
+        byte[] data = createData(3 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        compress(data, 4);
+        int liveDeflaters = CompressionOutputStream.getLiveDeflaterCount();
+        for (int i = 0; i < 5; i++) {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            CompressionOutputStream compressionOutputStream = new CompressionOutputStream(byteArrayOutputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                    CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, 4);
+            // Leaves chunks in flight
+            compressionOutputStream.write(data);
+            compressionOutputStream.release();
+            compressionOutputStream.close();
+        }
+        assertEquals(liveDeflaters, CompressionOutputStream.getLiveDeflaterCount());
+    }
+
+    @Test
+    public void testReleaseAfterInterruptWaitsForWorkers() throws IOException {
+        byte[] data = createData(20 * CompressionOutputStream.DEFAULT_BUFFER_SIZE);
+        byte[] expected = compress(data, 1);
+        for (int i = 0; i < 10; i++) {
+            CompressionOutputStream compressionOutputStream = new CompressionOutputStream(new ByteArrayOutputStream(), CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                    CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, 4);
+            Thread.currentThread().interrupt();
+            try {
+                compressionOutputStream.write(data);
+            } catch (InterruptedIOException e) {
+                // Expected, chunks are left in flight
+            } finally {
+                Thread.interrupted();
+            }
+            compressionOutputStream.release();
+            // Reused chunks must not still be in use by a worker
+            assertArrayEquals(expected, compress(data, 4));
+        }
+    }
+
+    @Test
+    public void testDictionaryShrinksSmallPackets() throws IOException {
+        List<DataPacket> history = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            history.add(createTelemetry(i));
+        }
+        byte[] dictionary = CompressionDictionary.train(history.iterator());
+        assertTrue(dictionary.length <= CompressionDictionary.MAX_SIZE);
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(encoded);
+        dataPacketWriter.write(createTelemetry(1000));
+        dataPacketWriter.close();
+        byte[] packet = encoded.toByteArray();
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        CompressionOutputStream compressionOutputStream = new CompressionOutputStream(byteArrayOutputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, 1, false, dictionary);
+        compressionOutputStream.write(packet);
+        compressionOutputStream.close();
+        byte[] primed = byteArrayOutputStream.toByteArray();
+        assertTrue(primed.length < compress(packet, 1).length / 2);
+
+        InputStream inputStream = new CompressionInputStream(new ByteArrayInputStream(primed), dictionary);
+        assertArrayEquals(packet, IOUtils.readInputStream(inputStream));
+        try {
+            decompress(primed);
+            fail("Should need the dictionary");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testTrainSkipsLargeAndDuplicatePackets() throws IOException {
+        List<DataPacket> history = new ArrayList<>();
+        history.add(createTelemetry(1));
+        history.add(createTelemetry(1));
+        history.add(new ByteArrayDataPacket(new HashMap<String, String>(), new byte[CompressionDictionary.MAX_SAMPLE_SIZE + 1]));
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(encoded);
+        dataPacketWriter.write(createTelemetry(1));
+        dataPacketWriter.close();
+        assertArrayEquals(encoded.toByteArray(), CompressionDictionary.train(history.iterator()));
+    }
+
+    private static byte[] compress(byte[] data, int parallelism) throws IOException {
+        return compress(data, parallelism, false);
+    }
+
+    private static byte[] compress(byte[] data, int parallelism, boolean adaptive) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        CompressionOutputStream compressionOutputStream = new CompressionOutputStream(byteArrayOutputStream, CompressionOutputStream.DEFAULT_BUFFER_SIZE,
+                CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL, Deflater.DEFAULT_STRATEGY, parallelism, adaptive);
+        // Uneven writes so that chunks fill across calls
+        Random random = new Random(parallelism);
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, random.nextInt(100000));
+            if (length == 1) {
+                compressionOutputStream.write(data[offset]);
+            } else {
+                compressionOutputStream.write(data, offset, length);
+            }
+            offset += length;
+        }
+        compressionOutputStream.close();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        InputStream inputStream = new CompressionInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            byteArrayOutputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static DataPacket createTelemetry(int index) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("sensor.type", "accelerometer");
+        attributes.put("device.id", "device-" + (index % 3));
+        String json = "{\"timestamp\":" + (1500000000000L + index * 1000L) + ",\"x\":" + (index % 17) / 10.0 + ",\"y\":" + (index % 13) / 10.0
+                + ",\"z\":9.8" + (index % 7) + ",\"accuracy\":\"high\",\"battery\":" + (100 - index % 50) + "}";
+        return new ByteArrayDataPacket(attributes, json.getBytes(Charsets.UTF_8));
+    }
+
+    private static byte[] createRandomData(int size) {
+        byte[] data = new byte[size];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] createData(int size) {
+        // Compressible but not trivially so
+        Random random = new Random(0);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static class SlowOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SocketDialerTest {
+    private ServerSocket serverSocket;
+    private int closedPort;
+
+    @Before
+    public void setup() throws IOException {
+        serverSocket = new ServerSocket(0);
+        ServerSocket closedServerSocket = new ServerSocket(0);
+        closedPort = closedServerSocket.getLocalPort();
+        closedServerSocket.close();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        serverSocket.close();
+    }
+
+    @Test
+    public void testInterleaveStartsWithFirstFamily() throws IOException {
+        InetAddress v6a = InetAddress.getByAddress(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+        InetAddress v6b = InetAddress.getByAddress(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2});
+        InetAddress v6c = InetAddress.getByAddress(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3});
+        InetAddress v4a = InetAddress.getByAddress(new byte[]{127, 0, 0, 1});
+        InetAddress v4b = InetAddress.getByAddress(new byte[]{127, 0, 0, 2});
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v6c), SocketDialer.interleave(new InetAddress[]{v6a, v6b, v6c, v4a, v4b}));
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v6c), SocketDialer.interleave(new InetAddress[]{v4a, v4b, v6a, v6b, v6c}));
+    }
+
+    @Test
+    public void testDialFirstReachableHost() throws IOException {
+        List<InetSocketAddress> targets = Arrays.asList(InetSocketAddress.createUnresolved("127.0.0.1", closedPort),
+                InetSocketAddress.createUnresolved("127.0.0.1", serverSocket.getLocalPort()));
+        SocketDialer.DialedSocket dialedSocket = new SocketDialer(1000, false).dial(targets);
+        try {
+            assertEquals(1, dialedSocket.getIndex());
+            assertTrue(dialedSocket.getSocket().isConnected());
+        } finally {
+            dialedSocket.getSocket().close();
+        }
+    }
+
+    @Test
+    public void testDialSocketChannel() throws IOException {
+        Socket socket = new SocketDialer(1000, true).dial("127.0.0.1", serverSocket.getLocalPort());
+        try {
+            assertNotNull(socket.getChannel());
+            assertTrue(socket.isConnected());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testDialAppliesSocketOptions() throws IOException {
+        SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setSocketSendBufferSize(128 * 1024);
+        siteToSiteClientConfig.setSocketReceiveBufferSize(128 * 1024);
+        siteToSiteClientConfig.setSocketKeepAlive(true);
+        for (boolean socketChannel : new boolean[]{false, true}) {
+            Socket socket = new SocketDialer(siteToSiteClientConfig, socketChannel).dial("127.0.0.1", serverSocket.getLocalPort());
+            try {
+                assertTrue(socket.getTcpNoDelay());
+                assertTrue(socket.getKeepAlive());
+                // The OS may round the sizes up
+                assertTrue(socket.getSendBufferSize() >= 128 * 1024);
+                assertTrue(socket.getReceiveBufferSize() >= 128 * 1024);
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDialAllUnreachable() throws IOException {
+        new SocketDialer(1000, false).dial(Arrays.asList(InetSocketAddress.createUnresolved("127.0.0.1", closedPort),
+                InetSocketAddress.createUnresolved("127.0.0.1", closedPort)));
+    }
+}
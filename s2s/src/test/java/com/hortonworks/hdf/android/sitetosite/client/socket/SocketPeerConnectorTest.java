@@ -37,6 +37,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -47,9 +48,12 @@ import static com.hortonworks.hdf.android.sitetosite.client.socket.SocketPeerCon
 import static com.hortonworks.hdf.android.sitetosite.client.socket.SocketPeerConnector.BATCH_SIZE;
 import static com.hortonworks.hdf.android.sitetosite.client.socket.SocketPeerConnector.PORT_IDENTIFIER;
 import static com.hortonworks.hdf.android.sitetosite.client.socket.SocketPeerConnector.REQUEST_EXPIRATION_MILLIS;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class SocketPeerConnectorTest {
     private ExecutorService executorService;
@@ -72,7 +76,7 @@ public class SocketPeerConnectorTest {
         siteToSiteClientConfig.setPortIdentifier(portIdentifier);
         final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
 
-        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, true);
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, true, null);
 
         SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, new SiteToSiteRemoteCluster());
         SocketPeerConnection socketPeerConnection = connector.openConnection(true);
@@ -82,6 +86,60 @@ public class SocketPeerConnectorTest {
         }
         assertEquals(6, socketPeerConnection.getFlowFileProtocolVersion());
         assertEquals(1, (int) socketPeerConnection.getFlowFileCodecVersion());
+        assertEquals(6, peer.getFlowFileProtocolVersion());
+        assertEquals(1, peer.getFlowFileCodecVersion());
+    }
+
+    @Test
+    public void testSocketPeerConnectorProposesNegotiatedVersionFirst() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setPortIdentifier("abcd");
+        final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
+        peer.setFlowFileProtocolVersion(5);
+
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, true, null, new int[]{5});
+
+        SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, new SiteToSiteRemoteCluster(), new SocketPeerConnectionPool());
+        SocketPeerConnection socketPeerConnection = connector.openConnection(true);
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+        assertEquals(5, socketPeerConnection.getFlowFileProtocolVersion());
+        assertEquals(5, peer.getFlowFileProtocolVersion());
+    }
+
+    @Test
+    public void testPreferVersion() {
+        int[] versions = {6, 5, 4, 3, 2, 1};
+        assertArrayEquals(versions, SocketPeerConnector.preferVersion(versions, 0));
+        assertArrayEquals(versions, SocketPeerConnector.preferVersion(versions, 6));
+        assertArrayEquals(new int[]{4, 6, 5, 3, 2, 1}, SocketPeerConnector.preferVersion(versions, 4));
+        assertArrayEquals(versions, SocketPeerConnector.preferVersion(versions, 7));
+    }
+
+    @Test
+    public void testSocketPeerConnectorSocketChannel() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setPortIdentifier("abcd");
+        final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
+        SiteToSiteRemoteCluster siteToSiteRemoteCluster = new SiteToSiteRemoteCluster();
+        siteToSiteRemoteCluster.setClientType(SiteToSiteRemoteCluster.ClientType.RAW_NIO);
+
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, true, null);
+
+        SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, siteToSiteRemoteCluster, new SocketPeerConnectionPool());
+        SocketPeerConnection socketPeerConnection = connector.openConnection(true);
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+        assertNotNull(socketPeerConnection.getSocket().getChannel());
+        assertEquals(6, socketPeerConnection.getFlowFileProtocolVersion());
+        assertEquals(1, (int) socketPeerConnection.getFlowFileCodecVersion());
+        socketPeerConnection.closeWithoutShutdown();
     }
 
     @Test
@@ -92,7 +150,7 @@ public class SocketPeerConnectorTest {
         siteToSiteClientConfig.setPortIdentifier(portIdentifier);
         final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
 
-        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, false);
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, false, null);
 
         SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, new SiteToSiteRemoteCluster());
         SocketPeerConnection socketPeerConnection = connector.openConnection(false);
@@ -104,7 +162,88 @@ public class SocketPeerConnectorTest {
         assertNull(socketPeerConnection.getFlowFileCodecVersion());
     }
 
-    private Future<Exception> startServer(final ServerSocket serverSocket, final Peer peer, final SiteToSiteClientConfig siteToSiteClientConfig, final boolean negotiateCodec) {
+    @Test
+    public void testPooledConnectionReused() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setPortIdentifier("abcd");
+        final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
+        CountDownLatch closeLatch = new CountDownLatch(1);
+
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, true, closeLatch);
+
+        SocketPeerConnectionPool socketPeerConnectionPool = new SocketPeerConnectionPool();
+        SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, new SiteToSiteRemoteCluster(), socketPeerConnectionPool);
+        SocketPeerConnection socketPeerConnection = connector.openConnection(true);
+        connector.release(socketPeerConnection);
+        assertEquals(1, socketPeerConnectionPool.getIdleConnectionCount());
+
+        // The server only accepts one connection so this would fail if it wasn't reused
+        SocketPeerConnection reused = connector.openConnection(true);
+        assertSame(socketPeerConnection.getSocket(), reused.getSocket());
+        assertEquals(0, socketPeerConnectionPool.getIdleConnectionCount());
+
+        closeLatch.countDown();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+        reused.closeWithoutShutdown();
+    }
+
+    @Test
+    public void testPooledConnectionClosedByPeer() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setPortIdentifier("abcd");
+        final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
+
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, false, null);
+
+        SocketPeerConnectionPool socketPeerConnectionPool = new SocketPeerConnectionPool();
+        SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, new SiteToSiteRemoteCluster(), socketPeerConnectionPool);
+        SocketPeerConnection socketPeerConnection = connector.openConnection(false);
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+        socketPeerConnectionPool.release(socketPeerConnection.getPoolKey(), socketPeerConnection, Long.MAX_VALUE);
+        assertNull(socketPeerConnectionPool.take(socketPeerConnection.getPoolKey(), Long.MAX_VALUE));
+        assertTrue(socketPeerConnection.getSocket().isClosed());
+    }
+
+    @Test
+    public void testPooledConnectionExpired() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setPortIdentifier("abcd");
+        final Peer peer = new Peer("localhost", 0, serverSocket.getLocalPort(), false, 0);
+        CountDownLatch closeLatch = new CountDownLatch(1);
+
+        final Future<Exception> future = startServer(serverSocket, peer, siteToSiteClientConfig, false, closeLatch);
+
+        SocketPeerConnectionPool socketPeerConnectionPool = new SocketPeerConnectionPool();
+        SocketPeerConnector connector = new SocketPeerConnector(peer, siteToSiteClientConfig, new SiteToSiteRemoteCluster(), socketPeerConnectionPool);
+        SocketPeerConnection socketPeerConnection = connector.openConnection(false);
+        socketPeerConnectionPool.release(socketPeerConnection.getPoolKey(), socketPeerConnection, TimeUnit.MILLISECONDS.toNanos(1));
+        Thread.sleep(10);
+        assertNull(socketPeerConnectionPool.take(socketPeerConnection.getPoolKey(), TimeUnit.MILLISECONDS.toNanos(1)));
+        assertTrue(socketPeerConnection.getSocket().isClosed());
+
+        closeLatch.countDown();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private Future<Exception> startServer(final ServerSocket serverSocket, final Peer peer, final SiteToSiteClientConfig siteToSiteClientConfig, final boolean negotiateCodec,
+                                          final CountDownLatch closeLatch) {
+        return startServer(serverSocket, peer, siteToSiteClientConfig, negotiateCodec, closeLatch, new int[]{6});
+    }
+
+    private Future<Exception> startServer(final ServerSocket serverSocket, final Peer peer, final SiteToSiteClientConfig siteToSiteClientConfig, final boolean negotiateCodec,
+                                          final CountDownLatch closeLatch, final int[] expectedProtocolVersions) {
         return executorService.submit(new Callable<Exception>() {
                 @Override
                 public Exception call() throws Exception {
@@ -115,7 +254,7 @@ public class SocketPeerConnectorTest {
                         assertMagicBytes(inputStream);
                         DataInputStream dataInputStream = new DataInputStream(inputStream);
                         DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
-                        int serverNegotiate = serverNegotiate(dataOutputStream, dataInputStream, SocketPeerConnector.SOCKET_FLOW_FILE_PROTOCOL, new int[]{6}, new int[0]);
+                        int serverNegotiate = serverNegotiate(dataOutputStream, dataInputStream, SocketPeerConnector.SOCKET_FLOW_FILE_PROTOCOL, expectedProtocolVersions, new int[0]);
                         assertNotNull(UUID.fromString(dataInputStream.readUTF()));
                         if (serverNegotiate >= 3) {
                             assertEquals(SocketPeerConnector.getPeerUri(peer), dataInputStream.readUTF());
@@ -153,6 +292,9 @@ public class SocketPeerConnectorTest {
                             serverNegotiate(dataOutputStream, dataInputStream, SocketPeerConnector.STANDARD_FLOW_FILE_CODEC, new int[]{1}, new int[0]);
                         }
 
+                        if (closeLatch != null) {
+                            closeLatch.await();
+                        }
                         socket.close();
                         return null;
                     } catch (Exception e) {
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.socket;
+
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ProtocolException;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SocketProtocolCodecTest {
+    private static final String[] STRINGS = new String[]{"", "SEND_FLOWFILES", "nifi://localhost:8081", "café 日本", "\u0000", "emoji 😀", "unpaired a\ud83db\ude00",
+            new String(new char[1000]).replace('\u0000', 'x')};
+
+    @Test
+    public void testReadsRecordedConfirmation() throws IOException {
+        // What NiFi sends to confirm a transaction whose CRC is 12345, then to finish it
+        byte[] recorded = new byte[]{'R', 'C', 12, 0, 5, '1', '2', '3', '4', '5', 'R', 'C', 13};
+        SocketProtocolCodec socketProtocolCodec = createCodec(recorded);
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        assertEquals(ResponseCode.CONFIRM_TRANSACTION, responseCode);
+        assertEquals("12345", socketProtocolCodec.readMessage(responseCode));
+        responseCode = socketProtocolCodec.readCode();
+        assertEquals(ResponseCode.TRANSACTION_FINISHED, responseCode);
+        assertNull(socketProtocolCodec.readMessage(responseCode));
+    }
+
+    @Test
+    public void testReadsRecordedHandshakeFailure() throws IOException {
+        byte[] recorded = new byte[]{'R', 'C', (byte) 231, 0, 3, 'b', 'a', 'd'};
+        SocketProtocolCodec socketProtocolCodec = createCodec(recorded);
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        assertEquals(ResponseCode.ILLEGAL_PROPERTY_VALUE, responseCode);
+        assertEquals("bad", socketProtocolCodec.readMessage(responseCode));
+    }
+
+    @Test
+    public void testMatchesResponseCodeReadCode() throws IOException {
+        for (ResponseCode responseCode : ResponseCode.values()) {
+            byte[] codeSequence = responseCode.getCodeSequence();
+            assertEquals(ResponseCode.readCode(new ByteArrayInputStream(codeSequence)), createCodec(codeSequence).readCode());
+        }
+    }
+
+    @Test
+    public void testRejectsBadCodes() throws IOException {
+        assertReadCodeFails(new byte[]{'X', 'C', 1}, ProtocolException.class);
+        assertReadCodeFails(new byte[]{'R', 'X', 1}, ProtocolException.class);
+        assertReadCodeFails(new byte[]{'R', 'C', 100}, ProtocolException.class);
+        assertReadCodeFails(new byte[]{'R', 'C'}, EOFException.class);
+    }
+
+    @Test
+    public void testReadsWhatDataOutputStreamWrites() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        for (String string : STRINGS) {
+            dataOutputStream.writeUTF(string);
+        }
+        SocketProtocolCodec socketProtocolCodec = createCodec(byteArrayOutputStream.toByteArray());
+        for (String string : STRINGS) {
+            assertEquals(string, socketProtocolCodec.readUTF());
+        }
+    }
+
+    @Test
+    public void testWritesWhatDataInputStreamReads() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        SocketProtocolCodec socketProtocolCodec = new SocketProtocolCodec(new DataInputStream(new ByteArrayInputStream(new byte[0])), new DataOutputStream(actual));
+        for (String string : STRINGS) {
+            dataOutputStream.writeUTF(string);
+            socketProtocolCodec.writeUTF(string);
+        }
+        ResponseCode.CANCEL_TRANSACTION.writeResponse(dataOutputStream, "");
+        socketProtocolCodec.writeResponse(ResponseCode.CANCEL_TRANSACTION, "");
+        RequestType.SEND_FLOWFILES.writeRequestType(dataOutputStream);
+        socketProtocolCodec.writeRequestType(RequestType.SEND_FLOWFILES);
+        socketProtocolCodec.flush();
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testRejectsMalformedUtf() throws IOException {
+        assertReadUTFFails(new byte[]{0, 1, (byte) 0x80});
+        assertReadUTFFails(new byte[]{0, 1, (byte) 0xC3});
+        assertReadUTFFails(new byte[]{0, 2, (byte) 0xC3, 'a'});
+        assertReadUTFFails(new byte[]{0, 3, (byte) 0xE6, (byte) 0x97, 'a'});
+        assertReadUTFFails(new byte[]{0, 1, (byte) 0xF0});
+    }
+
+    @Test
+    public void testRejectsTooLongString() throws IOException {
+        char[] chars = new char[40000];
+        Arrays.fill(chars, 'é');
+        try {
+            createCodec(new byte[0]).writeUTF(new String(chars));
+            fail("Expected string too long to encode");
+        } catch (UTFDataFormatException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAllocationsPerResponse() throws IOException {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported() && allocationMXBean.isThreadAllocatedMemoryEnabled());
+
+        int responses = 20000;
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        for (int i = 0; i < 2 * responses; i++) {
+            ResponseCode.CANCEL_TRANSACTION.writeResponse(dataOutputStream, "");
+            ResponseCode.TRANSACTION_FINISHED.writeResponse(dataOutputStream);
+        }
+        SocketProtocolCodec socketProtocolCodec = createCodec(byteArrayOutputStream.toByteArray());
+        for (int i = 0; i < responses; i++) {
+            readResponse(socketProtocolCodec);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < responses; i++) {
+            readResponse(socketProtocolCodec);
+        }
+        long allocatedPerResponse = (allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / responses;
+        assertTrue("Allocated " + allocatedPerResponse + " bytes per response", allocatedPerResponse < 8);
+    }
+
+    private static void readResponse(SocketProtocolCodec socketProtocolCodec) throws IOException {
+        ResponseCode responseCode = socketProtocolCodec.readCode();
+        socketProtocolCodec.readMessage(responseCode);
+        responseCode = socketProtocolCodec.readCode();
+        socketProtocolCodec.readMessage(responseCode);
+    }
+
+    private static void assertReadCodeFails(byte[] recorded, Class<? extends IOException> expected) {
+        try {
+            createCodec(recorded).readCode();
+            fail("Expected " + expected.getSimpleName());
+        } catch (IOException e) {
+            assertEquals(expected, e.getClass());
+        }
+    }
+
+    private static void assertReadUTFFails(byte[] recorded) throws IOException {
+        try {
+            createCodec(recorded).readUTF();
+            fail("Expected malformed input");
+        } catch (UTFDataFormatException e) {
+            // Expected
+        }
+    }
+
+    private static SocketProtocolCodec createCodec(byte[] recorded) {
+        InputStream inputStream = new ByteArrayInputStream(recorded);
+        return new SocketProtocolCodec(new DataInputStream(inputStream), new DataOutputStream(new ByteArrayOutputStream()));
+    }
+}
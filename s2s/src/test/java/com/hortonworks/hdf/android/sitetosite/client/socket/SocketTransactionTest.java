@@ -18,23 +18,34 @@
 package com.hortonworks.hdf.android.sitetosite.client.socket;
 
 import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.peer.Peer;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
 import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
 import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
 import com.hortonworks.hdf.android.sitetosite.packet.EmptyDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.FileDataPacket;
 import com.hortonworks.hdf.android.sitetosite.util.Charsets;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.FilterOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -43,10 +54,15 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class SocketTransactionTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private ExecutorService executorService;
     private ServerSocket serverSocket;
 
@@ -70,7 +86,176 @@ public class SocketTransactionTest {
         attributes = new HashMap<>();
         attributes.put("key2", "value2");
         dataPackets.add(new ByteArrayDataPacket(attributes, "test data".getBytes(Charsets.UTF_8)));
-        Future<Exception> future = executorService.submit(new Callable<Exception>() {
+        Future<Exception> future = startServer(dataPackets);
+        SocketTransaction socketTransaction = new SocketTransaction(new SocketPeerConnection(new Socket("localhost", serverSocket.getLocalPort()), 6, 1), new SiteToSiteClientConfig());
+        for (DataPacket dataPacket : dataPackets) {
+            socketTransaction.send(dataPacket);
+        }
+        socketTransaction.confirm();
+        socketTransaction.complete();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @Test
+    public void testSendManyPacketsCoalescesWrites() throws Exception {
+        final List<DataPacket> dataPackets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("index", Integer.toString(i));
+            dataPackets.add(new ByteArrayDataPacket(attributes, ("packet " + i).getBytes(Charsets.UTF_8)));
+        }
+        Future<Exception> future = startServer(dataPackets);
+        final AtomicInteger writes = new AtomicInteger(0);
+        Socket socket = new Socket("localhost", serverSocket.getLocalPort()) {
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return new FilterOutputStream(super.getOutputStream()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        writes.incrementAndGet();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        writes.incrementAndGet();
+                        out.write(b, off, len);
+                    }
+                };
+            }
+        };
+        SocketTransaction socketTransaction = new SocketTransaction(new SocketPeerConnection(socket, 6, 1), new SiteToSiteClientConfig());
+        for (DataPacket dataPacket : dataPackets) {
+            socketTransaction.send(dataPacket);
+        }
+        socketTransaction.confirm();
+        socketTransaction.complete();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+        // Packets, finish, confirm response and shutdown are each a single write
+        assertEquals(4, writes.get());
+    }
+
+    @Test
+    public void testSendLargePacketsOverSocketChannel() throws Exception {
+        final List<DataPacket> dataPackets = new ArrayList<>();
+        byte[] data = new byte[100 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        for (int i = 0; i < 3; i++) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("index", Integer.toString(i));
+            dataPackets.add(new ByteArrayDataPacket(attributes, data));
+        }
+        Future<Exception> future = startServer(dataPackets);
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setSoTimeout(10000);
+        SocketPeerConnection socketPeerConnection = new SocketPeerConnection(socketChannel.socket(), 6, 1);
+        SocketTransaction socketTransaction = new SocketTransaction(socketPeerConnection, new SiteToSiteClientConfig());
+        for (DataPacket dataPacket : dataPackets) {
+            socketTransaction.send(dataPacket);
+        }
+        socketTransaction.confirm();
+        socketTransaction.complete();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+        assertFalse(socketChannel.isOpen());
+    }
+
+    @Test
+    public void testSendFilePacketsOverSocketChannel() throws Exception {
+        // Bigger than a mapped region so the transfer has to continue across regions
+        File file = temporaryFolder.newFile("large");
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < 20; i++) {
+                fileOutputStream.write(data);
+            }
+        } finally {
+            fileOutputStream.close();
+        }
+        final List<DataPacket> dataPackets = new ArrayList<>();
+        dataPackets.add(new FileDataPacket(file));
+        dataPackets.add(new ByteArrayDataPacket(new HashMap<String, String>(), data));
+        dataPackets.add(new FileDataPacket(temporaryFolder.newFile("empty")));
+        dataPackets.add(new FileDataPacket(file));
+        Future<Exception> future = startServer(dataPackets);
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setSoTimeout(10000);
+        SocketPeerConnection socketPeerConnection = new SocketPeerConnection(socketChannel.socket(), 6, 1);
+        SocketTransaction socketTransaction = new SocketTransaction(socketPeerConnection, new SiteToSiteClientConfig());
+        for (DataPacket dataPacket : dataPackets) {
+            socketTransaction.send(dataPacket);
+        }
+        socketTransaction.confirm();
+        socketTransaction.complete();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @Test
+    public void testRequestPeersBeforeTransaction() throws Exception {
+        List<DataPacket> dataPackets = new ArrayList<>();
+        dataPackets.add(new ByteArrayDataPacket(new HashMap<String, String>(), "testData".getBytes(Charsets.UTF_8)));
+        List<Peer> peers = new ArrayList<>();
+        peers.add(new Peer("nifi1", 0, 8081, false, 5));
+        peers.add(new Peer("nifi2", 0, 8082, true, 7));
+        Future<Exception> future = startServer(dataPackets, peers);
+        SocketPeerConnection socketPeerConnection = new SocketPeerConnection(new Socket("localhost", serverSocket.getLocalPort()), 6, 1);
+        List<Peer> requestedPeers = SocketGetPeersPeerOperation.requestPeers(socketPeerConnection);
+        assertEquals(2, requestedPeers.size());
+        for (int i = 0; i < peers.size(); i++) {
+            assertEquals(peers.get(i).getHostname(), requestedPeers.get(i).getHostname());
+            assertEquals(peers.get(i).getRawPort(), requestedPeers.get(i).getRawPort());
+            assertEquals(peers.get(i).isSecure(), requestedPeers.get(i).isSecure());
+            assertEquals(peers.get(i).getFlowFileCount(), requestedPeers.get(i).getFlowFileCount());
+        }
+        SocketTransaction socketTransaction = new SocketTransaction(socketPeerConnection, new SiteToSiteClientConfig());
+        for (DataPacket dataPacket : dataPackets) {
+            socketTransaction.send(dataPacket);
+        }
+        socketTransaction.confirm();
+        socketTransaction.complete();
+        Exception exception = future.get();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testSocketChannelReadTimeout() throws Exception {
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+        try {
+            socketChannel.configureBlocking(false);
+            socketChannel.socket().setSoTimeout(50);
+            new SocketPeerConnection(socketChannel.socket(), 6, 1).getDataInputStream().read();
+        } finally {
+            socketChannel.close();
+        }
+    }
+
+    private Future<Exception> startServer(final List<DataPacket> dataPackets) {
+        return startServer(dataPackets, null);
+    }
+
+    private Future<Exception> startServer(final List<DataPacket> dataPackets, final List<Peer> peers) {
+        return executorService.submit(new Callable<Exception>() {
             @Override
             public Exception call() throws Exception {
                 Socket socket = serverSocket.accept();
@@ -78,6 +263,17 @@ public class SocketTransactionTest {
                     InputStream inputStream = socket.getInputStream();
                     DataInputStream dataInputStream = new DataInputStream(inputStream);
                     DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+                    if (peers != null) {
+                        assertEquals(RequestType.REQUEST_PEER_LIST, RequestType.readRequestType(dataInputStream));
+                        dataOutputStream.writeInt(peers.size());
+                        for (Peer peer : peers) {
+                            dataOutputStream.writeUTF(peer.getHostname());
+                            dataOutputStream.writeInt(peer.getRawPort());
+                            dataOutputStream.writeBoolean(peer.isSecure());
+                            dataOutputStream.writeInt(peer.getFlowFileCount());
+                        }
+                        dataOutputStream.flush();
+                    }
                     assertEquals(RequestType.SEND_FLOWFILES, RequestType.readRequestType(dataInputStream));
                     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
                     SocketDataPacketWriter socketDataPacketWriter = new SocketDataPacketWriter(outputStream);
@@ -85,7 +281,7 @@ public class SocketTransactionTest {
                         socketDataPacketWriter.write(dataPacket);
                     }
                     for (byte b : outputStream.toByteArray()) {
-                        assertEquals(b, inputStream.read());
+                        assertEquals(b & 0xFF, inputStream.read());
                     }
                     assertEquals(ResponseCode.FINISH_TRANSACTION, ResponseCode.readCode(inputStream));
                     ResponseCode.CONFIRM_TRANSACTION.writeResponse(dataOutputStream, Long.toString(socketDataPacketWriter.close()));
@@ -101,15 +297,5 @@ public class SocketTransactionTest {
                 return null;
             }
         });
-        SocketTransaction socketTransaction = new SocketTransaction(new SocketPeerConnection(new Socket("localhost", serverSocket.getLocalPort()), 6, 1), new SiteToSiteClientConfig());
-        for (DataPacket dataPacket : dataPackets) {
-            socketTransaction.send(dataPacket);
-        }
-        socketTransaction.confirm();
-        socketTransaction.complete();
-        Exception exception = future.get();
-        if (exception != null) {
-            throw exception;
-        }
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+
+package com.hortonworks.hdf.android.sitetosite.client.transaction;
+
+import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures {@link DataPacketWriter} throughput and allocations, printing bytes per second and bytes allocated per packet
+ * for fresh packets (each written once, the way the queue sends what it reads back) and for one packet written
+ * repeatedly (reusing its cached header).  It isn't part of the test suite, run it with
+ * <pre>
+ * java -cp ... com.hortonworks.hdf.android.sitetosite.client.transaction.DataPacketWriterBenchmark [packets] [content size] [rounds]
+ * </pre>
+ */
+public class DataPacketWriterBenchmark {
+    public static void main(String[] args) throws IOException {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int contentSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        byte[] data = new byte[contentSize];
+        System.out.println(packets + " packets of " + contentSize + " bytes, best of " + rounds + " rounds");
+        for (boolean fresh : new boolean[]{true, false}) {
+            Result best = null;
+            for (int i = 0; i < rounds; i++) {
+                // The first rounds double as warm up
+                DataPacket[] dataPackets = createDataPackets(fresh ? packets : 1, data);
+                Result result = run(dataPackets, packets);
+                if (best == null || result.elapsedNanos < best.elapsedNanos) {
+                    best = result;
+                }
+            }
+            System.out.println(String.format("%-8s %,16.0f bytes/sec %8s bytes allocated/packet", fresh ? "fresh" : "repeated",
+                    best.bytes * 1e9 / best.elapsedNanos, best.allocatedPerPacket < 0 ? "n/a" : Long.toString(best.allocatedPerPacket)));
+        }
+    }
+
+    private static Result run(DataPacket[] dataPackets, int packets) throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream();
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(countingOutputStream);
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            dataPacketWriter.write(dataPackets[i % dataPackets.length]);
+        }
+        dataPacketWriter.close();
+        long elapsedNanos = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+        long allocatedPerPacket = allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / packets;
+        return new Result(countingOutputStream.count, elapsedNanos, allocatedPerPacket);
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocationMXBean.isThreadAllocatedMemorySupported() || !allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Created before the measurement so only the writer's allocations count
+     */
+    private static DataPacket[] createDataPackets(int count, byte[] data) {
+        DataPacket[] dataPackets = new DataPacket[count];
+        for (int i = 0; i < count; i++) {
+            Map<String, String> attributes = new LinkedHashMap<>();
+            attributes.put("filename", "sensor-reading-" + i + ".json");
+            attributes.put("mime.type", "application/json");
+            attributes.put("path", "/data/readings/");
+            attributes.put("uuid", "0e9b1c4e-8b8f-4a5e-9d5c-" + (100000000000L + i));
+            dataPackets[i] = new ByteArrayDataPacket(attributes, data);
+        }
+        return dataPackets;
+    }
+
+    private static class Result {
+        private final long bytes;
+        private final long elapsedNanos;
+        private final long allocatedPerPacket;
+
+        private Result(long bytes, long elapsedNanos, long allocatedPerPacket) {
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedPerPacket = allocatedPerPacket;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
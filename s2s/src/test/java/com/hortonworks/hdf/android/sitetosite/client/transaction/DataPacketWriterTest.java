@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.client.transaction;
+
+import android.os.Parcel;
+
+import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.ChecksummedByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.EmptyDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.EncodedAttributesDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.FileDataPacket;
+import com.hortonworks.hdf.android.sitetosite.util.Charsets;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DataPacketWriterTest {
+    @Test
+    public void testMatchesCodecFormat() throws IOException {
+        char[] longValue = new char[3 * DataPacketWriter.BUFFER_SIZE];
+        Arrays.fill(longValue, 'é');
+        List<DataPacket> dataPackets = new ArrayList<>();
+        dataPackets.add(createDataPacket(new String[]{"filename", "test.txt", "uuid", "ascii"}, new byte[0]));
+        dataPackets.add(createDataPacket(new String[]{"filename", "café 日本", "emoji", "😀", "unpaired", "a\ud83db\ude00"}, new byte[100]));
+        dataPackets.add(createDataPacket(new String[]{"long", new String(longValue), "", ""}, new byte[2 * DataPacketWriter.BUFFER_SIZE + 1]));
+        for (int i = 0; i < 600; i++) {
+            // Enough distinct keys to overflow the key cache
+            dataPackets.add(createDataPacket(new String[]{"key" + i, "value" + i, "filename", "file" + i}, new byte[]{(byte) i}));
+        }
+
+        byte[] expected = writeExpected(dataPackets);
+        CRC32 expectedCrc = new CRC32();
+        expectedCrc.update(expected);
+
+        // Fresh packets, packets caching their header, packets reusing the cached header and plain attribute maps
+        for (int i = 0; i < 4; i++) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            DataPacketWriter dataPacketWriter = new DataPacketWriter(actual);
+            for (DataPacket dataPacket : dataPackets) {
+                dataPacketWriter.write(i < 3 ? dataPacket : new PlainDataPacket(dataPacket));
+            }
+            long crc = dataPacketWriter.close();
+
+            assertArrayEquals(expected, actual.toByteArray());
+            assertEquals(expectedCrc.getValue(), crc);
+        }
+    }
+
+    @Test
+    public void testFileDataPacketEncodesAttributesOnce() throws IOException {
+        File file = File.createTempFile("data-packet-writer", ".txt");
+        try {
+            FileDataPacket fileDataPacket = new FileDataPacket(file);
+            Map<String, String> attributes = fileDataPacket.getAttributes();
+            assertEquals(file.getName(), attributes.get("filename"));
+            assertEquals(file.getParentFile().getAbsolutePath(), attributes.get("absolute.path"));
+            assertSame(attributes, fileDataPacket.getAttributes());
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            DataPacketWriter dataPacketWriter = new DataPacketWriter(actual);
+            dataPacketWriter.write(fileDataPacket);
+            // Packets sent once don't keep a copy of their header
+            assertNull(fileDataPacket.getEncodedAttributes());
+            dataPacketWriter.write(fileDataPacket);
+            byte[] encodedAttributes = fileDataPacket.getEncodedAttributes();
+            assertNotNull(encodedAttributes);
+            dataPacketWriter.write(fileDataPacket);
+            assertSame(encodedAttributes, fileDataPacket.getEncodedAttributes());
+            dataPacketWriter.write(new PlainDataPacket(fileDataPacket));
+            dataPacketWriter.write(new EmptyDataPacket(attributes));
+            dataPacketWriter.close();
+            assertArrayEquals(writeExpected(Collections.<DataPacket>nCopies(5, fileDataPacket)), actual.toByteArray());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testCombinesKnownContentCrc() throws IOException {
+        byte[] content = new byte[3 * DataPacketWriter.BUFFER_SIZE + 7];
+        new Random(1).nextBytes(content);
+        CRC32 contentCrc = new CRC32();
+        contentCrc.update(content);
+        List<DataPacket> dataPackets = new ArrayList<>();
+        dataPackets.add(createDataPacket(new String[]{"filename", "first"}, content));
+        dataPackets.add(new ChecksummedByteArrayDataPacket(Collections.singletonMap("filename", "second"), content, contentCrc.getValue()));
+        dataPackets.add(createDataPacket(new String[]{"filename", "third"}, new byte[]{1, 2, 3}));
+        dataPackets.add(new ChecksummedByteArrayDataPacket(Collections.singletonMap("filename", "empty"), new byte[0], 0));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(actual);
+        for (DataPacket dataPacket : dataPackets) {
+            dataPacketWriter.write(dataPacket);
+        }
+        long crc = dataPacketWriter.close();
+
+        byte[] expected = writeExpected(dataPackets);
+        assertArrayEquals(expected, actual.toByteArray());
+        CRC32 expectedCrc = new CRC32();
+        expectedCrc.update(expected);
+        assertEquals(expectedCrc.getValue(), crc);
+    }
+
+    @Test
+    public void testContentMatchesHeaderSize() throws IOException {
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(actual);
+        dataPacketWriter.write(new ByteArrayDataPacket(Collections.<String, String>emptyMap(), new byte[10]) {
+            @Override
+            public long getSize() {
+                return 4;
+            }
+        });
+        // Count, size and only the 4 bytes the header promised
+        assertEquals(4 + 8 + 4, actual.size());
+
+        try {
+            dataPacketWriter.write(new ByteArrayDataPacket(Collections.<String, String>emptyMap(), new byte[10]) {
+                @Override
+                public long getSize() {
+                    return 20;
+                }
+            });
+            fail("Expected short content to fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAllocationsPerFreshPacket() throws IOException {
+        com.sun.management.ThreadMXBean allocationMXBean = getAllocationMXBean();
+        int packets = 20000;
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(new NullOutputStream());
+        for (DataPacket dataPacket : createSensorDataPackets(packets)) {
+            dataPacketWriter.write(dataPacket);
+        }
+
+        // Every packet is written once the way the queue sends what it reads back, created up front so only the writer counts
+        DataPacket[] dataPackets = createSensorDataPackets(packets);
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (DataPacket dataPacket : dataPackets) {
+            dataPacketWriter.write(dataPacket);
+        }
+        long allocatedPerPacket = (allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / packets;
+
+        // What remains is the entry set iterator and the packet's input stream, not per attribute or per content buffer
+        assertTrue("Allocated " + allocatedPerPacket + " bytes per packet", allocatedPerPacket < 256);
+        for (DataPacket dataPacket : dataPackets) {
+            assertNull(((EncodedAttributesDataPacket) dataPacket).getEncodedAttributes());
+        }
+    }
+
+    @Test
+    public void testAllocationsPerCachedHeaderPacket() throws IOException {
+        com.sun.management.ThreadMXBean allocationMXBean = getAllocationMXBean();
+        DataPacket dataPacket = createSensorDataPackets(1)[0];
+        DataPacketWriter dataPacketWriter = new DataPacketWriter(new NullOutputStream());
+        int packets = 20000;
+        for (int i = 0; i < packets; i++) {
+            dataPacketWriter.write(dataPacket);
+        }
+        assertNotNull(((EncodedAttributesDataPacket) dataPacket).getEncodedAttributes());
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < packets; i++) {
+            dataPacketWriter.write(dataPacket);
+        }
+        long allocatedPerPacket = (allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / packets;
+
+        // Only the packet's input stream, the cached header is copied as is
+        assertTrue("Allocated " + allocatedPerPacket + " bytes per packet", allocatedPerPacket < 128);
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported() && allocationMXBean.isThreadAllocatedMemoryEnabled());
+        return allocationMXBean;
+    }
+
+    private static DataPacket[] createSensorDataPackets(int count) {
+        byte[] data = new byte[4096];
+        DataPacket[] dataPackets = new DataPacket[count];
+        for (int i = 0; i < count; i++) {
+            dataPackets[i] = createDataPacket(new String[]{"filename", "sensor-reading-" + i + ".json", "mime.type", "application/json",
+                    "path", "/data/readings/", "uuid", "0e9b1c4e-8b8f-4a5e-9d5c-" + (100000000000L + i)}, data);
+        }
+        return dataPackets;
+    }
+
+    private static DataPacket createDataPacket(String[] keysAndValues, byte[] data) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            attributes.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new ByteArrayDataPacket(attributes, data);
+    }
+
+    private static byte[] writeExpected(List<DataPacket> dataPackets) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        for (DataPacket dataPacket : dataPackets) {
+            Map<String, String> attributes = dataPacket.getAttributes();
+            dataOutputStream.writeInt(attributes.size());
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                byte[] key = entry.getKey().getBytes(Charsets.UTF_8);
+                dataOutputStream.writeInt(key.length);
+                dataOutputStream.write(key);
+                byte[] value = entry.getValue().getBytes(Charsets.UTF_8);
+                dataOutputStream.writeInt(value.length);
+                dataOutputStream.write(value);
+            }
+            dataOutputStream.writeLong(dataPacket.getSize());
+            byte[] buffer = new byte[1024];
+            int read;
+            InputStream data = dataPacket.getData();
+            while ((read = data.read(buffer)) != -1) {
+                dataOutputStream.write(buffer, 0, read);
+            }
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Hides whatever optional interfaces the packet implements
+     */
+    private static class PlainDataPacket implements DataPacket {
+        private final DataPacket dataPacket;
+
+        private PlainDataPacket(DataPacket dataPacket) {
+            this.dataPacket = dataPacket;
+        }
+
+        @Override
+        public Map<String, String> getAttributes() {
+            return dataPacket.getAttributes();
+        }
+
+        @Override
+        public InputStream getData() {
+            return dataPacket.getData();
+        }
+
+        @Override
+        public long getSize() {
+            return dataPacket.getSize();
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -74,6 +74,26 @@ public class PropertiesQueuedSiteToSiteClientConfigFactoryTest extends Propertie
         assertEquals(1000, load(propertiesText).getMaxTransactionTime(TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testNoFragmentSize() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(0, load("").getFragmentSize());
+    }
+
+    @Test
+    public void testFragmentSize() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(1048576, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "fragmentSize=1048576").getFragmentSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeFragmentSize() throws IOException, SiteToSiteClientConfigCreationException {
+        load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "fragmentSize=-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFragmentSizeOverCursorWindow() throws IOException, SiteToSiteClientConfigCreationException {
+        load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "fragmentSize=" + (QueuedSiteToSiteClientConfig.MAX_FRAGMENT_SIZE + 1));
+    }
+
     @Test
     public void testNoDataPacketPrioritizer() throws IOException, SiteToSiteClientConfigCreationException {
         assertTrue(load("").getDataPacketPrioritizer() instanceof NoOpDataPacketPrioritizer);
@@ -23,6 +23,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -34,6 +36,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -217,6 +220,117 @@ public class PropertiesSiteToSiteClientConfigFactoryTest {
         assertFalse(load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "useCompression=false").isUseCompression());
     }
 
+    @Test
+    public void testPipelineTransactionsDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertFalse(load("").isPipelineTransactions());
+    }
+
+    @Test
+    public void testPipelineTransactionsTrue() throws IOException, SiteToSiteClientConfigCreationException {
+        assertTrue(load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "pipelineTransactions=true").isPipelineTransactions());
+    }
+
+    @Test
+    public void testSplitTransactionsDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertFalse(load("").isSplitTransactions());
+    }
+
+    @Test
+    public void testSplitTransactionsTrue() throws IOException, SiteToSiteClientConfigCreationException {
+        assertTrue(load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "splitTransactions=true").isSplitTransactions());
+    }
+
+    @Test
+    public void testConnectTimeoutDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(5, load("").getConnectTimeout(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConnectTimeoutDefaultUnitMillis() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(250, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "connectTimeout=250").getConnectTimeout(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPeerConnectConcurrencyDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(1, load("").getPeerConnectConcurrency());
+    }
+
+    @Test
+    public void testPeerConnectConcurrency() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(3, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "peerConnectConcurrency=3").getPeerConnectConcurrency());
+    }
+
+    @Test
+    public void testCompressionThreadsDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(1, load("").getCompressionThreads());
+    }
+
+    @Test
+    public void testCompressionThreads() throws IOException, SiteToSiteClientConfigCreationException {
+        assertEquals(4, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "compressionThreads=4").getCompressionThreads());
+    }
+
+    @Test
+    public void testAdaptiveCompressionDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertFalse(load("").isAdaptiveCompression());
+    }
+
+    @Test
+    public void testAdaptiveCompression() throws IOException, SiteToSiteClientConfigCreationException {
+        assertTrue(load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "adaptiveCompression=true").isAdaptiveCompression());
+    }
+
+    @Test
+    public void testCompressionDictionaryDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertNull(load("").getCompressionDictionary());
+    }
+
+    @Test
+    public void testCompressionDictionaryFile() throws IOException, SiteToSiteClientConfigCreationException {
+        File file = File.createTempFile("dictionary", ".bin");
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(file);
+            try {
+                fileOutputStream.write(new byte[]{1, 2, 3});
+            } finally {
+                fileOutputStream.close();
+            }
+            assertArrayEquals(new byte[]{1, 2, 3}, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "compressionDictionaryFile=" + file.getAbsolutePath())
+                    .getCompressionDictionary());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = SiteToSiteClientConfigCreationException.class)
+    public void testCompressionDictionaryFileMissing() throws IOException, SiteToSiteClientConfigCreationException {
+        load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "compressionDictionaryFile=/nonexistent/dictionary.bin");
+    }
+
+    @Test
+    public void testSocketOptionsDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        SiteToSiteClientConfig siteToSiteClientConfig = load("");
+        assertEquals(0, siteToSiteClientConfig.getSocketSendBufferSize());
+        assertEquals(0, siteToSiteClientConfig.getSocketReceiveBufferSize());
+        assertTrue(siteToSiteClientConfig.isTcpNoDelay());
+        assertFalse(siteToSiteClientConfig.isSocketKeepAlive());
+        assertEquals(0, siteToSiteClientConfig.getSocketTrafficClass());
+    }
+
+    @Test
+    public void testSocketOptions() throws IOException, SiteToSiteClientConfigCreationException {
+        SiteToSiteClientConfig siteToSiteClientConfig = load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "socketSendBufferSize=1048576\n"
+                + PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "socketReceiveBufferSize=2097152\n"
+                + PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "tcpNoDelay=false\n"
+                + PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "socketKeepAlive=true\n"
+                + PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "socketTrafficClass=0x10");
+        assertEquals(1048576, siteToSiteClientConfig.getSocketSendBufferSize());
+        assertEquals(2097152, siteToSiteClientConfig.getSocketReceiveBufferSize());
+        assertFalse(siteToSiteClientConfig.isTcpNoDelay());
+        assertTrue(siteToSiteClientConfig.isSocketKeepAlive());
+        assertEquals(0x10, siteToSiteClientConfig.getSocketTrafficClass());
+    }
+
     @Test
     public void testPortNameDefault() throws IOException, SiteToSiteClientConfigCreationException {
         assertNull(load("").getPortName());
@@ -239,6 +353,28 @@ public class PropertiesSiteToSiteClientConfigFactoryTest {
         assertEquals(testPortIdentifier, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "portIdentifier=" + testPortIdentifier).getPortIdentifier());
     }
 
+    @Test
+    public void testOutputPortNameDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertNull(load("").getOutputPortName());
+    }
+
+    @Test
+    public void testOutputPortName() throws IOException, SiteToSiteClientConfigCreationException {
+        String testPortName = "testOutputPortName";
+        assertEquals(testPortName, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "outputPortName=" + testPortName).getOutputPortName());
+    }
+
+    @Test
+    public void testOutputPortIdentifierDefault() throws IOException, SiteToSiteClientConfigCreationException {
+        assertNull(load("").getOutputPortIdentifier());
+    }
+
+    @Test
+    public void testOutputPortIdentifier() throws IOException, SiteToSiteClientConfigCreationException {
+        String testPortIdentifier = "testOutputPortIdentifier";
+        assertEquals(testPortIdentifier, load(PropertiesSiteToSiteClientConfigFactory.S2S_CONFIG + "outputPortIdentifier=" + testPortIdentifier).getOutputPortIdentifier());
+    }
+
     @Test
     public void testNoPreferredBatchDuration() throws IOException, SiteToSiteClientConfigCreationException {
         assertEquals(0, load("").getPreferredBatchDuration(TimeUnit.NANOSECONDS));
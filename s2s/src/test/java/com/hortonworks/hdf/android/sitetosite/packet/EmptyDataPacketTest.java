@@ -46,6 +46,12 @@ public class EmptyDataPacketTest {
         assertEquals(attributes, emptyDataPacket.getAttributes());
     }
 
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAttributesAreReadOnly() {
+        // The encoded header is cached so a change after sending would otherwise go out stale
+        emptyDataPacket.getAttributes().put("key3", "value3");
+    }
+
     @Test
     public void testGetData() throws IOException {
         InputStream data = emptyDataPacket.getData();
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+
+public class CrcUtilsTest {
+    @Test
+    public void testCombineMatchesCrcOfConcatenation() {
+        Random random = new Random(42);
+        int[] lengths = {0, 1, 3, 8, 100, 4096, 65537};
+        for (int length1 : lengths) {
+            for (int length2 : lengths) {
+                byte[] bytes = new byte[length1 + length2];
+                random.nextBytes(bytes);
+                assertEquals(crc(bytes, 0, bytes.length), CrcUtils.combine(crc(bytes, 0, length1), crc(bytes, length1, length2), length2));
+            }
+        }
+    }
+
+    private static long crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.util;
+
+import com.hortonworks.hdf.android.sitetosite.client.http.parser.PeerListParser;
+import com.hortonworks.hdf.android.sitetosite.client.peer.Peer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonPullParserTest {
+    @Test
+    public void testSelectNameAndSkip() throws IOException {
+        JsonPullParser jsonPullParser = parser("{\"skipped\": {\"a\": [1, {\"b\": null}], \"c\": \"}\"}, \"count\": 5, \"other\": true}");
+        String[] names = {"count", "missing"};
+        jsonPullParser.beginObject();
+        assertEquals(-1, jsonPullParser.selectName(names));
+        jsonPullParser.skipValue();
+        assertEquals(0, jsonPullParser.selectName(names));
+        assertEquals(5, jsonPullParser.nextInt());
+        assertEquals("other", jsonPullParser.nextName());
+        assertTrue(jsonPullParser.nextBoolean());
+        assertFalse(jsonPullParser.hasNext());
+        jsonPullParser.endObject();
+        assertEquals(JsonPullParser.Token.END_DOCUMENT, jsonPullParser.peek());
+        jsonPullParser.close();
+    }
+
+    @Test
+    public void testStrings() throws IOException {
+        JsonPullParser jsonPullParser = parser("[\"a\\\"b\\\\c\\/d\\n\", \"\\u00e9t\u00e9\", \"\u20ac \uD83D\uDE00\", \"\"]");
+        jsonPullParser.beginArray();
+        assertEquals("a\"b\\c/d\n", jsonPullParser.nextString());
+        assertEquals("\u00e9t\u00e9", jsonPullParser.nextString());
+        assertEquals("\u20ac \uD83D\uDE00", jsonPullParser.nextString());
+        assertEquals("", jsonPullParser.nextString());
+        jsonPullParser.endArray();
+        jsonPullParser.close();
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        JsonPullParser jsonPullParser = parser("[-12, 9223372036854775807, -9223372036854775808, \"42\", 1.0e3, null]");
+        jsonPullParser.beginArray();
+        assertEquals(-12, jsonPullParser.nextInt());
+        assertEquals(Long.MAX_VALUE, jsonPullParser.nextLong());
+        assertEquals(Long.MIN_VALUE, jsonPullParser.nextLong());
+        assertEquals(42, jsonPullParser.nextInt());
+        assertEquals(1000, jsonPullParser.nextInt());
+        assertEquals(JsonPullParser.Token.NULL, jsonPullParser.peek());
+        jsonPullParser.nextNull();
+        jsonPullParser.endArray();
+        jsonPullParser.close();
+    }
+
+    @Test
+    public void testLongBoundaries() throws IOException {
+        JsonPullParser jsonPullParser = parser("[9223372036854775807, -9223372036854775808, 9223372036854775800, \"-9223372036854775808\", 92233720368547758.07e2, 1.5e1]");
+        jsonPullParser.beginArray();
+        assertEquals(Long.MAX_VALUE, jsonPullParser.nextLong());
+        assertEquals(Long.MIN_VALUE, jsonPullParser.nextLong());
+        assertEquals(9223372036854775800L, jsonPullParser.nextLong());
+        assertEquals(Long.MIN_VALUE, jsonPullParser.nextLong());
+        assertEquals(Long.MAX_VALUE, jsonPullParser.nextLong());
+        assertEquals(15, jsonPullParser.nextLong());
+        jsonPullParser.endArray();
+        jsonPullParser.close();
+    }
+
+    @Test
+    public void testLongOverflow() throws IOException {
+        String[] overflows = {"9223372036854775808", "9223372036854775809", "-9223372036854775809", "18446744073709551617", "9223372036854775807.5", "1e19"};
+        for (String overflow : overflows) {
+            JsonPullParser jsonPullParser = parser("[" + overflow + "]");
+            jsonPullParser.beginArray();
+            try {
+                fail("Expected " + overflow + " to overflow but got " + jsonPullParser.nextLong());
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+            jsonPullParser.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        JsonPullParser jsonPullParser = parser("{\"count\": 5");
+        jsonPullParser.beginObject();
+        jsonPullParser.nextName();
+        jsonPullParser.nextInt();
+        jsonPullParser.hasNext();
+    }
+
+    @Test
+    public void testLargePeerList() throws IOException {
+        int numPeers = 500;
+        StringBuilder stringBuilder = new StringBuilder("{\"peers\": [");
+        for (int i = 0; i < numPeers; i++) {
+            if (i > 0) {
+                stringBuilder.append(", ");
+            }
+            stringBuilder.append("{\"hostname\": \"nifi-node-").append(i).append(".example.com\", \"port\": ").append(8080 + i)
+                    .append(", \"secure\": ").append(i % 2 == 0).append(", \"flowFileCount\": ").append(i * 10).append("}");
+        }
+        stringBuilder.append("]}");
+
+        // Parse more than once to exercise reuse of the per-thread buffers
+        for (int run = 0; run < 2; run++) {
+            List<Peer> peers = PeerListParser.parsePeers(new ByteArrayInputStream(stringBuilder.toString().getBytes(Charsets.UTF_8)));
+            assertEquals(numPeers, peers.size());
+            for (int i = 0; i < numPeers; i++) {
+                Peer peer = peers.get(i);
+                assertEquals("nifi-node-" + i + ".example.com", peer.getHostname());
+                assertEquals(8080 + i, peer.getHttpPort());
+                assertEquals(i % 2 == 0, peer.isSecure());
+                assertEquals(i * 10, peer.getFlowFileCount());
+            }
+        }
+    }
+
+    @Test
+    public void testNestedParsersOnSameThread() throws IOException {
+        JsonPullParser outer = parser("{\"a\": \"outer\"}");
+        JsonPullParser inner = parser("{\"a\": \"inner\"}");
+        outer.beginObject();
+        inner.beginObject();
+        outer.nextName();
+        inner.nextName();
+        assertEquals("inner", inner.nextString());
+        assertEquals("outer", outer.nextString());
+        inner.close();
+        outer.close();
+    }
+
+    private JsonPullParser parser(String json) {
+        return new JsonPullParser(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)));
+    }
+}
@@ -0,0 +1,1134 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.util;
+
+import com.hortonworks.hdf.android.sitetosite.client.http.HttpHeaders;
+import com.hortonworks.hdf.android.sitetosite.client.http.parser.PeerListParser;
+import com.hortonworks.hdf.android.sitetosite.client.http.parser.TransactionResultParser;
+import com.hortonworks.hdf.android.sitetosite.client.peer.PeerTracker;
+import com.hortonworks.hdf.android.sitetosite.client.peer.SiteToSiteInfo;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionDictionary;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionOutputStream;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.RequestType;
+import com.hortonworks.hdf.android.sitetosite.client.socket.SocketPeerConnector;
+import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * Stand-in for a single NiFi instance that runs on the JVM.  It speaks enough of the HTTP data transfer api and the RAW
+ * socket protocol (handshake, codec negotiation, peer list, compression and crc confirmation) for the clients to send
+ * data to its input ports.  Unlike the scripted mock server it keeps up with any number of transactions, so it can be
+ * used to measure throughput, and latency, bandwidth limits and failures can be injected.
+ */
+public class NiFiS2SStandInServer implements Closeable {
+    public static final String DEFAULT_PORT_NAME = "input";
+    public static final String DEFAULT_PORT_IDENTIFIER = "8a2ff7d3-015b-1000-ffff-ffffe3a6e6b1";
+    public static final String DEFAULT_OUTPUT_PORT_NAME = "output";
+    public static final String DEFAULT_OUTPUT_PORT_IDENTIFIER = "8a2ff7d3-015b-1000-ffff-ffffe3a6e6b2";
+    public static final int MAX_PROTOCOL_VERSION = SocketPeerConnector.MAX_PROTOCOL_VERSION;
+    public static final int MAX_CODEC_VERSION = 1;
+    public static final int TRANSACTION_TTL_SECONDS = 30;
+
+    private static final String DATA_TRANSFER_PATH_PREFIX = PeerTracker.NIFI_API_PATH + "/data-transfer/";
+    private static final String INPUT_PORTS = "input-ports";
+    private static final String OUTPUT_PORTS = "output-ports";
+    private static final String TRANSACTIONS = "transactions";
+    private static final String FLOW_FILES = "flow-files";
+
+    private final Map<String, String> inputPorts = new ConcurrentHashMap<>();
+    private final Map<String, String> outputPorts = new ConcurrentHashMap<>();
+    private final Map<String, LinkedList<DataPacket>> outputQueues = new HashMap<>();
+    private final Map<String, PendingTransaction> httpTransactions = new ConcurrentHashMap<>();
+    private final Map<String, OutgoingTransaction> httpOutgoingTransactions = new ConcurrentHashMap<>();
+    private final List<DataPacket> receivedPackets = Collections.synchronizedList(new ArrayList<DataPacket>());
+    private final Set<Socket> rawSockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final AtomicLong transactionIds = new AtomicLong();
+    private final AtomicLong receivedPacketCount = new AtomicLong();
+    private final AtomicLong receivedByteCount = new AtomicLong();
+    private final AtomicLong completedTransactionCount = new AtomicLong();
+    private final AtomicLong sentPacketCount = new AtomicLong();
+    private final AtomicLong primedChunkCount = new AtomicLong();
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    private final AtomicInteger injectedFailureCount = new AtomicInteger();
+    private final Random random = new Random(0);
+    private final MockWebServer mockWebServer;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executorService;
+
+    private volatile long latencyNanos;
+    private volatile long bytesPerSecond;
+    private volatile double failureRate;
+    private volatile boolean recordPackets = true;
+    private volatile byte[] compressionDictionary;
+
+    /**
+     * Starts a stand-in speaking HTTP/1.1 and RAW with a single input port named {@link #DEFAULT_PORT_NAME}
+     *
+     * @throws IOException if the servers can't be started
+     */
+    public NiFiS2SStandInServer() throws IOException {
+        this(false);
+    }
+
+    /**
+     * Starts a stand-in with a single input port named {@link #DEFAULT_PORT_NAME}
+     *
+     * @param http2 whether the HTTP server should only speak prior knowledge h2c
+     * @throws IOException if the servers can't be started
+     */
+    public NiFiS2SStandInServer(boolean http2) throws IOException {
+        inputPorts.put(DEFAULT_PORT_NAME, DEFAULT_PORT_IDENTIFIER);
+        addOutputPort(DEFAULT_OUTPUT_PORT_NAME, DEFAULT_OUTPUT_PORT_IDENTIFIER);
+        mockWebServer = new MockWebServer();
+        if (http2) {
+            mockWebServer.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                // Requests are handled here, don't let them pile up in the mock server's queue
+                mockWebServer.takeRequest(0, TimeUnit.NANOSECONDS);
+                try {
+                    return handleHttp(request);
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400).setBody(String.valueOf(e.getMessage()));
+                }
+            }
+
+            @Override
+            public MockResponse peek() {
+                // Used to throttle reading request bodies
+                MockResponse mockResponse = new MockResponse();
+                long bytesPerSecond = NiFiS2SStandInServer.this.bytesPerSecond;
+                if (bytesPerSecond > 0) {
+                    mockResponse.throttleBody(Math.max(1, bytesPerSecond / 10), 100, TimeUnit.MILLISECONDS);
+                }
+                return mockResponse;
+            }
+        });
+        // Like NiFi's Jetty connector, otherwise small HTTP/2 frames sit behind delayed acknowledgements
+        mockWebServer.setServerSocketFactory(new TcpNoDelayServerSocketFactory());
+        mockWebServer.start();
+
+        serverSocket = new ServerSocket(0);
+        executorService = Executors.newCachedThreadPool();
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptRawConnections();
+            }
+        });
+    }
+
+    /**
+     * Gets the url clients should be configured with
+     *
+     * @return the nifi-api url
+     */
+    public String getNifiApiUrl() {
+        return mockWebServer.url(PeerTracker.NIFI_API_PATH).toString();
+    }
+
+    public int getHttpPort() {
+        return mockWebServer.getPort();
+    }
+
+    public int getRawPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Adds an input port that clients can send to
+     *
+     * @param name       the port name
+     * @param identifier the port identifier
+     */
+    public void addInputPort(String name, String identifier) {
+        inputPorts.put(name, identifier);
+    }
+
+    /**
+     * Adds an output port that clients can receive from
+     *
+     * @param name       the port name
+     * @param identifier the port identifier
+     */
+    public void addOutputPort(String name, String identifier) {
+        outputPorts.put(name, identifier);
+        synchronized (outputQueues) {
+            if (!outputQueues.containsKey(identifier)) {
+                outputQueues.put(identifier, new LinkedList<DataPacket>());
+            }
+        }
+    }
+
+    /**
+     * Queues data packets for clients to receive from an output port
+     *
+     * @param portName    the output port name
+     * @param dataPackets the data packets
+     */
+    public void enqueue(String portName, List<DataPacket> dataPackets) {
+        synchronized (outputQueues) {
+            outputQueues.get(outputPorts.get(portName)).addAll(dataPackets);
+        }
+    }
+
+    /**
+     * Gets the number of data packets waiting on an output port, including ones in unconfirmed transactions
+     *
+     * @param portName the output port name
+     * @return the number of queued data packets
+     */
+    public int getQueuedCount(String portName) {
+        synchronized (outputQueues) {
+            return outputQueues.get(outputPorts.get(portName)).size();
+        }
+    }
+
+    /**
+     * Sets the delay before every response the stand-in sends
+     *
+     * @param latency  the latency
+     * @param timeUnit the time unit
+     */
+    public void setLatency(long latency, TimeUnit timeUnit) {
+        this.latencyNanos = timeUnit.toNanos(latency);
+    }
+
+    /**
+     * Limits the rate data is read from clients
+     *
+     * @param bytesPerSecond the maximum bytes per second per connection, 0 for no limit
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Sets the probability of every request failing, HTTP requests are disconnected after being read and RAW connections
+     * are closed
+     *
+     * @param failureRate probability from 0 to 1
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Fails the next requests regardless of the failure rate
+     *
+     * @param count the number of requests to fail
+     */
+    public void injectFailures(int count) {
+        failuresToInject.addAndGet(count);
+    }
+
+    /**
+     * Sets the preset dictionary the server acknowledges and inflates HTTP chunks with
+     *
+     * @param compressionDictionary the dictionary (null for none)
+     */
+    public void setCompressionDictionary(byte[] compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    /**
+     * Gets the number of compressed chunks received that were primed with the dictionary
+     *
+     * @return the number of primed chunks
+     */
+    public long getPrimedChunkCount() {
+        return primedChunkCount.get();
+    }
+
+    /**
+     * Sets whether received packets are kept in memory, turn off for long running throughput tests
+     *
+     * @param recordPackets whether received packets are kept
+     */
+    public void setRecordPackets(boolean recordPackets) {
+        this.recordPackets = recordPackets;
+    }
+
+    /**
+     * Gets the packets of all completed transactions in the order they were completed
+     *
+     * @return the received packets
+     */
+    public List<DataPacket> getReceivedPackets() {
+        synchronized (receivedPackets) {
+            return new ArrayList<>(receivedPackets);
+        }
+    }
+
+    public long getReceivedPacketCount() {
+        return receivedPacketCount.get();
+    }
+
+    /**
+     * Gets the total content size of the packets of all completed transactions
+     *
+     * @return the number of content bytes received
+     */
+    public long getReceivedByteCount() {
+        return receivedByteCount.get();
+    }
+
+    /**
+     * Gets the number of data packets clients confirmed receiving
+     *
+     * @return the number of sent data packets
+     */
+    public long getSentPacketCount() {
+        return sentPacketCount.get();
+    }
+
+    /**
+     * Gets the number of HTTP requests the server has answered, including site-to-site and peer lookups
+     *
+     * @return the number of HTTP requests
+     */
+    public int getHttpRequestCount() {
+        return mockWebServer.getRequestCount();
+    }
+
+    public long getCreatedTransactionCount() {
+        return transactionIds.get();
+    }
+
+    /**
+     * Gets the number of transactions to input ports that have been created and not yet completed or cancelled
+     *
+     * @return the number of open transactions
+     */
+    public int getOpenTransactionCount() {
+        return httpTransactions.size();
+    }
+
+    public long getCompletedTransactionCount() {
+        return completedTransactionCount.get();
+    }
+
+    public int getInjectedFailureCount() {
+        return injectedFailureCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (rawSockets) {
+            for (Socket socket : rawSockets) {
+                socket.close();
+            }
+        }
+        executorService.shutdownNow();
+        mockWebServer.shutdown();
+    }
+
+    private MockResponse handleHttp(RecordedRequest request) throws IOException {
+        sleepLatency();
+        if (shouldFail()) {
+            return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+        }
+        HttpUrl requestUrl = request.getRequestUrl();
+        String path = requestUrl.encodedPath();
+        String method = request.getMethod();
+        if ("GET".equals(method) && (PeerTracker.NIFI_API_PATH + PeerTracker.SITE_TO_SITE_PATH).equals(path)) {
+            return new MockResponse().setBody(getSiteToSiteJson());
+        } else if ("GET".equals(method) && (PeerTracker.NIFI_API_PATH + PeerTracker.SITE_TO_SITE_PATH + "/peers").equals(path)) {
+            return new MockResponse().setBody(getPeersJson());
+        } else if (!path.startsWith(DATA_TRANSFER_PATH_PREFIX)) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        // {input-ports|output-ports}/{port}/transactions[/{transaction}[/flow-files]]
+        List<String> segments = Arrays.asList(path.substring(DATA_TRANSFER_PATH_PREFIX.length()).split("/"));
+        if (segments.size() < 3 || !TRANSACTIONS.equals(segments.get(2))) {
+            return new MockResponse().setResponseCode(404);
+        }
+        boolean output = OUTPUT_PORTS.equals(segments.get(0));
+        if (output ? !outputPorts.containsValue(segments.get(1)) : !INPUT_PORTS.equals(segments.get(0)) || !inputPorts.containsValue(segments.get(1))) {
+            return new MockResponse().setResponseCode(404);
+        }
+        if (segments.size() == 3 && "POST".equals(method)) {
+            String transactionPath = path + "/" + transactionIds.incrementAndGet();
+            if (output) {
+                httpOutgoingTransactions.put(transactionPath, new OutgoingTransaction(segments.get(1)));
+            } else {
+                httpTransactions.put(transactionPath, new PendingTransaction());
+            }
+            MockResponse mockResponse = new MockResponse().setResponseCode(201)
+                    .addHeader(HttpHeaders.LOCATION_HEADER_NAME, mockWebServer.url(transactionPath))
+                    .addHeader(HttpHeaders.LOCATION_URI_INTENT_NAME, HttpHeaders.LOCATION_URI_INTENT_VALUE)
+                    .addHeader(HttpHeaders.SERVER_SIDE_TRANSACTION_TTL, TRANSACTION_TTL_SECONDS);
+            byte[] compressionDictionary = this.compressionDictionary;
+            String compressionDictionaryId = request.getHeader(HttpHeaders.HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY);
+            if (compressionDictionary != null && Long.toString(CompressionDictionary.getId(compressionDictionary)).equals(compressionDictionaryId)) {
+                mockResponse.addHeader(HttpHeaders.HANDSHAKE_PROPERTY_COMPRESSION_DICTIONARY, compressionDictionaryId);
+            }
+            return mockResponse;
+        }
+        String transactionPath = segments.size() == 5 ? path.substring(0, path.lastIndexOf('/')) : path;
+        boolean compressed = Boolean.valueOf(request.getHeader(HttpHeaders.HANDSHAKE_PROPERTY_USE_COMPRESSION));
+        if (output) {
+            return handleHttpOutgoing(request, segments, transactionPath, compressed);
+        }
+        PendingTransaction pendingTransaction = httpTransactions.get(transactionPath);
+        if (pendingTransaction == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        if (segments.size() == 5 && FLOW_FILES.equals(segments.get(4)) && "POST".equals(method)) {
+            PushbackInputStream body = new PushbackInputStream(request.getBody().inputStream(), 1);
+            InputStream content = compressed ? new DecompressionInputStream(body, compressionDictionary) : body;
+            CheckedInputStream checkedInputStream = new CheckedInputStream(content, new CRC32());
+            PushbackInputStream packetInputStream = new PushbackInputStream(checkedInputStream, 1);
+            while (true) {
+                int next = packetInputStream.read();
+                if (next == -1) {
+                    break;
+                }
+                packetInputStream.unread(next);
+                pendingTransaction.readPacket(new DataInputStream(packetInputStream));
+            }
+            return new MockResponse().setResponseCode(202).setBody(Long.toString(checkedInputStream.getChecksum().getValue()));
+        } else if (segments.size() == 4 && "PUT".equals(method)) {
+            return new MockResponse();
+        } else if (segments.size() == 4 && "DELETE".equals(method)) {
+            httpTransactions.remove(transactionPath);
+            ResponseCode responseCode = ResponseCode.fromCode(Integer.parseInt(requestUrl.queryParameter("responseCode")));
+            ResponseCode result;
+            if (responseCode == ResponseCode.CONFIRM_TRANSACTION) {
+                pendingTransaction.commit();
+                result = ResponseCode.TRANSACTION_FINISHED;
+            } else {
+                result = responseCode;
+            }
+            return createTransactionResultResponse(pendingTransaction.packets.size(), result);
+        }
+        return new MockResponse().setResponseCode(405);
+    }
+
+    private MockResponse handleHttpOutgoing(RecordedRequest request, List<String> segments, String transactionPath, boolean compressed) throws IOException {
+        String method = request.getMethod();
+        OutgoingTransaction outgoingTransaction = httpOutgoingTransactions.get(transactionPath);
+        if (outgoingTransaction == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        if (segments.size() == 5 && FLOW_FILES.equals(segments.get(4)) && "GET".equals(method)) {
+            if (!outgoingTransaction.take()) {
+                // Like NiFi, the transaction is dropped when there is nothing to send
+                httpOutgoingTransactions.remove(transactionPath);
+                return new MockResponse().setResponseCode(202);
+            }
+            Buffer body = new Buffer();
+            outgoingTransaction.write(new DataOutputStream(body.outputStream()), compressed, false);
+            return new MockResponse().setBody(body);
+        } else if (segments.size() == 4 && "PUT".equals(method)) {
+            return new MockResponse();
+        } else if (segments.size() == 4 && "DELETE".equals(method)) {
+            httpOutgoingTransactions.remove(transactionPath);
+            ResponseCode responseCode = ResponseCode.fromCode(Integer.parseInt(request.getRequestUrl().queryParameter("responseCode")));
+            if (responseCode != ResponseCode.CONFIRM_TRANSACTION) {
+                outgoingTransaction.requeue();
+                return createTransactionResultResponse(0, responseCode);
+            } else if (!Long.toString(outgoingTransaction.crc.getValue()).equals(request.getRequestUrl().queryParameter("checksum"))) {
+                outgoingTransaction.requeue();
+                return createTransactionResultResponse(0, ResponseCode.BAD_CHECKSUM).setResponseCode(400);
+            }
+            outgoingTransaction.commit();
+            return createTransactionResultResponse(outgoingTransaction.packets.size(), ResponseCode.CONFIRM_TRANSACTION);
+        }
+        return new MockResponse().setResponseCode(405);
+    }
+
+    private static MockResponse createTransactionResultResponse(int flowFileCount, ResponseCode responseCode) {
+        return new MockResponse().setBody("{\"" + TransactionResultParser.FLOW_FILE_SENT + "\":" + flowFileCount
+                + ",\"" + TransactionResultParser.RESPONSE_CODE + "\":" + responseCode.getCode() + "}");
+    }
+
+    private String getSiteToSiteJson() {
+        StringBuilder stringBuilder = new StringBuilder("{\"").append(SiteToSiteInfo.CONTROLLER).append("\":{\"")
+                .append(SiteToSiteInfo.REMOTE_SITE_LISTENING_PORT).append("\":").append(getRawPort()).append(",\"")
+                .append(SiteToSiteInfo.INPUT_PORTS).append("\":[");
+        boolean first = true;
+        for (Map.Entry<String, String> entry : inputPorts.entrySet()) {
+            if (!first) {
+                stringBuilder.append(",");
+            }
+            first = false;
+            stringBuilder.append("{\"").append(SiteToSiteInfo.ID).append("\":\"").append(entry.getValue()).append("\",\"")
+                    .append(SiteToSiteInfo.NAME).append("\":\"").append(entry.getKey()).append("\"}");
+        }
+        stringBuilder.append("],\"").append(SiteToSiteInfo.OUTPUT_PORTS).append("\":[");
+        first = true;
+        for (Map.Entry<String, String> entry : outputPorts.entrySet()) {
+            if (!first) {
+                stringBuilder.append(",");
+            }
+            first = false;
+            stringBuilder.append("{\"").append(SiteToSiteInfo.ID).append("\":\"").append(entry.getValue()).append("\",\"")
+                    .append(SiteToSiteInfo.NAME).append("\":\"").append(entry.getKey()).append("\"}");
+        }
+        return stringBuilder.append("]}}").toString();
+    }
+
+    private String getPeersJson() {
+        return "{\"" + PeerListParser.PEERS + "\":[{\"" + PeerListParser.HOSTNAME + "\":\"" + mockWebServer.getHostName() + "\",\""
+                + PeerListParser.PORT + "\":" + getHttpPort() + ",\"" + PeerListParser.SECURE + "\":false,\""
+                + PeerListParser.FLOW_FILE_COUNT + "\":" + receivedPacketCount.get() + "}]}";
+    }
+
+    private void acceptRawConnections() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            rawSockets.add(socket);
+            executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handleRaw(socket);
+                    } catch (IOException e) {
+                        // Client went away or broke the protocol, either way the connection is done
+                    } finally {
+                        rawSockets.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void handleRaw(Socket socket) throws IOException {
+        PushbackInputStream inputStream = new PushbackInputStream(new BufferedInputStream(new ThrottledInputStream(socket.getInputStream())), 3);
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        byte[] magicBytes = new byte[SocketPeerConnector.MAGIC_BYTES.length];
+        dataInputStream.readFully(magicBytes);
+        if (!Arrays.equals(SocketPeerConnector.MAGIC_BYTES, magicBytes) || shouldFail()) {
+            return;
+        }
+        int protocolVersion = negotiate(dataInputStream, dataOutputStream, SocketPeerConnector.SOCKET_FLOW_FILE_PROTOCOL, MAX_PROTOCOL_VERSION);
+
+        dataInputStream.readUTF();
+        if (protocolVersion >= 3) {
+            dataInputStream.readUTF();
+        }
+        Map<String, String> properties = new HashMap<>();
+        int numProperties = dataInputStream.readInt();
+        for (int i = 0; i < numProperties; i++) {
+            properties.put(dataInputStream.readUTF(), dataInputStream.readUTF());
+        }
+        sleepLatency();
+        String portIdentifier = properties.get(SocketPeerConnector.PORT_IDENTIFIER);
+        if (portIdentifier != null && !inputPorts.containsValue(portIdentifier) && !outputPorts.containsValue(portIdentifier)) {
+            ResponseCode.UNKNOWN_PORT.writeResponse(dataOutputStream);
+            dataOutputStream.flush();
+            return;
+        }
+        boolean compressed = Boolean.valueOf(properties.get(SocketPeerConnector.GZIP));
+        ResponseCode.PROPERTIES_OK.writeResponse(dataOutputStream);
+        dataOutputStream.flush();
+
+        while (true) {
+            RequestType requestType;
+            try {
+                requestType = RequestType.readRequestType(dataInputStream);
+            } catch (EOFException e) {
+                return;
+            }
+            if (shouldFail()) {
+                return;
+            }
+            switch (requestType) {
+                case NEGOTIATE_FLOWFILE_CODEC:
+                    negotiate(dataInputStream, dataOutputStream, SocketPeerConnector.STANDARD_FLOW_FILE_CODEC, MAX_CODEC_VERSION);
+                    break;
+                case REQUEST_PEER_LIST:
+                    sleepLatency();
+                    dataOutputStream.writeInt(1);
+                    dataOutputStream.writeUTF(mockWebServer.getHostName());
+                    dataOutputStream.writeInt(getRawPort());
+                    dataOutputStream.writeBoolean(false);
+                    dataOutputStream.writeInt((int) receivedPacketCount.get());
+                    dataOutputStream.flush();
+                    break;
+                case SEND_FLOWFILES:
+                    receiveRaw(inputStream, dataInputStream, dataOutputStream, compressed);
+                    break;
+                case RECEIVE_FLOWFILES:
+                    if (!outputPorts.containsValue(portIdentifier)) {
+                        throw new IOException("Not an output port " + portIdentifier);
+                    }
+                    sendRaw(new OutgoingTransaction(portIdentifier), dataInputStream, dataOutputStream, compressed);
+                    break;
+                case SHUTDOWN:
+                    return;
+                default:
+                    throw new IOException("Unsupported request type " + requestType);
+            }
+        }
+    }
+
+    private void receiveRaw(PushbackInputStream inputStream, DataInputStream dataInputStream, DataOutputStream dataOutputStream, boolean compressed) throws IOException {
+        PendingTransaction pendingTransaction = new PendingTransaction();
+        // Continue codes go through the compression stream but aren't part of the crc, the finish code is sent uncompressed
+        InputStream content = compressed ? new DecompressionInputStream(inputStream, null) : inputStream;
+        InputStream codeInputStream = compressed ? new FallThroughInputStream(content, inputStream) : inputStream;
+        CheckedInputStream checkedInputStream = new CheckedInputStream(content, new CRC32());
+        DataInputStream packetInputStream = new DataInputStream(checkedInputStream);
+        if (!isEmpty(inputStream, compressed)) {
+            while (true) {
+                pendingTransaction.readPacket(packetInputStream);
+                ResponseCode responseCode = ResponseCode.readCode(codeInputStream);
+                if (responseCode == ResponseCode.FINISH_TRANSACTION) {
+                    break;
+                } else if (responseCode != ResponseCode.CONTINUE_TRANSACTION) {
+                    throw new IOException("Unexpected response code " + responseCode);
+                }
+            }
+        } else {
+            ResponseCode.readCode(inputStream);
+        }
+        sleepLatency();
+        ResponseCode.CONFIRM_TRANSACTION.writeResponse(dataOutputStream, Long.toString(checkedInputStream.getChecksum().getValue()));
+        dataOutputStream.flush();
+
+        ResponseCode responseCode = ResponseCode.readCode(dataInputStream);
+        if (responseCode.containsMessage()) {
+            dataInputStream.readUTF();
+        }
+        sleepLatency();
+        if (responseCode == ResponseCode.CONFIRM_TRANSACTION) {
+            pendingTransaction.commit();
+            ResponseCode.TRANSACTION_FINISHED.writeResponse(dataOutputStream);
+        } else {
+            ResponseCode.CANCEL_TRANSACTION.writeResponse(dataOutputStream, "Transaction ended with " + responseCode);
+        }
+        dataOutputStream.flush();
+    }
+
+    private void sendRaw(OutgoingTransaction outgoingTransaction, DataInputStream dataInputStream, DataOutputStream dataOutputStream, boolean compressed) throws IOException {
+        sleepLatency();
+        if (!outgoingTransaction.take()) {
+            ResponseCode.NO_MORE_DATA.writeResponse(dataOutputStream);
+            dataOutputStream.flush();
+            return;
+        }
+        boolean committed = false;
+        try {
+            ResponseCode.MORE_DATA.writeResponse(dataOutputStream);
+            outgoingTransaction.write(dataOutputStream, compressed, true);
+            dataOutputStream.flush();
+
+            ResponseCode responseCode = ResponseCode.readCode(dataInputStream);
+            String message = responseCode.containsMessage() ? dataInputStream.readUTF() : null;
+            sleepLatency();
+            if (responseCode != ResponseCode.CONFIRM_TRANSACTION) {
+                return;
+            } else if (!Long.toString(outgoingTransaction.crc.getValue()).equals(message)) {
+                ResponseCode.BAD_CHECKSUM.writeResponse(dataOutputStream);
+                dataOutputStream.flush();
+                return;
+            }
+            ResponseCode.CONFIRM_TRANSACTION.writeResponse(dataOutputStream, "");
+            dataOutputStream.flush();
+
+            responseCode = ResponseCode.readCode(dataInputStream);
+            if (responseCode.containsMessage()) {
+                dataInputStream.readUTF();
+            }
+            if (responseCode == ResponseCode.TRANSACTION_FINISHED) {
+                outgoingTransaction.commit();
+                committed = true;
+            }
+        } finally {
+            if (!committed) {
+                outgoingTransaction.requeue();
+            }
+        }
+    }
+
+    private static boolean isEmpty(PushbackInputStream inputStream, boolean compressed) throws IOException {
+        if (compressed) {
+            // An empty compressed stream is just its end marker
+            int next = inputStream.read();
+            if (next == -1) {
+                throw new EOFException();
+            } else if (next == 0) {
+                return true;
+            }
+            inputStream.unread(next);
+            return false;
+        }
+        byte[] expected = ResponseCode.FINISH_TRANSACTION.getCodeSequence();
+        byte[] next = new byte[expected.length];
+        new DataInputStream(inputStream).readFully(next);
+        inputStream.unread(next);
+        return Arrays.equals(expected, next);
+    }
+
+    private int negotiate(DataInputStream dataInputStream, DataOutputStream dataOutputStream, String resourceName, int maxVersion) throws IOException {
+        while (true) {
+            String requestedResource = dataInputStream.readUTF();
+            int version = dataInputStream.readInt();
+            sleepLatency();
+            if (!resourceName.equals(requestedResource)) {
+                dataOutputStream.write(SocketPeerConnector.ABORT);
+                dataOutputStream.writeUTF("Unknown resource " + requestedResource);
+                dataOutputStream.flush();
+                throw new IOException("Unknown resource " + requestedResource);
+            }
+            if (version <= maxVersion) {
+                dataOutputStream.write(SocketPeerConnector.RESOURCE_OK);
+                dataOutputStream.flush();
+                return version;
+            }
+            dataOutputStream.write(SocketPeerConnector.DIFFERENT_RESOURCE_VERSION);
+            dataOutputStream.writeInt(maxVersion);
+            dataOutputStream.flush();
+        }
+    }
+
+    private boolean shouldFail() {
+        boolean fail;
+        while (true) {
+            int remaining = failuresToInject.get();
+            if (remaining <= 0) {
+                synchronized (random) {
+                    fail = random.nextDouble() < failureRate;
+                }
+                break;
+            } else if (failuresToInject.compareAndSet(remaining, remaining - 1)) {
+                fail = true;
+                break;
+            }
+        }
+        if (fail) {
+            injectedFailureCount.incrementAndGet();
+        }
+        return fail;
+    }
+
+    private void sleepLatency() throws InterruptedIOException {
+        long latencyNanos = this.latencyNanos;
+        if (latencyNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Packets received in a transaction that hasn't been confirmed yet
+     */
+    private class PendingTransaction {
+        private final List<DataPacket> packets = new ArrayList<>();
+        private long byteCount;
+        private byte[] skipBuffer;
+
+        private void readPacket(DataInputStream dataInputStream) throws IOException {
+            Map<String, String> attributes = new HashMap<>();
+            int numAttributes = dataInputStream.readInt();
+            for (int i = 0; i < numAttributes; i++) {
+                attributes.put(readString(dataInputStream), readString(dataInputStream));
+            }
+            long size = dataInputStream.readLong();
+            byte[] data;
+            if (recordPackets) {
+                data = new byte[(int) size];
+                dataInputStream.readFully(data);
+            } else {
+                data = null;
+                if (skipBuffer == null) {
+                    skipBuffer = new byte[8192];
+                }
+                for (long remaining = size; remaining > 0; ) {
+                    int read = (int) Math.min(skipBuffer.length, remaining);
+                    dataInputStream.readFully(skipBuffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            packets.add(data == null ? null : new ByteArrayDataPacket(attributes, data));
+            byteCount += size;
+        }
+
+        private String readString(DataInputStream dataInputStream) throws IOException {
+            byte[] bytes = new byte[dataInputStream.readInt()];
+            dataInputStream.readFully(bytes);
+            return new String(bytes, Charsets.UTF_8);
+        }
+
+        private void commit() {
+            if (recordPackets) {
+                receivedPackets.addAll(packets);
+            }
+            receivedPacketCount.addAndGet(packets.size());
+            receivedByteCount.addAndGet(byteCount);
+            completedTransactionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Packets taken from an output port queue that go back to its front unless the transaction is committed
+     */
+    private class OutgoingTransaction {
+        private final String portIdentifier;
+        private final CRC32 crc = new CRC32();
+        private List<DataPacket> packets = Collections.emptyList();
+
+        private OutgoingTransaction(String portIdentifier) {
+            this.portIdentifier = portIdentifier;
+        }
+
+        private boolean take() {
+            synchronized (outputQueues) {
+                LinkedList<DataPacket> queue = outputQueues.get(portIdentifier);
+                packets = new ArrayList<>(queue);
+                queue.clear();
+            }
+            return !packets.isEmpty();
+        }
+
+        /**
+         * Writes the packets like NiFi does, each one compressed on its own followed by a continue or finish code when
+         * sending over a socket
+         */
+        private void write(DataOutputStream dataOutputStream, boolean compressed, boolean writeCodes) throws IOException {
+            for (int i = 0; i < packets.size(); i++) {
+                OutputStream outputStream = compressed ? new CompressionOutputStream(dataOutputStream) : dataOutputStream;
+                DataOutputStream packetOutputStream = new DataOutputStream(new CheckedOutputStream(outputStream, crc));
+                DataPacket dataPacket = packets.get(i);
+                Map<String, String> attributes = dataPacket.getAttributes();
+                packetOutputStream.writeInt(attributes.size());
+                for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                    writeString(packetOutputStream, entry.getKey());
+                    writeString(packetOutputStream, entry.getValue());
+                }
+                packetOutputStream.writeLong(dataPacket.getSize());
+                InputStream data = dataPacket.getData();
+                try {
+                    IOUtils.copy(data, packetOutputStream);
+                } finally {
+                    data.close();
+                }
+                if (compressed) {
+                    outputStream.close();
+                }
+                if (writeCodes) {
+                    (i == packets.size() - 1 ? ResponseCode.FINISH_TRANSACTION : ResponseCode.CONTINUE_TRANSACTION).writeResponse(dataOutputStream);
+                }
+            }
+        }
+
+        private void writeString(DataOutputStream dataOutputStream, String value) throws IOException {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            dataOutputStream.writeInt(bytes.length);
+            dataOutputStream.write(bytes);
+        }
+
+        private void commit() {
+            sentPacketCount.addAndGet(packets.size());
+            completedTransactionCount.incrementAndGet();
+        }
+
+        private void requeue() {
+            synchronized (outputQueues) {
+                outputQueues.get(portIdentifier).addAll(0, packets);
+            }
+        }
+    }
+
+    /**
+     * Reads what {@link CompressionOutputStream} writes, ending at the first byte that doesn't start another chunk
+     */
+    private class DecompressionInputStream extends InputStream {
+        private final PushbackInputStream inputStream;
+        private final DataInputStream dataInputStream;
+        private final byte[] dictionary;
+        private final Inflater inflater = new Inflater();
+        private byte[] compressed = new byte[0];
+        private byte[] buffer = new byte[0];
+        private int index;
+        private int length;
+        private boolean first = true;
+        private boolean ended;
+
+        private DecompressionInputStream(PushbackInputStream inputStream, byte[] dictionary) {
+            this.inputStream = inputStream;
+            this.dictionary = dictionary;
+            this.dataInputStream = new DataInputStream(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (index == length && !nextChunk()) {
+                return -1;
+            }
+            return buffer[index++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (index == length && !nextChunk()) {
+                return -1;
+            }
+            int read = Math.min(len, length - index);
+            System.arraycopy(buffer, index, b, off, read);
+            index += read;
+            return read;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (!ended) {
+                int next = inputStream.read();
+                if (first) {
+                    first = false;
+                    if (next != CompressionOutputStream.SYNC_BYTES[0]) {
+                        end(next);
+                        return false;
+                    }
+                    inputStream.unread(next);
+                } else if (next != 1) {
+                    end(next);
+                    return false;
+                }
+                byte[] syncBytes = new byte[CompressionOutputStream.SYNC_BYTES.length];
+                dataInputStream.readFully(syncBytes);
+                if (!Arrays.equals(CompressionOutputStream.SYNC_BYTES, syncBytes)) {
+                    throw new IOException("Expected sync bytes");
+                }
+                int originalLength = dataInputStream.readInt();
+                int compressedLength = dataInputStream.readInt();
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[compressedLength];
+                }
+                dataInputStream.readFully(compressed, 0, compressedLength);
+                if (buffer.length < originalLength) {
+                    buffer = new byte[originalLength];
+                }
+                inflater.reset();
+                inflater.setInput(compressed, 0, compressedLength);
+                try {
+                    length = 0;
+                    while (length < originalLength && !inflater.finished()) {
+                        int inflated = inflater.inflate(buffer, length, originalLength - length);
+                        if (inflated == 0 && inflater.needsDictionary()) {
+                            if (dictionary == null) {
+                                throw new IOException("Chunk needs a dictionary that wasn't acknowledged");
+                            }
+                            inflater.setDictionary(dictionary);
+                            primedChunkCount.incrementAndGet();
+                            continue;
+                        }
+                        if (inflated == 0 && inflater.needsInput()) {
+                            throw new IOException("Truncated chunk");
+                        }
+                        length += inflated;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                }
+                index = 0;
+                if (length > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void end(int next) throws IOException {
+            ended = true;
+            // 0 marks the end of the compressed stream, anything else belongs to what comes after it
+            if (next != 0 && next != -1) {
+                inputStream.unread(next);
+            }
+        }
+    }
+
+    /**
+     * Reads from the first stream until it ends and then from the second
+     */
+    private static class FallThroughInputStream extends InputStream {
+        private final InputStream first;
+        private final InputStream second;
+        private boolean firstEnded;
+
+        private FallThroughInputStream(InputStream first, InputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!firstEnded) {
+                int read = first.read();
+                if (read != -1) {
+                    return read;
+                }
+                firstEnded = true;
+            }
+            return second.read();
+        }
+    }
+
+    /**
+     * Limits reads to the configured bandwidth
+     */
+    private class ThrottledInputStream extends FilterInputStream {
+        private final long startNanos = System.nanoTime();
+        private long totalRead;
+
+        private ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                throttle(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long bytesPerSecond = NiFiS2SStandInServer.this.bytesPerSecond;
+            if (bytesPerSecond > 0) {
+                len = (int) Math.min(len, Math.max(1, bytesPerSecond / 10));
+            }
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                throttle(read);
+            }
+            return read;
+        }
+
+        private void throttle(int read) throws InterruptedIOException {
+            totalRead += read;
+            long bytesPerSecond = NiFiS2SStandInServer.this.bytesPerSecond;
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long aheadNanos = TimeUnit.SECONDS.toNanos(totalRead) / bytesPerSecond - (System.nanoTime() - startNanos);
+            if (aheadNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private static class TcpNoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress ifAddress) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
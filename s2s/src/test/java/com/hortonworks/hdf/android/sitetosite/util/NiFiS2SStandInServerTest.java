@@ -0,0 +1,369 @@
+/*
+ * Copyright 2017 Hortonworks, Inc.
+ * All rights reserved.
+ *
+ *   Hortonworks, Inc. licenses this file to you under the Apache License, Version 2.0
+ *   (the "License"); you may not use this file except in compliance with
+ *   the License. You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ * See the associated NOTICE file for additional information regarding copyright ownership.
+ */
+
+package com.hortonworks.hdf.android.sitetosite.util;
+
+import com.hortonworks.hdf.android.sitetosite.client.ReceiveTransaction;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteClientConfig;
+import com.hortonworks.hdf.android.sitetosite.client.SiteToSiteRemoteCluster;
+import com.hortonworks.hdf.android.sitetosite.client.Transaction;
+import com.hortonworks.hdf.android.sitetosite.client.TransactionResult;
+import com.hortonworks.hdf.android.sitetosite.client.peer.Peer;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.CompressionDictionary;
+import com.hortonworks.hdf.android.sitetosite.client.protocol.ResponseCode;
+import com.hortonworks.hdf.android.sitetosite.client.socket.SocketPeerConnector;
+import com.hortonworks.hdf.android.sitetosite.client.transaction.TransactionSplitter;
+import com.hortonworks.hdf.android.sitetosite.packet.ByteArrayDataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.DataPacket;
+import com.hortonworks.hdf.android.sitetosite.packet.ReceivedDataPacket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NiFiS2SStandInServerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private NiFiS2SStandInServer server;
+
+    @Before
+    public void setup() throws IOException {
+        server = new NiFiS2SStandInServer();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testHttpSend() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(10, 1024);
+        send(createConfig(SiteToSiteRemoteCluster.ClientType.HTTP, false), dataPackets);
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testHttp2Send() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(10, 1024);
+        send(createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, false), dataPackets);
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testHttp2CompressedSend() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(10, 100 * 1024);
+        send(createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, true), dataPackets);
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testRawCompressedSend() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(10, 100 * 1024);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, true);
+        send(siteToSiteClientConfig, dataPackets);
+        send(siteToSiteClientConfig, dataPackets);
+        assertEquals(2, server.getCompletedTransactionCount());
+        assertEquals(20, server.getReceivedPacketCount());
+    }
+
+    @Test
+    public void testRawParallelCompressedSend() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(10, 100 * 1024);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, true);
+        siteToSiteClientConfig.setCompressionThreads(4);
+        send(siteToSiteClientConfig, dataPackets);
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testRawNioSendWithLatencyAndBandwidth() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(4, 64 * 1024);
+        server.setLatency(50, TimeUnit.MILLISECONDS);
+        server.setBandwidth(512 * 1024);
+        long start = System.nanoTime();
+        send(createConfig(SiteToSiteRemoteCluster.ClientType.RAW_NIO, false), dataPackets);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertReceived(dataPackets);
+        // 256k at 512k/s plus at least the confirmation round trips
+        assertTrue("Finished in " + elapsedMillis + "ms", elapsedMillis >= 500);
+    }
+
+    @Test
+    public void testInjectedFailure() throws IOException {
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, false);
+        siteToSiteClientConfig.setPortIdentifier(NiFiS2SStandInServer.DEFAULT_PORT_IDENTIFIER);
+        SocketPeerConnector socketPeerConnector = new SocketPeerConnector(new Peer("localhost", server.getHttpPort(), server.getRawPort(), false, 0),
+                siteToSiteClientConfig, siteToSiteClientConfig.getRemoteClusters().get(0));
+        server.injectFailures(1);
+        try {
+            socketPeerConnector.openConnection(true).close();
+            fail("Expected injected failure");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(1, server.getInjectedFailureCount());
+        socketPeerConnector.openConnection(true).close();
+    }
+
+    @Test
+    public void testRawReceive() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(10, 10 * 1024);
+        server.enqueue(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME, dataPackets);
+        receive(createConfig(SiteToSiteRemoteCluster.ClientType.RAW, false), dataPackets);
+    }
+
+    @Test
+    public void testRawCompressedReceive() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(10, 100 * 1024);
+        server.enqueue(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME, dataPackets);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, true);
+        receive(siteToSiteClientConfig, dataPackets);
+        receive(siteToSiteClientConfig, Collections.<DataPacket>emptyList());
+    }
+
+    @Test
+    public void testHttp2CompressedReceive() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(10, 100 * 1024);
+        server.enqueue(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME, dataPackets);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, true);
+        receive(siteToSiteClientConfig, dataPackets);
+        receive(siteToSiteClientConfig, Collections.<DataPacket>emptyList());
+    }
+
+    @Test
+    public void testCanceledReceiveIsRequeued() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(3, 1024);
+        server.enqueue(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME, dataPackets);
+        ReceiveTransaction receiveTransaction = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, false).createReceivingClient()
+                .createReceiveTransaction(temporaryFolder.getRoot());
+        receiveTransaction.receive().getFile().delete();
+        receiveTransaction.cancel();
+        awaitQueuedCount(3);
+        assertEquals(0, server.getSentPacketCount());
+    }
+
+    @Test
+    public void testHttp2DictionaryCompressedSend() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(10, 1024);
+        byte[] compressionDictionary = CompressionDictionary.train(dataPackets.iterator());
+        server.setCompressionDictionary(compressionDictionary);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, true);
+        siteToSiteClientConfig.setCompressionDictionary(compressionDictionary);
+        send(siteToSiteClientConfig, dataPackets);
+        assertReceived(dataPackets);
+        assertEquals(1, server.getPrimedChunkCount());
+    }
+
+    @Test
+    public void testHttp2UnacknowledgedDictionaryFallsBack() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(10, 1024);
+        server.setCompressionDictionary(new byte[]{1, 2, 3});
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, true);
+        siteToSiteClientConfig.setCompressionDictionary(CompressionDictionary.train(dataPackets.iterator()));
+        send(siteToSiteClientConfig, dataPackets);
+        assertReceived(dataPackets);
+        assertEquals(0, server.getPrimedChunkCount());
+    }
+
+    @Test
+    public void testRawSplitByCount() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(25, 1024);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, false);
+        siteToSiteClientConfig.setPreferredBatchCount(10);
+        siteToSiteClientConfig.setSplitTransactions(true);
+        TransactionResult transactionResult = TransactionSplitter.create(siteToSiteClientConfig.createClient(), siteToSiteClientConfig).send(dataPackets.iterator());
+        assertEquals(25, transactionResult.getFlowFilesSent());
+        assertEquals(ResponseCode.TRANSACTION_FINISHED, transactionResult.getResponseCode());
+        assertEquals(3, server.getCompletedTransactionCount());
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testHttp2SplitBySize() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(5, 1024);
+        dataPackets.addAll(createDataPackets(1, 8 * 1024));
+        dataPackets.addAll(createDataPackets(2, 1024));
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, true);
+        siteToSiteClientConfig.setPreferredBatchSize(3 * 1024);
+        siteToSiteClientConfig.setSplitTransactions(true);
+        TransactionResult transactionResult = TransactionSplitter.create(siteToSiteClientConfig.createClient(), siteToSiteClientConfig).send(dataPackets.iterator());
+        assertEquals(8, transactionResult.getFlowFilesSent());
+        // 3 + 2, the oversized packet on its own, then 2
+        assertEquals(4, server.getCompletedTransactionCount());
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testHttp2PipelinedSplitCreatesNoSpareTransaction() throws IOException {
+        useHttp2Server();
+        List<DataPacket> dataPackets = createDataPackets(25, 1024);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.HTTP2, false);
+        siteToSiteClientConfig.setPreferredBatchCount(10);
+        siteToSiteClientConfig.setSplitTransactions(true);
+        siteToSiteClientConfig.setPipelineTransactions(true);
+        TransactionResult transactionResult = TransactionSplitter.create(siteToSiteClientConfig.createClient(), siteToSiteClientConfig).send(dataPackets.iterator());
+        assertEquals(25, transactionResult.getFlowFilesSent());
+        assertEquals(3, server.getCompletedTransactionCount());
+        // The first two confirms pre-open the next transaction, the last one has nothing to pre-open for
+        assertEquals(3, server.getCreatedTransactionCount());
+        assertReceived(dataPackets);
+    }
+
+    @Test
+    public void testUnsplitIgnoresBatchLimits() throws IOException {
+        List<DataPacket> dataPackets = createDataPackets(25, 1024);
+        SiteToSiteClientConfig siteToSiteClientConfig = createConfig(SiteToSiteRemoteCluster.ClientType.RAW, false);
+        siteToSiteClientConfig.setPreferredBatchCount(10);
+        TransactionResult transactionResult = TransactionSplitter.create(siteToSiteClientConfig.createClient(), siteToSiteClientConfig).send(dataPackets.iterator());
+        assertEquals(25, transactionResult.getFlowFilesSent());
+        assertEquals(1, server.getCompletedTransactionCount());
+    }
+
+    private void useHttp2Server() throws IOException {
+        // The HTTP2 client speaks prior knowledge h2c to http peers
+        server.close();
+        server = new NiFiS2SStandInServer(true);
+    }
+
+    private SiteToSiteClientConfig createConfig(SiteToSiteRemoteCluster.ClientType clientType, boolean useCompression) {
+        SiteToSiteRemoteCluster siteToSiteRemoteCluster = new SiteToSiteRemoteCluster();
+        siteToSiteRemoteCluster.setUrls(Collections.singletonList(server.getNifiApiUrl()));
+        siteToSiteRemoteCluster.setClientType(clientType);
+        SiteToSiteClientConfig siteToSiteClientConfig = new SiteToSiteClientConfig();
+        siteToSiteClientConfig.setRemoteClusters(Collections.singletonList(siteToSiteRemoteCluster));
+        siteToSiteClientConfig.setPortName(NiFiS2SStandInServer.DEFAULT_PORT_NAME);
+        siteToSiteClientConfig.setOutputPortName(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME);
+        siteToSiteClientConfig.setUseCompression(useCompression);
+        return siteToSiteClientConfig;
+    }
+
+    private void send(SiteToSiteClientConfig siteToSiteClientConfig, List<DataPacket> dataPackets) throws IOException {
+        Transaction transaction = siteToSiteClientConfig.createClient().createTransaction();
+        for (DataPacket dataPacket : dataPackets) {
+            transaction.send(dataPacket);
+        }
+        transaction.confirm();
+        TransactionResult transactionResult = transaction.complete();
+        assertEquals(ResponseCode.TRANSACTION_FINISHED, transactionResult.getResponseCode());
+    }
+
+    private void receive(SiteToSiteClientConfig siteToSiteClientConfig, List<DataPacket> expected) throws IOException {
+        long sentPacketCount = server.getSentPacketCount();
+        ReceiveTransaction receiveTransaction = siteToSiteClientConfig.createReceivingClient().createReceiveTransaction(temporaryFolder.getRoot());
+        for (DataPacket dataPacket : expected) {
+            ReceivedDataPacket receivedDataPacket = receiveTransaction.receive();
+            assertEquals(dataPacket.getAttributes(), receivedDataPacket.getAttributes());
+            assertEquals(dataPacket.getSize(), receivedDataPacket.getSize());
+            assertEquals(temporaryFolder.getRoot(), receivedDataPacket.getFile().getParentFile());
+            assertArrayEquals(readFully(dataPacket.getData()), readFully(receivedDataPacket.getData()));
+            assertTrue(receivedDataPacket.getFile().delete());
+        }
+        assertNull(receiveTransaction.receive());
+        TransactionResult transactionResult = receiveTransaction.complete();
+        if (expected.isEmpty()) {
+            assertEquals(ResponseCode.NO_MORE_DATA, transactionResult.getResponseCode());
+        } else {
+            assertEquals(ResponseCode.TRANSACTION_FINISHED, transactionResult.getResponseCode());
+        }
+        // Nothing answers the finished code over a socket so the server may still be committing
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getSentPacketCount() < sentPacketCount + expected.size() && System.nanoTime() < deadline) {
+            sleep(10);
+        }
+        assertEquals(sentPacketCount + expected.size(), server.getSentPacketCount());
+        assertEquals(0, server.getQueuedCount(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME));
+    }
+
+    private void awaitQueuedCount(int count) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getQueuedCount(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME) < count && System.nanoTime() < deadline) {
+            sleep(10);
+        }
+        assertEquals(count, server.getQueuedCount(NiFiS2SStandInServer.DEFAULT_OUTPUT_PORT_NAME));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("Interrupted");
+        }
+    }
+
+    private void assertReceived(List<DataPacket> expected) throws IOException {
+        List<DataPacket> receivedPackets = server.getReceivedPackets();
+        assertEquals(expected.size(), receivedPackets.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAttributes(), receivedPackets.get(i).getAttributes());
+            assertArrayEquals(readFully(expected.get(i).getData()), readFully(receivedPackets.get(i).getData()));
+        }
+    }
+
+    private static List<DataPacket> createDataPackets(int count, int size) {
+        List<DataPacket> dataPackets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("index", Integer.toString(i));
+            byte[] data = new byte[size];
+            for (int j = 0; j < size; j++) {
+                data[j] = (byte) (i + j % 31);
+            }
+            dataPackets.add(new ByteArrayDataPacket(attributes, data));
+        }
+        return dataPackets;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                byteArrayOutputStream.write(buffer, 0, read);
+            }
+            return byteArrayOutputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}